@@ -1,25 +1,31 @@
 package edu.cmu.cs.anek.applier;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.jdt.core.ICompilationUnit;
-import org.eclipse.jdt.core.ISourceRange;
 import org.eclipse.jdt.core.ToolFactory;
+import org.eclipse.jdt.core.dom.CompilationUnit;
 import org.eclipse.jdt.core.dom.MethodDeclaration;
 import org.eclipse.jdt.core.dom.rewrite.ImportRewrite;
 import org.eclipse.jdt.core.formatter.CodeFormatter;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.Document;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.Region;
 import org.eclipse.text.edits.MultiTextEdit;
 import org.eclipse.text.edits.TextEdit;
 
 
 import edu.cmu.cs.anek.extractor.ExtractCommand;
-import edu.cmu.cs.anek.extractor.GraphExtractor;
+import edu.cmu.cs.anek.extractor.ParsedCommand;
 import edu.cmu.cs.anek.graph.Graph;
 import edu.cmu.cs.anek.graph.MethodGraph;
 import edu.cmu.cs.anek.util.Utilities;
@@ -47,6 +53,18 @@ public final class GraphApplier {
      */
     public static void applyGraph(Graph g, ExtractCommand command, 
             boolean commitWorkingCopies) throws CoreException {
+        applyGraph(g, ParsedCommand.parse(command), commitWorkingCopies);
+    }
+
+    /**
+     * Applies the permissions of the given graph to the JavaElements
+     * selected in the given parsed command. If the command was already
+     * used for extraction, its ASTs are reused as long as the files
+     * have not changed in the meantime.
+     * @throws CoreException 
+     */
+    public static void applyGraph(Graph g, ParsedCommand command, 
+            boolean commitWorkingCopies) throws CoreException {
         // first, we need to make a map of IDs to method graphs so
         // that we know which nodes to use for each method we visit
         Map<String,MethodGraph> methods_from_ids = createIDMethodMap(g);
@@ -61,21 +79,35 @@ public final class GraphApplier {
         return result;
     }
     
-    private static void goThroughCommand(ExtractCommand command, Map<String, MethodGraph> methodsFromIds, boolean commitWorkingCopies) throws CoreException {
-        for( ExtractCommand.CommandEntry entry : command ) {
-            // get the list of methods to visit
-            Iterable<MethodDeclaration> methods =
-                GraphExtractor.methodsToVisit(entry);
-            
-            ICompilationUnit cu = entry.getCompilationUnit();
-            Collection<AnnotationDiff> diffs = new LinkedList<AnnotationDiff>();
+    private static void goThroughCommand(final ParsedCommand command, 
+            final Map<String, MethodGraph> methodsFromIds, 
+            final boolean commitWorkingCopies) throws CoreException {
+        // One compilation unit at a time: the ASTs of a parsed command
+        // share their bindings, which are not thread-safe, and working
+        // copies should only be edited from one thread.
+        for( ICompilationUnit cu : command.getCompilationUnits() ) {
+            applyToCompilationUnit(cu, command, methodsFromIds, commitWorkingCopies);
+        }
+    }
+
+    /**
+     * Applies the graph to every selected method of one compilation
+     * unit. All edits, including new imports, are applied in one batch
+     * and only the changed lines are reformatted afterwards.
+     */
+    private static void applyToCompilationUnit(ICompilationUnit cu, ParsedCommand command,
+            Map<String, MethodGraph> methodsFromIds, 
+            boolean commitWorkingCopies) throws CoreException {
+        CompilationUnit ast = command.getAST(cu);
+        Collection<AnnotationDiff> diffs = new LinkedList<AnnotationDiff>();
+        
+        // make compilation unit the working copy, so changes will
+        // happen even if file is closed.
+        try {
+            cu.becomeWorkingCopy(null);
             
-            // make compilation unit the working copy, so changes will
-            // happen even if file is closed.
-            try {
-                cu.becomeWorkingCopy(null);
-                
-                for( MethodDeclaration method : methods ) {
+            for( ExtractCommand.CommandEntry entry : command.entriesFor(cu) ) {
+                for( MethodDeclaration method : ParsedCommand.methodsToVisit(entry, ast) ) {
                     String id = method.resolveBinding().getKey();
                     id = Utilities.legalNMToken(id);
 
@@ -86,50 +118,84 @@ public final class GraphApplier {
                         diffs.addAll(MethodApplier.apply(m_graph,method));
                     }
                 }
+            }
+            
+            // apply diffs
+            Set<String> types_added = new HashSet<String>();
+            MultiTextEdit mte = new MultiTextEdit();
+            for( AnnotationDiff diff : diffs ) {
+                types_added.addAll(diff.typesAdded());
+                diff.addDiffToEdit(mte);
+            }
+            if( !types_added.isEmpty() ) {
+                // Imports are computed from the AST we already have, against
+                // the same source as the diffs, so they go into the same edit.
+                // The import region always comes before any method.
+                ImportRewrite ir = ImportRewrite.create(ast, true);
+                for( String added_type : types_added )  
+                    ir.addImport(added_type);
+                mte.addChild(ir.rewriteImports(null));
+            }
+            if( !mte.hasChildren() )
+                return;
+            // Do them all at once so offsets are correct.
+            cu.applyTextEdit(mte, null);
+            
+            // Reformat code, but only the lines we touched. After being
+            // applied, the edits' regions refer to the new source.
+            String source = cu.getSource();
+            IRegion[] changed = changedLines(mte, source);
+            CodeFormatter formatter = ToolFactory.createCodeFormatter(null);
+            TextEdit indent_edit =
+                formatter.format(CodeFormatter.K_COMPILATION_UNIT, 
+                        source, changed, 0, null);
+            // When text cannot be formatted, what is the problem? Syntax errors?
+            if( indent_edit != null )
+                cu.applyTextEdit(indent_edit, null);
+            
+            // reconcile cu
+            cu.reconcile(ICompilationUnit.NO_AST, 
+                    false, null, null);
+            
+            // This can cause changes that cannot be undone, so we
+            // only want to do it if we're supposed to.
+            if( commitWorkingCopies )
+                cu.commitWorkingCopy(false, null);
+        } finally {
+            cu.discardWorkingCopy();
+        }
+    }
+
+    /**
+     * Given an applied edit, returns the sorted, non-overlapping
+     * regions of whole lines that it changed.
+     */
+    private static IRegion[] changedLines(MultiTextEdit applied, String source) {
+        Document doc = new Document(source);
+        List<IRegion> result = new ArrayList<IRegion>();
+        for( TextEdit child : applied.getChildren() ) {
+            if( child.isDeleted() )
+                continue;
+            try {
+                IRegion first = doc.getLineInformationOfOffset(child.getOffset());
+                IRegion last = doc.getLineInformationOfOffset(child.getExclusiveEnd());
+                int start = first.getOffset();
+                int end = last.getOffset() + last.getLength();
                 
-                // apply diffs
-                Set<String> types_added = new HashSet<String>();
-                MultiTextEdit mte = new MultiTextEdit();
-                for( AnnotationDiff diff : diffs ) {
-                    types_added.addAll(diff.typesAdded());
-                    diff.addDiffToEdit(mte);
-                }
-                // Do them all at once so offsets are correct.
-                cu.applyTextEdit(mte, null);
-                
-                if( cu.hasUnsavedChanges() ) {
-                    // Reorganize imports
-                    ImportRewrite ir = ImportRewrite.create(cu, true);
-                    for( String added_type : types_added )  
-                        ir.addImport(added_type);
-                    TextEdit import_edit = ir.rewriteImports(null);
-                    cu.applyTextEdit(import_edit, null);
-                    
-                    // Reformat code...
-                    CodeFormatter formatter = ToolFactory.createCodeFormatter(null);
-                    ISourceRange range = cu.getSourceRange();
-                    TextEdit indent_edit =
-                        formatter.format(CodeFormatter.K_COMPILATION_UNIT, 
-                            cu.getSource(),
-                            0, cu.getSource().length(),
-                            //range.getOffset(), range.getLength(), 
-                            0, null);
-                    // When text cannot be formatted, what is the problem? Syntax errors?
-                    if( indent_edit != null )
-                        cu.applyTextEdit(indent_edit, null);
-                    
-                    // reconcile cu
-                    cu.reconcile(ICompilationUnit.NO_AST, 
-                            false, null, null);
-                    
-                    // This can cause changes that cannot be undone, so we
-                    // only want to do it if we're supposed to.
-                    if( commitWorkingCopies )
-                        cu.commitWorkingCopy(false, null);
+                // children are sorted, so only the previous region can overlap
+                if( !result.isEmpty() ) {
+                    IRegion prev = result.get(result.size() - 1);
+                    if( prev.getOffset() + prev.getLength() >= start ) {
+                        start = prev.getOffset();
+                        result.remove(result.size() - 1);
+                    }
                 }
-            } finally {
-                cu.discardWorkingCopy();
+                result.add(new Region(start, end - start));
+            } catch (BadLocationException e) {
+                // Edit is outside of the document? Just format everything.
+                return new IRegion[] { new Region(0, source.length()) };
             }
         }
+        return result.toArray(new IRegion[result.size()]);
     }
 }
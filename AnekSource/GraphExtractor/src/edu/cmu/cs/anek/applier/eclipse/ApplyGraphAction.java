@@ -2,6 +2,7 @@ package edu.cmu.cs.anek.applier.eclipse;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 
 import javax.xml.parsers.ParserConfigurationException;
@@ -32,8 +33,11 @@ import edu.cmu.cs.anek.eclipse.Activator;
 import edu.cmu.cs.anek.eclipse.EclipseUtils;
 import edu.cmu.cs.anek.eclipse.PreferenceConstants;
 import edu.cmu.cs.anek.extractor.ExtractCommand;
+import edu.cmu.cs.anek.extractor.ParsedCommand;
 import edu.cmu.cs.anek.graph.Graph;
+import edu.cmu.cs.anek.input.BinaryToGraph;
 import edu.cmu.cs.anek.input.XMLToGraph;
+import edu.cmu.cs.anek.output.GraphBinaryFormat;
 import edu.cmu.cs.anek.util.Utilities;
 
 /**
@@ -126,21 +130,46 @@ public class ApplyGraphAction implements IObjectActionDelegate {
             IPath path) throws SAXException, IOException,
             FileNotFoundException,
             JavaModelException, CoreException, ParserConfigurationException {
-
-        // 2 - Validate xml file (if user has it selected)
-        if( Activator.getDefault().getPreferenceStore().getBoolean(PreferenceConstants.VALIDATE_PREF) ) {
-            Utilities.validate(path.toOSString());
-        }
-        
-        // 3 - Generate graph from XML
-        IFileSystem fs = EFS.getLocalFileSystem();
-        IFileStore file = fs.getStore(path);
-        Graph g = XMLToGraph.loadGraph(file.openInputStream(EFS.NONE, null));
-        
         // 4 - get command from selection, which shows
         //     which methods we might apply graph nodes to
         ExtractCommand command = ExtractCommand.commandFomSelection(elems);
         
+        applyGraphFromFile(ParsedCommand.parse(command), path);
+    }
+    
+    /**
+     * Given a file name/path and an already parsed command, this
+     * method will open the graph, validate it, and apply it to the
+     * methods of the command. If the command was parsed for extraction
+     * its ASTs are reused.
+     */
+    public static void applyGraphFromFile(ParsedCommand command,
+            IPath path) throws SAXException, IOException,
+            FileNotFoundException,
+            JavaModelException, CoreException, ParserConfigurationException {
+
+        IFileSystem fs = EFS.getLocalFileSystem();
+        IFileStore file = fs.getStore(path);
+        Graph g;
+        if( GraphBinaryFormat.isBinaryGraphFile(path.toOSString()) ) {
+            // 2/3 - Binary graphs have no schema to validate against
+            InputStream in = file.openInputStream(EFS.NONE, null);
+            try {
+                g = BinaryToGraph.loadGraph(in);
+            } finally {
+                in.close();
+            }
+        }
+        else {
+            // 2 - Validate xml file (if user has it selected)
+            if( Activator.getDefault().getPreferenceStore().getBoolean(PreferenceConstants.VALIDATE_PREF) ) {
+                Utilities.validate(path.toOSString());
+            }
+            
+            // 3 - Generate graph from XML
+            g = XMLToGraph.loadGraph(file.openInputStream(EFS.NONE, null));
+        }
+        
         // 5 - Apply structure to graph
         String commit_wc_ =
             Activator.getDefault().getPreferenceStore().getString(PreferenceConstants.COMMIT_WC_PREF);
@@ -160,7 +189,8 @@ public class ApplyGraphAction implements IObjectActionDelegate {
      */
     private String launchOpenDialog() {
         FileDialog dialog = new FileDialog(shell, SWT.OPEN);
-        dialog.setFilterExtensions(new String[]{"*.graphml"});
+        dialog.setFilterExtensions(new String[]{"*.graphml", 
+                "*." + GraphBinaryFormat.FILE_EXTENSION});
         String filename = dialog.open();
         return filename;
     }
@@ -28,6 +28,8 @@ import org.eclipse.ui.IWorkbenchPart;
 import org.xml.sax.SAXException;
 
 import edu.cmu.cs.anek.applier.eclipse.ApplyGraphAction;
+import edu.cmu.cs.anek.extractor.ExtractCommand;
+import edu.cmu.cs.anek.extractor.ParsedCommand;
 
 
 /**
@@ -75,8 +77,12 @@ public final class CompleteInferenceAction implements IObjectActionDelegate {
                     IPath input_file = randomXmlFileName("in");
                     IPath output_file = randomXmlFileName("out");
 
+                    // parse once, for both extraction and application
+                    ParsedCommand parsed = 
+                        ParsedCommand.parse(ExtractCommand.commandFomSelection(elems));
+                    
                     // generate graph
-                    ExtractGraphAction.extractGraphWriteToFile(elems, input_file);
+                    ExtractGraphAction.extractGraphWriteToFile(parsed, input_file);
 
                     // execute algorithm
                     String program_exe = 
@@ -106,7 +112,7 @@ public final class CompleteInferenceAction implements IObjectActionDelegate {
                         return;
                     
                     // apply graph
-                    ApplyGraphAction.applyGraphFromFileToElements(elems, output_file);
+                    ApplyGraphAction.applyGraphFromFile(parsed, output_file);
 
                     // delete temporary files
                     IFileSystem fs = EFS.getLocalFileSystem();
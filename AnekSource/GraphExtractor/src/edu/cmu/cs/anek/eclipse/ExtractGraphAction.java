@@ -1,5 +1,6 @@
 package edu.cmu.cs.anek.eclipse;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -31,8 +32,11 @@ import org.xml.sax.SAXException;
 
 import edu.cmu.cs.anek.extractor.ExtractCommand;
 import edu.cmu.cs.anek.extractor.GraphExtractor;
+import edu.cmu.cs.anek.extractor.ParsedCommand;
 import edu.cmu.cs.anek.graph.Graph;
+import edu.cmu.cs.anek.output.GraphBinaryFormat;
 import edu.cmu.cs.anek.output.GraphMLDoc;
+import edu.cmu.cs.anek.output.GraphToBinary;
 import edu.cmu.cs.anek.output.GraphToXML;
 import edu.cmu.cs.anek.util.Utilities;
 
@@ -104,17 +108,36 @@ public class ExtractGraphAction implements IObjectActionDelegate {
             SAXException, FileNotFoundException, CoreException {
         // 2 - Get a command from their selection
         ExtractCommand command = ExtractCommand.commandFomSelection(elements);
-                        
+        
+        extractGraphWriteToFile(ParsedCommand.parse(command), path);
+    }
+    
+    /**
+     * Extracts the graph of an already parsed command and writes it
+     * to the given path.
+     */
+    public static void extractGraphWriteToFile(ParsedCommand command,
+            IPath path) throws IOException,
+            SAXException, FileNotFoundException, CoreException {
         // 3 - Generate the graph
         Graph graph = GraphExtractor.extractGraph(command);
         
+        IFileSystem fs = EFS.getLocalFileSystem();
+        IFileStore file = fs.getStore(path);
+        
+        // 4b - binary files skip the XML entirely
+        if( GraphBinaryFormat.isBinaryGraphFile(path.toOSString()) ) {
+            OutputStream out = 
+                new BufferedOutputStream(file.openOutputStream(EFS.OVERWRITE, null));
+            GraphToBinary.graphToBinary(graph, out);
+            out.close();
+            return;
+        }
+        
         // 4 - convert graph to output
         GraphMLDoc xml = GraphToXML.graphToXML(graph);
         
         // 5 - write to file
-        IFileSystem fs = EFS.getLocalFileSystem();
-        IFileStore file = fs.getStore(path);
-        
         OutputStream out = file.openOutputStream(EFS.OVERWRITE, null);
         PrintWriter pw = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out)));
         xml.output(pw);
@@ -128,7 +151,8 @@ public class ExtractGraphAction implements IObjectActionDelegate {
 
     private String launchSaveDialog() {
 		FileDialog dialog = new FileDialog(shell, SWT.SAVE);
-		dialog.setFilterExtensions(new String[]{"*.graphml"});
+		dialog.setFilterExtensions(new String[]{"*.graphml", 
+		        "*." + GraphBinaryFormat.FILE_EXTENSION});
 		String filename = dialog.open();
 		return filename;
 	}
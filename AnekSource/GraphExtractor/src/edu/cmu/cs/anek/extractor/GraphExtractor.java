@@ -1,20 +1,12 @@
 package edu.cmu.cs.anek.extractor;
 
-import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.logging.Logger;
 
-import org.eclipse.jdt.core.IMethod;
-import org.eclipse.jdt.core.dom.AST;
-import org.eclipse.jdt.core.dom.ASTNode;
-import org.eclipse.jdt.core.dom.ASTParser;
-import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.JavaModelException;
 import org.eclipse.jdt.core.dom.ITypeBinding;
 import org.eclipse.jdt.core.dom.IVariableBinding;
 import org.eclipse.jdt.core.dom.MethodDeclaration;
@@ -47,8 +39,11 @@ import edu.cmu.cs.plural.alias.LocalAliasTransfer;
  */
 public class GraphExtractor {
 
+    private static final Logger log = Logger.getLogger(GraphExtractor.class.getName());
+
     // Create a method graph from a parsed method.
-    private static MethodGraph methodGraph(MethodDeclaration method, Map<ITypeBinding, StateHierarchy> hierarchiesMap) {
+    private static MethodGraph methodGraph(MethodDeclaration method, Map<ITypeBinding, StateHierarchy> hierarchiesMap,
+            GraphOptimization.Report optimizationReport) {
         CompilationUnitTACs cats = new CompilationUnitTACs();
         // Create an alias analysis
         ITACFlowAnalysis<AliasingLE> aliasAnalysis = new TACFlowAnalysis<AliasingLE>( 
@@ -60,7 +55,7 @@ public class GraphExtractor {
     	TACFlowAnalysis<TupleLatticeElement<Aliasing, VariableFlowAnalysis.PredLattice>> fa = 
     	    new TACFlowAnalysis<TupleLatticeElement<Aliasing, VariableFlowAnalysis.PredLattice>>(tf,cats); 
         GraphExtractorVisitor method_extractor = new GraphExtractorVisitor(fa,aliasAnalysis, 
-                hierarchiesMap);
+                hierarchiesMap, optimizationReport);
         // now, visit important nodes, using flow analysis to find predecessor
         // nodes.
     	return method_extractor.visitAndExtract(method);
@@ -70,63 +65,49 @@ public class GraphExtractor {
      * Extract a graph based on the given command.
      */
     public static Graph extractGraph(ExtractCommand command) {
-        // This implementation of this method is somewhat complex
-        // because I want to extract each file in parallel.
+        try {
+            return extractGraph(ParsedCommand.parse(command));
+        } catch (JavaModelException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Extract a graph based on the given, already parsed, command.
+     * The same parsed command can later be given to the applier
+     * so that files do not have to be parsed again. Methods are
+     * extracted one at a time, because the ASTs of a parsed command
+     * share bindings that are not thread-safe.
+     */
+    public static Graph extractGraph(ParsedCommand parsed) {
+        ExtractCommand command = parsed.getCommand();
 
-        final List<MethodGraph> method_graphs = Collections.synchronizedList(new LinkedList<MethodGraph>());
+        List<MethodGraph> method_graphs = new LinkedList<MethodGraph>();
 
         // A map that is populated lazily, containing the needed state hierarchies.
-        final Map<ITypeBinding, StateHierarchy> hierarchies_map = 
+        Map<ITypeBinding, StateHierarchy> hierarchies_map = 
             new HashMap<ITypeBinding,StateHierarchy>();
+        
+        // Graph sizes before and after each optimization pass
+        GraphOptimization.Report optimization_report = new GraphOptimization.Report();
 
-        // Just pretend that this is a parallel loop.
-        final Collection<Callable<Object>> tasks = new LinkedList<Callable<Object>>();
-        for( final CommandEntry entry : command ) {
-            tasks.add(Executors.callable((new Runnable() { public void run() {
-                try { 
-                    Iterable<MethodDeclaration> parsed_methods = methodsToVisit(entry);
-                    for( MethodDeclaration parsed_method : parsed_methods ) {
-                        // get method graphs
-                        method_graphs.add(methodGraph(parsed_method, hierarchies_map)); }}
-                catch(Exception e) { e.printStackTrace(); throw new RuntimeException(e); }
-            } })));
-        }
-
-        // run each command in parallel if appropriate
-        ExecutorService executor = command.size() <= 1 ? 
-                Executors.newSingleThreadExecutor() :
-                    Executors.newCachedThreadPool();
-        // join
-        try {
-            executor.<Object>invokeAll(tasks);
-        } catch (InterruptedException e1) {
-            throw new RuntimeException(e1);
+        for( CommandEntry entry : command ) {
+            Iterable<MethodDeclaration> parsed_methods;
+            try { 
+                parsed_methods = parsed.methodsToVisit(entry);
+            } catch (JavaModelException e) {
+                throw new RuntimeException(e);
+            }
+            for( MethodDeclaration parsed_method : parsed_methods ) {
+                // get method graphs
+                method_graphs.add(methodGraph(parsed_method, hierarchies_map,
+                        optimization_report));
+            }
         }
+        log.info(optimization_report.toString());
         Iterable<StateHierarchy> state_hierarchies = 
             hierarchies_map.values();
         return new Graph(method_graphs, state_hierarchies);
     }
 
-    // Parse compilation unit and return the parsed methods if they should
-    // be returned according to the entry.
-    public static Iterable<MethodDeclaration> methodsToVisit(final CommandEntry entry) {
-    	 ASTParser parser = ASTParser.newParser(AST.JLS3); 
-         parser.setResolveBindings(true); 
-         parser.setSource(entry.getCompilationUnit()); 
-         ASTNode root_node = parser.createAST(/* passing in monitor messes up previous monitor state */ null); 
-    
-         final List<MethodDeclaration> result = new LinkedList<MethodDeclaration>();
-         // Visit every method, add it to the resulting list if we are
-         // supposed to.
-         root_node.accept(new ASTVisitor(){
-    		@Override public void endVisit(MethodDeclaration node) {
-    			IMethod method_elem = (IMethod)node.resolveBinding().getJavaElement();
-    			if( entry.extractMethod(method_elem) ) {
-    				result.add(node);
-    			}
-    		}
-         });
-         return result;
-    }
-
 }
@@ -73,12 +73,16 @@ final class GraphExtractorVisitor extends ASTVisitor {
 	private final ITACFlowAnalysis<AliasingLE> aliasAnalysis;
     private Node returnNode;
     private Set<Node> allGraphNodes;
+    // Collects statistics of the graph optimizations
+    private final GraphOptimization.Report optimizationReport;
 		
 	GraphExtractorVisitor(TACFlowAnalysis<TupleLatticeElement<Aliasing, PredLattice>> analysis,
 	        ITACFlowAnalysis<AliasingLE> aliasAnalysis,
-	        Map<ITypeBinding, StateHierarchy> hierarchiesMap) {
+	        Map<ITypeBinding, StateHierarchy> hierarchiesMap,
+	        GraphOptimization.Report optimizationReport) {
 	    this.analysis = analysis;
 	    this.aliasAnalysis = aliasAnalysis;
+	    this.optimizationReport = optimizationReport;
 	    // One per method so that any permission caching is cleared.
 	    this.permExtractor = new PermissionExtractor(hierarchiesMap);
 	}
@@ -210,7 +214,7 @@ final class GraphExtractorVisitor extends ASTVisitor {
 	            erasedOverriddenMethodKeys(method_binding));
 	    
 	    // Any Optimization...
-	    result_ = GraphOptimization.removeMergeDeadends(result_);
+	    result_ = GraphOptimization.optimize(result_, optimizationReport);
 	    
 	    return result_;
 	}
@@ -0,0 +1,142 @@
+package edu.cmu.cs.anek.extractor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.cmu.cs.anek.graph.FieldLoad;
+import edu.cmu.cs.anek.graph.FieldStore;
+import edu.cmu.cs.anek.graph.MergeNode;
+import edu.cmu.cs.anek.graph.MethodGraph;
+import edu.cmu.cs.anek.graph.Node;
+import edu.cmu.cs.anek.graph.SplitNode;
+
+/**
+ * A mutable view of a {@link MethodGraph} for optimization passes.
+ * Besides the successors that every node already knows, it keeps a
+ * reverse adjacency index, so that removing a node only touches
+ * its own predecessors instead of every node in the graph.<br>
+ * <br>
+ * Removing nodes modifies the adjacency sets of the underlying
+ * {@link Node}s, so the original method graph should not be used
+ * once it has been indexed.
+ * <br>
+ * अनेक<br>
+ * Anek<br>
+ */
+final class GraphIndex {
+
+    private final MethodGraph method;
+
+    // Every node of the method, plus any node only reachable by edges.
+    private final Set<Node> nodes = new LinkedHashSet<Node>();
+
+    private final Map<Node,Set<Node>> predecessors = new HashMap<Node,Set<Node>>();
+
+    // Nodes that fields use as receivers, and that cannot be removed.
+    private final Set<Node> pinned = new HashSet<Node>();
+
+    private int edgeCount = 0;
+
+    GraphIndex(MethodGraph method) {
+        this.method = method;
+
+        List<Node> worklist = new LinkedList<Node>(method.getNodes());
+        nodes.addAll(method.getNodes());
+        while( !worklist.isEmpty() ) {
+            Node node = worklist.remove(0);
+            for( Node next : node.getAdjacentNodes() ) {
+                if( nodes.add(next) )
+                    worklist.add(next);
+            }
+        }
+
+        for( Node node : nodes ) {
+            for( Node next : node.getAdjacentNodes() ) {
+                predecessorSet(next).add(node);
+                edgeCount++;
+            }
+            if( node.getSpecifics() instanceof FieldLoad ) {
+                pinned.addAll(((FieldLoad) node.getSpecifics()).getReceivers());
+            }
+            else if( node.getSpecifics() instanceof FieldStore ) {
+                pinned.addAll(((FieldStore) node.getSpecifics()).getReceivers());
+            }
+        }
+    }
+
+    private Set<Node> predecessorSet(Node node) {
+        Set<Node> result = predecessors.get(node);
+        if( result == null ) {
+            result = new HashSet<Node>();
+            predecessors.put(node, result);
+        }
+        return result;
+    }
+
+    Collection<Node> nodes() {
+        return Collections.unmodifiableSet(nodes);
+    }
+
+    Collection<Node> predecessors(Node node) {
+        Set<Node> result = predecessors.get(node);
+        return result == null ? Collections.<Node>emptySet() :
+            Collections.unmodifiableSet(result);
+    }
+
+    Collection<Node> successors(Node node) {
+        return node.getAdjacentNodes();
+    }
+
+    int nodeCount() {
+        return nodes.size();
+    }
+
+    int edgeCount() {
+        return edgeCount;
+    }
+
+    /**
+     * Is this node one of the split or merge nodes that the extractor
+     * inserts, rather than a node that stands for a program element?
+     * Only these nodes may be removed by optimizations.
+     */
+    boolean isPlaceholder(Node node) {
+        return (node.getSpecifics() instanceof MergeNode ||
+                node.getSpecifics() instanceof SplitNode) &&
+                !pinned.contains(node);
+    }
+
+    /**
+     * Remove a node and all of its incoming and outgoing edges.
+     */
+    void remove(Node node) {
+        for( Node pred : predecessors(node) ) {
+            pred.removeAdjacent(node);
+            edgeCount--;
+        }
+        predecessors.remove(node);
+        for( Node succ : new ArrayList<Node>(node.getAdjacentNodes()) ) {
+            node.removeAdjacent(succ);
+            predecessorSet(succ).remove(node);
+            edgeCount--;
+        }
+        nodes.remove(node);
+    }
+
+    /**
+     * Create a new method graph from the nodes that remain.
+     */
+    MethodGraph toMethodGraph() {
+        Set<Node> remaining = new HashSet<Node>(method.getNodes());
+        remaining.retainAll(nodes);
+        return method.copyWithNewNodes(remaining);
+    }
+}
@@ -1,17 +1,28 @@
 package edu.cmu.cs.anek.extractor;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
-import edu.cmu.cs.anek.graph.FieldLoad;
-import edu.cmu.cs.anek.graph.FieldStore;
 import edu.cmu.cs.anek.graph.MergeNode;
 import edu.cmu.cs.anek.graph.MethodGraph;
 import edu.cmu.cs.anek.graph.Node;
 
 /**
- * Code for optimizing graphs by removing unnecessary nodes.<br>
+ * Code for optimizing graphs by removing unnecessary nodes. The
+ * optimizations are a sequence of {@link GraphPass}es that each run
+ * in time linear in the size of the graph, using the reverse
+ * adjacency index of a {@link GraphIndex}. Passes must not change
+ * the constraints that inference sees for the nodes that are kept,
+ * so only the split and merge nodes that the extractor inserts are
+ * ever removed, and only where no permission can flow between them
+ * and a node that stands for a program element.<br>
  * <br>
  * अनेक<br>
  * Anek<br>
@@ -20,47 +31,147 @@ import edu.cmu.cs.anek.graph.Node;
 final class GraphOptimization {
 
     /**
-     * Remove any MERGE nodes that have no children. This requires
-     * nodes to be removed as children from any predecessors.
+     * A single optimization over a method graph.
      */
-    static MethodGraph removeMergeDeadends(MethodGraph method) {
-        Set<Node> old_nodes = method.getNodes();
-        Set<Node> new_nodes = new HashSet<Node>(old_nodes);
-        Set<Node> to_remove = new LinkedHashSet<Node>();
-        
-        // First find all merges w/o children
-        for( Node node : old_nodes ) {
-            if( node.getSpecifics() instanceof MergeNode ) {
-                // Does it have children?
-                if( node.getAdjacentNodes().isEmpty() ) {
-                    // Don't add it to new_nodes... AND
-                    // remember to remove it as a child...
-                    to_remove.add(node);
-                }
+    interface GraphPass {
+        String name();
+        void run(GraphIndex graph);
+    }
+
+    /**
+     * The passes run by {@link #optimize}, in order.
+     */
+    static final List<GraphPass> DEFAULT_PASSES = Collections.unmodifiableList(
+            Arrays.<GraphPass>asList(new MergeDeadEndElimination(),
+                    new DisconnectedPruning()));
+
+    /**
+     * Run the default passes over the given method, adding the graph
+     * sizes before and after each pass to the given report.
+     */
+    static MethodGraph optimize(MethodGraph method, Report report) {
+        return optimize(method, DEFAULT_PASSES, report);
+    }
+
+    static MethodGraph optimize(MethodGraph method, List<GraphPass> passes, Report report) {
+        GraphIndex graph = new GraphIndex(method);
+        for( GraphPass pass : passes ) {
+            int nodes_before = graph.nodeCount();
+            int edges_before = graph.edgeCount();
+            pass.run(graph);
+            report.record(pass.name(), nodes_before, graph.nodeCount(),
+                    edges_before, graph.edgeCount());
+        }
+        report.recordMethod();
+        return graph.toMethodGraph();
+    }
+
+    /**
+     * Remove any MERGE nodes that have no children, as the extractor
+     * always did. Only the nodes that have no children in the extracted
+     * graph are removed; their predecessors are not checked again, and
+     * SPLIT nodes are kept, since a split without children still gives
+     * away part of its input.
+     */
+    static final class MergeDeadEndElimination implements GraphPass {
+        @Override
+        public String name() {
+            return "dead merge elimination";
+        }
+
+        @Override
+        public void run(GraphIndex graph) {
+            List<Node> dead = new LinkedList<Node>();
+            for( Node node : graph.nodes() ) {
+                if( graph.isPlaceholder(node) && 
+                        node.getSpecifics() instanceof MergeNode &&
+                        graph.successors(node).isEmpty() )
+                    dead.add(node);
             }
+            for( Node node : dead ) {
+                graph.remove(node);
+            }
+        }
+    }
+
+    /**
+     * Remove MERGE or SPLIT nodes that are not connected to any node
+     * that stands for a program element, in either direction. No
+     * permission can flow between them and the rest of the graph, so
+     * they add no constraints on the nodes that are kept.
+     */
+    static final class DisconnectedPruning implements GraphPass {
+        @Override
+        public String name() {
+            return "disconnected node pruning";
         }
-        
-        // Then, we don't want to remove the nodes if some
-        // fields are using it as a receiver
-        for( Node node : old_nodes ) {
-            if( node.getSpecifics() instanceof FieldLoad ) {
-                to_remove.removeAll(((FieldLoad) node.getSpecifics()).getReceivers());
+
+        @Override
+        public void run(GraphIndex graph) {
+            Set<Node> connected = new HashSet<Node>();
+            List<Node> worklist = new LinkedList<Node>();
+            for( Node node : graph.nodes() ) {
+                if( !graph.isPlaceholder(node) ) {
+                    connected.add(node);
+                    worklist.add(node);
+                }
             }
-            else if( node.getSpecifics() instanceof FieldStore ) {
-                to_remove.removeAll(((FieldStore) node.getSpecifics()).getReceivers());
+            while( !worklist.isEmpty() ) {
+                Node node = worklist.remove(0);
+                for( Node next : graph.successors(node) ) {
+                    if( connected.add(next) )
+                        worklist.add(next);
+                }
+                for( Node prev : graph.predecessors(node) ) {
+                    if( connected.add(prev) )
+                        worklist.add(prev);
+                }
+            }
+            for( Node node : new ArrayList<Node>(graph.nodes()) ) {
+                if( !connected.contains(node) )
+                    graph.remove(node);
             }
         }
-        
-        // Finally, remove those nodes from the adjacent sets
-        // of the remaining nodes.
-        for( Node node : new_nodes ) {
-            for( Node removed_node : to_remove ) {
-                // Usually this will do nothing...
-                node.removeAdjacent(removed_node);
+    }
+
+    /**
+     * Sums the sizes of the graphs before and after each pass over
+     * all of the methods that were optimized.
+     */
+    static final class Report {
+        // pass name -> {nodes before, nodes after, edges before, edges after}
+        private final Map<String,int[]> sizes = new LinkedHashMap<String,int[]>();
+        private int methods = 0;
+
+        void record(String pass, int nodesBefore, int nodesAfter,
+                int edgesBefore, int edgesAfter) {
+            int[] s = sizes.get(pass);
+            if( s == null ) {
+                s = new int[4];
+                sizes.put(pass, s);
+            }
+            s[0] += nodesBefore;
+            s[1] += nodesAfter;
+            s[2] += edgesBefore;
+            s[3] += edgesAfter;
+        }
+
+        void recordMethod() {
+            methods++;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder result = new StringBuilder("Graph optimization over ");
+            result.append(methods).append(" methods:");
+            for( Map.Entry<String,int[]> pass : sizes.entrySet() ) {
+                int[] s = pass.getValue();
+                result.append(MethodGraph.newline).append("  ");
+                result.append(pass.getKey()).append(": ");
+                result.append(s[0]).append(" -> ").append(s[1]).append(" nodes, ");
+                result.append(s[2]).append(" -> ").append(s[3]).append(" edges");
             }
+            return result.toString();
         }
-        
-        return method.copyWithNewNodes(new_nodes);
     }
-    
 }
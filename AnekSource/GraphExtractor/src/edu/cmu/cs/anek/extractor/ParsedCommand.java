@@ -0,0 +1,184 @@
+package edu.cmu.cs.anek.extractor;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IMethod;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.ASTRequestor;
+import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.MethodDeclaration;
+
+import edu.cmu.cs.anek.extractor.ExtractCommand.CommandEntry;
+
+/**
+ * An {@link ExtractCommand} whose compilation units have already
+ * been parsed, with bindings. The compilation units of each project
+ * are parsed in a single {@link ASTParser#createASTs} batch, which
+ * shares one binding environment between them and is much cheaper
+ * than parsing each one on its own. Extraction and application can then share the
+ * same ASTs, so that a complete inference only parses each file once.<br>
+ * <br>
+ * The ASTs are only valid as long as the source does not change. If
+ * a compilation unit has been modified since it was parsed, it is
+ * parsed again on demand.
+ * <br>
+ * अनेक<br>
+ * Anek<br>
+ */
+public final class ParsedCommand {
+
+    private final ExtractCommand command;
+
+    private final Map<ICompilationUnit, ParsedUnit> units;
+
+    private ParsedCommand(ExtractCommand command, Map<ICompilationUnit, ParsedUnit> units) {
+        this.command = command;
+        this.units = units;
+    }
+
+    /**
+     * Parse every compilation unit in the given command in one batch.
+     */
+    public static ParsedCommand parse(ExtractCommand command) throws JavaModelException {
+        // Several entries may share one compilation unit; parse it once.
+        final Map<ICompilationUnit, ParsedUnit> units =
+            new LinkedHashMap<ICompilationUnit, ParsedUnit>();
+        for( CommandEntry entry : command ) {
+            units.put(entry.getCompilationUnit(), null);
+        }
+        if( units.isEmpty() )
+            return new ParsedCommand(command, units);
+
+        final Map<ICompilationUnit, String> sources = new HashMap<ICompilationUnit, String>();
+        for( ICompilationUnit cu : units.keySet() ) {
+            sources.put(cu, cu.getSource());
+        }
+
+        // One batch per project, since bindings are resolved against
+        // the class path of a single project.
+        Map<IJavaProject, List<ICompilationUnit>> by_project =
+            new LinkedHashMap<IJavaProject, List<ICompilationUnit>>();
+        for( ICompilationUnit cu : units.keySet() ) {
+            if( !by_project.containsKey(cu.getJavaProject()) )
+                by_project.put(cu.getJavaProject(), new LinkedList<ICompilationUnit>());
+            by_project.get(cu.getJavaProject()).add(cu);
+        }
+
+        ASTRequestor requestor = new ASTRequestor() {
+            @Override
+            public void acceptAST(ICompilationUnit source, CompilationUnit ast) {
+                units.put(source, new ParsedUnit(ast, sources.get(source)));
+            }
+        };
+        for( Map.Entry<IJavaProject, List<ICompilationUnit>> project : by_project.entrySet() ) {
+            ASTParser parser = ASTParser.newParser(AST.JLS3);
+            parser.setResolveBindings(true);
+            parser.setProject(project.getKey());
+            ICompilationUnit[] cus =
+                project.getValue().toArray(new ICompilationUnit[project.getValue().size()]);
+            parser.createASTs(cus, new String[0], requestor,
+                    /* passing in monitor messes up previous monitor state */ null);
+        }
+
+        return new ParsedCommand(command, units);
+    }
+
+    /**
+     * The command that was parsed.
+     */
+    public ExtractCommand getCommand() {
+        return this.command;
+    }
+
+    /**
+     * The compilation units of this command, each one only once
+     * even if several entries refer to it.
+     */
+    public Collection<ICompilationUnit> getCompilationUnits() {
+        return Collections.unmodifiableSet(this.units.keySet());
+    }
+
+    /**
+     * The entries of the command that refer to the given
+     * compilation unit.
+     */
+    public List<CommandEntry> entriesFor(ICompilationUnit cu) {
+        List<CommandEntry> result = new LinkedList<CommandEntry>();
+        for( CommandEntry entry : command ) {
+            if( entry.getCompilationUnit().equals(cu) )
+                result.add(entry);
+        }
+        return result;
+    }
+
+    /**
+     * Return the parsed compilation unit, re-parsing it if its
+     * source has changed since it was parsed. Like the ASTs
+     * themselves, this is only meant to be used by one thread.
+     */
+    public CompilationUnit getAST(ICompilationUnit cu) throws JavaModelException {
+        ParsedUnit unit = units.get(cu);
+        String source = cu.getSource();
+        if( unit == null || !unit.isCurrent(source) ) {
+            ASTParser parser = ASTParser.newParser(AST.JLS3);
+            parser.setResolveBindings(true);
+            parser.setSource(cu);
+            unit = new ParsedUnit((CompilationUnit)parser.createAST(null), source);
+            units.put(cu, unit);
+        }
+        return unit.ast;
+    }
+
+    /**
+     * Return the parsed methods of the given entry that should be
+     * visited, according to the entry.
+     */
+    public Iterable<MethodDeclaration> methodsToVisit(CommandEntry entry) throws JavaModelException {
+        return methodsToVisit(entry, getAST(entry.getCompilationUnit()));
+    }
+
+    /**
+     * Return the methods in the given AST that should be visited
+     * according to the given entry.
+     */
+    public static List<MethodDeclaration> methodsToVisit(final CommandEntry entry, CompilationUnit root) {
+        final List<MethodDeclaration> result = new LinkedList<MethodDeclaration>();
+        // Visit every method, add it to the resulting list if we are
+        // supposed to.
+        root.accept(new ASTVisitor(){
+            @Override public void endVisit(MethodDeclaration node) {
+                IMethod method_elem = (IMethod)node.resolveBinding().getJavaElement();
+                if( entry.extractMethod(method_elem) ) {
+                    result.add(node);
+                }
+            }
+        });
+        return result;
+    }
+
+    private static final class ParsedUnit {
+        private final CompilationUnit ast;
+        // The source the AST was parsed from
+        private final String source;
+
+        ParsedUnit(CompilationUnit ast, String source) {
+            this.ast = ast;
+            this.source = source;
+        }
+
+        boolean isCurrent(String currentSource) {
+            return source != null && source.equals(currentSource);
+        }
+    }
+}
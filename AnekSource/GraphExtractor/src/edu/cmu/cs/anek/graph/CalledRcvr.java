@@ -2,6 +2,8 @@ package edu.cmu.cs.anek.graph;
 
 
 import edu.cmu.cs.anek.graph.permissions.Permission;
+import edu.cmu.cs.anek.output.GraphBinaryFormat;
+import edu.cmu.cs.anek.output.GraphBinaryOutput;
 import edu.cmu.cs.anek.util.Utilities;
 import edu.cmu.cs.crystal.util.Option;
 
@@ -76,6 +78,17 @@ public final class CalledRcvr implements NodeSpecifics {
             newline + prefix + "</plural:called-receiver>";
     }
 
+    @Override
+    public void toBinary(GraphBinaryOutput out) {
+        out.writeVarInt(GraphBinaryFormat.CALLED_RCVR);
+        out.writeVarLong(siteID);
+        out.writeEnum(dir);
+        perm.toBinary(out);
+        out.writeString(methodKey);
+        out.writeOptionalString(methodQualifiedName);
+        out.writeBoolean(isPrivate);
+    }
+
     @Override
     public Permission getPermission() {
         return this.perm;
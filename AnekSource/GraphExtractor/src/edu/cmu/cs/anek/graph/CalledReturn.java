@@ -2,6 +2,8 @@ package edu.cmu.cs.anek.graph;
 
 
 import edu.cmu.cs.anek.graph.permissions.Permission;
+import edu.cmu.cs.anek.output.GraphBinaryFormat;
+import edu.cmu.cs.anek.output.GraphBinaryOutput;
 import edu.cmu.cs.anek.util.Utilities;
 import edu.cmu.cs.crystal.util.Option;
 
@@ -53,6 +55,15 @@ public final class CalledReturn implements NodeSpecifics {
             newline + prefix + "</plural:called-return>";
     }
 
+    @Override
+    public void toBinary(GraphBinaryOutput out) {
+        out.writeVarInt(GraphBinaryFormat.CALLED_RETURN);
+        out.writeVarLong(siteID);
+        perm.toBinary(out);
+        out.writeString(methodKey);
+        out.writeOptionalString(methodQualifiedName);
+    }
+
 
     @Override
     public Permission getPermission() {
@@ -11,6 +11,8 @@ import org.eclipse.jdt.core.dom.ASTNode;
 
 
 import edu.cmu.cs.anek.graph.permissions.Permission;
+import edu.cmu.cs.anek.output.GraphBinaryFormat;
+import edu.cmu.cs.anek.output.GraphBinaryOutput;
 import edu.cmu.cs.anek.util.Utilities;
 
 /**
@@ -64,6 +66,17 @@ public final class FieldLoad implements NodeSpecifics {
             FieldStore.rcvrNodesToXML(rcvrNodes, prefix + "  ") + 
             newline + prefix + "</plural:field-load>";
     }
+
+    @Override
+    public void toBinary(GraphBinaryOutput out) {
+        out.writeVarInt(GraphBinaryFormat.FIELD_LOAD);
+        out.writeVarLong(siteID);
+        perm.toBinary(out);
+        out.writeString(key);
+        out.writeString(qualifiedName);
+        out.writeBoolean(isStatic);
+        FieldStore.rcvrNodesToBinary(rcvrNodes, out);
+    }
     
     private static long NEXT_ID = 0l;
     // TODO Really need to get rid of this map b/c it'll just build up over time.
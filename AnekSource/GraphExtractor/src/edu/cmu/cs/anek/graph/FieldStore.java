@@ -6,6 +6,8 @@ import java.util.Set;
 
 
 import edu.cmu.cs.anek.graph.permissions.Permission;
+import edu.cmu.cs.anek.output.GraphBinaryFormat;
+import edu.cmu.cs.anek.output.GraphBinaryOutput;
 import edu.cmu.cs.anek.util.Utilities;
 
 /**
@@ -54,6 +56,17 @@ public final class FieldStore implements NodeSpecifics {
             rcvrNodesToXML(receiverNodes, prefix + "  ") + 
             prefix + "</plural:field-store>";
     }
+
+    @Override
+    public void toBinary(GraphBinaryOutput out) {
+        out.writeVarInt(GraphBinaryFormat.FIELD_STORE);
+        out.writeVarLong(siteID);
+        perm.toBinary(out);
+        out.writeBoolean(isStatic);
+        out.writeString(key);
+        out.writeString(qualifiedName);
+        rcvrNodesToBinary(receiverNodes, out);
+    }
     
     static String rcvrNodesToXML(Set<Node> rns, String prefix) {
         StringBuilder result = new StringBuilder();
@@ -67,11 +80,26 @@ public final class FieldStore implements NodeSpecifics {
         return result.toString();
     }
 
+    static void rcvrNodesToBinary(Set<Node> rns, GraphBinaryOutput out) {
+        out.writeVarInt(rns.size());
+        for( Node rn : rns ) {
+            out.writeNode(rn);
+        }
+    }
+
     @Override
     public Permission getPermission() {
         return this.perm;
     }
 
+    /**
+     * Used when loading a graph, since receiver nodes may be
+     * created after this node.
+     */
+    public void addRcvrNode(Node rcvrNode) {
+        receiverNodes.add(rcvrNode);
+    }
+
     public Collection<Node> getReceivers() {
         return Collections.unmodifiableSet(this.receiverNodes);
     }
@@ -4,6 +4,8 @@ import java.util.concurrent.atomic.AtomicLong;
 
 import edu.cmu.cs.anek.graph.permissions.Permission;
 import edu.cmu.cs.anek.graph.permissions.UnGroundPermission;
+import edu.cmu.cs.anek.output.GraphBinaryFormat;
+import edu.cmu.cs.anek.output.GraphBinaryOutput;
 
 /**
  * A merge node is a node where a number of permissions come together.
@@ -57,4 +59,11 @@ public final class MergeNode implements NodeSpecifics {
             getPermission().toXML(prefix + "  ") + newline + 
             prefix + "</plural:merge>";
     }
+
+    @Override
+    public void toBinary(GraphBinaryOutput out) {
+        out.writeVarInt(GraphBinaryFormat.MERGE);
+        perm.toBinary(out);
+        out.writeString(key);
+    }
 }
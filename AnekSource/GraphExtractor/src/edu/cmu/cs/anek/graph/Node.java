@@ -6,6 +6,7 @@ import java.util.HashSet;
 import java.util.Set;
 
 import edu.cmu.cs.anek.graph.permissions.Permission;
+import edu.cmu.cs.anek.output.GraphBinaryOutput;
 
 /**
  * All nodes in a graph, regardless of what kind they are,
@@ -104,6 +105,16 @@ public final class Node {
         return result_.toString();
     }
 
+    /**
+     * Generate a representation in the binary graph format.
+     * Edges are written separately by the caller.
+     */
+    public void toBinary(GraphBinaryOutput out) {
+        out.writeString(typeName);
+        out.writeBoolean(isSynchronized);
+        this.specifics.toBinary(out);
+    }
+
     /**
      * Also known as the INSERT HACK HERE method.
      */
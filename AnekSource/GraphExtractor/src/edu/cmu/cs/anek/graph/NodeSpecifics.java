@@ -1,6 +1,7 @@
 package edu.cmu.cs.anek.graph;
 
 import edu.cmu.cs.anek.graph.permissions.Permission;
+import edu.cmu.cs.anek.output.GraphBinaryOutput;
 
 /**
  * Our graph consists of nodes. In many ways it is useful to treat
@@ -26,6 +27,12 @@ public interface NodeSpecifics {
      */
     public String toXML(String prefix);
 
+    /**
+     * Write this node's specifics in the binary graph format,
+     * starting with its tag from {@link edu.cmu.cs.anek.output.GraphBinaryFormat}.
+     */
+    public void toBinary(GraphBinaryOutput out);
+
     /**
      * Gets the permission associated with this node.
      */
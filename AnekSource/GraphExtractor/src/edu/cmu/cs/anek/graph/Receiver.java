@@ -2,6 +2,8 @@ package edu.cmu.cs.anek.graph;
 
 
 import edu.cmu.cs.anek.graph.permissions.Permission;
+import edu.cmu.cs.anek.output.GraphBinaryFormat;
+import edu.cmu.cs.anek.output.GraphBinaryOutput;
 import edu.cmu.cs.anek.util.Utilities;
 
 /**
@@ -52,6 +54,14 @@ public final class Receiver implements NodeSpecifics {
             newline + prefix + "</plural:this>";
     }
 
+    @Override
+    public void toBinary(GraphBinaryOutput out) {
+        out.writeVarInt(GraphBinaryFormat.RECEIVER);
+        out.writeEnum(direction);
+        permission.toBinary(out);
+        out.writeString(methodKey);
+    }
+
     @Override
     public Permission getPermission() {
         return this.permission;
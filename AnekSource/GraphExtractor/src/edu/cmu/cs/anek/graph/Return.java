@@ -2,6 +2,8 @@ package edu.cmu.cs.anek.graph;
 
 
 import edu.cmu.cs.anek.graph.permissions.Permission;
+import edu.cmu.cs.anek.output.GraphBinaryFormat;
+import edu.cmu.cs.anek.output.GraphBinaryOutput;
 import edu.cmu.cs.anek.util.Utilities;
 
 /**
@@ -46,6 +48,13 @@ public final class Return implements NodeSpecifics {
             newline + prefix + "</plural:return>";
     }
 
+    @Override
+    public void toBinary(GraphBinaryOutput out) {
+        out.writeVarInt(GraphBinaryFormat.RETURN);
+        perm.toBinary(out);
+        out.writeString(methodKey);
+    }
+
     @Override
     public Permission getPermission() {
         return this.perm;
@@ -4,6 +4,8 @@ import java.util.concurrent.atomic.AtomicLong;
 
 import edu.cmu.cs.anek.graph.permissions.Permission;
 import edu.cmu.cs.anek.graph.permissions.UnGroundPermission;
+import edu.cmu.cs.anek.output.GraphBinaryFormat;
+import edu.cmu.cs.anek.output.GraphBinaryOutput;
 
 /**
  * This node is a placeholder node that represents the split in
@@ -60,4 +62,11 @@ public final class SplitNode implements NodeSpecifics {
         getPermission().toXML(prefix + "  ") + newline + 
         prefix + "</plural:split>";
     }
+
+    @Override
+    public void toBinary(GraphBinaryOutput out) {
+        out.writeVarInt(GraphBinaryFormat.SPLIT);
+        perm.toBinary(out);
+        out.writeString(key);
+    }
 }
@@ -6,6 +6,8 @@ import java.util.WeakHashMap;
 import org.eclipse.jdt.core.dom.ASTNode;
 
 import edu.cmu.cs.anek.graph.permissions.Permission;
+import edu.cmu.cs.anek.output.GraphBinaryFormat;
+import edu.cmu.cs.anek.output.GraphBinaryOutput;
 import edu.cmu.cs.anek.util.Utilities;
 import edu.cmu.cs.crystal.util.Option;
 
@@ -87,6 +89,17 @@ public final class StandardArg implements NodeSpecifics {
             newline + prefix + "</plural:standard-argument>";
     }
 
+    @Override
+    public void toBinary(GraphBinaryOutput out) {
+        out.writeVarInt(GraphBinaryFormat.STANDARD_ARG);
+        out.writeVarLong(siteID);
+        out.writeVarInt(argPos);
+        out.writeEnum(dir);
+        perm.toBinary(out);
+        out.writeOptionalString(methodQualifiedName);
+        out.writeString(methodKey);
+    }
+
     @Override
     public Permission getPermission() {
         return this.perm;
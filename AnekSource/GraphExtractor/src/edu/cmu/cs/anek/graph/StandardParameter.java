@@ -2,6 +2,8 @@ package edu.cmu.cs.anek.graph;
 
 
 import edu.cmu.cs.anek.graph.permissions.Permission;
+import edu.cmu.cs.anek.output.GraphBinaryFormat;
+import edu.cmu.cs.anek.output.GraphBinaryOutput;
 import edu.cmu.cs.anek.util.Utilities;
 
 /**
@@ -58,6 +60,16 @@ public final class StandardParameter implements NodeSpecifics {
             newline + prefix + "</plural:standard-parameter>";
     }
 
+    @Override
+    public void toBinary(GraphBinaryOutput out) {
+        out.writeVarInt(GraphBinaryFormat.STANDARD_PARAMETER);
+        out.writeEnum(direction);
+        permission.toBinary(out);
+        out.writeString(key);
+        out.writeString(name);
+        out.writeVarInt(paramPos);
+    }
+
     @Override
     public Permission getPermission() {
         return this.permission;
@@ -4,6 +4,9 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
+import edu.cmu.cs.anek.output.GraphBinaryFormat;
+import edu.cmu.cs.anek.output.GraphBinaryOutput;
+
 public final class ConcretePermission implements Permission {
 
     private static final String TENSOR_STR = " (X) ";
@@ -59,6 +62,15 @@ public final class ConcretePermission implements Permission {
         return result_.toString();
     }
 
+    @Override
+    public void toBinary(GraphBinaryOutput out) {
+        out.writeVarInt(GraphBinaryFormat.CONCRETE_PERM);
+        out.writeVarInt(perms.size());
+        for( ConcretePermissionElement perm : perms ) {
+            perm.toBinary(out);
+        }
+    }
+
     public Set<ConcretePermissionElement> getPermissions() {
         return Collections.unmodifiableSet(this.perms);
     }
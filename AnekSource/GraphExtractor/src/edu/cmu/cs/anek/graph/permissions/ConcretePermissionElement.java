@@ -4,6 +4,7 @@ import java.util.Collections;
 import java.util.Set;
 
 import edu.cmu.cs.anek.graph.permissions.StateHierarchy.StateHierarchyNode;
+import edu.cmu.cs.anek.output.GraphBinaryOutput;
 
 /**
  * A concrete permission. Represents something like,  
@@ -75,6 +76,17 @@ public final class ConcretePermissionElement {
         return result_.toString();
     }
 
+    public void toBinary(GraphBinaryOutput out) {
+        out.writeEnum(kind);
+        out.writeString(guarantee.name());
+        out.writeFraction(fraction);
+        out.writeEnum(use);
+        out.writeVarInt(states.size());
+        for( StateHierarchyNode state : states ) {
+            out.writeString(state.name());
+        }
+    }
+
     /**
      * Is this permission of the same fraction as the other, given
      * permission?
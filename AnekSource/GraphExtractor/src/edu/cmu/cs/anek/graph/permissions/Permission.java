@@ -1,5 +1,7 @@
 package edu.cmu.cs.anek.graph.permissions;
 
+import edu.cmu.cs.anek.output.GraphBinaryOutput;
+
 /**
  * Interface representing all permissions, both concrete and
  * unground.
@@ -26,6 +28,11 @@ public interface Permission {
      * @param prefix 
      */
     public String toXML(String prefix);
+
+    /**
+     * Write this permission in the binary graph format.
+     */
+    public void toBinary(GraphBinaryOutput out);
     
     /**
      * If the permission is concrete, returns a new permission
@@ -129,20 +129,35 @@ public final class StateHierarchy {
     
     private final StateHierarchy.State alive;
     private final ITypeBinding type;
+    private final String typeName;
     private final Map<String,StateHierarchyNode> byName;
     
     public StateHierarchy(StateHierarchy.State alive, ITypeBinding type) {
+        this(alive, type, type.getQualifiedName());
+    }
+
+    /**
+     * Creates a hierarchy for a type that is only known by name,
+     * e.g., when the hierarchy is loaded from a file.
+     */
+    public StateHierarchy(StateHierarchy.State alive, String typeName) {
+        this(alive, null, typeName);
+    }
+
+    private StateHierarchy(StateHierarchy.State alive, ITypeBinding type, String typeName) {
         checkWellFormed(alive);
         this.byName = generateNameMap(alive, new HashMap<String,StateHierarchyNode>());
         this.alive = alive;
         this.type = type;
+        this.typeName = typeName;
     }
 
     /**
      * Copy constructor.
      */
     public StateHierarchy(StateHierarchy original) {
-        this(original.alive.copy(Option.<StateHierarchyNode>none()), original.type);
+        this(original.alive.copy(Option.<StateHierarchyNode>none()), 
+                original.type, original.typeName);
         
         // for each node in the old one, create a new node with the
         // same properties. Use the state/name node from the old one
@@ -196,10 +211,22 @@ public final class StateHierarchy {
         return this.byName.get(node);
     }
     
+    /**
+     * The type this hierarchy belongs to, or null if the
+     * hierarchy was loaded from a file.
+     * @see #getTypeName()
+     */
     public ITypeBinding getType() {
         return this.type;
     }
 
+    /**
+     * The qualified name of the type this hierarchy belongs to.
+     */
+    public String getTypeName() {
+        return this.typeName;
+    }
+
     public StateHierarchy.State getRoot() {
         return this.alive;
     }
@@ -1,5 +1,8 @@
 package edu.cmu.cs.anek.graph.permissions;
 
+import edu.cmu.cs.anek.output.GraphBinaryFormat;
+import edu.cmu.cs.anek.output.GraphBinaryOutput;
+
 /**
  * An unground permission... a permission that we may be trying
  * to infer.
@@ -39,6 +42,11 @@ public final class UnGroundPermission implements Permission {
         
     }
 
+    @Override
+    public void toBinary(GraphBinaryOutput out) {
+        out.writeVarInt(GraphBinaryFormat.UNGROUND_PERM);
+    }
+
     @Override
     public Permission copyWithNewUsage(PermissionUse use) {
         return this;
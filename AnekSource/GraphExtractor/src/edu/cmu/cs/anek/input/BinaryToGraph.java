@@ -0,0 +1,358 @@
+package edu.cmu.cs.anek.input;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import edu.cmu.cs.anek.graph.CalledRcvr;
+import edu.cmu.cs.anek.graph.CalledReturn;
+import edu.cmu.cs.anek.graph.FieldLoad;
+import edu.cmu.cs.anek.graph.FieldStore;
+import edu.cmu.cs.anek.graph.Graph;
+import edu.cmu.cs.anek.graph.MergeNode;
+import edu.cmu.cs.anek.graph.MethodGraph;
+import edu.cmu.cs.anek.graph.Node;
+import edu.cmu.cs.anek.graph.NodeSpecifics;
+import edu.cmu.cs.anek.graph.ParameterDirection;
+import edu.cmu.cs.anek.graph.Receiver;
+import edu.cmu.cs.anek.graph.Return;
+import edu.cmu.cs.anek.graph.SplitNode;
+import edu.cmu.cs.anek.graph.StandardArg;
+import edu.cmu.cs.anek.graph.StandardParameter;
+import edu.cmu.cs.anek.graph.permissions.ConcretePermission;
+import edu.cmu.cs.anek.graph.permissions.ConcretePermissionElement;
+import edu.cmu.cs.anek.graph.permissions.Fraction;
+import edu.cmu.cs.anek.graph.permissions.Permission;
+import edu.cmu.cs.anek.graph.permissions.PermissionKind;
+import edu.cmu.cs.anek.graph.permissions.PermissionUse;
+import edu.cmu.cs.anek.graph.permissions.StateHierarchy;
+import edu.cmu.cs.anek.graph.permissions.StateHierarchy.StateHierarchyNode;
+import edu.cmu.cs.anek.graph.permissions.UnGroundPermission;
+import edu.cmu.cs.anek.output.GraphBinaryFormat;
+import edu.cmu.cs.crystal.util.Option;
+
+/**
+ * This class allows us to load a graph written in the binary
+ * graph format back into a Graph, including its state hierarchies.
+ * It is the binary counterpart of {@link XMLToGraph}.
+ * <br>
+ * अनेक<br>
+ * Anek<br>
+ * @see GraphBinaryFormat
+ * @see edu.cmu.cs.anek.output.GraphToBinary
+ */
+public final class BinaryToGraph {
+
+    public static Graph loadGraph(InputStream i_stream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(i_stream));
+        return new BinaryToGraph(in).loadGraph();
+    }
+
+    private final DataInputStream in;
+
+    private String[] strings;
+
+    private Fraction[] fractions;
+
+    private BinaryToGraph(DataInputStream in) {
+        this.in = in;
+    }
+
+    private Graph loadGraph() throws IOException {
+        header();
+
+        int method_count = readVarInt();
+        List<MethodGraph> methods = new LinkedList<MethodGraph>();
+        for( int i = 0; i < method_count; i++ ) {
+            // length prefix lets other readers skip methods; we read them all
+            readVarInt();
+            methods.add(method());
+        }
+
+        int hierarchy_count = readVarInt();
+        List<StateHierarchy> hierarchies = new LinkedList<StateHierarchy>();
+        for( int i = 0; i < hierarchy_count; i++ ) {
+            String type_name = readString();
+            hierarchies.add(new StateHierarchy(state(), type_name));
+        }
+        return new Graph(methods, hierarchies);
+    }
+
+    private StateHierarchy.State state() throws IOException {
+        StateHierarchy.State state = new StateHierarchy.State(readString());
+        int dim_count = readVarInt();
+        for( int i = 0; i < dim_count; i++ ) {
+            StateHierarchy.Dimension dim = new StateHierarchy.Dimension(readString());
+            int state_count = readVarInt();
+            for( int j = 0; j < state_count; j++ ) {
+                StateHierarchy.State child = state();
+                child.setParent(dim);
+                dim.addChild(child);
+            }
+            dim.setParent(state);
+            state.addChild(dim);
+        }
+        return state;
+    }
+
+    private void header() throws IOException {
+        byte[] magic = new byte[GraphBinaryFormat.MAGIC.length];
+        in.readFully(magic);
+        for( int i = 0; i < magic.length; i++ ) {
+            if( magic[i] != GraphBinaryFormat.MAGIC[i] )
+                throw new IOException("Not a binary Anek graph.");
+        }
+        int version = readVarInt();
+        if( version != GraphBinaryFormat.VERSION )
+            throw new IOException("Unsupported binary graph version: " + version);
+
+        this.strings = new String[readVarInt()];
+        for( int i = 0; i < strings.length; i++ ) {
+            byte[] bytes = new byte[readVarInt()];
+            in.readFully(bytes);
+            strings[i] = new String(bytes, "UTF-8");
+        }
+
+        this.fractions = new Fraction[readVarInt()];
+        for( int i = 0; i < fractions.length; i++ ) {
+            fractions[i] = new Fraction();
+        }
+    }
+
+    private MethodGraph method() throws IOException {
+        String key = readString();
+        String name = readString();
+        boolean is_ctr = readBoolean();
+
+        Set<String> overridden = new HashSet<String>();
+        int overridden_count = readVarInt();
+        for( int i = 0; i < overridden_count; i++ ) {
+            overridden.add(readString());
+        }
+
+        int node_count = readVarInt();
+        int member_count = readVarInt();
+        List<Node> nodes = new ArrayList<Node>(node_count);
+        // Receiver nodes of field loads and stores may come later in
+        // the table, so we remember them and hook them up at the end.
+        List<int[]> receivers = new ArrayList<int[]>(node_count);
+        for( int i = 0; i < node_count; i++ ) {
+            String type_name = readString();
+            boolean synced = readBoolean();
+            List<Integer> node_receivers = new ArrayList<Integer>();
+            NodeSpecifics specs = nodeSpecifics(node_receivers);
+            nodes.add(new Node(type_name, specs, synced));
+            receivers.add(toArray(node_receivers));
+        }
+
+        for( int i = 0; i < node_count; i++ ) {
+            Node node = nodes.get(i);
+            int adjacent_count = readVarInt();
+            for( int j = 0; j < adjacent_count; j++ ) {
+                node.addAdjacentNode(readNode(nodes));
+            }
+            for( int rcvr : receivers.get(i) ) {
+                addReceiver(node.getSpecifics(), node(nodes, rcvr));
+            }
+        }
+
+        Set<Node> members = new HashSet<Node>(nodes.subList(0, member_count));
+        return new MethodGraph(members, key, name, is_ctr, overridden);
+    }
+
+    private NodeSpecifics nodeSpecifics(List<Integer> receivers) throws IOException {
+        int tag = readVarInt();
+        switch( tag ) {
+        case GraphBinaryFormat.STANDARD_PARAMETER: {
+            ParameterDirection dir = readEnum(ParameterDirection.values());
+            Permission perm = permission();
+            String key = readString();
+            String name = readString();
+            int pos = readVarInt();
+            return new StandardParameter(dir, perm, key, name, pos);
+        }
+        case GraphBinaryFormat.STANDARD_ARG: {
+            long site_id = readVarLong();
+            int arg_pos = readVarInt();
+            ParameterDirection dir = readEnum(ParameterDirection.values());
+            Permission perm = permission();
+            Option<String> m_name = readOptionalString();
+            String method_key = readString();
+            return new StandardArg(site_id, arg_pos, dir, perm, m_name, method_key);
+        }
+        case GraphBinaryFormat.RECEIVER: {
+            ParameterDirection dir = readEnum(ParameterDirection.values());
+            Permission perm = permission();
+            String method_key = readString();
+            return new Receiver(dir, perm, method_key);
+        }
+        case GraphBinaryFormat.CALLED_RCVR: {
+            long site_id = readVarLong();
+            ParameterDirection dir = readEnum(ParameterDirection.values());
+            Permission perm = permission();
+            String method_key = readString();
+            Option<String> m_name = readOptionalString();
+            boolean is_private = readBoolean();
+            return new CalledRcvr(site_id, dir, perm, method_key, m_name, is_private);
+        }
+        case GraphBinaryFormat.CALLED_RETURN: {
+            long site_id = readVarLong();
+            Permission perm = permission();
+            String method_key = readString();
+            Option<String> m_name = readOptionalString();
+            return new CalledReturn(site_id, perm, method_key, m_name);
+        }
+        case GraphBinaryFormat.RETURN: {
+            Permission perm = permission();
+            String method_key = readString();
+            return new Return(perm, method_key);
+        }
+        case GraphBinaryFormat.SPLIT: {
+            Permission perm = permission();
+            return new SplitNode(perm, readString());
+        }
+        case GraphBinaryFormat.MERGE: {
+            Permission perm = permission();
+            return new MergeNode(perm, readString());
+        }
+        case GraphBinaryFormat.FIELD_LOAD: {
+            long site_id = readVarLong();
+            Permission perm = permission();
+            String key = readString();
+            String field_name = readString();
+            boolean is_static = readBoolean();
+            readReceivers(receivers);
+            return new FieldLoad(site_id, perm, key, field_name, is_static);
+        }
+        case GraphBinaryFormat.FIELD_STORE: {
+            long site_id = readVarLong();
+            Permission perm = permission();
+            boolean is_static = readBoolean();
+            String key = readString();
+            String field_name = readString();
+            readReceivers(receivers);
+            // receivers are added once all nodes exist
+            return new FieldStore(site_id, perm, new HashSet<Node>(),
+                    is_static, key, field_name);
+        }
+        default:
+            throw new IOException("Unknown node tag: " + tag);
+        }
+    }
+
+    private void readReceivers(List<Integer> receivers) throws IOException {
+        int count = readVarInt();
+        for( int i = 0; i < count; i++ ) {
+            receivers.add(readVarInt());
+        }
+    }
+
+    private static void addReceiver(NodeSpecifics specs, Node rcvr) {
+        if( specs instanceof FieldLoad ) {
+            ((FieldLoad)specs).addRcvrNode(rcvr);
+        }
+        else if( specs instanceof FieldStore ) {
+            ((FieldStore)specs).addRcvrNode(rcvr);
+        }
+    }
+
+    private Permission permission() throws IOException {
+        int tag = readVarInt();
+        switch( tag ) {
+        case GraphBinaryFormat.UNGROUND_PERM:
+            return UnGroundPermission.INSTANCE;
+        case GraphBinaryFormat.CONCRETE_PERM: {
+            int count = readVarInt();
+            Set<ConcretePermissionElement> elems =
+                new HashSet<ConcretePermissionElement>();
+            for( int i = 0; i < count; i++ ) {
+                elems.add(concretePermElem());
+            }
+            return new ConcretePermission(elems);
+        }
+        default:
+            throw new IOException("Unknown permission tag: " + tag);
+        }
+    }
+
+    private ConcretePermissionElement concretePermElem() throws IOException {
+        PermissionKind kind = readEnum(PermissionKind.values());
+        // TODO Like XMLToGraph, just makes up nodes instead of using a hierarchy
+        StateHierarchyNode g_node = new StateHierarchy.State(readString());
+        Fraction fract = fractions[checkIndex(readVarInt(), fractions.length)];
+        PermissionUse usage = readEnum(PermissionUse.values());
+        int state_count = readVarInt();
+        Set<StateHierarchyNode> states = new HashSet<StateHierarchyNode>();
+        for( int i = 0; i < state_count; i++ ) {
+            states.add(new StateHierarchy.State(readString()));
+        }
+        return new ConcretePermissionElement(kind, fract, usage, g_node, states);
+    }
+
+    private Node readNode(List<Node> nodes) throws IOException {
+        return node(nodes, readVarInt());
+    }
+
+    private static Node node(List<Node> nodes, int idx) throws IOException {
+        return nodes.get(checkIndex(idx, nodes.size()));
+    }
+
+    private String readString() throws IOException {
+        return strings[checkIndex(readVarInt(), strings.length)];
+    }
+
+    private Option<String> readOptionalString() throws IOException {
+        int idx = readVarInt();
+        return idx == 0 ? Option.<String>none() :
+            Option.some(strings[checkIndex(idx - 1, strings.length)]);
+    }
+
+    private <E extends Enum<E>> E readEnum(E[] values) throws IOException {
+        return values[checkIndex(readVarInt(), values.length)];
+    }
+
+    private boolean readBoolean() throws IOException {
+        return in.readByte() != 0;
+    }
+
+    private int readVarInt() throws IOException {
+        long result = readVarLong();
+        if( result > Integer.MAX_VALUE )
+            throw new IOException("Varint out of range: " + result);
+        return (int)result;
+    }
+
+    private long readVarLong() throws IOException {
+        long result = 0;
+        for( int shift = 0; shift < 64; shift += 7 ) {
+            int b = in.read();
+            if( b < 0 )
+                throw new EOFException();
+            result |= (long)(b & 0x7F) << shift;
+            if( (b & 0x80) == 0 )
+                return result;
+        }
+        throw new IOException("Malformed varint.");
+    }
+
+    private static int checkIndex(int idx, int size) throws IOException {
+        if( idx < 0 || idx >= size )
+            throw new IOException("Index " + idx + " out of range " + size);
+        return idx;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] result = new int[list.size()];
+        for( int i = 0; i < result.length; i++ ) {
+            result[i] = list.get(i);
+        }
+        return result;
+    }
+}
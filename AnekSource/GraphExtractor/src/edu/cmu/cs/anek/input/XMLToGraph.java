@@ -2,9 +2,9 @@ package edu.cmu.cs.anek.input;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -82,9 +82,49 @@ public final class XMLToGraph {
         fractions = new HashMap<String,Fraction>();
     
     private static Map<String, StateHierarchy> hierarchies(Element root) {
-        // TODO this code does not actually load the
-        // state hierarchy.
-        return Collections.emptyMap();
+        Map<String, StateHierarchy> result = new LinkedHashMap<String, StateHierarchy>();
+        NodeList hier_elems = root.getElementsByTagName("plural:state-hierarchy");
+        for( int i=0;i<hier_elems.getLength();i++ ) {
+            Element hier_elem = (Element) hier_elems.item(i);
+            String type_name = hier_elem.getAttribute("type");
+            List<Element> alive_elems = childElements(hier_elem, "plural:state");
+            if( alive_elems.size() != 1 )
+                throw new RuntimeException("BAD XML");
+            result.put(type_name, 
+                    new StateHierarchy(state(alive_elems.get(0)), type_name));
+        }
+        return result;
+    }
+
+    // Given a <plural:state> element, return the state with
+    // its dimensions and their states.
+    private static StateHierarchy.State state(Element stateElem) {
+        StateHierarchy.State state = 
+            new StateHierarchy.State(stateElem.getAttribute("name"));
+        for( Element dim_elem : childElements(stateElem, "plural:dim") ) {
+            StateHierarchy.Dimension dim = 
+                new StateHierarchy.Dimension(dim_elem.getAttribute("name"));
+            for( Element child_elem : childElements(dim_elem, "plural:state") ) {
+                StateHierarchy.State child = state(child_elem);
+                child.setParent(dim);
+                dim.addChild(child);
+            }
+            dim.setParent(state);
+            state.addChild(dim);
+        }
+        return state;
+    }
+
+    // Only the direct children, unlike getElementsByTagName
+    private static List<Element> childElements(Element parent, String tagName) {
+        List<Element> result = new LinkedList<Element>();
+        NodeList children = parent.getChildNodes();
+        for( int i=0;i<children.getLength();i++ ) {
+            if( children.item(i) instanceof Element &&
+                    tagName.equals(((Element) children.item(i)).getTagName()) )
+                result.add((Element) children.item(i));
+        }
+        return result;
     }
 
     // Given elements known to be <graph>s, 
@@ -180,9 +220,11 @@ public final class XMLToGraph {
         Element specs_elem = 
             (Element) spec_data.getElementsByTagName("plural:node-specifics").item(0);
         
-        String typeName = type_data.getNodeValue();
+        // Make sure to get the FIRST CHILD, which is a text node...
+        String typeName = type_data.getFirstChild().getNodeValue();
         
-        boolean synced = Boolean.parseBoolean(sync_data.getNodeValue());
+        boolean synced = 
+            Boolean.parseBoolean(sync_data.getFirstChild().getNodeValue());
         
         NodeSpecifics specs = nodeSpecifics(specs_elem,key);
         return new Node(typeName,specs,synced);
@@ -0,0 +1,75 @@
+package edu.cmu.cs.anek.output;
+
+/**
+ * Constants shared by the writer and reader of the binary
+ * graph format. The binary format holds exactly the information
+ * of the GraphML output, method graphs and state hierarchies, but every string is stored once in a
+ * string table and every integer (node references, site IDs,
+ * table indices) is stored as an unsigned LEB128 varint.<br>
+ * <br>
+ * Layout of a file:
+ * <pre>
+ * magic       'A' 'N' 'E' 'K'
+ * version     varint
+ * strings     varint count, then (varint byte length, UTF-8 bytes)*
+ * fractions   varint count
+ * methods     varint count, then (varint byte length, method record)*
+ * hierarchies varint count, then (type name string ref, state record)*
+ * </pre>
+ * A method record is:
+ * <pre>
+ * key, name   string refs
+ * isctr       byte
+ * overrides   varint count, string refs
+ * nodes       varint total count, varint member count, node records
+ * edges       for each node, varint count then node refs
+ * </pre>
+ * The first 'member count' nodes are the nodes returned by
+ * {@link edu.cmu.cs.anek.graph.MethodGraph#getNodes()}; the rest are
+ * only reachable through edges or field receivers.
+ * <br>
+ * A state record is its name as a string ref, then a varint count
+ * of the dimensions that refine it, each of which is its name as a 
+ * string ref followed by a varint count and the state records of
+ * its states.
+ * <br>
+ * अनेक<br>
+ * Anek<br>
+ * @see GraphToBinary
+ * @see edu.cmu.cs.anek.input.BinaryToGraph
+ */
+public final class GraphBinaryFormat {
+
+    private GraphBinaryFormat() {}
+
+    /** File extension used for binary graph files. */
+    public static final String FILE_EXTENSION = "anekg";
+
+    public static final byte[] MAGIC = { 'A', 'N', 'E', 'K' };
+
+    public static final int VERSION = 2;
+
+    // Node specifics tags
+    public static final int STANDARD_PARAMETER = 0;
+    public static final int STANDARD_ARG = 1;
+    public static final int RECEIVER = 2;
+    public static final int CALLED_RCVR = 3;
+    public static final int CALLED_RETURN = 4;
+    public static final int RETURN = 5;
+    public static final int SPLIT = 6;
+    public static final int MERGE = 7;
+    public static final int FIELD_LOAD = 8;
+    public static final int FIELD_STORE = 9;
+
+    // Permission tags
+    public static final int UNGROUND_PERM = 0;
+    public static final int CONCRETE_PERM = 1;
+
+    /**
+     * Is the given file name one of a binary graph, judging by
+     * its extension?
+     */
+    public static boolean isBinaryGraphFile(String fileName) {
+        return fileName.endsWith("." + FILE_EXTENSION);
+    }
+}
@@ -0,0 +1,163 @@
+package edu.cmu.cs.anek.output;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import edu.cmu.cs.anek.graph.Node;
+import edu.cmu.cs.anek.graph.permissions.Fraction;
+import edu.cmu.cs.crystal.util.Option;
+
+/**
+ * The sink that nodes and permissions write themselves into when
+ * generating the binary graph format. Strings and fractions are
+ * interned into tables that are shared by all methods of a graph,
+ * while node references are indices into the node table of the
+ * method currently being written.
+ * <br>
+ * अनेक<br>
+ * Anek<br>
+ * @see GraphBinaryFormat
+ */
+public final class GraphBinaryOutput {
+
+    private final Map<String,Integer> strings =
+        new LinkedHashMap<String,Integer>();
+
+    private final Map<Fraction,Integer> fractions =
+        new HashMap<Fraction,Integer>();
+
+    private Map<Node,Integer> nodes = new HashMap<Node,Integer>();
+
+    private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+    GraphBinaryOutput() {}
+
+    public void writeVarLong(long value) {
+        if( value < 0 )
+            throw new IllegalArgumentException("Negative value: " + value);
+        try {
+            writeVarLong(buffer, value);
+        } catch (IOException e) {
+            // ByteArrayOutputStream does not throw
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void writeVarInt(int value) {
+        writeVarLong(value);
+    }
+
+    public void writeBoolean(boolean b) {
+        buffer.write(b ? 1 : 0);
+    }
+
+    public void writeEnum(Enum<?> e) {
+        writeVarInt(e.ordinal());
+    }
+
+    /**
+     * Writes a reference to the given string, adding it to the
+     * string table if it has not been seen before.
+     */
+    public void writeString(String str) {
+        writeVarInt(stringIndex(str));
+    }
+
+    /**
+     * Writes an optional string as its string reference plus one,
+     * or zero for none.
+     */
+    public void writeOptionalString(Option<String> str) {
+        if( str.isNone() )
+            writeVarInt(0);
+        else
+            writeVarInt(stringIndex(str.unwrap()) + 1);
+    }
+
+    private int stringIndex(String str) {
+        Integer idx = strings.get(str);
+        if( idx == null ) {
+            idx = strings.size();
+            strings.put(str, idx);
+        }
+        return idx;
+    }
+
+    public void writeFraction(Fraction fract) {
+        Integer idx = fractions.get(fract);
+        if( idx == null ) {
+            idx = fractions.size();
+            fractions.put(fract, idx);
+        }
+        writeVarInt(idx);
+    }
+
+    /**
+     * Writes a reference to a node of the method being written.
+     * @throws IllegalArgumentException if the node is not in the
+     * node table of the current method.
+     */
+    public void writeNode(Node node) {
+        Integer idx = nodes.get(node);
+        if( idx == null )
+            throw new IllegalArgumentException("Node not in method: " + node.nodeID());
+        writeVarInt(idx);
+    }
+
+    /**
+     * Start writing a new method with the given node table.
+     */
+    void beginMethod(Map<Node,Integer> nodeTable) {
+        this.buffer = new ByteArrayOutputStream();
+        this.nodes = nodeTable;
+    }
+
+    /**
+     * Finish the current method, returning its encoded bytes.
+     */
+    byte[] endMethod() {
+        byte[] result = buffer.toByteArray();
+        this.buffer = new ByteArrayOutputStream();
+        this.nodes = new HashMap<Node,Integer>();
+        return result;
+    }
+
+    /**
+     * Writes the header, string table and fraction count to the
+     * given stream. Must be called after all methods have been
+     * encoded, because only then are the tables complete.
+     */
+    void writeHeader(OutputStream out) throws IOException {
+        out.write(GraphBinaryFormat.MAGIC);
+        writeVarLong(out, GraphBinaryFormat.VERSION);
+        writeVarLong(out, strings.size());
+        for( String str : strings.keySet() ) {
+            byte[] bytes = utf8(str);
+            writeVarLong(out, bytes.length);
+            out.write(bytes);
+        }
+        writeVarLong(out, fractions.size());
+    }
+
+    static void writeVarLong(OutputStream out, long value) throws IOException {
+        while( (value & ~0x7FL) != 0 ) {
+            out.write((int)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int)value);
+    }
+
+    private static byte[] utf8(String str) {
+        try {
+            return str.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always supported
+            throw new RuntimeException(e);
+        }
+    }
+}
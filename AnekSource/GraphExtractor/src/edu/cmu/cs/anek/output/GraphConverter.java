@@ -0,0 +1,46 @@
+package edu.cmu.cs.anek.output;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.xml.sax.SAXException;
+
+import edu.cmu.cs.anek.graph.Graph;
+import edu.cmu.cs.anek.input.BinaryToGraph;
+import edu.cmu.cs.anek.input.XMLToGraph;
+
+/**
+ * Converts between the GraphML and the binary graph formats, so
+ * that tools that only understand one of them can still be used.
+ * Method graphs and state hierarchies are kept in both directions.
+ * <br>
+ * अनेक<br>
+ * Anek<br>
+ */
+public final class GraphConverter {
+
+    /**
+     * Reads a GraphML document and writes it in the binary graph
+     * format. Does not close either stream.
+     */
+    public static void xmlToBinary(InputStream xml, OutputStream binary)
+            throws SAXException, IOException, ParserConfigurationException {
+        Graph g = XMLToGraph.loadGraph(xml);
+        GraphToBinary.graphToBinary(g, binary);
+    }
+
+    /**
+     * Reads a graph in the binary format and writes it as a
+     * GraphML document. Does not close either stream.
+     */
+    public static void binaryToXML(InputStream binary, PrintWriter xml)
+            throws IOException {
+        Graph g = BinaryToGraph.loadGraph(binary);
+        GraphToXML.graphToXML(g).output(xml);
+        xml.flush();
+    }
+}
@@ -0,0 +1,139 @@
+package edu.cmu.cs.anek.output;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.cmu.cs.anek.graph.FieldLoad;
+import edu.cmu.cs.anek.graph.FieldStore;
+import edu.cmu.cs.anek.graph.Graph;
+import edu.cmu.cs.anek.graph.MethodGraph;
+import edu.cmu.cs.anek.graph.Node;
+import edu.cmu.cs.anek.graph.permissions.StateHierarchy;
+
+/**
+ * Static methods for converting a {@link Graph} into the compact
+ * binary graph format. This is the binary counterpart of
+ * {@link GraphToXML}; it holds the same method graphs and state
+ * hierarchies but stores each string once, so the long method keys that are repeated on
+ * every node and edge of the GraphML only cost a varint each.
+ * <br>
+ * अनेक<br>
+ * Anek<br>
+ * @see GraphBinaryFormat
+ */
+public final class GraphToBinary {
+
+    /**
+     * Writes the given graph to the given stream in the binary
+     * graph format. Does not close the stream.
+     */
+    public static void graphToBinary(Graph g, OutputStream out) throws IOException {
+        GraphBinaryOutput sink = new GraphBinaryOutput();
+
+        // Methods must be encoded before the header can be written,
+        // since only then are the string and fraction tables complete.
+        List<byte[]> methods = new ArrayList<byte[]>();
+        for( MethodGraph method : g.getMethods() ) {
+            Map<Node,Integer> node_table = nodeTable(method);
+            sink.beginMethod(node_table);
+            method(method, node_table.keySet(), sink);
+            methods.add(sink.endMethod());
+        }
+
+        // Hierarchies do not refer to nodes, so they get an empty node table
+        int hierarchy_count = 0;
+        sink.beginMethod(Collections.<Node,Integer>emptyMap());
+        for( StateHierarchy hier : g.getHierarchies() ) {
+            sink.writeString(hier.getTypeName());
+            state(hier.getRoot(), sink);
+            hierarchy_count++;
+        }
+        byte[] hierarchies = sink.endMethod();
+
+        sink.writeHeader(out);
+        GraphBinaryOutput.writeVarLong(out, methods.size());
+        for( byte[] method : methods ) {
+            GraphBinaryOutput.writeVarLong(out, method.length);
+            out.write(method);
+        }
+        GraphBinaryOutput.writeVarLong(out, hierarchy_count);
+        out.write(hierarchies);
+        out.flush();
+    }
+
+    private static void state(StateHierarchy.State state, GraphBinaryOutput sink) {
+        sink.writeString(state.name());
+        sink.writeVarInt(state.getChildren().size());
+        for( StateHierarchy.Dimension dim : state.getChildren() ) {
+            sink.writeString(dim.name());
+            sink.writeVarInt(dim.getChildren().size());
+            for( StateHierarchy.State child : dim.getChildren() ) {
+                state(child, sink);
+            }
+        }
+    }
+
+    private static void method(MethodGraph method, Collection<Node> nodes,
+            GraphBinaryOutput sink) {
+        sink.writeString(method.id());
+        sink.writeString(method.methodName());
+        sink.writeBoolean(method.isConstructor());
+
+        sink.writeVarInt(method.getOverridenNodes().size());
+        for( String overridden : method.getOverridenNodes() ) {
+            sink.writeString(overridden);
+        }
+
+        sink.writeVarInt(nodes.size());
+        sink.writeVarInt(method.getNodes().size());
+        for( Node node : nodes ) {
+            node.toBinary(sink);
+        }
+
+        for( Node node : nodes ) {
+            Collection<Node> adjacent = node.getAdjacentNodes();
+            sink.writeVarInt(adjacent.size());
+            for( Node target : adjacent ) {
+                sink.writeNode(target);
+            }
+        }
+    }
+
+    /**
+     * Assigns an index to every node of the method. The nodes of
+     * the method come first, followed by any node that can only be
+     * reached through edges or field receivers.
+     */
+    private static Map<Node,Integer> nodeTable(MethodGraph method) {
+        Map<Node,Integer> result = new LinkedHashMap<Node,Integer>();
+        for( Node node : method.getNodes() ) {
+            result.put(node, result.size());
+        }
+        List<Node> worklist = new ArrayList<Node>(method.getNodes());
+        while( !worklist.isEmpty() ) {
+            Node node = worklist.remove(worklist.size() - 1);
+            for( Node next : successors(node) ) {
+                if( !result.containsKey(next) ) {
+                    result.put(next, result.size());
+                    worklist.add(next);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static Collection<Node> successors(Node node) {
+        List<Node> result = new ArrayList<Node>(node.getAdjacentNodes());
+        if( node.getSpecifics() instanceof FieldLoad )
+            result.addAll(((FieldLoad)node.getSpecifics()).getReceivers());
+        else if( node.getSpecifics() instanceof FieldStore )
+            result.addAll(((FieldStore)node.getSpecifics()).getReceivers());
+        return result;
+    }
+}
@@ -57,7 +57,7 @@ public final class GraphToXML {
         List<String> result = new LinkedList<String>();
         for( StateHierarchy hier : g.getHierarchies() ) {
             StringBuilder builder = new StringBuilder("<plural:state-hierarchy type=\"");
-            builder.append(hier.getType().getQualifiedName());
+            builder.append(hier.getTypeName());
             builder.append("\">");
             builder.append(newline);
             builder.append(states(Collections.singleton(hier.getRoot()), ""));
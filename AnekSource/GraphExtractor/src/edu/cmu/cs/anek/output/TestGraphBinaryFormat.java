@@ -0,0 +1,124 @@
+package edu.cmu.cs.anek.output;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import edu.cmu.cs.anek.graph.Graph;
+import edu.cmu.cs.anek.graph.MethodGraph;
+import edu.cmu.cs.anek.graph.Node;
+import edu.cmu.cs.anek.graph.permissions.StateHierarchy;
+import edu.cmu.cs.anek.input.BinaryToGraph;
+
+/**
+ * Round trips through the binary graph format and the
+ * conversion to GraphML.
+ * <br>
+ * अनेक<br>
+ * Anek<br>
+ */
+public class TestGraphBinaryFormat {
+
+    @Test
+    public void testBinaryRoundTrip() throws Exception {
+        Graph g = exampleGraph();
+        Graph loaded = BinaryToGraph.loadGraph(new ByteArrayInputStream(toBinary(g)));
+
+        Iterator<MethodGraph> methods = loaded.getMethods().iterator();
+        assertTrue(methods.hasNext());
+        MethodGraph method = methods.next();
+        assertEquals("LFile;.open()V", method.id());
+        assertEquals("open", method.methodName());
+        assertFalse(method.isConstructor());
+        assertFalse(methods.hasNext());
+
+        assertEquals(describe(g), describe(loaded));
+    }
+
+    @Test
+    public void testConversionKeepsHierarchies() throws Exception {
+        Graph g = exampleGraph();
+        StringWriter xml = new StringWriter();
+        GraphConverter.binaryToXML(new ByteArrayInputStream(toBinary(g)), new PrintWriter(xml));
+
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        GraphConverter.xmlToBinary(new ByteArrayInputStream(xml.toString().getBytes("UTF-8")), binary);
+        Graph loaded = BinaryToGraph.loadGraph(new ByteArrayInputStream(binary.toByteArray()));
+
+        assertEquals(describe(g), describe(loaded));
+    }
+
+    private static byte[] toBinary(Graph g) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GraphToBinary.graphToBinary(g, out);
+        return out.toByteArray();
+    }
+
+    // alive refined by dimension D into Open and Closed,
+    // with Open refined again by dimension E into Read and Eof
+    private static Graph exampleGraph() {
+        StateHierarchy.State alive = new StateHierarchy.State("alive");
+        StateHierarchy.Dimension d = dimension(alive, "D");
+        StateHierarchy.State open = state(d, "Open");
+        state(d, "Closed");
+        StateHierarchy.Dimension e = dimension(open, "E");
+        state(e, "Read");
+        state(e, "Eof");
+
+        StateHierarchy.State empty = new StateHierarchy.State("alive");
+
+        MethodGraph method = new MethodGraph(new HashSet<Node>(), "LFile;.open()V",
+                "open", false, Collections.<String>emptySet());
+        return new Graph(Collections.singletonList(method),
+                Arrays.asList(new StateHierarchy(alive, "File"),
+                        new StateHierarchy(empty, "Empty")));
+    }
+
+    private static StateHierarchy.Dimension dimension(StateHierarchy.State parent, String name) {
+        StateHierarchy.Dimension result = new StateHierarchy.Dimension(name);
+        result.setParent(parent);
+        parent.addChild(result);
+        return result;
+    }
+
+    private static StateHierarchy.State state(StateHierarchy.Dimension parent, String name) {
+        StateHierarchy.State result = new StateHierarchy.State(name);
+        result.setParent(parent);
+        parent.addChild(result);
+        return result;
+    }
+
+    // Sorted, so the description does not depend on set order
+    private static Set<String> describe(Graph g) {
+        Set<String> result = new TreeSet<String>();
+        for( StateHierarchy hier : g.getHierarchies() ) {
+            result.add(hier.getTypeName() + ": " + describe(hier.getRoot()));
+        }
+        return result;
+    }
+
+    private static String describe(StateHierarchy.State state) {
+        Set<String> dims = new TreeSet<String>();
+        for( StateHierarchy.Dimension dim : state.getChildren() ) {
+            assertSame(state, dim.getParent().unwrap());
+            Set<String> states = new TreeSet<String>();
+            for( StateHierarchy.State child : dim.getChildren() ) {
+                assertSame(dim, child.getParent().unwrap());
+                states.add(describe(child));
+            }
+            dims.add(dim.name() + states);
+        }
+        return state.name() + dims;
+    }
+}
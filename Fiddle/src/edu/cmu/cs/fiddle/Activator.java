@@ -38,10 +38,14 @@
 
 package edu.cmu.cs.fiddle;
 
+import org.eclipse.jdt.core.ElementChangedEvent;
+import org.eclipse.jdt.core.JavaCore;
 import org.eclipse.jface.resource.ImageDescriptor;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
 import org.osgi.framework.BundleContext;
 
+import edu.cmu.cs.fiddle.model.StateMachineCache;
+
 /**
  * The activator class controls the plug-in life cycle
  */
@@ -66,6 +70,8 @@ public class Activator extends AbstractUIPlugin {
 	public void start(BundleContext context) throws Exception {
 		super.start(context);
 		plugin = this;
+		JavaCore.addElementChangedListener(StateMachineCache.getInstance(), 
+				ElementChangedEvent.POST_CHANGE);
 	}
 
 	/*
@@ -73,6 +79,8 @@ public class Activator extends AbstractUIPlugin {
 	 * @see org.eclipse.ui.plugin.AbstractUIPlugin#stop(org.osgi.framework.BundleContext)
 	 */
 	public void stop(BundleContext context) throws Exception {
+		JavaCore.removeElementChangedListener(StateMachineCache.getInstance());
+		StateMachineCache.getInstance().clear();
 		plugin = null;
 		super.stop(context);
 	}
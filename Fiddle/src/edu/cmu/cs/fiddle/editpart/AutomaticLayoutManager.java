@@ -37,23 +37,47 @@
  */
 package edu.cmu.cs.fiddle.editpart;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.draw2d.AbstractLayout;
 import org.eclipse.draw2d.IFigure;
 import org.eclipse.draw2d.geometry.Dimension;
 import org.eclipse.draw2d.geometry.Rectangle;
 import org.eclipse.draw2d.graph.CompoundDirectedGraph;
 import org.eclipse.draw2d.graph.CompoundDirectedGraphLayout;
+import org.eclipse.draw2d.graph.Edge;
+import org.eclipse.draw2d.graph.Node;
+import org.eclipse.draw2d.graph.NodeList;
+import org.eclipse.draw2d.graph.Subgraph;
 import org.eclipse.gef.EditPart;
+import org.eclipse.swt.widgets.Display;
 
 /**
  * This layout manager will automatically arrange our graphs and edges
  * so that they are not all overlapping. It will call back into the top-level
  * edit part in order to create a node out of all of its states and
- * connections.
+ * connections.<br>
+ * <br>
+ * Layout is incremental. Draw2d lays out the figure every time it is
+ * revalidated, but the expensive {@link CompoundDirectedGraphLayout} is
+ * only run when the graph itself has changed, meaning that nodes, edges or
+ * node sizes were added or removed. Otherwise the previous result is
+ * applied again. Large graphs are laid out in a background job, and the
+ * result is applied in one batch on the UI thread when it is done. While
+ * the layout is pinned, nodes that were already laid out keep their
+ * positions and only new nodes are placed by the layout, moving down
+ * where they would overlap a node that kept its position.
  * 
  * @author Nels E. Beckman
  * @see {@link CompoundDirectedGraph}
@@ -61,13 +85,51 @@ import org.eclipse.gef.EditPart;
  */
 public class AutomaticLayoutManager extends AbstractLayout {
 
+	/**
+	 * Graphs with more nodes and edges than this are laid out
+	 * in a background job.
+	 */
+	static final int SYNCHRONOUS_LAYOUT_LIMIT = 60;
+	
+	/**
+	 * Vertical gap left between a pinned node and a new node that
+	 * had to be moved out of its way.
+	 */
+	static final int PINNED_NODE_SPACING = 8;
+	
 	private final TopLevelEditPart topEditPart;
 	
+	private boolean pinned = false;
+	
+	// The last graph that was laid out, and its key. Only
+	// touched on the UI thread.
+	private List<Object> lastKey = null;
+	private CompoundDirectedGraph lastGraph = null;
+	private Map<EditPart, Object> lastPartsToNodes = null;
+	
+	// Where each model element was last put, for pinning.
+	private final Map<Object, Rectangle> positions = new HashMap<Object, Rectangle>();
+	
+	// The key of the graph being laid out in the background, if any.
+	private List<Object> pendingKey = null;
+	private Job pendingJob = null;
+	
 	public AutomaticLayoutManager(TopLevelEditPart topEditPart) {
 		super();
 		this.topEditPart = topEditPart;
 	}
 
+	/**
+	 * When pinned, elements that have already been laid out keep
+	 * their positions when the graph changes.
+	 */
+	public void setPinned(boolean pinned) {
+		this.pinned = pinned;
+	}
+	
+	public boolean isPinned() {
+		return pinned;
+	}
 	
 	@Override
 	protected Dimension calculatePreferredSize(IFigure container, int hint,
@@ -91,21 +153,227 @@ public class AutomaticLayoutManager extends AbstractLayout {
 	}
 
 	@Override
-	public void layout(IFigure container) {
+	public void layout(final IFigure container) {
 		/*
 		 * This code generates a graph from the model by
-		 * calling into the edit part. Then it uses the
-		 * graph layout and tells the edit part to make it
-		 * so.
+		 * calling into the edit part. If the graph is the same
+		 * as the last one we laid out, the last results are
+		 * applied again. Otherwise we use the graph layout and
+		 * tell the edit part to make it so.
 		 */
-		CompoundDirectedGraph graph = new CompoundDirectedGraph();
-		Map<EditPart, Object> partsToNodes = new HashMap<EditPart, Object>();
+		final CompoundDirectedGraph graph = new CompoundDirectedGraph();
+		final Map<EditPart, Object> partsToNodes = new HashMap<EditPart, Object>();
 		topEditPart.contributeNodesToGraph(graph, null, partsToNodes);
 		topEditPart.contributeEdgesToGraph(graph, partsToNodes);
-		new CompoundDirectedGraphLayout().visit(graph);
+		final List<Object> key = layoutKey(graph);
+		
+		if( key.equals(lastKey) ) {
+			topEditPart.applyGraphResults(lastGraph, lastPartsToNodes);
+			return;
+		}
+		if( key.equals(pendingKey) ) {
+			// Still being laid out; the figures stay where they are.
+			return;
+		}
+		if( pendingJob != null ) {
+			pendingJob.cancel();
+			pendingJob = null;
+			pendingKey = null;
+		}
+		
+		if( graph.nodes.size() + graph.edges.size() <= SYNCHRONOUS_LAYOUT_LIMIT ) {
+			new CompoundDirectedGraphLayout().visit(graph);
+			applyNewResults(key, graph, partsToNodes);
+			return;
+		}
+		
+		final Display display = Display.getCurrent();
+		Job job = new Job("Laying out state chart") {
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				// The graph only refers to the edit parts through the
+				// data fields, which the layout does not touch.
+				new CompoundDirectedGraphLayout().visit(graph);
+				if( monitor.isCanceled() )
+					return Status.CANCEL_STATUS;
+				final Job self = this;
+				display.asyncExec(new Runnable() {
+					public void run() {
+						if( pendingJob != self || !topEditPart.isActive() )
+							return;
+						pendingJob = null;
+						pendingKey = null;
+						applyNewResults(key, graph, partsToNodes);
+						// Any later layout pass reapplies these results.
+						container.revalidate();
+					}
+				});
+				return Status.OK_STATUS;
+			}
+		};
+		job.setSystem(true);
+		pendingJob = job;
+		pendingKey = key;
+		job.schedule();
+	}
+
+	/**
+	 * Applies a freshly computed layout in one batch and remembers it,
+	 * so that it can be applied again as long as the graph is unchanged.
+	 */
+	private void applyNewResults(List<Object> key, CompoundDirectedGraph graph,
+			Map<EditPart, Object> partsToNodes) {
+		if( pinned )
+			keepPinnedPositions(partsToNodes);
+		
+		lastKey = key;
+		lastGraph = graph;
+		lastPartsToNodes = partsToNodes;
 		topEditPart.applyGraphResults(graph, partsToNodes);
+		
+		positions.clear();
+		for( Map.Entry<EditPart, Object> entry : partsToNodes.entrySet() ) {
+			if( entry.getValue() instanceof Node ) {
+				Node n = (Node)entry.getValue();
+				positions.put(entry.getKey().getModel(), 
+						new Rectangle(n.x, n.y, n.width, n.height));
+			}
+		}
 	}
 
+	/**
+	 * Moves every node that was laid out before back to its old position,
+	 * and then moves new nodes out of the way of the nodes that were moved
+	 * back. Edges touching a moved node lose their bend points, which would
+	 * no longer line up.
+	 */
+	private void keepPinnedPositions(Map<EditPart, Object> partsToNodes) {
+		Set<Node> kept = new HashSet<Node>();
+		Set<Node> moved = new HashSet<Node>();
+		for( Map.Entry<EditPart, Object> entry : partsToNodes.entrySet() ) {
+			if( !(entry.getValue() instanceof Node) )
+				continue;
+			Rectangle old = positions.get(entry.getKey().getModel());
+			Node n = (Node)entry.getValue();
+			if( old == null )
+				continue;
+			kept.add(n);
+			if( old.x != n.x || old.y != n.y ) {
+				n.x = old.x;
+				n.y = old.y;
+				moved.add(n);
+			}
+		}
+		if( moved.isEmpty() )
+			return;
+		separateNewNodes(partsToNodes, kept, moved);
+		for( Object value : partsToNodes.values() ) {
+			if( value instanceof Edge ) {
+				Edge e = (Edge)value;
+				if( moved.contains(e.source) || moved.contains(e.target) )
+					e.vNodes = null;
+			}
+		}
+	}
 	
-
+	/**
+	 * Moves every node that was not laid out before down until it no
+	 * longer overlaps one of its siblings, growing its parents to fit.
+	 * Nodes that kept their old positions are never moved. Deeper nodes
+	 * go first, so that parents are checked after they have grown.
+	 * Every node that is moved, along with its contents, is added to
+	 * <code>moved</code>.
+	 */
+	private static void separateNewNodes(Map<EditPart, Object> partsToNodes, 
+			Set<Node> kept, Set<Node> moved) {
+		List<Node> nodes = new ArrayList<Node>();
+		for( Object value : partsToNodes.values() ) {
+			if( value instanceof Node )
+				nodes.add((Node)value);
+		}
+		final Map<Node, Integer> depths = new HashMap<Node, Integer>();
+		for( Node n : nodes ) {
+			int depth = 0;
+			for( Node p = n.getParent(); p != null; p = p.getParent() )
+				depth++;
+			depths.put(n, depth);
+		}
+		Collections.sort(nodes, new Comparator<Node>() {
+			public int compare(Node n1, Node n2) {
+				return depths.get(n2) - depths.get(n1);
+			}
+		});
+		
+		for( Node n : nodes ) {
+			if( kept.contains(n) )
+				continue;
+			boolean overlapping = true;
+			while( overlapping ) {
+				overlapping = false;
+				for( Node other : nodes ) {
+					if( other == n || other.getParent() != n.getParent() )
+						continue;
+					if( bounds(n).intersects(bounds(other)) ) {
+						// each move puts n further down, so this ends
+						translate(n, other.y + other.height + PINNED_NODE_SPACING - n.y, moved);
+						overlapping = true;
+					}
+				}
+			}
+			if( moved.contains(n) )
+				fitInParents(n);
+		}
+	}
+	
+	private static Rectangle bounds(Node n) {
+		return new Rectangle(n.x, n.y, n.width, n.height);
+	}
+	
+	/**
+	 * Moves the given node and its contents down by the given amount.
+	 */
+	private static void translate(Node n, int dy, Set<Node> moved) {
+		n.y += dy;
+		moved.add(n);
+		if( n instanceof Subgraph ) {
+			NodeList members = ((Subgraph)n).members;
+			for( int i = 0; i < members.size(); i++ )
+				translate(members.getNode(i), dy, moved);
+		}
+	}
+	
+	/**
+	 * Grows the parents of the given node so that they contain it.
+	 */
+	private static void fitInParents(Node n) {
+		for( Subgraph p = n.getParent(); p != null; n = p, p = p.getParent() ) {
+			int bottom = n.y + n.height + PINNED_NODE_SPACING;
+			if( p.y + p.height < bottom )
+				p.height = bottom - p.y;
+		}
+	}
+	
+	/**
+	 * Returns a value that is equal for two graphs exactly when their
+	 * layouts would be the same: the same nodes, nested in the same way
+	 * and with the same minimum sizes, and the same edges. Much cheaper
+	 * than laying out the graph.
+	 */
+	static List<Object> layoutKey(CompoundDirectedGraph graph) {
+		List<Object> key = new ArrayList<Object>(4 * graph.nodes.size() + 3 * graph.edges.size());
+		for( int i = 0; i < graph.nodes.size(); i++ ) {
+			Node n = graph.nodes.getNode(i);
+			key.add(n.data);
+			key.add(n.getParent() == null ? null : n.getParent().data);
+			key.add(n.width);
+			key.add(n.height);
+		}
+		for( int i = 0; i < graph.edges.size(); i++ ) {
+			Edge e = graph.edges.getEdge(i);
+			key.add(e.data);
+			key.add(e.source.data);
+			key.add(e.target.data);
+		}
+		return key;
+	}
 }
@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 2007, 2008 Carnegie Mellon University and others.
+ *
+ * This file is part of Plural.
+ *
+ * Plural is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * Plural is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Plural; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Linking Plural statically or dynamically with other modules is
+ * making a combined work based on Plural. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * In addition, as a special exception, the copyright holders of Plural
+ * give you permission to combine Plural with free software programs or
+ * libraries that are released under the GNU LGPL and with code
+ * included in the standard release of Eclipse under the Eclipse Public
+ * License (or modified versions of such code, with unchanged license).
+ * You may copy and distribute such a system following the terms of the
+ * GNU GPL for Plural and the licenses of the other code concerned.
+ *
+ * Note that people who make modified versions of Plural are not
+ * obligated to grant this special exception for their modified
+ * versions; it is their choice whether to do so. The GNU General
+ * Public License gives permission to release a modified version
+ * without this exception; this exception also makes it possible to
+ * release a modified version which carries forward this exception.
+ */
+package edu.cmu.cs.fiddle.editpart;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.eclipse.draw2d.graph.CompoundDirectedGraph;
+import org.eclipse.draw2d.graph.CompoundDirectedGraphLayout;
+import org.eclipse.draw2d.graph.Edge;
+import org.eclipse.draw2d.graph.Node;
+import org.eclipse.draw2d.graph.Subgraph;
+
+import edu.cmu.cs.fiddle.figure.StateFigure;
+
+/**
+ * A benchmark for {@link AutomaticLayoutManager} over synthetic state
+ * spaces. For each size it builds a graph shaped like the ones the edit
+ * parts contribute (a root state with dimensions, each holding states,
+ * plus random transitions between states) and reports how long a full
+ * layout takes compared to the check that lets an unchanged graph skip
+ * it. Only needs draw2d, so it can be run as a plain Java application:
+ * <pre>
+ * LayoutBenchmark [states...]
+ * </pre>
+ */
+public final class LayoutBenchmark {
+
+	private static final int[] DEFAULT_SIZES = { 10, 25, 50, 100, 200 };
+	
+	private static final int TRANSITIONS_PER_STATE = 4;
+	
+	private static final int STATES_PER_DIMENSION = 5;
+	
+	private static final int RUNS = 5;
+	
+	public static void main(String[] args) {
+		int[] sizes = DEFAULT_SIZES;
+		if( args.length > 0 ) {
+			sizes = new int[args.length];
+			for( int i = 0; i < args.length; i++ )
+				sizes[i] = Integer.parseInt(args[i]);
+		}
+		
+		System.out.println("states\tnodes\tedges\tlayout ms\tunchanged ms");
+		for( int states : sizes ) {
+			long layout_time = Long.MAX_VALUE;
+			long unchanged_time = Long.MAX_VALUE;
+			int nodes = 0;
+			int edges = 0;
+			for( int run = 0; run < RUNS; run++ ) {
+				// Layout modifies the graph, so each run gets a new one.
+				CompoundDirectedGraph graph = syntheticGraph(states, 42);
+				CompoundDirectedGraph before = syntheticGraph(states, 42);
+				CompoundDirectedGraph after = syntheticGraph(states, 42);
+				nodes = graph.nodes.size();
+				edges = graph.edges.size();
+				
+				long start = System.nanoTime();
+				new CompoundDirectedGraphLayout().visit(graph);
+				layout_time = Math.min(layout_time, System.nanoTime() - start);
+				
+				start = System.nanoTime();
+				boolean equal = AutomaticLayoutManager.layoutKey(before).equals(
+						AutomaticLayoutManager.layoutKey(after));
+				unchanged_time = Math.min(unchanged_time, System.nanoTime() - start);
+				if( !equal )
+					throw new IllegalStateException("Layout keys of equal graphs differ.");
+			}
+			System.out.println(states + "\t" + nodes + "\t" + edges + "\t" + 
+					(layout_time / 1000000.0) + "\t" + (unchanged_time / 1000000.0));
+		}
+	}
+	
+	/**
+	 * Builds a graph with the given number of states, divided into
+	 * dimensions of the root state. The same seed always gives a graph
+	 * with the same layout key, since node data are strings.
+	 */
+	static CompoundDirectedGraph syntheticGraph(int states, long seed) {
+		Random random = new Random(seed);
+		CompoundDirectedGraph graph = new CompoundDirectedGraph();
+		
+		Subgraph top = new Subgraph("<top>", null);
+		top.innerPadding = INodeToGraphContributor.INNER_PADDING;
+		top.setPadding(INodeToGraphContributor.PADDING);
+		add(graph, top);
+		
+		Subgraph root = state("alive", top);
+		add(graph, root);
+		
+		List<Node> leaves = new ArrayList<Node>(states);
+		Subgraph dimension = null;
+		for( int i = 0; i < states; i++ ) {
+			if( i % STATES_PER_DIMENSION == 0 ) {
+				dimension = new Subgraph("dim" + (i / STATES_PER_DIMENSION), root);
+				add(graph, dimension);
+			}
+			Subgraph state = state("state" + i, dimension);
+			add(graph, state);
+			leaves.add(state);
+		}
+		
+		for( int i = 0; i < states * TRANSITIONS_PER_STATE; i++ ) {
+			Node source = leaves.get(random.nextInt(states));
+			Node target = leaves.get(random.nextInt(states));
+			if( source == target )
+				continue;
+			Edge e = new Edge("m" + i, source, target);
+			e.weight = 2;
+			@SuppressWarnings({"unchecked", "unused"})
+			boolean DONTUSE = graph.edges.add(e);
+		}
+		return graph;
+	}
+	
+	private static Subgraph state(String name, Subgraph parent) {
+		Subgraph result = new Subgraph(name, parent);
+		result.outgoingOffset = 5;
+		result.incomingOffset = 5;
+		result.width = StateFigure.MIN_WIDTH;
+		result.insets.top = StateFigure.HEADER_SIZE;
+		result.insets.bottom = StateFigure.FOOTER_SIZE;
+		return result;
+	}
+	
+	private static void add(CompoundDirectedGraph graph, Node node) {
+		@SuppressWarnings({"unchecked", "unused"})
+		boolean DONTUSE = graph.nodes.add(node);
+	}
+}
@@ -94,6 +94,14 @@ public class TopLevelEditPart extends AbstractGraphicalEditPart
 		return new ArrayList<IState>(modelAsStateMachine().getStates());
 	}
 
+	/**
+	 * Pins or unpins the positions of the states in the diagram.
+	 * @see AutomaticLayoutManager#setPinned(boolean)
+	 */
+	public void setLayoutPinned(boolean pinned) {
+		((AutomaticLayoutManager)getFigure().getLayoutManager()).setPinned(pinned);
+	}
+
 	private StateMachine modelAsStateMachine() {
 		return (StateMachine)getModel();
 	}
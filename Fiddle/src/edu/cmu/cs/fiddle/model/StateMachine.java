@@ -55,8 +55,6 @@ import org.eclipse.jdt.core.dom.ITypeBinding;
 import org.eclipse.jdt.core.dom.TypeDeclaration;
 
 import edu.cmu.cs.crystal.annotations.AnnotationDatabase;
-import edu.cmu.cs.crystal.internal.AbstractCrystalPlugin;
-import edu.cmu.cs.crystal.internal.Crystal;
 import edu.cmu.cs.crystal.internal.WorkspaceUtilities;
 import edu.cmu.cs.crystal.util.Option;
 import edu.cmu.cs.plural.states.IInvocationSignature;
@@ -141,11 +139,26 @@ public class StateMachine implements IHasProperties {
 		this.listeners.removePropertyChangeListener(listener);
 	}
 	
+	/**
+	 * Returns the state machine for the given type, from the shared
+	 * {@link StateMachineCache} if possible. May have to parse, so
+	 * should not be called from the UI thread.
+	 */
 	public static StateMachine getStateMachineFromIType(IType type) {
-		final AnnotationDatabase annoDB = new AnnotationDatabase();
-		StateSpaceRepository ssr = getSpaceRepo(annoDB);
+		return StateMachineCache.getInstance().getStateMachine(type);
+	}
+	
+	/**
+	 * Builds a new state machine for the given type, adding the handle
+	 * identifiers of the compilation units it was built from to
+	 * <code>depends_on</code>, and the binding keys of the type and its
+	 * super types to <code>type_keys</code>.
+	 */
+	static StateMachine buildStateMachine(IType type, AnnotationDatabase annoDB,
+			StateSpaceRepository ssr, Set<String> depends_on, Set<String> type_keys) {
 		Option<TypeDeclaration> decl_ = WorkspaceUtilities.getDeclNodeFromType(type);
 		ITypeBinding binding = decl_.unwrap().resolveBinding();
+		StateMachineCache.addDependencies(binding, depends_on, type_keys);
 		
 		StateSpace space = ssr.getStateSpace(binding);
 		
@@ -172,14 +185,6 @@ public class StateMachine implements IHasProperties {
 		return machine;
 	}
 	
-	private static StateSpaceRepository getSpaceRepo(AnnotationDatabase annoDB) {
-		Crystal crystal = AbstractCrystalPlugin.getCrystalInstance();
-		crystal.registerAnnotationsWithDatabase(annoDB);
-		StateSpaceRepository ssr = StateSpaceRepository.getInstance(annoDB);
-		
-		return ssr;
-	}
-	
 	/**
 	 * @param rootState
 	 * @param space
@@ -237,7 +242,7 @@ public class StateMachine implements IHasProperties {
 			Map<String, IConnectable> stringToNode, 
 			AnnotationDatabase annoDB) {
 		
-		List<IMethodBinding> methods = getClassMethods(binding, ssr);
+		List<IMethodBinding> methods = getClassMethods(binding);
 		StateSpace space = ssr.getStateSpace(binding);
 		
 		boolean result = false;
@@ -411,37 +416,44 @@ public class StateMachine implements IHasProperties {
 		return sb.toString();
 	}
 	
-	private static List <IMethodBinding> getClassMethods( ITypeBinding binding, StateSpaceRepository ssr ) {
+	/**
+	 * Returns all the methods declared in the given type, plus the first
+	 * method of each other name declared in its super types. Each super
+	 * type is only visited once, even if it is reachable along several
+	 * paths of the hierarchy.
+	 */
+	private static List <IMethodBinding> getClassMethods( ITypeBinding binding ) {
 		List <IMethodBinding> methods = new ArrayList <IMethodBinding> ();
-		List <String> names = new ArrayList <String> ();
-		IMethodBinding[] arr = binding.getDeclaredMethods();	
+		Set <String> names = new HashSet <String> ();
+		Set <String> visited_types = new HashSet <String> ();
+		visited_types.add(binding.getKey());
 		
-		for( IMethodBinding met : arr ) {
+		for( IMethodBinding met : binding.getDeclaredMethods() ) {
 			methods.add(met);
 			names.add(met.getName());
 		}
-		
-		if( binding.getSuperclass() != null ) {
-			for( IMethodBinding met : getClassMethods(binding.getSuperclass(), ssr) ){
-				if ( (! names.contains(met.getName())) && (! methods.contains(met)) ) {
-					methods.add(met);
-					names.add(met.getName());
-				}
-			}
+		addSuperTypeMethods(binding, methods, names, visited_types);
+		return methods;
+	}
+	
+	private static void addSuperTypeMethods( ITypeBinding binding, List<IMethodBinding> methods,
+			Set<String> names, Set<String> visited_types ) {
+		List<ITypeBinding> supers = new ArrayList<ITypeBinding>();
+		if( binding.getSuperclass() != null )
+			supers.add(binding.getSuperclass());
+		for( ITypeBinding it : binding.getInterfaces() ) {
+			supers.add(it);
 		}
 		
-		if( Array.getLength(binding.getInterfaces()) != 0 ) {
-			for(ITypeBinding it : binding.getInterfaces() ) {
-				for( IMethodBinding met : getClassMethods(it, ssr) ){
-					if ( (! names.contains(met.getName())) && (! methods.contains(met)) ) {
-						methods.add(met);
-						names.add(met.getName());
-					}
-				}
+		for( ITypeBinding sup : supers ) {
+			if( !visited_types.add(sup.getKey()) )
+				continue;
+			for( IMethodBinding met : sup.getDeclaredMethods() ) {
+				if( names.add(met.getName()) )
+					methods.add(met);
 			}
+			addSuperTypeMethods(sup, methods, names, visited_types);
 		}
-		
-		return methods;
 	}
 	
 }
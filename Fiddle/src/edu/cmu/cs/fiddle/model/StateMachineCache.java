@@ -0,0 +1,289 @@
+/**
+ * Copyright (C) 2007, 2008 Carnegie Mellon University and others.
+ *
+ * This file is part of Plural.
+ *
+ * Plural is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * Plural is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Plural; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Linking Plural statically or dynamically with other modules is
+ * making a combined work based on Plural. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * In addition, as a special exception, the copyright holders of Plural
+ * give you permission to combine Plural with free software programs or
+ * libraries that are released under the GNU LGPL and with code
+ * included in the standard release of Eclipse under the Eclipse Public
+ * License (or modified versions of such code, with unchanged license).
+ * You may copy and distribute such a system following the terms of the
+ * GNU GPL for Plural and the licenses of the other code concerned.
+ *
+ * Note that people who make modified versions of Plural are not
+ * obligated to grant this special exception for their modified
+ * versions; it is their choice whether to do so. The GNU General
+ * Public License gives permission to release a modified version
+ * without this exception; this exception also makes it possible to
+ * release a modified version which carries forward this exception.
+ */
+package edu.cmu.cs.fiddle.model;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jdt.core.ElementChangedEvent;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IElementChangedListener;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaElementDelta;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.dom.ITypeBinding;
+
+import edu.cmu.cs.crystal.annotations.AnnotationDatabase;
+import edu.cmu.cs.crystal.internal.AbstractCrystalPlugin;
+import edu.cmu.cs.crystal.internal.Crystal;
+import edu.cmu.cs.plural.states.StateSpaceRepository;
+
+/**
+ * A workspace-wide cache of the state machines that have been built
+ * for types, keyed by the handle identifier of the type. All state
+ * machines are built with one shared annotation database and state
+ * space repository, so that annotations are only registered once.<br>
+ * <br>
+ * The cache listens to Java element deltas. When a compilation unit
+ * changes, every state machine built from that compilation unit or
+ * from one that declares one of its super types is dropped, and so are
+ * the state spaces and signatures of the types in their hierarchies.
+ * The annotation database has no way to drop the annotations of single
+ * types, so a new one is created for the next build, but it gets a
+ * repository that keeps the state spaces and signatures of all other
+ * types.
+ * 
+ * @see StateMachine#getStateMachineFromIType(IType)
+ */
+public final class StateMachineCache implements IElementChangedListener {
+
+	private static final StateMachineCache instance = new StateMachineCache();
+	
+	public static StateMachineCache getInstance() {
+		return instance;
+	}
+	
+	// Type handle identifier -> state machine
+	private final Map<String, StateMachine> machines = 
+		new HashMap<String, StateMachine>();
+	
+	// Type handle identifier -> handle identifiers of the compilation
+	// units that the state machine was built from
+	private final Map<String, Set<String>> dependencies = 
+		new HashMap<String, Set<String>>();
+	
+	// Binding key of a type that the repository may hold a state space
+	// or signatures for -> handle identifiers of the compilation units
+	// these were built from
+	private final Map<String, Set<String>> typeDependencies = 
+		new HashMap<String, Set<String>>();
+	
+	// Binding keys of types whose state spaces and signatures must not
+	// be carried over into the next repository
+	private final Set<String> staleTypes = new HashSet<String>();
+	
+	// Must be held on to, since the repository only refers to it weakly.
+	private AnnotationDatabase annoDB = null;
+	
+	private StateSpaceRepository repository = null;
+	
+	// Incremented whenever anything is invalidated, so that a state
+	// machine that was being built at the time is not cached.
+	private int generation = 0;
+	
+	private final Object buildLock = new Object();
+	
+	private StateMachineCache() {}
+	
+	/**
+	 * Returns the state machine for the given type if it has already
+	 * been built and is still up to date, or null otherwise. Never
+	 * blocks on a build, so it can be called from the UI thread.
+	 */
+	public StateMachine getCachedStateMachine(IType type) {
+		synchronized( machines ) {
+			return machines.get(type.getHandleIdentifier());
+		}
+	}
+	
+	/**
+	 * Returns the state machine for the given type, building it if
+	 * it is not already cached. Building a state machine requires
+	 * parsing, so this should not be called from the UI thread.
+	 * Only one state machine is built at a time, since the annotation
+	 * database is shared.
+	 */
+	public StateMachine getStateMachine(IType type) {
+		synchronized( buildLock ) {
+			StateMachine result = getCachedStateMachine(type);
+			if( result != null )
+				return result;
+			
+			AnnotationDatabase db;
+			StateSpaceRepository ssr;
+			int built_at;
+			synchronized( machines ) {
+				if( annoDB == null ) {
+					annoDB = new AnnotationDatabase();
+					Crystal crystal = AbstractCrystalPlugin.getCrystalInstance();
+					crystal.registerAnnotationsWithDatabase(annoDB);
+					// No build is running, so the old repository can be copied
+					if( repository == null )
+						repository = StateSpaceRepository.getInstance(annoDB);
+					else
+						repository = StateSpaceRepository.getInstance(annoDB, repository, staleTypes);
+					staleTypes.clear();
+				}
+				db = annoDB;
+				ssr = repository;
+				built_at = generation;
+			}
+			
+			Set<String> depends_on = new HashSet<String>();
+			Set<String> type_keys = new HashSet<String>();
+			result = StateMachine.buildStateMachine(type, db, ssr, depends_on, type_keys);
+			
+			synchronized( machines ) {
+				if( built_at == generation ) {
+					machines.put(type.getHandleIdentifier(), result);
+					dependencies.put(type.getHandleIdentifier(), depends_on);
+					for( String key : type_keys ) {
+						Set<String> units = typeDependencies.get(key);
+						if( units == null ) {
+							units = new HashSet<String>();
+							typeDependencies.put(key, units);
+						}
+						units.addAll(depends_on);
+					}
+				}
+				else {
+					// May have been built from the old version of a unit
+					staleTypes.addAll(type_keys);
+				}
+			}
+			return result;
+		}
+	}
+	
+	/**
+	 * Drops every cached state machine, and the shared annotation
+	 * database.
+	 */
+	public void clear() {
+		synchronized( machines ) {
+			machines.clear();
+			dependencies.clear();
+			typeDependencies.clear();
+			staleTypes.clear();
+			annoDB = null;
+			repository = null;
+			generation++;
+		}
+	}
+	
+	/**
+	 * Records the compilation unit that declares the given type, and the
+	 * ones that declare its super types, as dependencies of a state
+	 * machine, and the binding keys of these types. Binary types do not 
+	 * change without a class path change, so their units are skipped.
+	 */
+	static void addDependencies(ITypeBinding binding, Set<String> depends_on, Set<String> type_keys) {
+		if( binding == null )
+			return;
+		if( !type_keys.add(binding.getTypeDeclaration().getKey()) )
+			return; // Already visited this part of the hierarchy
+		IJavaElement elem = binding.getJavaElement();
+		if( elem != null ) {
+			IJavaElement cu = elem.getAncestor(IJavaElement.COMPILATION_UNIT);
+			if( cu != null )
+				depends_on.add(cu.getHandleIdentifier());
+		}
+		addDependencies(binding.getSuperclass(), depends_on, type_keys);
+		for( ITypeBinding it : binding.getInterfaces() ) {
+			addDependencies(it, depends_on, type_keys);
+		}
+	}
+
+	@Override
+	public void elementChanged(ElementChangedEvent event) {
+		Set<String> changed_units = new HashSet<String>();
+		if( !collectChangedUnits(event.getDelta(), changed_units) ) {
+			clear();
+			return;
+		}
+		if( changed_units.isEmpty() )
+			return;
+		
+		synchronized( machines ) {
+			for( String type : new HashSet<String>(dependencies.keySet()) ) {
+				if( !Collections.disjoint(dependencies.get(type), changed_units) ) {
+					machines.remove(type);
+					dependencies.remove(type);
+				}
+			}
+			for( String key : new HashSet<String>(typeDependencies.keySet()) ) {
+				if( !Collections.disjoint(typeDependencies.get(key), changed_units) ) {
+					typeDependencies.remove(key);
+					staleTypes.add(key);
+				}
+			}
+			// The annotation database may hold annotations from a changed 
+			// unit, so the next build starts a new one
+			annoDB = null;
+			generation++;
+		}
+	}
+
+	/**
+	 * Walks the delta, adding the handle identifiers of changed compilation
+	 * units to the given set. Returns false if something changed that could
+	 * affect any type, like the class path, in which case everything
+	 * should be dropped.
+	 */
+	private static boolean collectChangedUnits(IJavaElementDelta delta, Set<String> changed_units) {
+		IJavaElement elem = delta.getElement();
+		int flags = delta.getFlags();
+		
+		if( elem instanceof ICompilationUnit ) {
+			if( delta.getKind() != IJavaElementDelta.CHANGED ||
+				(flags & (IJavaElementDelta.F_CONTENT | IJavaElementDelta.F_PRIMARY_RESOURCE)) != 0 ) {
+				changed_units.add(elem.getHandleIdentifier());
+			}
+			return true;
+		}
+		
+		if( elem.getElementType() < IJavaElement.COMPILATION_UNIT ) {
+			if( delta.getKind() == IJavaElementDelta.REMOVED ||
+				(flags & (IJavaElementDelta.F_CLASSPATH_CHANGED | 
+						  IJavaElementDelta.F_RESOLVED_CLASSPATH_CHANGED |
+						  IJavaElementDelta.F_CLOSED |
+						  IJavaElementDelta.F_ARCHIVE_CONTENT_CHANGED)) != 0 ) {
+				return false;
+			}
+		}
+		
+		for( IJavaElementDelta child : delta.getAffectedChildren() ) {
+			if( !collectChangedUnits(child, changed_units) )
+				return false;
+		}
+		return true;
+	}
+}
@@ -38,6 +38,10 @@
 package edu.cmu.cs.fiddle.view;
 
 
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.draw2d.ColorConstants;
 import org.eclipse.gef.EditDomain;
 import org.eclipse.gef.ui.parts.ScrollingGraphicalViewer;
@@ -51,13 +55,16 @@ import org.eclipse.jface.action.IToolBarManager;
 import org.eclipse.jface.viewers.ISelection;
 import org.eclipse.jface.viewers.IStructuredSelection;
 import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Control;
 import org.eclipse.ui.IActionBars;
 import org.eclipse.ui.ISelectionListener;
 import org.eclipse.ui.IWorkbenchPart;
 import org.eclipse.ui.part.ViewPart;
 
 import edu.cmu.cs.fiddle.editpart.StateEditPartFactory;
+import edu.cmu.cs.fiddle.editpart.TopLevelEditPart;
 import edu.cmu.cs.fiddle.model.StateMachine;
+import edu.cmu.cs.fiddle.model.StateMachineCache;
 
 
 /**
@@ -80,6 +87,10 @@ public class StatechartView extends ViewPart implements ISelectionListener {
 
 	private boolean pin = false;
 
+	// The job building the state machine for the most recent selection,
+	// if it was not already cached.
+	private Job loadJob = null;
+
 	public StateMachine getStateMachine() {
 		return stateMachine;
 	}
@@ -90,6 +101,17 @@ public class StatechartView extends ViewPart implements ISelectionListener {
 
 	protected void setPin(boolean b){
 		this.pin = b;
+		updateLayoutPin();
+	}
+
+	/**
+	 * While the view is pinned, the layout keeps the positions of
+	 * the states that are already shown.
+	 */
+	private void updateLayoutPin() {
+		Object contents = getGraphicalViewer().getContents();
+		if (contents instanceof TopLevelEditPart)
+			((TopLevelEditPart) contents).setLayoutPinned(pin);
 	}
 
 	/**
@@ -158,6 +180,65 @@ public class StatechartView extends ViewPart implements ISelectionListener {
 		getGraphicalViewer().getControl().setFocus();
 	}
 	
+	@Override
+	public void dispose() {
+		getViewSite().getPage().removePostSelectionListener(this);
+		if (loadJob != null)
+			loadJob.cancel();
+		super.dispose();
+	}
+
+	/**
+	 * Show the state machine of the given type. If it is cached it is
+	 * shown right away, otherwise it is built in a background job and
+	 * shown once it is done, unless another type has been selected
+	 * in the meantime.
+	 */
+	private void showStateMachine(final IType type) {
+		if (loadJob != null) {
+			loadJob.cancel();
+			loadJob = null;
+		}
+
+		StateMachine cached = StateMachineCache.getInstance().getCachedStateMachine(type);
+		if (cached != null) {
+			setContents(cached);
+			return;
+		}
+
+		Job job = new Job("Building state machine for " + type.getElementName()) {
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				final StateMachine machine = StateMachine.getStateMachineFromIType(type);
+				if (monitor.isCanceled())
+					return Status.CANCEL_STATUS;
+				final Job self = this;
+				final Control control = getGraphicalViewer().getControl();
+				if (control == null || control.isDisposed())
+					return Status.CANCEL_STATUS;
+				control.getDisplay().asyncExec(new Runnable() {
+					public void run() {
+						// Only show it if it is still the latest selection
+						if (loadJob == self && !control.isDisposed()) {
+							loadJob = null;
+							setContents(machine);
+						}
+					}
+				});
+				return Status.OK_STATUS;
+			}
+		};
+		job.setSystem(true);
+		loadJob = job;
+		job.schedule();
+	}
+
+	private void setContents(StateMachine machine) {
+		setStateMachine(machine);
+		getGraphicalViewer().setContents(getStateMachine());
+		updateLayoutPin();
+	}
+
 	@Override
 	public void selectionChanged(IWorkbenchPart part, ISelection selection) {
 		if(!pin && selection != null && selection instanceof IStructuredSelection) {
@@ -178,10 +259,7 @@ public class StatechartView extends ViewPart implements ISelectionListener {
 						type = (IType) ije;
 					}
 					if (type!=null){
-						StateMachine machine = StateMachine.getStateMachineFromIType(type);
-						setStateMachine(machine);
-						getGraphicalViewer().setContents(getStateMachine());
-						getViewSite().getPage().addPostSelectionListener(this);
+						showStateMachine(type);
 					}
 				}
 			}
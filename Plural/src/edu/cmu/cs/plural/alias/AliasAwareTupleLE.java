@@ -37,11 +37,14 @@
  */
 package edu.cmu.cs.plural.alias;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -55,6 +58,7 @@ import edu.cmu.cs.crystal.analysis.alias.ObjectLabel;
 import edu.cmu.cs.crystal.bridge.LatticeElement;
 import edu.cmu.cs.crystal.tac.ITACFlowAnalysis;
 import edu.cmu.cs.crystal.tac.TACFlowAnalysis;
+import edu.cmu.cs.crystal.tac.eclipse.CompilationUnitTACs;
 import edu.cmu.cs.crystal.tac.model.TACInstruction;
 import edu.cmu.cs.crystal.tac.model.Variable;
 import edu.cmu.cs.crystal.util.CollectionMethods;
@@ -62,6 +66,7 @@ import edu.cmu.cs.crystal.util.ExtendedIterator;
 import edu.cmu.cs.crystal.util.Freezable;
 import edu.cmu.cs.crystal.util.Lambda;
 import edu.cmu.cs.plural.util.ReplacementGenerator;
+import edu.cmu.cs.plural.util.ResultCache;
 
 /**
  * This is an alias-aware tuple lattice implementation. It automatically
@@ -131,6 +136,33 @@ public class AliasAwareTupleLE<LE extends LatticeElement<LE>> implements
 		});
 	}
 
+	/**
+	 * Creates an initial lattice element for analyzing the given method that 
+	 * will return the given bottom value if information about unknown variables 
+	 * is requested.  Unlike the other factory methods, the lattice uses aliasing
+	 * results that are shared with every other lattice created for the same method,
+	 * TACs and annotation database, such as the lattices for the other cases
+	 * of the method.  The lattice must only be used with nodes in the given method.
+	 * 
+	 * @param <LE>
+	 * @return
+	 */
+	public static <LE extends LatticeElement<LE>> AliasAwareTupleLE<LE> create(
+			final IAnalysisInput input,
+			final MethodDeclaration decl,
+			final LE bottom) {
+		MethodAliasing shared = MethodAliasing.forMethod(input, decl);
+		return new AliasAwareTupleLE<LE>(shared.aliasing, 
+				new HashMap<ObjectLabel, LE>(), 
+				new TupleCallback<LE>() {
+					public LE defaultResult(Aliasing a) {
+						return bottom;
+					}
+				},
+				shared.receiverFields,
+				new DerivedJoins<LE>());
+	}
+
 	/**
 	 * Callback interface to customize AliasAwareTupleLE's behavior in case of
 	 * missing values. This method will be called for aliasing sets for which no
@@ -183,12 +215,12 @@ public class AliasAwareTupleLE<LE extends LatticeElement<LE>> implements
 	private final TupleCallback<LE> callback;
 
 	/**
-	 * Aliasing sets that have been checked to be at least as precise as their
-	 * subsets. This set helps making the tuple implementation more efficient
-	 * and, when in doubt, should be cleared whenever aliasing information is
-	 * modified.
+	 * Information derived for sets of labels, shared with all copies of this
+	 * tuple.  Entries are checked against the current information for their
+	 * labels, so changing a label's information only invalidates the entries
+	 * that include that label.
 	 */
-	private final Map<Aliasing, LE> derivedCache;
+	private final DerivedJoins<LE> derivedCache;
 
 	/**
 	 * Flag indicating whether the tuple was frozen. Once frozen, a tuple must
@@ -217,7 +249,7 @@ public class AliasAwareTupleLE<LE extends LatticeElement<LE>> implements
 				new LocalAliasTransfer(input.getAnnoDB(), receiverFields),
 				input.getComUnitTACs().unwrap());
 		this.info = new HashMap<ObjectLabel, LE>();
-		this.derivedCache = new HashMap<Aliasing, LE>();
+		this.derivedCache = new DerivedJoins<LE>();
 		this.callback = callback;
 		// make this's field a unmodifiable view
 		this.receiverFields = Collections.unmodifiableMap(receiverFields);
@@ -230,14 +262,16 @@ public class AliasAwareTupleLE<LE extends LatticeElement<LE>> implements
 	 * @param info
 	 * @param callback
 	 * @param receiverFields 
+	 * @param derivedCache Cache to share with the existing lattice element
 	 */
 	private AliasAwareTupleLE(
 			ITACFlowAnalysis<AliasingLE> aliasing,
 			Map<ObjectLabel, LE> info, TupleCallback<LE> callback,
-			Map<IVariableBinding, Variable> receiverFields) {
+			Map<IVariableBinding, Variable> receiverFields,
+			DerivedJoins<LE> derivedCache) {
 		this.aliasing = aliasing;
 		this.info = info;
-		this.derivedCache = new HashMap<Aliasing, LE>();
+		this.derivedCache = derivedCache;
 		this.callback = callback;
 		this.receiverFields = receiverFields; 
 	}
@@ -278,7 +312,7 @@ public class AliasAwareTupleLE<LE extends LatticeElement<LE>> implements
 		if( this.isBottom() )
 			return defaultResult(objects);
 		
-		LE result = derivedCache.get(objects);
+		LE result = derivedCache.get(objects.getLabels(), info);
 		if (result == null) {
 			LE derived = deriveInfoFromLabels(objects);
 			if (derived == null) {
@@ -286,7 +320,7 @@ public class AliasAwareTupleLE<LE extends LatticeElement<LE>> implements
 			}
 			else {
 				result = derived;
-				derivedCache.put(objects, derived);
+				derivedCache.put(objects.getLabels(), info, derived);
 			}
 		}
 		assert result != null;
@@ -309,28 +343,35 @@ public class AliasAwareTupleLE<LE extends LatticeElement<LE>> implements
 
 	/**
 	 * This method attempts to derive analysis information for a given aliasing
-	 * set from information about its labels.
+	 * set from information about its labels.  The labels' information is 
+	 * joined pairwise in rounds, so no intermediate result is joined more than
+	 * about log(n) times for a set of n labels.
 	 * 
 	 * @param a
 	 * @return Derived analysis information or <code>null</code> if no
 	 *         information about any of the labels in the given aliasing set is available.
 	 */
 	private LE deriveInfoFromLabels(Aliasing a) {
-		LE derived = null;
 		Set<ObjectLabel> labels = a.getLabels();
 		if(isBottom())
 			return null;
+		List<LE> joined = new ArrayList<LE>(labels.size());
 		for (ObjectLabel l : labels) {
 			LE labelLE = info.get(l);
-			if (labelLE != null) {
-				if (derived == null)
-					derived = labelLE.copy();
-				else
-					derived = derived.copy()
-							.join(labelLE.copy(), null);
-			}
+			if (labelLE != null)
+				joined.add(labelLE.copy());
+		}
+		if (joined.isEmpty())
+			return null;
+		while (joined.size() > 1) {
+			List<LE> next = new ArrayList<LE>((joined.size() + 1) / 2);
+			for (int i = 0; i + 1 < joined.size(); i += 2)
+				next.add(joined.get(i).join(joined.get(i + 1).copy(), null));
+			if (joined.size() % 2 == 1)
+				next.add(joined.get(joined.size() - 1));
+			joined = next;
 		}
-		return derived;
+		return joined.get(0);
 	}
 	
 	/**
@@ -464,7 +505,6 @@ public class AliasAwareTupleLE<LE extends LatticeElement<LE>> implements
 			@Override public void remove() {
 				if(cur == null)
 					throw new IllegalStateException("Nothing to remove.");
-				AliasAwareTupleLE.this.derivedCache.clear();
 				AliasAwareTupleLE.this.info.remove(cur);
 				cur = null;
 			}
@@ -472,7 +512,6 @@ public class AliasAwareTupleLE<LE extends LatticeElement<LE>> implements
 			@Override public void replace(LE newValue) {
 				if(cur == null)
 					throw new IllegalStateException("Nothing to replace.");
-				AliasAwareTupleLE.this.derivedCache.clear();
 				AliasAwareTupleLE.this.info.put(cur, newValue);
 				cur = null;
 			}
@@ -513,12 +552,11 @@ public class AliasAwareTupleLE<LE extends LatticeElement<LE>> implements
 		
 		// put should not happen on bottom because bottom is frozen, so dereferencing info is ok
 		
-		derivedCache.clear();
 		if(a.getLabels().size() == 1) {
 			// strong update
 			ObjectLabel l = a.getLabels().iterator().next();
 			info.put(l, newInfo.copy());
-			derivedCache.put(a, newInfo);
+			derivedCache.put(a.getLabels(), info, newInfo);
 		}
 		else {
 			for(ObjectLabel l : a.getLabels()) {
@@ -803,7 +841,8 @@ public class AliasAwareTupleLE<LE extends LatticeElement<LE>> implements
 	 *         the receiving one but with the given (new) analysis information.
 	 */
 	private AliasAwareTupleLE<LE> createTuple(Map<ObjectLabel, LE> newInfo) {
-		return new AliasAwareTupleLE<LE>(aliasing, newInfo, callback, this.receiverFields);
+		return new AliasAwareTupleLE<LE>(aliasing, newInfo, callback, this.receiverFields, 
+				this.derivedCache);
 	}
 
 	public AliasAwareTupleLE<LE> bottom() {
@@ -825,6 +864,104 @@ public class AliasAwareTupleLE<LE extends LatticeElement<LE>> implements
 	public Map<IVariableBinding, Variable> getReceiverFields() {
 		return receiverFields;
 	}
+	
+	/**
+	 * Local aliasing results for one method, kept in a bounded cache so that 
+	 * all cases of the method and all analyses that run over it with the same
+	 * TACs and annotations only compute them once.
+	 * Estimated sizes are characters of source code.
+	 * @see AliasAwareTupleLE#create(IAnalysisInput, MethodDeclaration, LatticeElement)
+	 */
+	private static final class MethodAliasing {
+		
+		private static final ResultCache<MethodAliasing> cache = 
+			ResultCache.create("aliasing", 4000000L);
+		
+		static MethodAliasing forMethod(IAnalysisInput input, MethodDeclaration decl) {
+			CompilationUnitTACs tacs = input.getComUnitTACs().unwrap();
+			ResultCache.Key key = ResultCache.identityKey(tacs, input.getAnnoDB(), decl);
+			MethodAliasing result = cache.get(key);
+			if(result == null) {
+				result = new MethodAliasing(input, tacs);
+				// analyze right away so the shared analysis is only read from
+				result.aliasing.getEndResults(decl);
+				result = cache.put(key, result, decl.getLength());
+			}
+			return result;
+		}
+		
+		final ITACFlowAnalysis<AliasingLE> aliasing;
+		final Map<IVariableBinding, Variable> receiverFields;
+		
+		private MethodAliasing(IAnalysisInput input, CompilationUnitTACs tacs) {
+			Map<IVariableBinding, Variable> fields = new HashMap<IVariableBinding, Variable>();
+			this.aliasing = new TACFlowAnalysis<AliasingLE>(
+					new LocalAliasTransfer(input.getAnnoDB(), fields), tacs);
+			this.receiverFields = Collections.unmodifiableMap(fields);
+		}
+	}
+
+	/**
+	 * Information derived for sets of labels, shared by a tuple and all 
+	 * tuples copied or joined from it.  Each entry remembers the information
+	 * for its labels that it was derived from; it is only used for a tuple 
+	 * whose information for these labels is still the identical objects.
+	 * Since immutable lattice elements, like permissions, return themselves 
+	 * when copied, derived information survives copies of the tuple, while
+	 * changing the information for a label invalidates exactly the entries 
+	 * that include the label.  The least recently used entries are dropped
+	 * once there are too many.  Like the tuples themselves, this is not 
+	 * thread-safe.
+	 */
+	private static final class DerivedJoins<LE> {
+		
+		private static final int MAX_ENTRIES = 1024;
+		
+		private final Map<Set<ObjectLabel>, Derived<LE>> entries = 
+			new LinkedHashMap<Set<ObjectLabel>, Derived<LE>>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Set<ObjectLabel>, Derived<LE>> eldest) {
+					return size() > MAX_ENTRIES;
+				}
+			};
+		
+		/**
+		 * Returns the information derived for the given labels, or 
+		 * <code>null</code> if there is none or the given information 
+		 * for the labels is not what it was derived from.
+		 */
+		LE get(Set<ObjectLabel> labels, Map<ObjectLabel, LE> info) {
+			Derived<LE> d = entries.get(labels);
+			if(d == null)
+				return null;
+			for(int i = 0; i < d.labels.length; i++) {
+				if(info.get(d.labels[i]) != d.sources[i])
+					return null;
+			}
+			return d.result;
+		}
+		
+		void put(Set<ObjectLabel> labels, Map<ObjectLabel, LE> info, LE result) {
+			ObjectLabel[] ls = labels.toArray(new ObjectLabel[labels.size()]);
+			Object[] sources = new Object[ls.length];
+			for(int i = 0; i < ls.length; i++)
+				sources[i] = info.get(ls[i]);
+			entries.put(new HashSet<ObjectLabel>(labels), new Derived<LE>(ls, sources, result));
+		}
+		
+		private static final class Derived<LE> {
+			final ObjectLabel[] labels;
+			final Object[] sources;
+			final LE result;
+			
+			Derived(ObjectLabel[] labels, Object[] sources, LE result) {
+				this.labels = labels;
+				this.sources = sources;
+				this.result = result;
+			}
+		}
+	}
 
 	/**
 	 * Returns a set of tuples representing the cross product of
@@ -37,6 +37,12 @@
  */
 package edu.cmu.cs.plural.alias;
 
+import java.lang.ref.WeakReference;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.eclipse.jdt.core.dom.MethodDeclaration;
 
 import edu.cmu.cs.crystal.IAnalysisInput;
@@ -47,33 +53,114 @@ import edu.cmu.cs.crystal.flow.IResult;
 import edu.cmu.cs.crystal.simple.TupleLatticeElement;
 import edu.cmu.cs.crystal.tac.ITACFlowAnalysis;
 import edu.cmu.cs.crystal.tac.TACFlowAnalysis;
+import edu.cmu.cs.crystal.tac.eclipse.CompilationUnitTACs;
 import edu.cmu.cs.crystal.tac.model.TACInstruction;
 import edu.cmu.cs.crystal.tac.model.Variable;
+import edu.cmu.cs.plural.util.ResultCache;
 
 /**
+ * Answers liveness queries for the Plural transfer functions.
+ * The liveness of an instruction is compiled into bit sets the first
+ * time it is queried: every variable of the method gets an index, and
+ * the instruction keeps the variables live before it and after it,
+ * merged and for each of its labels.  Killing dead variables asks about 
+ * every tracked variable after every instruction, for every case of 
+ * the method, so all but the first query for an instruction only test bits.
+ * Once the method is analyzed, {@link #release()} drops Crystal's liveness
+ * analysis, so that cached proxies only keep the compiled bit sets.
  * @author Kevin Bierhoff
  * @since 7/30/2008
  */
 public class LivenessProxy {
 	
-	private final ITACFlowAnalysis<TupleLatticeElement<Variable, LiveVariableLE>> livenessAnalysis;
+	/** 
+	 * Crystal's liveness analysis, which holds on to the TACs of the method,
+	 * or <code>null</code> if released; see {@link #analysis()}.
+	 */
+	private ITACFlowAnalysis<TupleLatticeElement<Variable, LiveVariableLE>> livenessAnalysis;
+	
+	/** TACs to compute liveness from again after the analysis was released. */
+	private final WeakReference<CompilationUnitTACs> tacs;
+	
+	/** Method whose liveness is compiled. */
+	private WeakReference<MethodDeclaration> method;
+	
+	/** Index of each variable in the compiled bit sets; only grows while compiling. */
+	private final Map<Variable, Integer> variableIndex = new ConcurrentHashMap<Variable, Integer>();
+	
+	private final Map<TACInstruction, CompiledLiveness> compiled = 
+		new HashMap<TACInstruction, CompiledLiveness>();
+	
+	/** 
+	 * Liveness of recently analyzed methods, by TACs and method.
+	 * Estimated sizes are characters of source code.
+	 */
+	private static final ResultCache<LivenessProxy> cache = 
+		ResultCache.create("liveness", 4000000L);
+	
+	/**
+	 * Returns liveness information for the given method, which is shared 
+	 * with every other analysis of the method using the same TACs as long
+	 * as it stays in the cache.  The result must not be switched to 
+	 * another method.
+	 * @param input
+	 * @param d
+	 * @return liveness information for the given method.
+	 */
+	public static LivenessProxy forMethod(final IAnalysisInput input, MethodDeclaration d) {
+		CompilationUnitTACs tacs = input.getComUnitTACs().unwrap();
+		ResultCache.Key key = ResultCache.identityKey(tacs, d);
+		LivenessProxy result = cache.get(key);
+		if(result == null) {
+			result = new LivenessProxy(tacs, d);
+			result = cache.put(key, result, d.getLength());
+		}
+		return result;
+	}
+	
+	private LivenessProxy(CompilationUnitTACs tacs, MethodDeclaration d) {
+		this.tacs = new WeakReference<CompilationUnitTACs>(tacs);
+		switchToMethod(d);
+	}
 	
-	public static LivenessProxy create(final IAnalysisInput input) {
-		return new LivenessProxy(input);
+	public synchronized void switchToMethod(MethodDeclaration d) {
+		if(method == null || method.get() != d) {
+			method = new WeakReference<MethodDeclaration>(d);
+			variableIndex.clear();
+			compiled.clear();
+			analysis().getEndResults(d);
+		}
+		// else keep the compiled liveness without running the analysis again
 	}
 	
-	private LivenessProxy(final IAnalysisInput input) {		
-		livenessAnalysis = 
-			new TACFlowAnalysis<TupleLatticeElement<Variable, LiveVariableLE>>(new LiveVariableTransferFunction(), input.getComUnitTACs().unwrap());
+	/**
+	 * Drops Crystal's liveness analysis, keeping the liveness compiled so far.
+	 * Should be called once the method is analyzed, since the analysis keeps 
+	 * the TACs of the method, which the cache of proxies only refers to weakly.
+	 * Instructions that were not compiled yet can still be queried, at the 
+	 * cost of running the liveness analysis again.
+	 */
+	public synchronized void release() {
+		livenessAnalysis = null;
 	}
 	
-	public void switchToMethod(MethodDeclaration d) {
-		livenessAnalysis.getEndResults(d);
+	/**
+	 * Returns Crystal's liveness analysis, creating it if it was released.
+	 */
+	private synchronized ITACFlowAnalysis<TupleLatticeElement<Variable, LiveVariableLE>> analysis() {
+		if(livenessAnalysis == null) {
+			CompilationUnitTACs t = tacs.get();
+			if(t == null)
+				throw new IllegalStateException("Liveness queried after its TACs were collected");
+			livenessAnalysis = 
+				new TACFlowAnalysis<TupleLatticeElement<Variable, LiveVariableLE>>(new LiveVariableTransferFunction(), t);
+		}
+		return livenessAnalysis;
 	}
 	
 	public boolean isDeadBefore(TACInstruction instr, Variable x) {
 		// no point in using labeled results since dead variable is branch insensitive
-		return livenessAnalysis.getResultsBefore(instr).get(x) == LiveVariableLE.DEAD;
+		return analysis().getResultsBefore(instr).get(x) == LiveVariableLE.DEAD;
 	}
 
 	public boolean isDeadAfter(TACInstruction instr, Variable x, ILabel label) {
@@ -83,13 +170,27 @@ public class LivenessProxy {
 
 	public boolean isLiveBefore(TACInstruction instr, Variable x) {
 		// no point in using labeled results since dead variable is branch insensitive
-		return livenessAnalysis.getResultsBefore(instr).get(x) == LiveVariableLE.LIVE;
+		return compile(instr).before.contains(x);
 	}
 
 	public boolean isLiveAfter(TACInstruction instr, Variable x, ILabel label) {
 		// distinguish incoming results on different labels
-		LiveVariableLE info = getAfterResult(instr, x, label);
-		return info == LiveVariableLE.LIVE;
+		return liveAfter(instr, label).contains(x);
+	}
+	
+	/**
+	 * Returns the variables live after the given instruction on edges 
+	 * of the given label, or the merged after-result, if there are
+	 * no edges with that label.  This is cheaper than asking 
+	 * {@link #isLiveAfter(TACInstruction, Variable, ILabel)} for many variables.
+	 * @param instr
+	 * @param label
+	 * @return the variables live after the given instruction.
+	 */
+	public LiveVariables liveAfter(TACInstruction instr, ILabel label) {
+		CompiledLiveness c = compile(instr);
+		LiveVariables result = c.afterByLabel.get(label);
+		return result == null ? c.after : result;
 	}
 
 	/**
@@ -105,16 +206,88 @@ public class LivenessProxy {
 	 */
 	private LiveVariableLE getAfterResult(TACInstruction instr, Variable x,
 			ILabel label) {
+		ITACFlowAnalysis<TupleLatticeElement<Variable, LiveVariableLE>> analysis = analysis();
 		IResult<TupleLatticeElement<Variable, LiveVariableLE>> after = 
-			livenessAnalysis.getLabeledResultsAfter(instr);
+			analysis.getLabeledResultsAfter(instr);
 		LiveVariableLE result;
 		if(after.keySet().contains(label)) {
 			result = after.get(label).get(x);
 		} 
 		else
 			// label unknown--use merged result
-			result = livenessAnalysis.getResultsAfter(instr).get(x);
+			result = analysis.getResultsAfter(instr).get(x);
 		return result;
 	}
+	
+	/**
+	 * Returns the compiled liveness of the given instruction,
+	 * compiling it if this is the first query for it.
+	 */
+	private synchronized CompiledLiveness compile(TACInstruction instr) {
+		CompiledLiveness result = compiled.get(instr);
+		if(result == null) {
+			ITACFlowAnalysis<TupleLatticeElement<Variable, LiveVariableLE>> analysis = analysis();
+			result = new CompiledLiveness(
+					liveVariables(analysis.getResultsBefore(instr)),
+					liveVariables(analysis.getResultsAfter(instr)));
+			IResult<TupleLatticeElement<Variable, LiveVariableLE>> after = 
+				analysis.getLabeledResultsAfter(instr);
+			for(ILabel label : after.keySet()) {
+				result.afterByLabel.put(label, liveVariables(after.get(label)));
+			}
+			compiled.put(instr, result);
+		}
+		return result;
+	}
+	
+	private LiveVariables liveVariables(TupleLatticeElement<Variable, LiveVariableLE> tuple) {
+		BitSet live = new BitSet(variableIndex.size());
+		for(Variable x : tuple.getKeySet()) {
+			if(tuple.get(x) == LiveVariableLE.LIVE)
+				live.set(indexOf(x));
+		}
+		return new LiveVariables(live);
+	}
+	
+	private int indexOf(Variable x) {
+		Integer result = variableIndex.get(x);
+		if(result == null) {
+			result = variableIndex.size();
+			variableIndex.put(x, result);
+		}
+		return result;
+	}
+	
+	/**
+	 * Liveness of one instruction, compiled into bit sets.
+	 */
+	private static class CompiledLiveness {
+		final LiveVariables before;
+		final LiveVariables after;
+		final Map<ILabel, LiveVariables> afterByLabel = new HashMap<ILabel, LiveVariables>(2);
+		
+		CompiledLiveness(LiveVariables before, LiveVariables after) {
+			this.before = before;
+			this.after = after;
+		}
+	}
+	
+	/**
+	 * A set of variables that are live at some point in the method, 
+	 * represented as a bit set over the indexes of the variables.
+	 */
+	public final class LiveVariables {
+		
+		private final BitSet live;
+		
+		private LiveVariables(BitSet live) {
+			this.live = live;
+		}
+		
+		public boolean contains(Variable x) {
+			Integer i = variableIndex.get(x);
+			return i != null && live.get(i);
+		}
+	}
 
 }
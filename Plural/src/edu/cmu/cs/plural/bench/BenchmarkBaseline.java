@@ -0,0 +1,228 @@
+/**
+ * Copyright (C) 2007-2009 Carnegie Mellon University and others.
+ *
+ * This file is part of Plural.
+ *
+ * Plural is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as 
+ * published by the Free Software Foundation.
+ *
+ * Plural is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Plural; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Linking Plural statically or dynamically with other modules is
+ * making a combined work based on Plural. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * In addition, as a special exception, the copyright holders of Plural
+ * give you permission to combine Plural with free software programs or
+ * libraries that are released under the GNU LGPL and with code
+ * included in the standard release of Eclipse under the Eclipse Public
+ * License (or modified versions of such code, with unchanged license).
+ * You may copy and distribute such a system following the terms of the
+ * GNU GPL for Plural and the licenses of the other code concerned.
+ *
+ * Note that people who make modified versions of Plural are not
+ * obligated to grant this special exception for their modified
+ * versions; it is their choice whether to do so. The GNU General
+ * Public License gives permission to release a modified version
+ * without this exception; this exception also makes it possible to
+ * release a modified version which carries forward this exception.
+ */
+package edu.cmu.cs.plural.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The measurements of a benchmark run, which can be written to and read 
+ * from a JSON file to serve as the baseline for later runs.  Each result
+ * is written on a line of its own, which is also what the reader expects:
+ * <pre>
+ * {
+ *   "threshold": 0.25,
+ *   "results": [
+ *     {"checker": "plural", "class": "a.B", "wallMillis": 812.5, ...},
+ *     ...
+ *   ]
+ * }
+ * </pre>
+ */
+final class BenchmarkBaseline {
+
+	/**
+	 * Measurements for one checker on one class.
+	 */
+	static final class Result {
+		final String checker;
+		final String className;
+		/** Median over the measured runs. */
+		final double wallMillis;
+		/** Median over the measured runs; negative if the VM cannot tell. */
+		final long allocatedBytes;
+		final long peakContextSize;
+		final long solverCalls;
+		final long problems;
+		
+		Result(String checker, String className, double wallMillis,
+				long allocatedBytes, long peakContextSize, long solverCalls,
+				long problems) {
+			this.checker = checker;
+			this.className = className;
+			this.wallMillis = wallMillis;
+			this.allocatedBytes = allocatedBytes;
+			this.peakContextSize = peakContextSize;
+			this.solverCalls = solverCalls;
+			this.problems = problems;
+		}
+		
+		String key() {
+			return checker + " " + className;
+		}
+		
+		/**
+		 * Allocation rate in MB per second of wall time.
+		 */
+		double allocationRate() {
+			if(allocatedBytes < 0 || wallMillis <= 0)
+				return -1;
+			return (allocatedBytes / (1024.0 * 1024.0)) / (wallMillis / 1000.0);
+		}
+		
+		/**
+		 * Describes how this result regressed compared to the given baseline,
+		 * allowing the given relative increase; returns an empty list if
+		 * it didn't.
+		 */
+		List<String> regressionsFrom(Result base, double threshold) {
+			List<String> result = new ArrayList<String>();
+			if(wallMillis > base.wallMillis * (1 + threshold))
+				result.add(key() + ": wall time " + wallMillis + " ms, baseline " + base.wallMillis + " ms");
+			if(allocatedBytes >= 0 && base.allocatedBytes >= 0 && 
+					allocatedBytes > base.allocatedBytes * (1 + threshold))
+				result.add(key() + ": allocated " + allocatedBytes + " bytes, baseline " + base.allocatedBytes);
+			if(peakContextSize > base.peakContextSize * (1 + threshold))
+				result.add(key() + ": peak context size " + peakContextSize + ", baseline " + base.peakContextSize);
+			if(solverCalls > base.solverCalls * (1 + threshold))
+				result.add(key() + ": " + solverCalls + " solver calls, baseline " + base.solverCalls);
+			if(problems != base.problems)
+				// not a performance problem, but the numbers aren't comparable
+				result.add(key() + ": " + problems + " problems reported, baseline " + base.problems);
+			return result;
+		}
+		
+		@Override
+		public String toString() {
+			return "{\"checker\": \"" + checker + "\", \"class\": \"" + className + 
+				"\", \"wallMillis\": " + wallMillis + 
+				", \"allocatedBytes\": " + allocatedBytes + 
+				", \"allocationMBPerSecond\": " + allocationRate() + 
+				", \"peakContextSize\": " + peakContextSize + 
+				", \"solverCalls\": " + solverCalls + 
+				", \"problems\": " + problems + "}";
+		}
+	}
+	
+	private static final Pattern STRING_FIELD = Pattern.compile("\"(\\w+)\"\\s*:\\s*\"([^\"]*)\"");
+	private static final Pattern NUMBER_FIELD = Pattern.compile("\"(\\w+)\"\\s*:\\s*(-?[0-9.eE+-]+)");
+
+	private final double threshold;
+	
+	private final Map<String, Result> results = new LinkedHashMap<String, Result>();
+	
+	BenchmarkBaseline(double threshold) {
+		this.threshold = threshold;
+	}
+	
+	double getThreshold() {
+		return threshold;
+	}
+	
+	void add(Result r) {
+		results.put(r.key(), r);
+	}
+	
+	Result get(String key) {
+		return results.get(key);
+	}
+	
+	Iterable<Result> results() {
+		return Collections.unmodifiableCollection(results.values());
+	}
+	
+	void write(File file) throws IOException {
+		PrintWriter out = new PrintWriter(new FileWriter(file));
+		try {
+			out.println("{");
+			out.println("  \"threshold\": " + threshold + ",");
+			out.println("  \"results\": [");
+			int i = 0;
+			for(Result r : results.values()) {
+				out.println("    " + r + (++i < results.size() ? "," : ""));
+			}
+			out.println("  ]");
+			out.println("}");
+		}
+		finally {
+			out.close();
+		}
+	}
+	
+	/**
+	 * Reads a baseline written by {@link #write(File)}.
+	 */
+	static BenchmarkBaseline read(File file, double defaultThreshold) throws IOException {
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		try {
+			BenchmarkBaseline result = null;
+			String line;
+			while((line = in.readLine()) != null) {
+				Map<String, String> fields = fields(line);
+				if(result == null && fields.containsKey("threshold"))
+					result = new BenchmarkBaseline(Double.parseDouble(fields.get("threshold")));
+				else if(fields.containsKey("checker")) {
+					if(result == null)
+						result = new BenchmarkBaseline(defaultThreshold);
+					result.add(new Result(fields.get("checker"), fields.get("class"),
+							Double.parseDouble(fields.get("wallMillis")),
+							Long.parseLong(fields.get("allocatedBytes")),
+							Long.parseLong(fields.get("peakContextSize")),
+							Long.parseLong(fields.get("solverCalls")),
+							Long.parseLong(fields.get("problems"))));
+				}
+			}
+			return result == null ? new BenchmarkBaseline(defaultThreshold) : result;
+		}
+		finally {
+			in.close();
+		}
+	}
+	
+	private static Map<String, String> fields(String line) {
+		Map<String, String> result = new LinkedHashMap<String, String>();
+		Matcher m = STRING_FIELD.matcher(line);
+		while(m.find())
+			result.put(m.group(1), m.group(2));
+		m = NUMBER_FIELD.matcher(line);
+		while(m.find())
+			result.put(m.group(1), m.group(2));
+		return result;
+	}
+}
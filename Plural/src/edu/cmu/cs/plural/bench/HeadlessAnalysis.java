@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2007-2009 Carnegie Mellon University and others.
+ *
+ * This file is part of Plural.
+ *
+ * Plural is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as 
+ * published by the Free Software Foundation.
+ *
+ * Plural is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Plural; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Linking Plural statically or dynamically with other modules is
+ * making a combined work based on Plural. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * In addition, as a special exception, the copyright holders of Plural
+ * give you permission to combine Plural with free software programs or
+ * libraries that are released under the GNU LGPL and with code
+ * included in the standard release of Eclipse under the Eclipse Public
+ * License (or modified versions of such code, with unchanged license).
+ * You may copy and distribute such a system following the terms of the
+ * GNU GPL for Plural and the licenses of the other code concerned.
+ *
+ * Note that people who make modified versions of Plural are not
+ * obligated to grant this special exception for their modified
+ * versions; it is their choice whether to do so. The GNU General
+ * Public License gives permission to release a modified version
+ * without this exception; this exception also makes it possible to
+ * release a modified version which carries forward this exception.
+ */
+package edu.cmu.cs.plural.bench;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+
+import edu.cmu.cs.crystal.IAnalysisInput;
+import edu.cmu.cs.crystal.IAnalysisReporter;
+import edu.cmu.cs.crystal.annotations.AnnotationDatabase;
+import edu.cmu.cs.crystal.internal.AbstractCrystalPlugin;
+import edu.cmu.cs.crystal.tac.eclipse.CompilationUnitTACs;
+import edu.cmu.cs.crystal.util.Option;
+
+/**
+ * What the headless applications need to run analyses outside of 
+ * Crystal's user interface: parsed compilation units, analysis inputs,
+ * and a reporter that records problems instead of creating markers.
+ */
+final class HeadlessAnalysis {
+	
+	private HeadlessAnalysis() {}
+
+	static CompilationUnit parse(ICompilationUnit cu) {
+		ASTParser parser = ASTParser.newParser(AST.JLS3);
+		parser.setResolveBindings(true);
+		parser.setSource(cu);
+		return (CompilationUnit) parser.createAST(null);
+	}
+	
+	/**
+	 * Creates an input for a new analysis, like the history view does.
+	 */
+	static IAnalysisInput createAnalysisInput() {
+		final AnnotationDatabase annodb = new AnnotationDatabase();
+		AbstractCrystalPlugin.getCrystalInstance().registerAnnotationsWithDatabase(annodb);
+		final CompilationUnitTACs cutac = new CompilationUnitTACs();
+		final IProgressMonitor monitor = new NullProgressMonitor();
+		
+		return new IAnalysisInput() {
+			@Override
+			public AnnotationDatabase getAnnoDB() {
+				return annodb;
+			}
+
+			@Override
+			public Option<CompilationUnitTACs> getComUnitTACs() {
+				return Option.some(cutac);
+			}
+
+			@Override
+			public Option<IProgressMonitor> getProgressMonitor() {
+				return Option.some(monitor);
+			}
+		};
+	}
+	
+	/**
+	 * Records reported problems instead of creating markers.
+	 */
+	static final class RecordingReporter implements IAnalysisReporter {
+		
+		private final List<String> problems = new ArrayList<String>();
+
+		@Override
+		public void clearMarkersForCompUnit(ICompilationUnit compUnit) {
+			// no markers
+		}
+
+		@Override
+		public void reportUserProblem(String problemDescription, ASTNode node, String analysisName) {
+			record(problemDescription, node, analysisName);
+		}
+
+		@Override
+		public void reportUserProblem(String problemDescription, ASTNode node, String analysisName,
+				SEVERITY severity) {
+			record(problemDescription, node, analysisName);
+		}
+		
+		private synchronized void record(String problemDescription, ASTNode node, String analysisName) {
+			String line = "";
+			if(node != null && node.getRoot() instanceof CompilationUnit)
+				line = ":" + ((CompilationUnit) node.getRoot()).getLineNumber(node.getStartPosition());
+			problems.add(analysisName + line + ": " + problemDescription);
+		}
+		
+		synchronized int getProblemCount() {
+			return problems.size();
+		}
+		
+		synchronized List<String> getProblems() {
+			return Collections.unmodifiableList(new ArrayList<String>(problems));
+		}
+	}
+}
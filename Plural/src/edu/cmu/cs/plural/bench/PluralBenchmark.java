@@ -0,0 +1,297 @@
+/**
+ * Copyright (C) 2007-2009 Carnegie Mellon University and others.
+ *
+ * This file is part of Plural.
+ *
+ * Plural is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as 
+ * published by the Free Software Foundation.
+ *
+ * Plural is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Plural; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Linking Plural statically or dynamically with other modules is
+ * making a combined work based on Plural. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * In addition, as a special exception, the copyright holders of Plural
+ * give you permission to combine Plural with free software programs or
+ * libraries that are released under the GNU LGPL and with code
+ * included in the standard release of Eclipse under the Eclipse Public
+ * License (or modified versions of such code, with unchanged license).
+ * You may copy and distribute such a system following the terms of the
+ * GNU GPL for Plural and the licenses of the other code concerned.
+ *
+ * Note that people who make modified versions of Plural are not
+ * obligated to grant this special exception for their modified
+ * versions; it is their choice whether to do so. The GNU General
+ * Public License gives permission to release a modified version
+ * without this exception; this exception also makes it possible to
+ * release a modified version which carries forward this exception.
+ */
+package edu.cmu.cs.plural.bench;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.equinox.app.IApplication;
+import org.eclipse.equinox.app.IApplicationContext;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.MethodDeclaration;
+
+import edu.cmu.cs.plural.concurrent.nimby.NIMBYChecker;
+import edu.cmu.cs.plural.concurrent.syncorswim.SyncOrSwim;
+import edu.cmu.cs.plural.track.FractionalAnalysis;
+import edu.cmu.cs.plural.util.AnalysisStatistics;
+import edu.cmu.cs.plural.util.ResultCache;
+
+/**
+ * A headless application that benchmarks the checkers on classes from
+ * a project in the workspace, by default the larger examples in 
+ * PluralTestsAndExamples.  Each checker analyzes each class a few times
+ * to warm up and then a few more times while it is measured.  The results
+ * are compared to a JSON {@link BenchmarkBaseline baseline}, and the run 
+ * fails if any of them got worse by more than a threshold.  If there is 
+ * no baseline yet, or <code>-update</code> is given, the results become the
+ * new baseline.  Run it with a workspace containing the project:
+ * <pre>
+ * eclipse -nosplash -application edu.cmu.cs.plural.benchmark -data &lt;workspace&gt;
+ *     [-project PermissionTest] [-classes a.B,c.D] [-checkers plural,nimby,syncorswim]
+ *     [-warmup 2] [-runs 5] [-baseline plural-benchmark.json] [-threshold 0.25] [-update]
+ * </pre>
+ */
+public class PluralBenchmark implements IApplication {
+	
+	/** Exit code for a run that regressed. */
+	public static final Integer EXIT_REGRESSION = Integer.valueOf(1);
+	
+	private static final String DEFAULT_PROJECT = "PermissionTest";
+	
+	private static final List<String> DEFAULT_CLASSES = Arrays.asList(
+			"edu.cmu.cs.nimby.test.oopsla.JChannel",
+			"edu.cmu.cs.nimby.test.oopsla.CausalDemo",
+			"edu.cmu.cs.plural.test.HuffmanDecoder",
+			"edu.cmu.cs.syncorswim.blockingqueue.Blocking_queue");
+	
+	private static final List<String> CHECKERS = Arrays.asList("plural", "nimby", "syncorswim");
+	
+	private static final double DEFAULT_THRESHOLD = 0.25;
+	
+	private String project = DEFAULT_PROJECT;
+	private List<String> classes = DEFAULT_CLASSES;
+	private List<String> checkers = CHECKERS;
+	private int warmup = 2;
+	private int runs = 5;
+	private File baselineFile = new File("plural-benchmark.json");
+	private Double threshold = null;
+	private boolean update = false;
+	
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	@Override
+	public Object start(IApplicationContext context) throws Exception {
+		String[] args = (String[]) context.getArguments().get(IApplicationContext.APPLICATION_ARGS);
+		parseArguments(args == null ? new String[0] : args);
+		
+		IJavaProject java_project = JavaCore.create(
+				ResourcesPlugin.getWorkspace().getRoot().getProject(project));
+		if(java_project == null || !java_project.exists()) {
+			System.err.println("No Java project " + project + " in the workspace.");
+			return EXIT_REGRESSION;
+		}
+		
+		boolean previous = AnalysisStatistics.isEnabled();
+		AnalysisStatistics.enable(true);
+		BenchmarkBaseline current;
+		try {
+			current = new BenchmarkBaseline(threshold == null ? DEFAULT_THRESHOLD : threshold);
+			for(String c : classes) {
+				ICompilationUnit cu = findCompilationUnit(java_project, c);
+				for(String checker : checkers) {
+					BenchmarkBaseline.Result r = measure(checker, c, cu);
+					System.out.println(r);
+					current.add(r);
+				}
+			}
+			System.out.println(ResultCache.report());
+		}
+		finally {
+			AnalysisStatistics.enable(previous);
+		}
+		
+		if(update || !baselineFile.exists()) {
+			current.write(baselineFile);
+			System.out.println("Wrote baseline " + baselineFile.getAbsolutePath());
+			return EXIT_OK;
+		}
+		
+		BenchmarkBaseline baseline = BenchmarkBaseline.read(baselineFile, DEFAULT_THRESHOLD);
+		double allowed = threshold == null ? baseline.getThreshold() : threshold;
+		List<String> regressions = new ArrayList<String>();
+		for(BenchmarkBaseline.Result r : current.results()) {
+			BenchmarkBaseline.Result base = baseline.get(r.key());
+			if(base == null)
+				System.out.println("No baseline for " + r.key());
+			else
+				regressions.addAll(r.regressionsFrom(base, allowed));
+		}
+		if(regressions.isEmpty()) {
+			System.out.println("No regressions against " + baselineFile.getAbsolutePath());
+			return EXIT_OK;
+		}
+		for(String regression : regressions)
+			System.err.println("REGRESSION " + regression);
+		return EXIT_REGRESSION;
+	}
+
+	@Override
+	public void stop() {
+		// nothing to do: runs are short and not interruptible
+	}
+	
+	private void parseArguments(String[] args) {
+		for(int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if("-update".equals(arg))
+				update = true;
+			else if(i + 1 >= args.length)
+				throw new IllegalArgumentException("Missing value for " + arg);
+			else if("-project".equals(arg))
+				project = args[++i];
+			else if("-classes".equals(arg))
+				classes = Arrays.asList(args[++i].split(","));
+			else if("-checkers".equals(arg)) {
+				checkers = Arrays.asList(args[++i].split(","));
+				for(String checker : checkers) {
+					if(!CHECKERS.contains(checker))
+						throw new IllegalArgumentException("Unknown checker " + checker + "; use one of " + CHECKERS);
+				}
+			}
+			else if("-warmup".equals(arg))
+				warmup = Integer.parseInt(args[++i]);
+			else if("-runs".equals(arg))
+				runs = Integer.parseInt(args[++i]);
+			else if("-baseline".equals(arg))
+				baselineFile = new File(args[++i]);
+			else if("-threshold".equals(arg))
+				threshold = Double.valueOf(args[++i]);
+			else
+				throw new IllegalArgumentException("Unknown argument " + arg);
+		}
+		if(runs < 1)
+			throw new IllegalArgumentException("Need at least one measured run");
+	}
+
+	private static ICompilationUnit findCompilationUnit(IJavaProject project, String className) 
+			throws JavaModelException {
+		IType type = project.findType(className);
+		if(type == null || type.getCompilationUnit() == null)
+			throw new IllegalArgumentException("No source for " + className + " in " + project.getElementName());
+		return type.getCompilationUnit();
+	}
+	
+	/**
+	 * Runs the given checker on the given compilation unit repeatedly
+	 * and summarizes the measured runs.
+	 */
+	private BenchmarkBaseline.Result measure(String checker, String className, ICompilationUnit cu) {
+		for(int i = 0; i < warmup; i++)
+			runOnce(checker, cu);
+		
+		long[] wall = new long[runs];
+		long[] allocated = new long[runs];
+		long peak = 0;
+		long solver_calls = 0;
+		long problems = 0;
+		for(int i = 0; i < runs; i++) {
+			// parse outside of the measurement
+			CompilationUnit ast = HeadlessAnalysis.parse(cu);
+			AnalysisStatistics.reset();
+			long allocated_before = allocatedBytes();
+			long start = System.nanoTime();
+			problems = analyze(checker, ast);
+			wall[i] = System.nanoTime() - start;
+			long allocated_after = allocatedBytes();
+			allocated[i] = allocated_before < 0 || allocated_after < 0 ? -1 : allocated_after - allocated_before;
+			peak = Math.max(peak, AnalysisStatistics.getPeakContextSize());
+			// the analysis is deterministic, so all runs make the same calls
+			solver_calls = AnalysisStatistics.getSolverCalls();
+		}
+		return new BenchmarkBaseline.Result(checker, className, 
+				median(wall) / 1000000.0, median(allocated), peak, solver_calls, problems);
+	}
+
+	private void runOnce(String checker, ICompilationUnit cu) {
+		analyze(checker, HeadlessAnalysis.parse(cu));
+	}
+	
+	/**
+	 * Analyzes every method in the given compilation unit with a fresh
+	 * instance of the given checker and fresh analysis input.
+	 * @return the number of problems reported.
+	 */
+	private static long analyze(String checker, CompilationUnit ast) {
+		final FractionalAnalysis analysis;
+		if("nimby".equals(checker))
+			analysis = new NIMBYChecker();
+		else if("syncorswim".equals(checker))
+			analysis = new SyncOrSwim();
+		else
+			analysis = new FractionalAnalysis();
+		
+		HeadlessAnalysis.RecordingReporter reporter = new HeadlessAnalysis.RecordingReporter();
+		analysis.prepare(HeadlessAnalysis.createAnalysisInput(), reporter);
+		
+		final List<MethodDeclaration> methods = new ArrayList<MethodDeclaration>();
+		ast.accept(new ASTVisitor() {
+			@Override
+			public void endVisit(MethodDeclaration node) {
+				methods.add(node);
+			}
+		});
+		for(MethodDeclaration m : methods)
+			analysis.analyzeMethod(m);
+		return reporter.getProblemCount();
+	}
+	
+	/**
+	 * Bytes allocated by the current thread so far, or -1 if the VM 
+	 * does not keep track.
+	 */
+	private long allocatedBytes() {
+		try {
+			if(threads instanceof com.sun.management.ThreadMXBean) {
+				com.sun.management.ThreadMXBean sun_threads = (com.sun.management.ThreadMXBean) threads;
+				if(sun_threads.isThreadAllocatedMemorySupported() && sun_threads.isThreadAllocatedMemoryEnabled())
+					return sun_threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		catch(LinkageError e) {
+			// not a Sun VM, or com.sun classes not visible to this bundle
+		}
+		return -1;
+	}
+	
+	private static long median(long[] values) {
+		long[] sorted = values.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+}
@@ -0,0 +1,538 @@
+/**
+ * Copyright (C) 2007-2009 Carnegie Mellon University and others.
+ *
+ * This file is part of Plural.
+ *
+ * Plural is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as 
+ * published by the Free Software Foundation.
+ *
+ * Plural is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Plural; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Linking Plural statically or dynamically with other modules is
+ * making a combined work based on Plural. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * In addition, as a special exception, the copyright holders of Plural
+ * give you permission to combine Plural with free software programs or
+ * libraries that are released under the GNU LGPL and with code
+ * included in the standard release of Eclipse under the Eclipse Public
+ * License (or modified versions of such code, with unchanged license).
+ * You may copy and distribute such a system following the terms of the
+ * GNU GPL for Plural and the licenses of the other code concerned.
+ *
+ * Note that people who make modified versions of Plural are not
+ * obligated to grant this special exception for their modified
+ * versions; it is their choice whether to do so. The GNU General
+ * Public License gives permission to release a modified version
+ * without this exception; this exception also makes it possible to
+ * release a modified version which carries forward this exception.
+ */
+package edu.cmu.cs.plural.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IConfigurationElement;
+import org.eclipse.core.runtime.Platform;
+import org.eclipse.equinox.app.IApplication;
+import org.eclipse.equinox.app.IApplicationContext;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IPackageFragment;
+import org.eclipse.jdt.core.IPackageFragmentRoot;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.AbstractTypeDeclaration;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.IAnnotationBinding;
+import org.eclipse.jdt.core.dom.IMemberValuePairBinding;
+import org.eclipse.jdt.core.dom.IMethodBinding;
+import org.eclipse.jdt.core.dom.ITypeBinding;
+import org.eclipse.jdt.core.dom.MethodDeclaration;
+
+import edu.cmu.cs.crystal.IAnalysisInput;
+import edu.cmu.cs.crystal.ICrystalAnalysis;
+import edu.cmu.cs.crystal.tac.eclipse.CompilationUnitTACs;
+import edu.cmu.cs.plural.states.StateSpaceRepository;
+
+/**
+ * A headless application that runs the regression tests in a workspace
+ * project, by default PluralTestsAndExamples.  A test is a class annotated
+ * with <code>@UseAnalyses</code>; it passes if the listed analyses report
+ * as many problems as its <code>@PassingTest</code> (none) or 
+ * <code>@FailingTest</code> annotation says.  Classes without either 
+ * annotation are expected to pass or fail according to their name, 
+ * <code>Passing*</code> or <code>Failing*</code>.  The results are written 
+ * as a JUnit XML report with the analysis time of each test:
+ * <pre>
+ * eclipse -nosplash -application edu.cmu.cs.plural.regression -data &lt;workspace&gt;
+ *     [-project PermissionTest] [-threads n] [-filter edu.cmu.cs.plural.test] 
+ *     [-report plural-regression.xml] [-queue n]
+ *     [-parseThreads n] [-annotationThreads n] [-tacThreads n]
+ * </pre>
+ * Compilation units go through a {@link StagedPipeline}: they are parsed, 
+ * their test annotations and method specifications are read, the TACs of 
+ * their methods are built, and finally the tests are checked, with 
+ * <code>-threads</code> workers.  At most <code>-queue</code> compilation 
+ * units wait between two stages.  Since specifications and TACs are ready 
+ * before checking starts, the time reported for a test is only the time 
+ * spent checking it.
+ * The application exits with 1 if any test fails.
+ */
+public class RegressionRunner implements IApplication {
+	
+	/** Exit code for a run with failing tests. */
+	public static final Integer EXIT_FAILURES = Integer.valueOf(1);
+	
+	private static final String ANALYSIS_EXTENSION_POINT = "edu.cmu.cs.crystal.CrystalAnalysis";
+	private static final String USE_ANALYSES = "edu.cmu.cs.crystal.annotations.UseAnalyses";
+	private static final String PASSING_TEST = "edu.cmu.cs.crystal.annotations.PassingTest";
+	private static final String FAILING_TEST = "edu.cmu.cs.crystal.annotations.FailingTest";
+	
+	/** Expected problem count for failing tests that don't say how many. */
+	private static final int SOME_PROBLEMS = -1;
+
+	private String project = "PermissionTest";
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int parseThreads = Math.max(1, threads / 2);
+	private int annotationThreads = 1;
+	private int tacThreads = Math.max(1, threads / 2);
+	private int queue = 2 * threads;
+	private String filter = "";
+	private File report = new File("plural-regression.xml");
+	
+	/** Analysis name -> extension that creates it */
+	private final Map<String, IConfigurationElement> analyses = new HashMap<String, IConfigurationElement>();
+
+	@Override
+	public Object start(IApplicationContext context) throws Exception {
+		String[] args = (String[]) context.getArguments().get(IApplicationContext.APPLICATION_ARGS);
+		parseArguments(args == null ? new String[0] : args);
+		
+		IJavaProject java_project = JavaCore.create(
+				ResourcesPlugin.getWorkspace().getRoot().getProject(project));
+		if(java_project == null || !java_project.exists()) {
+			System.err.println("No Java project " + project + " in the workspace.");
+			return EXIT_FAILURES;
+		}
+		findAnalyses();
+		
+		long start = System.nanoTime();
+		List<UnitWork> units = new ArrayList<UnitWork>();
+		for(ICompilationUnit cu : compilationUnits(java_project))
+			units.add(new UnitWork(units.size(), cu));
+		StagedPipeline<UnitWork> pipeline = createPipeline();
+		List<UnitWork> done = pipeline.run(units);
+		// report units that a stage failed on as errors
+		Map<UnitWork, Throwable> dropped = pipeline.getDropped();
+		for(Map.Entry<UnitWork, Throwable> d : dropped.entrySet()) {
+			UnitWork u = d.getKey();
+			u.tests.add(new TestResult(u.cu.getElementName(), new ArrayList<String>(), 0, d.getValue()));
+			done.add(u);
+		}
+		// report in project order, not in the order units finished
+		Collections.sort(done, new Comparator<UnitWork>() {
+			@Override
+			public int compare(UnitWork o1, UnitWork o2) {
+				return o1.index - o2.index;
+			}
+		});
+		List<TestResult> results = new ArrayList<TestResult>();
+		for(UnitWork u : done)
+			results.addAll(u.tests);
+		double total_time = (System.nanoTime() - start) / 1000000000.0;
+		System.out.print(pipeline.utilization());
+		
+		int failures = 0;
+		int errors = 0;
+		for(TestResult r : results) {
+			if(r.error != null) {
+				errors++;
+				System.err.println("ERROR " + r.className + ": " + r.error);
+			}
+			else if(!r.passed()) {
+				failures++;
+				System.err.println("FAIL " + r.className + ": " + r.failureMessage());
+			}
+		}
+		writeReport(results, failures, errors, total_time);
+		System.out.println(results.size() + " tests, " + failures + " failures, " + 
+				errors + " errors in " + total_time + " s; report in " + report.getAbsolutePath());
+		return failures + errors == 0 ? EXIT_OK : EXIT_FAILURES;
+	}
+
+	@Override
+	public void stop() {
+		// nothing to do: the run ends when all tests have run
+	}
+	
+	private void parseArguments(String[] args) {
+		for(int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if(i + 1 >= args.length)
+				throw new IllegalArgumentException("Missing value for " + arg);
+			else if("-project".equals(arg))
+				project = args[++i];
+			else if("-threads".equals(arg))
+				threads = Math.max(1, Integer.parseInt(args[++i]));
+			else if("-parseThreads".equals(arg))
+				parseThreads = Math.max(1, Integer.parseInt(args[++i]));
+			else if("-annotationThreads".equals(arg))
+				annotationThreads = Math.max(1, Integer.parseInt(args[++i]));
+			else if("-tacThreads".equals(arg))
+				tacThreads = Math.max(1, Integer.parseInt(args[++i]));
+			else if("-queue".equals(arg))
+				queue = Math.max(1, Integer.parseInt(args[++i]));
+			else if("-filter".equals(arg))
+				filter = args[++i];
+			else if("-report".equals(arg))
+				report = new File(args[++i]);
+			else
+				throw new IllegalArgumentException("Unknown argument " + arg);
+		}
+	}
+	
+	/**
+	 * Finds the analyses registered with Crystal, by the names that
+	 * <code>@UseAnalyses</code> refers to.
+	 */
+	private void findAnalyses() throws CoreException {
+		for(IConfigurationElement e : 
+				Platform.getExtensionRegistry().getConfigurationElementsFor(ANALYSIS_EXTENSION_POINT)) {
+			if(e.getAttribute("class") == null)
+				continue;
+			ICrystalAnalysis analysis = (ICrystalAnalysis) e.createExecutableExtension("class");
+			analyses.put(analysis.getName(), e);
+		}
+	}
+	
+	private List<ICompilationUnit> compilationUnits(IJavaProject java_project) throws JavaModelException {
+		List<ICompilationUnit> result = new ArrayList<ICompilationUnit>();
+		for(IPackageFragmentRoot root : java_project.getPackageFragmentRoots()) {
+			if(root.getKind() != IPackageFragmentRoot.K_SOURCE)
+				continue;
+			for(IJavaElement child : root.getChildren()) {
+				IPackageFragment pkg = (IPackageFragment) child;
+				for(ICompilationUnit cu : pkg.getCompilationUnits()) {
+					String name = pkg.getElementName() + "." + cu.getElementName();
+					if(name.startsWith(filter))
+						result.add(cu);
+				}
+			}
+		}
+		return result;
+	}
+	
+	private StagedPipeline<UnitWork> createPipeline() {
+		StagedPipeline<UnitWork> result = new StagedPipeline<UnitWork>(queue);
+		result.addStage("parse", parseThreads, new StagedPipeline.Stage<UnitWork>() {
+			@Override
+			public void process(UnitWork unit) {
+				parse(unit);
+			}
+		});
+		result.addStage("annotations", annotationThreads, new StagedPipeline.Stage<UnitWork>() {
+			@Override
+			public void process(UnitWork unit) {
+				findTests(unit);
+			}
+		});
+		result.addStage("tacs", tacThreads, new StagedPipeline.Stage<UnitWork>() {
+			@Override
+			public void process(UnitWork unit) {
+				buildTACs(unit);
+			}
+		});
+		result.addStage("check", threads, new StagedPipeline.Stage<UnitWork>() {
+			@Override
+			public void process(UnitWork unit) {
+				runTests(unit);
+			}
+		});
+		return result;
+	}
+	
+	private static void parse(UnitWork unit) {
+		try {
+			unit.ast = HeadlessAnalysis.parse(unit.cu);
+		}
+		catch(RuntimeException e) {
+			unit.tests.add(new TestResult(unit.cu.getElementName(), new ArrayList<String>(), 0, e));
+		}
+	}
+	
+	/**
+	 * Finds the tests declared in the given compilation unit, if any, 
+	 * and reads the specifications of its methods into each test's input.
+	 */
+	private static void findTests(UnitWork unit) {
+		if(unit.ast == null)
+			return;
+		for(Object t : unit.ast.types()) {
+			ITypeBinding type = ((AbstractTypeDeclaration) t).resolveBinding();
+			if(type == null)
+				continue;
+			TestResult test = expectedOutcome(type);
+			if(test != null)
+				unit.tests.add(test);
+		}
+		if(unit.tests.isEmpty()) {
+			// nothing left to do for this compilation unit
+			unit.ast = null;
+			return;
+		}
+		
+		final List<MethodDeclaration> methods = new ArrayList<MethodDeclaration>();
+		unit.ast.accept(new ASTVisitor() {
+			@Override
+			public void endVisit(MethodDeclaration node) {
+				methods.add(node);
+			}
+		});
+		unit.methods = methods;
+		for(TestResult test : unit.tests) {
+			test.input = HeadlessAnalysis.createAnalysisInput();
+			StateSpaceRepository repository = StateSpaceRepository.getInstance(test.input.getAnnoDB());
+			for(MethodDeclaration m : methods) {
+				IMethodBinding binding = m.resolveBinding();
+				if(binding == null)
+					continue;
+				try {
+					repository.getSignature(binding);
+				}
+				catch(RuntimeException e) {
+					// broken specifications are reported when the test is checked
+				}
+			}
+		}
+	}
+	
+	private static void buildTACs(UnitWork unit) {
+		for(TestResult test : unit.tests) {
+			if(test.input == null)
+				continue;
+			CompilationUnitTACs tacs = test.input.getComUnitTACs().unwrap();
+			for(MethodDeclaration m : unit.methods) {
+				if(m.getBody() == null)
+					continue;
+				try {
+					tacs.getMethodTAC(m);
+				}
+				catch(RuntimeException e) {
+					// reported when the test is checked
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Runs the tests found in the given compilation unit, if any.
+	 */
+	private void runTests(UnitWork unit) {
+		for(TestResult test : unit.tests) {
+			if(test.input != null) {
+				runTest(test, unit.cu, unit.ast);
+				// let go of specifications and TACs as soon as possible
+				test.input = null;
+			}
+		}
+		unit.ast = null;
+		unit.methods = null;
+	}
+	
+	/**
+	 * Reads the test annotations of the given class; returns 
+	 * <code>null</code> if it is not a test.
+	 */
+	private static TestResult expectedOutcome(ITypeBinding type) {
+		List<String> use = null;
+		Integer expected = null;
+		for(IAnnotationBinding a : type.getAnnotations()) {
+			String name = a.getAnnotationType().getQualifiedName();
+			Object value = annotationValue(a);
+			if(USE_ANALYSES.equals(name)) {
+				use = new ArrayList<String>();
+				if(value instanceof Object[]) {
+					for(Object o : (Object[]) value)
+						use.add(o.toString());
+				}
+				else if(value != null)
+					use.add(value.toString());
+			}
+			else if(PASSING_TEST.equals(name))
+				expected = 0;
+			else if(FAILING_TEST.equals(name))
+				expected = value instanceof Integer ? (Integer) value : SOME_PROBLEMS;
+		}
+		if(use == null)
+			return null;
+		if(expected == null) {
+			if(type.getName().startsWith("Passing"))
+				expected = 0;
+			else if(type.getName().startsWith("Failing"))
+				expected = SOME_PROBLEMS;
+			else
+				return null;
+		}
+		return new TestResult(type.getQualifiedName(), use, expected, null);
+	}
+	
+	private static Object annotationValue(IAnnotationBinding a) {
+		for(IMemberValuePairBinding p : a.getAllMemberValuePairs()) {
+			if("value".equals(p.getName()))
+				return p.getValue();
+		}
+		return null;
+	}
+	
+	private void runTest(TestResult test, ICompilationUnit cu, CompilationUnit ast) {
+		HeadlessAnalysis.RecordingReporter reporter = new HeadlessAnalysis.RecordingReporter();
+		long start = System.nanoTime();
+		try {
+			IAnalysisInput input = test.input;
+			for(String name : test.analyses) {
+				IConfigurationElement e = analyses.get(name);
+				if(e == null)
+					throw new IllegalArgumentException("Unknown analysis " + name);
+				// fresh instance for each test, since analyses keep state
+				ICrystalAnalysis analysis = (ICrystalAnalysis) e.createExecutableExtension("class");
+				analysis.beforeAllCompilationUnits();
+				analysis.runAnalysis(reporter, input, cu, ast);
+				analysis.afterAllCompilationUnits();
+			}
+		}
+		catch(Throwable t) {
+			test.error = t;
+		}
+		test.seconds = (System.nanoTime() - start) / 1000000000.0;
+		test.problems = reporter.getProblems();
+	}
+	
+	private void writeReport(List<TestResult> results, int failures, int errors, double time) 
+			throws IOException {
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(report), "UTF-8"));
+		try {
+			out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+			out.println("<testsuite name=\"" + escape(project) + "\" tests=\"" + results.size() + 
+					"\" failures=\"" + failures + "\" errors=\"" + errors + "\" time=\"" + time + "\">");
+			for(TestResult r : results) {
+				out.print("  <testcase classname=\"" + escape(r.className) + "\" name=\"" + 
+						escape(r.analyses.toString()) + "\" time=\"" + r.seconds + "\"");
+				if(r.error != null) {
+					StringWriter trace = new StringWriter();
+					r.error.printStackTrace(new PrintWriter(trace));
+					out.println(">");
+					out.println("    <error message=\"" + escape(String.valueOf(r.error.getMessage())) + 
+							"\" type=\"" + escape(r.error.getClass().getName()) + "\">" + 
+							escape(trace.toString()) + "</error>");
+					out.println("  </testcase>");
+				}
+				else if(!r.passed()) {
+					out.println(">");
+					out.println("    <failure message=\"" + escape(r.failureMessage()) + "\">" + 
+							escape(r.problemList()) + "</failure>");
+					out.println("  </testcase>");
+				}
+				else
+					out.println("/>");
+			}
+			out.println("</testsuite>");
+		}
+		finally {
+			out.close();
+		}
+	}
+	
+	private static String escape(String s) {
+		StringBuilder result = new StringBuilder(s.length());
+		for(char c : s.toCharArray()) {
+			switch(c) {
+			case '&': result.append("&amp;"); break;
+			case '<': result.append("&lt;"); break;
+			case '>': result.append("&gt;"); break;
+			case '"': result.append("&quot;"); break;
+			default: result.append(c);
+			}
+		}
+		return result.toString();
+	}
+	
+	/**
+	 * A compilation unit on its way through the pipeline.
+	 */
+	private static class UnitWork {
+		/** Position in the project, to report results in order. */
+		final int index;
+		final ICompilationUnit cu;
+		final List<TestResult> tests = new ArrayList<TestResult>();
+		CompilationUnit ast;
+		List<MethodDeclaration> methods = Collections.emptyList();
+		
+		UnitWork(int index, ICompilationUnit cu) {
+			this.index = index;
+			this.cu = cu;
+		}
+	}
+	
+	/**
+	 * Expected and actual outcome of one test class.
+	 */
+	private static class TestResult {
+		final String className;
+		final List<String> analyses;
+		/** Number of expected problems, or {@link #SOME_PROBLEMS}. */
+		final int expected;
+		List<String> problems = new ArrayList<String>();
+		Throwable error;
+		double seconds;
+		/** Input prepared for checking this test; dropped once it ran. */
+		IAnalysisInput input;
+		
+		TestResult(String className, List<String> analyses, int expected, Throwable error) {
+			this.className = className;
+			this.analyses = analyses;
+			this.expected = expected;
+			this.error = error;
+		}
+		
+		boolean passed() {
+			if(expected == SOME_PROBLEMS)
+				return !problems.isEmpty();
+			return problems.size() == expected;
+		}
+		
+		String failureMessage() {
+			return "expected " + (expected == SOME_PROBLEMS ? "some" : Integer.toString(expected)) + 
+				" problems but got " + problems.size();
+		}
+		
+		String problemList() {
+			StringBuilder result = new StringBuilder();
+			for(String p : problems)
+				result.append(p).append('\n');
+			return result.toString();
+		}
+	}
+}
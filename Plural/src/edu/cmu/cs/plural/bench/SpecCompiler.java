@@ -0,0 +1,144 @@
+/**
+ * Copyright (C) 2007-2009 Carnegie Mellon University and others.
+ *
+ * This file is part of Plural.
+ *
+ * Plural is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as 
+ * published by the Free Software Foundation.
+ *
+ * Plural is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Plural; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Linking Plural statically or dynamically with other modules is
+ * making a combined work based on Plural. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * In addition, as a special exception, the copyright holders of Plural
+ * give you permission to combine Plural with free software programs or
+ * libraries that are released under the GNU LGPL and with code
+ * included in the standard release of Eclipse under the Eclipse Public
+ * License (or modified versions of such code, with unchanged license).
+ * You may copy and distribute such a system following the terms of the
+ * GNU GPL for Plural and the licenses of the other code concerned.
+ *
+ * Note that people who make modified versions of Plural are not
+ * obligated to grant this special exception for their modified
+ * versions; it is their choice whether to do so. The GNU General
+ * Public License gives permission to release a modified version
+ * without this exception; this exception also makes it possible to
+ * release a modified version which carries forward this exception.
+ */
+package edu.cmu.cs.plural.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.equinox.app.IApplication;
+import org.eclipse.equinox.app.IApplicationContext;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.IBinding;
+import org.eclipse.jdt.core.dom.ITypeBinding;
+
+import edu.cmu.cs.crystal.IAnalysisInput;
+import edu.cmu.cs.plural.states.StateSpaceDatabase;
+import edu.cmu.cs.plural.states.StateSpaceRepository;
+
+/**
+ * A headless application that precompiles the state spaces of library
+ * types into a {@link StateSpaceDatabase}.  The types are resolved
+ * against the class path of a project in the workspace, and their state
+ * spaces are built from their annotations as usual.  Point the system 
+ * property {@value StateSpaceDatabase#DATABASE_PROPERTY} at the resulting 
+ * file to use it in later runs:
+ * <pre>
+ * eclipse -nosplash -application edu.cmu.cs.plural.specs -data &lt;workspace&gt;
+ *     -project PermissionTest -types java.util.Iterator,java.sql.ResultSet 
+ *     [-out plural-specs.bin]
+ * </pre>
+ * State spaces whose jar or class file changed after the database was 
+ * written are rebuilt from their annotations, so recompile the database 
+ * when library annotations change to keep its benefit; files written with 
+ * a different {@link StateSpaceDatabase#VERSION} are ignored.
+ */
+public class SpecCompiler implements IApplication {
+	
+	private String project = null;
+	private List<String> types = new ArrayList<String>();
+	private File out = new File("plural-specs.bin");
+
+	@Override
+	public Object start(IApplicationContext context) throws Exception {
+		String[] args = (String[]) context.getArguments().get(IApplicationContext.APPLICATION_ARGS);
+		parseArguments(args == null ? new String[0] : args);
+		
+		IJavaProject java_project = JavaCore.create(
+				ResourcesPlugin.getWorkspace().getRoot().getProject(project));
+		if(java_project == null || !java_project.exists()) {
+			System.err.println("No Java project " + project + " in the workspace.");
+			return Integer.valueOf(1);
+		}
+		
+		List<IJavaElement> elements = new ArrayList<IJavaElement>(types.size());
+		for(String t : types) {
+			IType type = java_project.findType(t);
+			if(type == null)
+				throw new IllegalArgumentException("No type " + t + " on the class path of " + project);
+			elements.add(type);
+		}
+		ASTParser parser = ASTParser.newParser(AST.JLS3);
+		parser.setProject(java_project);
+		IBinding[] bindings = parser.createBindings(
+				elements.toArray(new IJavaElement[elements.size()]), null);
+		List<ITypeBinding> type_bindings = new ArrayList<ITypeBinding>(bindings.length);
+		for(int i = 0; i < bindings.length; i++) {
+			if(bindings[i] instanceof ITypeBinding)
+				type_bindings.add((ITypeBinding) bindings[i]);
+			else
+				System.err.println("Could not resolve " + types.get(i));
+		}
+		
+		// hold on to the input: the repository only refers to its annotation database weakly
+		IAnalysisInput input = HeadlessAnalysis.createAnalysisInput();
+		int count = StateSpaceRepository.getInstance(input.getAnnoDB()).exportStateSpaces(type_bindings, out);
+		System.out.println("Wrote " + count + " state spaces to " + out.getAbsolutePath());
+		return EXIT_OK;
+	}
+
+	@Override
+	public void stop() {
+		// nothing to do
+	}
+	
+	private void parseArguments(String[] args) {
+		for(int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if(i + 1 >= args.length)
+				throw new IllegalArgumentException("Missing value for " + arg);
+			else if("-project".equals(arg))
+				project = args[++i];
+			else if("-types".equals(arg))
+				types.addAll(Arrays.asList(args[++i].split(",")));
+			else if("-out".equals(arg))
+				out = new File(args[++i]);
+			else
+				throw new IllegalArgumentException("Unknown argument " + arg);
+		}
+		if(project == null || types.isEmpty())
+			throw new IllegalArgumentException("Need -project and -types");
+	}
+}
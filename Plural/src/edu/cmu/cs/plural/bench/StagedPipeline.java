@@ -0,0 +1,252 @@
+/**
+ * Copyright (C) 2007-2009 Carnegie Mellon University and others.
+ *
+ * This file is part of Plural.
+ *
+ * Plural is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as 
+ * published by the Free Software Foundation.
+ *
+ * Plural is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Plural; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Linking Plural statically or dynamically with other modules is
+ * making a combined work based on Plural. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * In addition, as a special exception, the copyright holders of Plural
+ * give you permission to combine Plural with free software programs or
+ * libraries that are released under the GNU LGPL and with code
+ * included in the standard release of Eclipse under the Eclipse Public
+ * License (or modified versions of such code, with unchanged license).
+ * You may copy and distribute such a system following the terms of the
+ * GNU GPL for Plural and the licenses of the other code concerned.
+ *
+ * Note that people who make modified versions of Plural are not
+ * obligated to grant this special exception for their modified
+ * versions; it is their choice whether to do so. The GNU General
+ * Public License gives permission to release a modified version
+ * without this exception; this exception also makes it possible to
+ * release a modified version which carries forward this exception.
+ */
+package edu.cmu.cs.plural.bench;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pushes work items through a sequence of stages that each have their own
+ * worker threads.  Stages are connected by bounded queues, so a stage that
+ * gets ahead of the next one blocks until the next one catches up instead
+ * of piling up work (and memory) in between.  Every stage keeps track of
+ * how long its workers were busy, which shows which stage is the bottleneck
+ * and deserves more workers.
+ * @param <T> The work item type; stages record their results in the item.
+ */
+final class StagedPipeline<T> {
+	
+	private static final Logger log = Logger.getLogger(StagedPipeline.class.getName());
+	
+	/** Passed down the queues once all items have been put in. */
+	private static final Object END = new Object();
+	
+	/**
+	 * One step in processing a work item.  Stages should record errors 
+	 * in the item, since exceptions thrown here drop the item.
+	 * @see StagedPipeline#getDropped()
+	 */
+	interface Stage<T> {
+		void process(T item) throws Exception;
+	}
+	
+	private final int queueCapacity;
+	private final List<StageRunner> stages = new ArrayList<StageRunner>();
+	private long wallNanos;
+	
+	/** Items that a stage failed on in the last run, with the failure. */
+	private final Map<T, Throwable> dropped = 
+		Collections.synchronizedMap(new IdentityHashMap<T, Throwable>());
+	
+	/**
+	 * @param queueCapacity How many items can wait between two stages.
+	 */
+	StagedPipeline(int queueCapacity) {
+		this.queueCapacity = Math.max(1, queueCapacity);
+	}
+	
+	/**
+	 * Adds a stage after the ones added so far.
+	 */
+	void addStage(String name, int workers, Stage<T> stage) {
+		stages.add(new StageRunner(name, Math.max(1, workers), stage));
+	}
+	
+	/**
+	 * Runs the given items through all stages; returns the items that made
+	 * it through in the order they finished.
+	 */
+	@SuppressWarnings("unchecked")
+	List<T> run(List<T> items) throws InterruptedException {
+		if(stages.isEmpty())
+			return new ArrayList<T>(items);
+		long start = System.nanoTime();
+		dropped.clear();
+		BlockingQueue<Object> first = new ArrayBlockingQueue<Object>(queueCapacity);
+		BlockingQueue<Object> in = first;
+		List<Thread> threads = new ArrayList<Thread>();
+		for(int i = 0; i < stages.size(); i++) {
+			StageRunner stage = stages.get(i);
+			// the last queue is drained by this thread, which is busy 
+			// filling the first one until all items are in
+			BlockingQueue<Object> out = i + 1 < stages.size() ? 
+					new ArrayBlockingQueue<Object>(queueCapacity) : new LinkedBlockingQueue<Object>();
+			int endMarkers = i + 1 < stages.size() ? stages.get(i + 1).workers : 1;
+			threads.addAll(stage.start(in, out, endMarkers));
+			in = out;
+		}
+		
+		for(T item : items)
+			first.put(item);
+		for(int i = 0; i < stages.get(0).workers; i++)
+			first.put(END);
+		
+		List<T> result = new ArrayList<T>(items.size());
+		for(Object item = in.take(); item != END; item = in.take())
+			result.add((T) item);
+		for(Thread t : threads)
+			t.join();
+		wallNanos = System.nanoTime() - start;
+		return result;
+	}
+	
+	/**
+	 * Returns the items that were dropped in the last run because a stage
+	 * failed on them, with the failure.
+	 */
+	Map<T, Throwable> getDropped() {
+		synchronized(dropped) {
+			return new IdentityHashMap<T, Throwable>(dropped);
+		}
+	}
+	
+	/**
+	 * Describes how many items each stage processed and how busy its
+	 * workers were during the last run.
+	 */
+	String utilization() {
+		StringBuilder result = new StringBuilder();
+		for(StageRunner stage : stages) {
+			double busy = stage.busyNanos.get() / 1000000000.0;
+			double utilization = wallNanos == 0 ? 0 : 
+				100.0 * stage.busyNanos.get() / ((double) wallNanos * stage.workers);
+			result.append(String.format("%-12s %3d workers %6d items %10.3f s busy %5.1f%% utilization",
+					stage.name, stage.workers, stage.items.get(), busy, utilization));
+			if(stage.dropped.get() > 0)
+				result.append(", ").append(stage.dropped.get()).append(" dropped");
+			result.append('\n');
+		}
+		return result.toString();
+	}
+	
+	private final class StageRunner {
+		final String name;
+		final int workers;
+		final Stage<T> stage;
+		final AtomicLong busyNanos = new AtomicLong();
+		final AtomicInteger items = new AtomicInteger();
+		final AtomicInteger dropped = new AtomicInteger();
+		
+		StageRunner(String name, int workers, Stage<T> stage) {
+			this.name = name;
+			this.workers = workers;
+			this.stage = stage;
+		}
+		
+		List<Thread> start(final BlockingQueue<Object> in, final BlockingQueue<Object> out, 
+				final int endMarkers) {
+			busyNanos.set(0);
+			items.set(0);
+			dropped.set(0);
+			final AtomicInteger running = new AtomicInteger(workers);
+			List<Thread> result = new ArrayList<Thread>(workers);
+			for(int i = 0; i < workers; i++) {
+				Thread t = new Thread("pipeline-" + name + "-" + i) {
+					@Override
+					public void run() {
+						try {
+							work(in, out);
+						}
+						catch(InterruptedException e) {
+							log.log(Level.WARNING, "Interrupted in stage " + name, e);
+						}
+						finally {
+							// the last worker to finish tells the next stage, 
+							// even if it was interrupted, so the run still ends
+							if(running.decrementAndGet() == 0)
+								sendEnd(out, endMarkers);
+						}
+					}
+				};
+				t.setDaemon(true);
+				t.start();
+				result.add(t);
+			}
+			return result;
+		}
+		
+		private void sendEnd(BlockingQueue<Object> out, int endMarkers) {
+			boolean interrupted = Thread.interrupted();
+			for(int j = 0; j < endMarkers; j++) {
+				while(true) {
+					try {
+						out.put(END);
+						break;
+					}
+					catch(InterruptedException e) {
+						interrupted = true;
+					}
+				}
+			}
+			if(interrupted)
+				Thread.currentThread().interrupt();
+		}
+		
+		@SuppressWarnings("unchecked")
+		private void work(BlockingQueue<Object> in, BlockingQueue<Object> out) 
+				throws InterruptedException {
+			for(Object item = in.take(); item != END; item = in.take()) {
+				long start = System.nanoTime();
+				boolean ok = false;
+				try {
+					stage.process((T) item);
+					ok = true;
+				}
+				catch(Throwable t) {
+					log.log(Level.SEVERE, "Dropping item that failed in stage " + name, t);
+					dropped.incrementAndGet();
+					StagedPipeline.this.dropped.put((T) item, t);
+				}
+				busyNanos.addAndGet(System.nanoTime() - start);
+				items.incrementAndGet();
+				if(ok)
+					out.put(item);
+			}
+		}
+	}
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2007-2009 Carnegie Mellon University and others.
+ *
+ * This file is part of Plural.
+ *
+ * Plural is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as 
+ * published by the Free Software Foundation.
+ *
+ * Plural is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Plural; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Linking Plural statically or dynamically with other modules is
+ * making a combined work based on Plural. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * In addition, as a special exception, the copyright holders of Plural
+ * give you permission to combine Plural with free software programs or
+ * libraries that are released under the GNU LGPL and with code
+ * included in the standard release of Eclipse under the Eclipse Public
+ * License (or modified versions of such code, with unchanged license).
+ * You may copy and distribute such a system following the terms of the
+ * GNU GPL for Plural and the licenses of the other code concerned.
+ *
+ * Note that people who make modified versions of Plural are not
+ * obligated to grant this special exception for their modified
+ * versions; it is their choice whether to do so. The GNU General
+ * Public License gives permission to release a modified version
+ * without this exception; this exception also makes it possible to
+ * release a modified version which carries forward this exception.
+ */
+package edu.cmu.cs.plural.concurrent;
+
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.jdt.core.dom.MethodDeclaration;
+
+import edu.cmu.cs.crystal.AbstractCrystalMethodAnalysis;
+import edu.cmu.cs.plural.concurrent.nimby.NIMBYChecker;
+import edu.cmu.cs.plural.concurrent.syncorswim.SyncOrSwim;
+import edu.cmu.cs.plural.errors.history.RetainedFlowResults.MethodResults;
+import edu.cmu.cs.plural.states.IInvocationSignature;
+import edu.cmu.cs.plural.track.CheckedCase;
+import edu.cmu.cs.plural.track.FractionalAnalysis;
+
+/**
+ * Runs Plural, NIMBY and Sync or Swim together, which is much cheaper
+ * than running them as separate analyses. The compilation unit is only
+ * visited once, the three checkers share its TACs, and the signature and
+ * the permissions of each case of a method are only created once.  
+ * They also share the local aliasing and liveness results of each method,
+ * which are cached for all analyses of the method.  Their permission flow
+ * analyses remain separate, since the checkers track different permissions.<br>
+ * <br>
+ * In a method where neither checker finds any protected code, NIMBY and 
+ * Sync or Swim forget the same permissions everywhere, so Sync or Swim 
+ * reports its errors from NIMBY's results instead of running its own 
+ * flow analysis.
+ * 
+ * @see ConcurrentChecker#isUnprotected(MethodDeclaration)
+ */
+public class CombinedChecker extends AbstractCrystalMethodAnalysis {
+
+	private static final Logger logger = Logger.getLogger(CombinedChecker.class.getName());
+	
+	private final FractionalAnalysis plural = new FractionalAnalysis();
+	private final NIMBYChecker nimby = new NIMBYChecker();
+	private final SyncOrSwim syncOrSwim = new SyncOrSwim();
+	
+	@Override
+	public void analyzeMethod(MethodDeclaration d) {
+		if(FractionalAnalysis.isAbstract(d)) {
+			if(logger.isLoggable(Level.FINE))
+				logger.fine("Skip abstract method " + d.getName());
+			return;
+		}
+		plural.prepare(analysisInput, reporter);
+		nimby.prepare(analysisInput, reporter);
+		syncOrSwim.prepare(analysisInput, reporter);
+		
+		IInvocationSignature sig = plural.getRepository().getSignature(d.resolveBinding());
+		List<CheckedCase> cases = CheckedCase.casesOf(d, sig);
+		
+		// one numbering and budget for all three checkers
+		FractionalAnalysis.enterMethod();
+		MethodResults pluralResults = null;
+		MethodResults nimbyResults = null;
+		MethodResults syncResults = null;
+		try {
+			boolean shareResults = nimby.isUnprotected(d) && syncOrSwim.isUnprotected(d);
+			pluralResults = plural.joinMethod(d);
+			nimbyResults = nimby.joinMethod(d);
+			if(shareResults == false)
+				syncResults = syncOrSwim.joinMethod(d);
+			for(CheckedCase c : cases) {
+				plural.analyzeCase(d, c, pluralResults);
+				nimby.analyzeCase(d, c, nimbyResults);
+				if(shareResults)
+					syncOrSwim.analyzeCase(d, c, nimby);
+				else
+					syncOrSwim.analyzeCase(d, c, syncResults);
+			}
+		}
+		finally {
+			// also when the analysis failed, so nothing leaks into the next method
+			if(pluralResults != null)
+				plural.leaveMethod(pluralResults);
+			if(nimbyResults != null)
+				nimby.leaveMethod(nimbyResults);
+			if(syncResults != null)
+				syncOrSwim.leaveMethod(syncResults);
+			// also when a checker did not join
+			nimby.forgetMethods();
+			syncOrSwim.forgetMethods();
+			FractionalAnalysis.exitMethod(d, reporter, getName());
+		}
+	}
+}
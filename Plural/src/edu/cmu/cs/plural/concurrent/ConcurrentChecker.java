@@ -53,6 +53,7 @@ import org.eclipse.jdt.core.dom.SimpleName;
 import edu.cmu.cs.crystal.util.Option;
 import edu.cmu.cs.crystal.util.Utilities;
 import edu.cmu.cs.plural.contexts.PluralContext;
+import edu.cmu.cs.plural.errors.history.RetainedFlowResults.MethodResults;
 import edu.cmu.cs.plural.track.FractionalAnalysis;
 
 /**
@@ -66,6 +67,31 @@ import edu.cmu.cs.plural.track.FractionalAnalysis;
  */
 public class ConcurrentChecker extends FractionalAnalysis {
 
+	/**
+	 * Is no part of the given method protected, so that the transfer
+	 * function forgets the state of every share and pure permission after
+	 * each instruction? Any two checkers for which this is true compute the
+	 * same permissions for the method. By default, returns false.
+	 */
+	public boolean isUnprotected(MethodDeclaration d) {
+		return false;
+	}
+	
+	/**
+	 * Forgets what this checker found out about the protected regions of
+	 * the methods it looked at, so that their ASTs can be garbage-collected.
+	 * Called when the checker is done with a method.  Does nothing by default.
+	 */
+	public void forgetMethods() {
+		
+	}
+	
+	@Override
+	public void leaveMethod(MethodResults retained) {
+		super.leaveMethod(retained);
+		forgetMethods();
+	}
+
 	protected abstract class ConcurrentVisitor extends FractionalChecker {
 		
 		private final Set<ASTNode> previouslyReportedErrorNodes = new HashSet<ASTNode>();
@@ -0,0 +1,251 @@
+/**
+ * Copyright (C) 2007-2009 Carnegie Mellon University and others.
+ *
+ * This file is part of Plural.
+ *
+ * Plural is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as 
+ * published by the Free Software Foundation.
+ *
+ * Plural is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Plural; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Linking Plural statically or dynamically with other modules is
+ * making a combined work based on Plural. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * In addition, as a special exception, the copyright holders of Plural
+ * give you permission to combine Plural with free software programs or
+ * libraries that are released under the GNU LGPL and with code
+ * included in the standard release of Eclipse under the Eclipse Public
+ * License (or modified versions of such code, with unchanged license).
+ * You may copy and distribute such a system following the terms of the
+ * GNU GPL for Plural and the licenses of the other code concerned.
+ *
+ * Note that people who make modified versions of Plural are not
+ * obligated to grant this special exception for their modified
+ * versions; it is their choice whether to do so. The GNU General
+ * Public License gives permission to release a modified version
+ * without this exception; this exception also makes it possible to
+ * release a modified version which carries forward this exception.
+ */
+package edu.cmu.cs.plural.concurrent;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.MethodDeclaration;
+
+/**
+ * An index of the mutual exclusion blocks (atomic blocks, synchronized
+ * blocks) of one method, by source offset. Each block covers the source
+ * range of its statement, and blocks can be nested but never overlap
+ * otherwise, so the innermost block around a node can be found with a
+ * binary search followed by a walk out through the enclosing blocks. The
+ * index only takes memory proportional to the number of blocks, rather
+ * than the number of nodes in the method.<br>
+ * <br>
+ * A node is inside a block if its source range lies within the range of
+ * the block statement, except for the block statement itself.
+ * 
+ * @param <T> The value associated with each block, e.g., the set of locks
+ * held inside it.
+ */
+public final class MutexBlockIndex<T> {
+	
+	private final MethodDeclaration method;
+	private final int methodStart;
+	private final int methodEnd;
+	
+	// Blocks, sorted by start offset, parents before their children.
+	private final ASTNode[] blocks;
+	private final int[] starts;
+	private final int[] ends;
+	// Index of the enclosing block, or -1.
+	private final int[] parents;
+	private final List<T> values;
+	
+	// Value for nodes that are in no block.
+	private final T outside;
+	
+	// Outermost types declared inside the method, sorted, disjoint.
+	private final int[] typeStarts;
+	private final int[] typeEnds;
+
+	private MutexBlockIndex(Builder<T> builder) {
+		this.method = builder.method;
+		this.methodStart = method.getStartPosition();
+		this.methodEnd = methodStart + method.getLength();
+		this.outside = builder.outside;
+		this.values = new ArrayList<T>(builder.values);
+		
+		int size = builder.blocks.size();
+		this.blocks = builder.blocks.toArray(new ASTNode[size]);
+		this.starts = toArray(builder.starts);
+		this.ends = toArray(builder.ends);
+		this.parents = toArray(builder.parents);
+		this.typeStarts = toArray(builder.typeStarts);
+		this.typeEnds = toArray(builder.typeEnds);
+	}
+	
+	private static int[] toArray(List<Integer> list) {
+		int[] result = new int[list.size()];
+		int i = 0;
+		for( Integer value : list )
+			result[i++] = value;
+		return result;
+	}
+	
+	/**
+	 * Start building an index for the given method. Blocks must be
+	 * added in the order in which a visitor encounters them.
+	 * @param outside The value of nodes that are in no block.
+	 */
+	public static <T> Builder<T> builder(MethodDeclaration method, T outside) {
+		return new Builder<T>(method, outside);
+	}
+	
+	/**
+	 * The method whose blocks are indexed.
+	 */
+	public MethodDeclaration getMethod() {
+		return this.method;
+	}
+	
+	/**
+	 * The number of blocks in this index.
+	 */
+	public int size() {
+		return this.blocks.length;
+	}
+	
+	/**
+	 * Is the given node part of this method, and not part of a type that
+	 * is declared inside it? If so, this is the index of the innermost
+	 * method declaration around the node. Only looks at source offsets, 
+	 * so it is much cheaper than walking up the parents of the node.
+	 */
+	public boolean covers(ASTNode node) {
+		if( node.getAST() != method.getAST() )
+			return false;
+		int start = node.getStartPosition();
+		int end = start + node.getLength();
+		if( start < methodStart || end > methodEnd )
+			return false;
+		int t = lastAtOrBefore(typeStarts, start);
+		return t < 0 || end > typeEnds[t];
+	}
+	
+	/**
+	 * Returns the value of the innermost block that the given node is
+	 * inside of, or the value for nodes outside of any block. The node
+	 * must be part of the indexed method.
+	 */
+	public T valueAt(ASTNode node) {
+		int block = innermostBlock(node);
+		return block < 0 ? outside : values.get(block);
+	}
+	
+	/**
+	 * Returns the innermost block statement that the given node is
+	 * inside of, or null.
+	 */
+	public ASTNode blockAt(ASTNode node) {
+		int block = innermostBlock(node);
+		return block < 0 ? null : blocks[block];
+	}
+	
+	private int innermostBlock(ASTNode node) {
+		int start = node.getStartPosition();
+		int end = start + node.getLength();
+		// Any block around the node starts at or before it, and encloses
+		// the last block that does.
+		int i = lastAtOrBefore(starts, start);
+		while( i >= 0 && (ends[i] < end || blocks[i] == node) ) {
+			i = parents[i];
+		}
+		return i;
+	}
+	
+	/**
+	 * Index of the last element of the sorted array that is less than
+	 * or equal to the given key, or -1.
+	 */
+	private static int lastAtOrBefore(int[] sorted, int key) {
+		int low = 0;
+		int high = sorted.length - 1;
+		while( low <= high ) {
+			int mid = (low + high) >>> 1;
+			if( sorted[mid] <= key )
+				low = mid + 1;
+			else
+				high = mid - 1;
+		}
+		return high;
+	}
+	
+	public static final class Builder<T> {
+		private final MethodDeclaration method;
+		private final T outside;
+		private final List<ASTNode> blocks = new ArrayList<ASTNode>();
+		private final List<Integer> starts = new ArrayList<Integer>();
+		private final List<Integer> ends = new ArrayList<Integer>();
+		private final List<Integer> parents = new ArrayList<Integer>();
+		private final List<T> values = new ArrayList<T>();
+		private final List<Integer> typeStarts = new ArrayList<Integer>();
+		private final List<Integer> typeEnds = new ArrayList<Integer>();
+		
+		// Blocks that may still enclose the next one, innermost first.
+		private final LinkedList<Integer> open = new LinkedList<Integer>();
+		
+		private Builder(MethodDeclaration method, T outside) {
+			this.method = method;
+			this.outside = outside;
+		}
+		
+		/**
+		 * Add a block statement and the value of the nodes inside of it.
+		 */
+		public Builder<T> addBlock(ASTNode block, T value) {
+			int start = block.getStartPosition();
+			int end = start + block.getLength();
+			while( !open.isEmpty() && ends.get(open.getFirst()) < end )
+				open.removeFirst();
+			
+			parents.add(open.isEmpty() ? -1 : open.getFirst());
+			open.addFirst(blocks.size());
+			blocks.add(block);
+			starts.add(start);
+			ends.add(end);
+			values.add(value);
+			return this;
+		}
+		
+		/**
+		 * Add a type declared inside the method, e.g., an anonymous class.
+		 * Nodes inside it are not covered by the index.
+		 */
+		public Builder<T> addNestedType(ASTNode type) {
+			int start = type.getStartPosition();
+			int end = start + type.getLength();
+			int last = typeEnds.size() - 1;
+			if( last >= 0 && typeEnds.get(last) >= end )
+				return this; // nested in the previous one
+			typeStarts.add(start);
+			typeEnds.add(end);
+			return this;
+		}
+		
+		public MutexBlockIndex<T> build() {
+			return new MutexBlockIndex<T>(this);
+		}
+	}
+}
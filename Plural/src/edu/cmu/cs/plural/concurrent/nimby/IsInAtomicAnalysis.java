@@ -37,17 +37,20 @@
  */
 package edu.cmu.cs.plural.concurrent.nimby;
 
+import java.util.HashMap;
 import java.util.Map;
-import java.util.WeakHashMap;
 
 import org.eclipse.jdt.core.dom.ASTNode;
 import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.AnonymousClassDeclaration;
 import org.eclipse.jdt.core.dom.LabeledStatement;
 import org.eclipse.jdt.core.dom.MethodDeclaration;
+import org.eclipse.jdt.core.dom.TypeDeclarationStatement;
 
 import edu.cmu.cs.crystal.IAnalysisInput;
 import edu.cmu.cs.crystal.util.Option;
 import edu.cmu.cs.crystal.util.Utilities;
+import edu.cmu.cs.plural.concurrent.MutexBlockIndex;
 import edu.cmu.cs.plural.concurrent.MutexWalker;
 
 /**
@@ -56,7 +59,8 @@ import edu.cmu.cs.plural.concurrent.MutexWalker;
  * The design of this class is patterned after Ciera's Loop Counter analysis,
  * except mine is even simpler because there is only one stmt I care about.
  * This analysis is meant to be run on-demand, and hopefully will have a low
- * overhead.
+ * overhead. For each method, it records the source ranges of its atomic
+ * blocks in a {@link MutexBlockIndex}, instead of an entry for every node.
  * 
  * @author Nels Beckman
  * @date Mar 4, 2008
@@ -65,20 +69,31 @@ import edu.cmu.cs.plural.concurrent.MutexWalker;
 public class IsInAtomicAnalysis implements MutexWalker {
 
 	/*
-	 * Should be a set. There is no generic weak hash set. Weakness is important
-	 * because we don't want to hold references to the AST forever, although likely
-	 * the map will be reset on a regular basis.
+	 * Indices of the methods we've previously analyzed. Each index refers to
+	 * its method, so a weak map would never let go of the AST; instead, the
+	 * checker calls clear() when it is done with a method.
 	 */
-	private Map<ASTNode, Option<LabeledStatement>> nodesInsideAtomic = 
-		new WeakHashMap<ASTNode, Option<LabeledStatement>>(); 
+	private final Map<MethodDeclaration, MutexBlockIndex<LabeledStatement>> analyzedMethods = 
+		new HashMap<MethodDeclaration, MutexBlockIndex<LabeledStatement>>();
+	
 	/*
-	 * Methods we've previously analyzed. Again, a map posing as a set.
+	 * The index used last. Most queries come from the same method as the
+	 * previous one, which the index can tell without walking up the AST.
 	 */
-	private Map<MethodDeclaration, Object> analyzedMethods = new WeakHashMap<MethodDeclaration, Object>();
+	private MutexBlockIndex<LabeledStatement> lastIndex = null;
 	
 	public IsInAtomicAnalysis() {
 		
 	}
+	
+	/**
+	 * Forgets the methods analyzed so far, so that their ASTs can be
+	 * garbage-collected.
+	 */
+	public void clear() {
+		analyzedMethods.clear();
+		lastIndex = null;
+	}
 
 	/**
 	 * Is the given node statically nested inside of an atomic block?<br>
@@ -106,7 +121,8 @@ public class IsInAtomicAnalysis implements MutexWalker {
 	
 	/**
 	 * Which (if any) atomic block is the given node lexical contained
-	 * within?
+	 * within? Nodes in classes declared inside an atomic block are 
+	 * also inside that block.
 	 * @return {@code SOME(labeled_stmt)} if {@code node} is inside of
 	 * an atomic block. Otherwise {@code NONE}.
 	 */
@@ -114,24 +130,53 @@ public class IsInAtomicAnalysis implements MutexWalker {
 		if( node == null ) {
 			return Option.none();
 		}
+		else if( lastIndex != null && lastIndex.covers(node) ) {
+			return blockAt(lastIndex, node);
+		}
 		else {
-			final MethodDeclaration methodDecl = Utilities.getMethodDeclaration(node);
-			this.analyzeMethod(methodDecl);
-			
-			if( this.nodesInsideAtomic.containsKey(node) )
-				return this.nodesInsideAtomic.get(node);
-			else
-				return Option.none();
+			// Look in the method around the node, then in the
+			// methods around any class declared in a method.
+			MethodDeclaration methodDecl = Utilities.getMethodDeclaration(node);
+			while( methodDecl != null ) {
+				MutexBlockIndex<LabeledStatement> index = this.analyzeMethod(methodDecl);
+				if( index.covers(node) )
+					lastIndex = index;
+				
+				Option<LabeledStatement> result = blockAt(index, node);
+				if( result.isSome() )
+					return result;
+				methodDecl = Utilities.getMethodDeclaration(methodDecl.getParent());
+			}
+			return Option.none();
 		}
 	}
 	
-	private void analyzeMethod(MethodDeclaration d) {
+	/**
+	 * Does the given method contain an atomic block, or is it declared
+	 * inside of one?
+	 */
+	public boolean mayBeInAtomicBlock(MethodDeclaration d) {
+		return this.analyzeMethod(d).size() > 0 || this.isInAtomicBlock(d);
+	}
+	
+	private static Option<LabeledStatement> blockAt(MutexBlockIndex<LabeledStatement> index, 
+			ASTNode node) {
+		LabeledStatement block = index.valueAt(node);
+		return block == null ? Option.<LabeledStatement>none() : Option.some(block);
+	}
+	
+	private MutexBlockIndex<LabeledStatement> analyzeMethod(MethodDeclaration d) {
 		assert(d != null);
 		
-		if( !analyzedMethods.containsKey(d) ) {
-			d.accept(new AtomicCheckVisitor());
-			analyzedMethods.put(d, null);
+		MutexBlockIndex<LabeledStatement> result = analyzedMethods.get(d);
+		if( result == null ) {
+			MutexBlockIndex.Builder<LabeledStatement> builder = 
+				MutexBlockIndex.builder(d, (LabeledStatement)null);
+			d.accept(new AtomicCheckVisitor(builder));
+			result = builder.build();
+			analyzedMethods.put(d, result);
 		}
+		return result;
 	}
 
 	static private boolean isAtomicBlock(LabeledStatement labeledStmt) {
@@ -139,41 +184,35 @@ public class IsInAtomicAnalysis implements MutexWalker {
 	}
 	
 	/**
-	 * Code that will visit an ast recording which node is in which
-	 * atomic block. This code is designed based on the assumption
-	 * that atomic blocks cannot be lexically nested, which for the
-	 * time-being they cannot since Java labels cannot be lexically
-	 * nested.
+	 * Code that will visit an ast recording the atomic blocks, and the
+	 * classes declared inside the method, in an index.
 	 */
-	private class AtomicCheckVisitor extends ASTVisitor {
-		private Option<LabeledStatement> atomicBlock = Option.none();
+	private static class AtomicCheckVisitor extends ASTVisitor {
+		private final MutexBlockIndex.Builder<LabeledStatement> builder;
+		
+		AtomicCheckVisitor(MutexBlockIndex.Builder<LabeledStatement> builder) {
+			this.builder = builder;
+		}
 		
 		@Override
 		public boolean visit(LabeledStatement node) {
 			if( isAtomicBlock(node) ) {
-				atomicBlock = Option.some(node);
+				builder.addBlock(node, node);
 			}
 			return true;
 		}
 
 		@Override
-		public void endVisit(LabeledStatement node) {
-			if( isAtomicBlock(node) ) {
-				atomicBlock = Option.none();
-			}
+		public boolean visit(AnonymousClassDeclaration node) {
+			builder.addNestedType(node);
+			return true;
 		}
 
 		@Override
-		public void preVisit(ASTNode node) {
-			/*
-			 * You are an atomic node if we are inside at least one atomic
-			 * block. No entry for nodes that are not inside.
-			 */
-			if( this.atomicBlock.isSome() ) {
-				IsInAtomicAnalysis.this.nodesInsideAtomic.put(node, this.atomicBlock);
-			}
-			super.preVisit(node);
-		}	
+		public boolean visit(TypeDeclarationStatement node) {
+			builder.addNestedType(node);
+			return true;
+		}
 	}
 
 	@Override
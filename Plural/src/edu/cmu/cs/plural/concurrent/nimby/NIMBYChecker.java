@@ -56,14 +56,30 @@ import edu.cmu.cs.plural.track.FractionalTransfer;
 public class NIMBYChecker extends ConcurrentChecker {
 
 	/*
+	 * Shared by the transfer functions and the visitors, so that each
+	 * method is only searched for atomic blocks once.
+	 */
+	private final IsInAtomicAnalysis isInAtomicAnalysis = new IsInAtomicAnalysis();
+	
+	/*
 	 * Override the FACTORY method to return our specific transfer function.
 	 */
 	@Override
 	protected FractionalTransfer createNewFractionalTransfer() {
-		return new NIMBYTransferFunction(analysisInput, this);
+		return new NIMBYTransferFunction(analysisInput, this, isInAtomicAnalysis);
+	}
+	
+	@Override
+	public boolean isUnprotected(MethodDeclaration d) {
+		return !isInAtomicAnalysis.mayBeInAtomicBlock(d);
 	}
 	
 	@Override
+	public void forgetMethods() {
+		isInAtomicAnalysis.clear();
+	}
+	
+	@Override
 	protected FractionalChecker createASTWalker(MethodDeclaration d) {
 		return new NIMBYVisitor(d);
 	}
@@ -82,13 +98,6 @@ public class NIMBYChecker extends ConcurrentChecker {
 		 */
 		private static final boolean FULL_PERMISSION_MUST_UNPACK_IN_ATOMIC = true;
 
-		/**
-		 * This is really bad for performance reasons. I am already doing this
-		 * exact same analysis on the same methods inside of NIMBYTransferFunction.
-		 */
-		private final IsInAtomicAnalysis isInAtomicAnalysis = new IsInAtomicAnalysis();
-
-		
 		public NIMBYVisitor(MethodDeclaration d) {
 			super(d);
 		}
@@ -61,11 +61,21 @@ import edu.cmu.cs.plural.track.FractionAnalysisContext;
  */
 public class NIMBYTransferFunction extends ConcurrentTransferFunction {
 
-	private IsInAtomicAnalysis isInAtomicAnalysis = new IsInAtomicAnalysis();
+	private final IsInAtomicAnalysis isInAtomicAnalysis;
 	
 	public NIMBYTransferFunction(IAnalysisInput input,
 			FractionAnalysisContext context) {
+		this(input, context, new IsInAtomicAnalysis());
+	}
+	
+	/**
+	 * Creates a transfer function that shares the given analysis of
+	 * atomic blocks, e.g., with the checker that uses its results.
+	 */
+	public NIMBYTransferFunction(IAnalysisInput input,
+			FractionAnalysisContext context, IsInAtomicAnalysis isInAtomicAnalysis) {
 		super(input, context);
+		this.isInAtomicAnalysis = isInAtomicAnalysis;
 	}
 
 	@Override
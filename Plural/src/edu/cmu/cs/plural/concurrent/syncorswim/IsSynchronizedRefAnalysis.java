@@ -41,11 +41,13 @@ package edu.cmu.cs.plural.concurrent.syncorswim;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.Map;
 import java.util.Set;
 
 import org.eclipse.jdt.core.dom.ASTNode;
 import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.AnonymousClassDeclaration;
 import org.eclipse.jdt.core.dom.Expression;
 import org.eclipse.jdt.core.dom.FieldAccess;
 import org.eclipse.jdt.core.dom.IVariableBinding;
@@ -56,13 +58,14 @@ import org.eclipse.jdt.core.dom.QualifiedName;
 import org.eclipse.jdt.core.dom.SimpleName;
 import org.eclipse.jdt.core.dom.SynchronizedStatement;
 import org.eclipse.jdt.core.dom.ThisExpression;
+import org.eclipse.jdt.core.dom.TypeDeclarationStatement;
 
 import edu.cmu.cs.crystal.IAnalysisInput;
 import edu.cmu.cs.crystal.tac.eclipse.EclipseTAC;
 import edu.cmu.cs.crystal.tac.model.Variable;
 import edu.cmu.cs.crystal.util.Option;
-import edu.cmu.cs.crystal.util.Pair;
 import edu.cmu.cs.crystal.util.Utilities;
+import edu.cmu.cs.plural.concurrent.MutexBlockIndex;
 import edu.cmu.cs.plural.concurrent.MutexWalker;
 
 /**
@@ -71,7 +74,9 @@ import edu.cmu.cs.plural.concurrent.MutexWalker;
  * location. This analysis will be later queried by the
  * SyncOrSwim analysis to determine which references can be
  * remembered and which can be forgotten. This analysis only works
- * on final variables, including 'this.'
+ * on final variables, including 'this.' For each method, the
+ * synchronized blocks are recorded in a {@link MutexBlockIndex}
+ * by their source ranges.
  * 
  * @author Nels E. Beckman
  * @since Apr 10, 2009
@@ -79,10 +84,7 @@ import edu.cmu.cs.plural.concurrent.MutexWalker;
 public final class IsSynchronizedRefAnalysis  
 	implements MutexWalker {
 	
-	private Map<ASTNode, NodeTree> analyzeMethod(MethodDeclaration d, IAnalysisInput input) {
-		// What are the synchronized variables at a given node?
-		Map<ASTNode, NodeTree> syncedVarsAtNode = 
-			new HashMap<ASTNode, NodeTree>();
+	private MutexBlockIndex<NodeTree> analyzeMethod(MethodDeclaration d, IAnalysisInput input) {
 		NodeTree initialTree;
 
 		// Used to convert expressions to TAC variables.
@@ -101,10 +103,12 @@ public final class IsSynchronizedRefAnalysis
 			initialTree = EMPTY_TREE_INSTANCE;
 		}
 		
-		// Modifies our map in place!
-		d.accept(new IsSynchronizedVisitor(syncedVarsAtNode, initialTree, tac));
+		// What are the synchronized variables inside each block?
+		MutexBlockIndex.Builder<NodeTree> builder = 
+			MutexBlockIndex.builder(d, initialTree);
+		d.accept(new IsSynchronizedVisitor(builder, initialTree, tac));
 		
-		return syncedVarsAtNode;
+		return builder.build();
 	}
 	
 	// Is the given expression, 'this'?
@@ -149,31 +153,60 @@ public final class IsSynchronizedRefAnalysis
 	/**
 	 * Visitor for synchronized blocks. Goes through each node in
 	 * the ast, when encountering a synchronized block it records
-	 * the fact that it has encountered one.
+	 * the block, and the references synchronized inside of it, in
+	 * the index being built.
 	 */
 	private static class IsSynchronizedVisitor extends ASTVisitor {
 
-		// Map from nodes to NodeTrees that gets updated in place
-		private final Map<ASTNode, NodeTree> syncedVarsAtNode;
-		private final NodeTree nodeTree;
+		// Index that gets updated in place
+		private final MutexBlockIndex.Builder<NodeTree> builder;
 		private final EclipseTAC tac;
+		// Tree for the nodes currently being visited
+		private NodeTree nodeTree;
+		// Blocks that extended the tree, innermost first, and the
+		// tree from before each of them.
+		private final LinkedList<SynchronizedStatement> openBlocks = 
+			new LinkedList<SynchronizedStatement>();
+		private final LinkedList<NodeTree> outerTrees = new LinkedList<NodeTree>();
 		
 		/**
-		 * @param syncedVarsAtNode
+		 * @param builder
 		 * @param initialTree
 		 * @param tac 
 		 */
-		public IsSynchronizedVisitor(Map<ASTNode, NodeTree> syncedVarsAtNode,
+		public IsSynchronizedVisitor(MutexBlockIndex.Builder<NodeTree> builder,
 				NodeTree initialTree, EclipseTAC tac) {
-			this.syncedVarsAtNode = syncedVarsAtNode;
+			this.builder = builder;
 			this.nodeTree = initialTree;
 			this.tac = tac;
 		}
+		
+		private void enterBlock(SynchronizedStatement node, Variable var) {
+			NodeTree extension = new ExtensionTree(this.nodeTree, var, node);
+			builder.addBlock(node, extension);
+			openBlocks.addFirst(node);
+			outerTrees.addFirst(this.nodeTree);
+			this.nodeTree = extension;
+		}
+
+		@Override
+		public void endVisit(SynchronizedStatement node) {
+			if( !openBlocks.isEmpty() && openBlocks.getFirst() == node ) {
+				openBlocks.removeFirst();
+				this.nodeTree = outerTrees.removeFirst();
+			}
+		}
 
 		@Override
-		public void preVisit(ASTNode node) {
-			// This method is called right before visit at every node.
-			syncedVarsAtNode.put(node, nodeTree);
+		public boolean visit(AnonymousClassDeclaration node) {
+			builder.addNestedType(node);
+			return true;
+		}
+
+		@Override
+		public boolean visit(TypeDeclarationStatement node) {
+			builder.addNestedType(node);
+			return true;
 		}
 
 		@Override
@@ -188,35 +221,19 @@ public final class IsSynchronizedRefAnalysis
 				Variable var = this.tac.variable(sync_expr);
 				
 				// Only add if ref is not already protected
-				if( this.nodeTree.isSynced(var).isSome() ) {
-					return true;
-				} 
-				else {
-					NodeTree extesion = new ExtensionTree(this.nodeTree, var, node);
-					IsSynchronizedVisitor visitor = new IsSynchronizedVisitor(
-							this.syncedVarsAtNode, extesion, this.tac);
-
-					node.getExpression().accept(visitor);
-					node.getBody().accept(visitor);
-					return false;
+				if( this.nodeTree.isSynced(var).isNone() ) {
+					enterBlock(node, var);
 				}
+				return true;
 			} else if( isThis(sync_expr) ) {
 				// recur with var added to the node tree
 				Variable thiz = this.tac.thisVariable();
 				
 				// Only add if ref is not already protected
-				if( this.nodeTree.isSynced(thiz).isSome() ) {
-					return true;
-				}
-				else {
-					NodeTree extension= new ExtensionTree(this.nodeTree, thiz, node);
-					IsSynchronizedVisitor visitor = new IsSynchronizedVisitor(
-							this.syncedVarsAtNode, extension, this.tac);
-
-					node.getExpression().accept(visitor);
-					node.getBody().accept(visitor);
-					return false;
+				if( this.nodeTree.isSynced(thiz).isNone() ) {
+					enterBlock(node, thiz);
 				}
+				return true;
 			} else {
 				return true;
 			}
@@ -289,19 +306,44 @@ public final class IsSynchronizedRefAnalysis
 		}
 	}
 
-	// Just cache the analysis runs for each method
-	private Pair<MethodDeclaration, Map<ASTNode, NodeTree>> cachedResult = null;
+	// Just cache the analysis runs for each method. Each index refers to
+	// its method, so the checker calls clear() when it is done with a
+	// method rather than relying on weak keys.
+	private final Map<MethodDeclaration, MutexBlockIndex<NodeTree>> analyzedMethods =
+		new HashMap<MethodDeclaration, MutexBlockIndex<NodeTree>>();
+	
+	// The index used last, which can tell without walking up the AST
+	// whether a node is in the same method as the previous query.
+	private MutexBlockIndex<NodeTree> lastIndex = null;
 	
-	private Map<ASTNode, NodeTree> resultsAtNode(ASTNode node, IAnalysisInput input) {
+	/**
+	 * Forgets the methods analyzed so far, so that their ASTs can be
+	 * garbage-collected.
+	 */
+	public void clear() {
+		analyzedMethods.clear();
+		lastIndex = null;
+	}
+	
+	/**
+	 * Returns the index for the method around the given node, or NONE
+	 * if the node is not inside of a method.
+	 */
+	private Option<MutexBlockIndex<NodeTree>> resultsAtNode(ASTNode node, IAnalysisInput input) {
+		if( lastIndex != null && lastIndex.covers(node) )
+			return Option.some(lastIndex);
+		
 		final MethodDeclaration methodDecl = Utilities.getMethodDeclaration(node);
+		if( methodDecl == null )
+			return Option.none();
 		
-		Map<ASTNode, NodeTree> syncedVarsAtNode;
-		if( cachedResult != null && cachedResult.fst().equals(methodDecl) ) {
-			syncedVarsAtNode = cachedResult.snd();
-		} else {
-			syncedVarsAtNode = this.analyzeMethod(methodDecl, input);
+		MutexBlockIndex<NodeTree> index = analyzedMethods.get(methodDecl);
+		if( index == null ) {
+			index = this.analyzeMethod(methodDecl, input);
+			analyzedMethods.put(methodDecl, index);
 		}
-		return syncedVarsAtNode;
+		lastIndex = index;
+		return Option.some(index);
 	}
 	
 	/**
@@ -311,13 +353,23 @@ public final class IsSynchronizedRefAnalysis
 	 * method will just return the empty set.
 	 */
 	public Set<Variable> refsSyncedAtNode(ASTNode node, IAnalysisInput input) {
-		Map<ASTNode, NodeTree> synced = this.resultsAtNode(node, input);
-		if( synced.containsKey(node) )
-			return synced.get(node).syncedVars();
+		Option<MutexBlockIndex<NodeTree>> synced = this.resultsAtNode(node, input);
+		if( synced.isSome() )
+			return synced.unwrap().valueAt(node).syncedVars();
 		else
 			return Collections.emptySet();
 	}
 	
+	/**
+	 * Is any reference synchronized anywhere in the given method, either
+	 * by a synchronized block or because the method is synchronized?
+	 */
+	public boolean synchronizesAnything(MethodDeclaration d, IAnalysisInput input) {
+		Option<MutexBlockIndex<NodeTree>> synced = this.resultsAtNode(d, input);
+		return synced.isSome() && (synced.unwrap().size() > 0 ||
+				!synced.unwrap().valueAt(d).syncedVars().isEmpty());
+	}
+	
 	@Override
 	public Option<? extends ASTNode> inWhichMutexBlockIsThisProtected(ASTNode node, IAnalysisInput input) {
 		if( node == null ) {
@@ -325,17 +377,17 @@ public final class IsSynchronizedRefAnalysis
 		}
 		else {
 			// First, perform the analysis for the given method
-			Map<ASTNode, NodeTree> syncedVarsAtNode = this.resultsAtNode(node, input);
-			MethodDeclaration methodDecl = Utilities.getMethodDeclaration(node);
+			Option<MutexBlockIndex<NodeTree>> syncedVarsAtNode = this.resultsAtNode(node, input);
 			
 			// Then find the NodeTree that tells us which refs are synced at the
 			// given node.
 			// See if 'this' is one of the synced nodes
 			// TODO: Note that this code implicitly assumes that we want the inner-most this.
-			if( syncedVarsAtNode.containsKey(node) ) {
-				NodeTree synced_vars = syncedVarsAtNode.get(node);
+			if( syncedVarsAtNode.isSome() ) {
+				MutexBlockIndex<NodeTree> index = syncedVarsAtNode.unwrap();
+				NodeTree synced_vars = index.valueAt(node);
 				
-				EclipseTAC tac = input.getComUnitTACs().unwrap().getMethodTAC(methodDecl);
+				EclipseTAC tac = input.getComUnitTACs().unwrap().getMethodTAC(index.getMethod());
 				Variable this_var = tac.thisVariable();
 				return synced_vars.isSynced(this_var);
 			}
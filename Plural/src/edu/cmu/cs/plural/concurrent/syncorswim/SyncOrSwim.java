@@ -61,6 +61,10 @@ import edu.cmu.cs.plural.track.FractionalTransfer;
  */
 public class SyncOrSwim extends ConcurrentChecker {
 
+	// Shared by the transfer functions and the visitors
+	private final IsSynchronizedRefAnalysis isSynchronizedRef = 
+		new IsSynchronizedRefAnalysis();
+	
 	@Override
 	protected FractionalChecker createASTWalker(MethodDeclaration d) {
 		return new SynchronizedVisitor(d);
@@ -68,21 +72,28 @@ public class SyncOrSwim extends ConcurrentChecker {
 
 	@Override
 	protected FractionalTransfer createNewFractionalTransfer() {
-		return new SyncOrSwimTransferFunction(analysisInput, this);
+		return new SyncOrSwimTransferFunction(analysisInput, this, isSynchronizedRef);
+	}
+	
+	@Override
+	public boolean isUnprotected(MethodDeclaration d) {
+		return !isSynchronizedRef.synchronizesAnything(d, analysisInput);
+	}
+	
+	@Override
+	public void forgetMethods() {
+		isSynchronizedRef.clear();
 	}
 	
 	private class SynchronizedVisitor extends ConcurrentVisitor {
 
-		private final IsSynchronizedRefAnalysis isSynchronizedRef = 
-			new IsSynchronizedRefAnalysis();
-		
 		public SynchronizedVisitor(MethodDeclaration d) {
 			super(d);
 		}
 
 		@Override
 		protected MutexWalker getMutexWalker() {
-			return this.isSynchronizedRef;
+			return isSynchronizedRef;
 		}
 
 		@Override
@@ -65,13 +65,23 @@ import edu.cmu.cs.plural.track.FractionAnalysisContext;
  */
 public class SyncOrSwimTransferFunction extends ConcurrentTransferFunction {
 
-	private final IsSynchronizedRefAnalysis refAnalysis = new IsSynchronizedRefAnalysis();
+	private final IsSynchronizedRefAnalysis refAnalysis;
 	private final IAnalysisInput analysisInput;
 	
 	public SyncOrSwimTransferFunction(IAnalysisInput input,
 			FractionAnalysisContext context) {
+		this(input, context, new IsSynchronizedRefAnalysis());
+	}
+	
+	/**
+	 * Creates a transfer function that shares the given analysis of
+	 * synchronized blocks, e.g., with the checker that uses its results.
+	 */
+	public SyncOrSwimTransferFunction(IAnalysisInput input,
+			FractionAnalysisContext context, IsSynchronizedRefAnalysis refAnalysis) {
 		super(input, context);
 		this.analysisInput = input;
+		this.refAnalysis = refAnalysis;
 	}
 
 	@Override
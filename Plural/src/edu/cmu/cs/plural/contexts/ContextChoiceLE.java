@@ -47,6 +47,8 @@ import org.eclipse.jdt.core.dom.ASTNode;
 import edu.cmu.cs.plural.errors.ChoiceID;
 import edu.cmu.cs.plural.errors.JoiningChoices;
 import edu.cmu.cs.plural.linear.DisjunctiveVisitor;
+import edu.cmu.cs.plural.util.AnalysisBudget;
+import edu.cmu.cs.plural.util.AnalysisStatistics;
 
 /**
  * Intended for the case where you need to prove something in 
@@ -60,10 +62,27 @@ public final class ContextChoiceLE implements LinearContext {
 	
 	/**
 	 * Creates an alternative disjunction with the given elements.
+	 * If the method being analyzed is over its {@link AnalysisBudget budget},
+	 * only the first element that is neither true nor false is kept.  
+	 * That is a sound approximation since only one of the elements has to 
+	 * be satisfied.  A true or false element would make the rest of the
+	 * method vacuous, so choices between only such elements are kept as they
+	 * are, and compacting them is cheap.
 	 * @param elements
 	 * @return an alternative disjunction with the given elements.
 	 */
 	public static ContextChoiceLE choice(Set<LinearContext> elements) {
+		AnalysisStatistics.contextCreated(elements.size());
+		if(AnalysisBudget.current().affordChoice(elements.size()) == false) {
+			for(LinearContext e : elements) {
+				if(ContextFactory.isTrueContext(e) || ContextFactory.isFalseContext(e))
+					continue;
+				Set<LinearContext> first = new LinkedHashSet<LinearContext>(1);
+				first.add(e);
+				elements = first;
+				break;
+			}
+		}
 		return new ContextChoiceLE(elements);
 	}
 
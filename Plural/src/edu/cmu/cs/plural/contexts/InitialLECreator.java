@@ -100,7 +100,8 @@ public abstract class InitialLECreator implements MergeIntoTuple {
 		final TensorPluralTupleLE tuple =
 			new TensorPluralTupleLE(
 					FractionalPermissions.createEmpty(), // use top (no permissions) as default
-					fractContext);
+					fractContext,
+					tacContext.getAnalyzedMethod());
 		tuple.storeInitialAliasingInfo(tacContext.getAnalyzedMethod());
 		
 		if(fractContext.assumeVirtualFrame()) {
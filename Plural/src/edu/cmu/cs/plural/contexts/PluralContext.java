@@ -575,6 +575,12 @@ public class PluralContext implements LatticeElement<PluralContext>, Freezable<P
 				else {
 					Set<LinearContext> choices = new LinkedHashSet<LinearContext>(caseCount); 
 					for(IMethodCaseInstance prePost : cases) {
+						if(! op.isFeasibleCase(instr, le, prePost)) {
+							// same result as below, without copying the tuple
+							choices.add(ContextFactory.trueContext(le.getParentChoiceID(), 
+									le.getChoiceID()));
+							continue;
+						}
 						TensorContext context_copy = le.mutableCopy();
 						TensorPluralTupleLE tuple = context_copy.getTuple();
 						tuple.storeCurrentAliasingInfo(instr.getNode());
@@ -121,6 +121,11 @@ public class TensorPluralTupleLE extends PluralTupleLatticeElement {
 		super(b, context);
 	}
 
+	public TensorPluralTupleLE(FractionalPermissions b,
+			FractionAnalysisContext context, MethodDeclaration decl) {
+		super(b, context, decl);
+	}
+
 	protected TensorPluralTupleLE(AliasAwareTupleLE<FractionalPermissions> a,
 			FractionAnalysisContext context,
 			Variable unpackedVar, ASTNode nodeWhereUnpacked, DynamicStateLogic dsl) {
@@ -380,10 +385,30 @@ public class TensorPluralTupleLE extends PluralTupleLatticeElement {
 		return result;
 	}
 	
+	/**
+	 * Returns the names of the states whose invariants
+	 * {@link #packReceiver(TensorContext, Variable, StateSpaceRepository, SimpleMap, Set)}
+	 * checks, in the order it checks them, when packing the given permission.
+	 */
+	private static List<String> getInvariantStates(ITypeBinding class_decl,
+			FractionalPermission packed_perm, AnnotationDatabase annoDB) {
+		List<String> result = new LinkedList<String>();
+		for( Pair<String,String> state_and_inv : getStatesAndInvs(class_decl, packed_perm, annoDB) ) {
+			result.add(state_and_inv.fst());
+		}
+		return result;
+	}
+	
 	/**
 	 * This is the disjunctive version of 
 	 * {@link PluralTupleLatticeElement#packReceiverToBestGuess(ThisVariable, StateSpaceRepository, SimpleMap, String...)}.
 	 * Tries all given states and returns the successful packs.
+	 * Packing to a state checks the invariants of that state and of all
+	 * bigger states, so a failed pack usually rules out many other candidates:
+	 * if a pack fails on an invariant, every candidate that checks the same
+	 * invariant after (at least) the invariants checked before it would fail
+	 * the same way, since splitting off more permissions never makes a later
+	 * split easier.  Such candidates are skipped without copying the context.
 	 * @param rcvrVar
 	 * @param stateRepo
 	 * @param locs
@@ -422,8 +447,20 @@ public class TensorPluralTupleLE extends PluralTupleLatticeElement {
 
 		// try packing to each state; discard unsuccessful attempts
 		// TODO try state combinations for states from different dimensions
+		final ITypeBinding rcvr_type = rcvrVar.resolveType();
+		// invariant states checked by failed packs, up to the failing one
+		List<Set<String>> failed_checks = new LinkedList<Set<String>>();
 		LinkedHashSet<LinearContext> resultElems = new LinkedHashSet<LinearContext>();
+		candidates:
 		for(String n : statesWorthTrying) {
+			List<String> inv_states = getInvariantStates(rcvr_type, 
+					unpacked_permission.copyNewState(n), getAnnotationDB());
+			for(Set<String> failed : failed_checks) {
+				if(inv_states.containsAll(failed))
+					// would fail on the same invariant
+					continue candidates;
+			}
+			
 			TensorContext elem_ctx = curContext.mutableCopy();
 			TensorPluralTupleLE elem = elem_ctx.getTuple();
 			elem.storeIdenticalAliasInfo(this);
@@ -434,6 +471,15 @@ public class TensorPluralTupleLE extends PluralTupleLatticeElement {
 				resultElems.add(TensorContext.tensor(elem, parentID, 
 						ChoiceID.choiceID("Choosing to pack to " + n)));
 			}
+			else {
+				Set<String> checked = new HashSet<String>();
+				for(String s : inv_states) {
+					checked.add(s);
+					if(s.equals(pack_result.failedState().unwrap()))
+						break;
+				}
+				failed_checks.add(checked);
+			}
 		}
 		return ContextChoiceLE.choice(resultElems);
 	}
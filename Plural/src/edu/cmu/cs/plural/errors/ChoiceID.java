@@ -38,7 +38,7 @@
 
 package edu.cmu.cs.plural.errors;
 
-import java.util.concurrent.atomic.AtomicLong;
+import edu.cmu.cs.plural.util.Numbering;
 
 /**
  * A choice id uniquely identifies a node in the choice tree. Choices
@@ -46,18 +46,21 @@ import java.util.concurrent.atomic.AtomicLong;
  * which state to pack to. In order to track the tree of choices
  * over time, we give them ids. A choice ID has an age, so we can
  * say that one choice id is newer or older than another.
+ * IDs are numbered per method (see {@link Numbering}), so the same 
+ * method gets the same IDs every time it is analyzed.
  * 
  * @author Nels E. Beckman
  * @since May 29, 2009
  */
 public class ChoiceID implements Comparable<ChoiceID> {
 
-	private static final AtomicLong ID_GENERATOR = new AtomicLong(0L);
+	private final Numbering numbering;
 	
 	private final long id;
 		
 	private ChoiceID() {
-		id = ID_GENERATOR.incrementAndGet();
+		numbering = Numbering.current();
+		id = numbering.nextChoiceID();
 	}
 	
 	public static ChoiceID choiceID() {
@@ -78,6 +81,9 @@ public class ChoiceID implements Comparable<ChoiceID> {
 		// I didn't just subtract because the return value of
 		// this method is an int and I didn't want to have to
 		// worry about annoying overflow garbage.
+		int result = this.numbering.compareTo(arg0.numbering);
+		if( result != 0 )
+			return result;
 		return 
 			this.id < arg0.id ? -1 :
 				(this.id == arg0.id ? 0 : 1);
@@ -102,6 +108,8 @@ public class ChoiceID implements Comparable<ChoiceID> {
 		ChoiceID other = (ChoiceID) obj;
 		if (id != other.id)
 			return false;
+		if (numbering != other.numbering)
+			return false;
 		return true;
 	}
 	
@@ -66,6 +66,23 @@ class HistoryRoot {
 		return this.root;
 	}
 	
+	/**
+	 * A history root for the given spec case, checked with the given
+	 * virtual frame assumption.
+	 * @param assumeVirtualFrame <code>null</code> if the virtual frame was
+	 * not distinguished, otherwise whether it was assumed to be the
+	 * current frame.
+	 */
+	public static HistoryRoot forCase(HistoryNode root, String methodCase, 
+			Boolean assumeVirtualFrame) {
+		if( assumeVirtualFrame == null )
+			return noSeparateCaseRoot(root, methodCase);
+		else if( assumeVirtualFrame )
+			return virtualIsCurrent(root, methodCase);
+		else
+			return virtualNotCurrent(root, methodCase);
+	}
+	
 	/**
 	 * A history root for checking cases where we do not need to
 	 * separately check virtual == current/ != current.
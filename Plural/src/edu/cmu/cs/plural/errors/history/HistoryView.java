@@ -43,8 +43,16 @@ import java.util.List;
 import java.util.Map;
 
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jdt.core.ElementChangedEvent;
+import org.eclipse.jdt.core.IElementChangedListener;
 import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaElementDelta;
 import org.eclipse.jdt.core.IMethod;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.JavaModelException;
 import org.eclipse.jdt.core.dom.IMethodBinding;
 import org.eclipse.jdt.core.dom.MethodDeclaration;
 import org.eclipse.jdt.core.dom.Modifier;
@@ -58,6 +66,7 @@ import org.eclipse.jface.viewers.TreeViewer;
 import org.eclipse.jface.viewers.Viewer;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Display;
 import org.eclipse.ui.ISelectionListener;
 import org.eclipse.ui.IWorkbenchPart;
 import org.eclipse.ui.part.ViewPart;
@@ -84,9 +93,14 @@ import edu.cmu.cs.plural.states.StateSpaceRepository;
 import edu.cmu.cs.plural.track.FractionAnalysisContext;
 import edu.cmu.cs.plural.track.FractionalAnalysis;
 import edu.cmu.cs.plural.track.FractionalTransfer;
+import edu.cmu.cs.plural.util.AnalysisBudget;
+import edu.cmu.cs.plural.util.ResultCache;
 
 /**
  * A TreeView plugin which allows us to visualize the evolution of choice contexts.
+ * The history of an analysis is computed in a background job when it is first
+ * expanded, reusing the flow results of the last check run if the method has
+ * not changed since (see {@link RetainedFlowResults}).
  * 
  * @author Nels E. Beckman
  * @since Jun 1, 2009
@@ -94,6 +108,56 @@ import edu.cmu.cs.plural.track.FractionalTransfer;
  */
 public class HistoryView extends ViewPart implements ISelectionListener, ISelectionProvider {
 
+	/**
+	 * Methods parsed for building histories, by analysis, method handle and
+	 * source of the compilation unit, so that building the history of an
+	 * unchanged method again reuses its TACs, annotations, and the aliasing 
+	 * and liveness results cached for them.
+	 * The specifications of the methods that a method calls can be in other
+	 * compilation units, so the cache is cleared whenever any source changes,
+	 * along with the {@link RetainedFlowResults}.
+	 * Estimated sizes are characters of source code.
+	 */
+	private static final ResultCache<ParsedMethod> parsedMethods = 
+		ResultCache.create("history", 2000000L);
+	
+	static {
+		JavaCore.addElementChangedListener(new IElementChangedListener() {
+			@Override
+			public void elementChanged(ElementChangedEvent event) {
+				if( changesSources(event.getDelta()) ) {
+					parsedMethods.clear();
+					RetainedFlowResults.clear();
+				}
+			}
+		}, ElementChangedEvent.POST_CHANGE);
+	}
+	
+	/**
+	 * Does the given delta change any compilation unit, or anything, like
+	 * the class path, that could change the bindings of compilation units?
+	 */
+	private static boolean changesSources(IJavaElementDelta delta) {
+		IJavaElement elem = delta.getElement();
+		int flags = delta.getFlags();
+		if( elem.getElementType() == IJavaElement.COMPILATION_UNIT )
+			return delta.getKind() != IJavaElementDelta.CHANGED ||
+				(flags & (IJavaElementDelta.F_CONTENT | IJavaElementDelta.F_PRIMARY_RESOURCE)) != 0;
+		if( elem.getElementType() < IJavaElement.COMPILATION_UNIT ) {
+			if( delta.getKind() != IJavaElementDelta.CHANGED ||
+				(flags & (IJavaElementDelta.F_CLASSPATH_CHANGED | 
+						  IJavaElementDelta.F_RESOLVED_CLASSPATH_CHANGED |
+						  IJavaElementDelta.F_CLOSED |
+						  IJavaElementDelta.F_ARCHIVE_CONTENT_CHANGED)) != 0 )
+				return true;
+		}
+		for( IJavaElementDelta child : delta.getAffectedChildren() ) {
+			if( changesSources(child) )
+				return true;
+		}
+		return false;
+	}
+	
 	private TreeViewer treeViewer;
 	
 	@Override
@@ -112,6 +176,15 @@ public class HistoryView extends ViewPart implements ISelectionListener, ISelect
 		
 		// We provide tree selection events
 		getSite().setSelectionProvider(this);
+		
+		// Keep the results of check runs while the view is open
+		RetainedFlowResults.startRecording();
+	}
+	
+	@Override
+	public void dispose() {
+		RetainedFlowResults.stopRecording();
+		super.dispose();
 	}
 
 	@Override
@@ -125,7 +198,47 @@ public class HistoryView extends ViewPart implements ISelectionListener, ISelect
 	}
 	
 	enum PluralAnalyses {
-		PLURAL, NIMBY, SYNC_OR_SWIM;
+		PLURAL(FractionalTransfer.class), 
+		NIMBY(NIMBYTransferFunction.class), 
+		SYNC_OR_SWIM(SyncOrSwimTransferFunction.class);
+		
+		/** The transfer function used by this analysis. */
+		final Class<? extends FractionalTransfer> transferFunction;
+		
+		PluralAnalyses(Class<? extends FractionalTransfer> transferFunction) {
+			this.transferFunction = transferFunction;
+		}
+	}
+	
+	/**
+	 * A method declaration with the TACs and annotations for analyzing it.
+	 * Lock it while analyzing, since TACs are created lazily.
+	 */
+	static final class ParsedMethod {
+		final MethodDeclaration decl;
+		final AnnotationDatabase annodb;
+		final CompilationUnitTACs tacs;
+		ParsedMethod(MethodDeclaration decl, AnnotationDatabase annodb, 
+				CompilationUnitTACs tacs) {
+			this.decl = decl;
+			this.annodb = annodb;
+			this.tacs = tacs;
+		}
+	}
+	
+	/**
+	 * Shown as the only child of an analysis while its history
+	 * is being computed.
+	 */
+	static class PendingAnalysis {
+		final PluralAnalyses analysis;
+		PendingAnalysis(PluralAnalyses analysis) {
+			this.analysis = analysis;
+		}
+		@Override
+		public String toString() {
+			return "Analyzing...";
+		}
 	}
 	
 	class MethodHolder {
@@ -168,15 +281,30 @@ public class HistoryView extends ViewPart implements ISelectionListener, ISelect
 	
 	class ContextTreeContentProvider implements ILazyTreeContentProvider {
 
+		// Only touched from the UI thread.
 		private Map<PluralAnalyses, ResultingDisplayTree> trees =
 			new HashMap<PluralAnalyses, ResultingDisplayTree>(3);
 		
-		@Override public void dispose() { }
+		// The jobs still computing histories, also only touched from the UI thread.
+		private Map<PluralAnalyses, Job> jobs =
+			new HashMap<PluralAnalyses, Job>(3);
+		
+		@Override 
+		public void dispose() {
+			cancelJobs();
+		}
 
 		@Override
 		public void inputChanged(Viewer viewer, Object oldInput, Object newInput) {
+			cancelJobs();
 			this.trees.clear();
 		}
+		
+		private void cancelJobs() {
+			for( Job job : this.jobs.values() )
+				job.cancel();
+			this.jobs.clear();
+		}
 
 		@Override
 		public Object getParent(Object element) {
@@ -186,6 +314,8 @@ public class HistoryView extends ViewPart implements ISelectionListener, ISelect
 				return new MethodHolder((IMethod) element);
 			else if( element instanceof PluralAnalyses )
 				return treeViewer.getInput();
+			else if( element instanceof PendingAnalysis )
+				return ((PendingAnalysis)element).analysis;
 			else if( element instanceof ResultingDisplayTree ) {
 				ResultingDisplayTree display_tree = (ResultingDisplayTree)element;
 				if( display_tree.getParent().isNone() ) // same as element instanceof PluralAnalyses
@@ -209,8 +339,11 @@ public class HistoryView extends ViewPart implements ISelectionListener, ISelect
 					treeViewer.setChildCount(element, num_analyses);
 			}
 			else if( element instanceof PluralAnalyses ) {
-//				if( currentChildCount == 0 )
-//					treeViewer.setHasChildren(element, true);
+				// Until the history is computed, there is one pending child.
+				ResultingDisplayTree tree = this.trees.get(element);
+				int children = tree == null ? 1 : tree.getChildren().size();
+				if( currentChildCount != children )
+					treeViewer.setChildCount(element, children);
 			}
 			else if( element instanceof ResultingDisplayTree ) {
 				int children = ((ResultingDisplayTree)element).getChildren().size();
@@ -237,15 +370,15 @@ public class HistoryView extends ViewPart implements ISelectionListener, ISelect
 				
 				if( !this.trees.containsKey(parent) ) {
 					// Okay, the user actually wants answers. Let's
-					// go compute them for the given 
-					MethodHolder holder = (MethodHolder)treeViewer.getInput();
-					MultiCaseHistoryTree tree = 
-						runAnalysis(analysis_type, holder.method);
-					
-					ResultingDisplayTree analysis_tree = 
-						tree.createTreeForDisplay(parent);
-					
-					this.trees.put(analysis_type, analysis_tree);
+					// go compute them in the background, and show
+					// that we are doing so in the meantime.
+					treeViewer.setChildCount(parent, 1);
+					treeViewer.replace(parent, 0, new PendingAnalysis(analysis_type));
+					if( !this.jobs.containsKey(analysis_type) ) {
+						MethodHolder holder = (MethodHolder)treeViewer.getInput();
+						scheduleAnalysis(analysis_type, holder.method);
+					}
+					return;
 				}
 				
 				ResultingDisplayTree analysis_tree = this.trees.get(analysis_type);
@@ -255,34 +388,111 @@ public class HistoryView extends ViewPart implements ISelectionListener, ISelect
 				ResultingDisplayTree child = children.get(index);
 				treeViewer.replace(parent, index, child);
 				
-				
-				int child_children = child.getChildren().size();
-				treeViewer.setChildCount(child, child_children);
+				// Children are only created once the child is expanded
+				treeViewer.setHasChildren(child, child.hasChildren());
 			}
 			else if( parent instanceof ResultingDisplayTree ) {
 				ResultingDisplayTree parent_tree = (ResultingDisplayTree)parent;
 				List<ResultingDisplayTree> children = parent_tree.getChildren();
 				ResultingDisplayTree child = children.get(index);
 				treeViewer.replace(parent, index, child);
-				treeViewer.setChildCount(child, child.getChildren().size());
+				treeViewer.setHasChildren(child, child.hasChildren());
 			}
 			
 			
 		}
 
+		/**
+		 * Compute the history of the given analysis over the given method
+		 * in a cancellable background job, and show it once it is done,
+		 * unless the input has changed in the meantime.
+		 */
+		private void scheduleAnalysis(final PluralAnalyses analysis_type, final IMethod method) {
+			final Display display = treeViewer.getControl().getDisplay();
+			Job job = new Job("Plural history of " + method.getElementName()) {
+				@Override
+				protected IStatus run(IProgressMonitor monitor) {
+					MultiCaseHistoryTree tree = runAnalysis(analysis_type, method, monitor);
+					if( tree == null || monitor.isCanceled() )
+						return Status.CANCEL_STATUS;
+					final ResultingDisplayTree analysis_tree = 
+						tree.createTreeForDisplay(analysis_type);
+					final Job self = this;
+					display.asyncExec(new Runnable() {
+						@Override
+						public void run() {
+							if( jobs.get(analysis_type) != self || 
+									treeViewer.getControl().isDisposed() )
+								return;
+							jobs.remove(analysis_type);
+							trees.put(analysis_type, analysis_tree);
+							treeViewer.setChildCount(analysis_type, 
+									analysis_tree.getChildren().size());
+							treeViewer.refresh(analysis_type);
+						}
+					});
+					return Status.OK_STATUS;
+				}
+			};
+			job.setUser(false);
+			this.jobs.put(analysis_type, job);
+			job.schedule();
+		}
+
+		
 		
+		/**
+		 * Builds the history trees from the results of the last check run,
+		 * if they were retained and the method has not changed since.
+		 * Returns null if cancelled.
+		 */
+		private MultiCaseHistoryTree reuseAnalysis(RetainedFlowResults.MethodResults retained,
+				IProgressMonitor monitor) {
+			MultiCaseHistoryTree graph = new MultiCaseHistoryTree();
+			for( RetainedFlowResults.CaseResult case_ : retained.getCases() ) {
+				if( monitor.isCanceled() )
+					return null;
+				Pair<HistoryNode, SingleCaseHistoryTree> pair =
+					HistoryVisitor.visitAndBuildTree(retained.getDeclaration(), 
+							case_.analysis, retained.getComUnitTACs());
+				graph.addRoot(HistoryRoot.forCase(pair.fst(), case_.methodCase, 
+						case_.assumeVirtualFrame), pair.snd());
+			}
+			return graph;
+		}
 		
 		/**
 		 * This code is very similar to 
 		 * {@link FractionalAnalysis#analyzeMethod(MethodDeclaration)} and
-		 * the methods called by that method.
+		 * the methods called by that method. Returns null if cancelled.
 		 */
-		private MultiCaseHistoryTree runAnalysis(PluralAnalyses analysis_type, IMethod method) {
-			// Get AST node declaration from 
-			MethodDeclaration method_decl = methodDeclarationFromMethod(method);
+		private MultiCaseHistoryTree runAnalysis(PluralAnalyses analysis_type, IMethod method,
+				IProgressMonitor monitor) {
+			Option<RetainedFlowResults.MethodResults> retained = 
+				RetainedFlowResults.lookup(analysis_type.transferFunction, method);
+			if( retained.isSome() )
+				return reuseAnalysis(retained.unwrap(), monitor);
+			
+			// Get AST node declaration, TACs and annotations
+			ParsedMethod parsed = parseMethod(analysis_type, method);
+			synchronized( parsed ) {
+				// the method gets its own budget, like in the analysis
+				AnalysisBudget.startMethod();
+				try {
+					return runAnalysis(analysis_type, parsed, monitor);
+				}
+				finally {
+					AnalysisBudget.finishMethod();
+				}
+			}
+		}
+		
+		private MultiCaseHistoryTree runAnalysis(PluralAnalyses analysis_type, ParsedMethod parsed,
+				IProgressMonitor monitor) {
+			MethodDeclaration method_decl = parsed.decl;
 			
 			// Create input, one for all cases
-			IAnalysisInput input = createAnalysisInput();
+			IAnalysisInput input = createAnalysisInput(parsed, monitor);
 			
 			// Now we go 'per case.'
 			// only analyze methods with code in them; skip abstract methods
@@ -293,6 +503,8 @@ public class HistoryView extends ViewPart implements ISelectionListener, ISelect
 			MultiCaseHistoryTree graph = new MultiCaseHistoryTree();
 			int classFlags = sig.getSpecifiedMethodBinding().getDeclaringClass().getModifiers();
 			for( IInvocationCase case_ : sig.cases() ) {
+				if( monitor.isCanceled() )
+					return null;
 				final boolean isFinalClass = Modifier.isFinal(classFlags);
 				final boolean isAbstractClass = Modifier.isAbstract(classFlags);
 				final boolean isStaticMethod = Modifier.isStatic(method_decl.getModifiers());
@@ -366,8 +578,11 @@ public class HistoryView extends ViewPart implements ISelectionListener, ISelect
 		 * input.
 		 */
 		private TACFlowAnalysis<PluralContext> createFractionalAnalysis(FractionalTransfer xfer_function, IAnalysisInput input) {
-			return new TACFlowAnalysis<PluralContext>(xfer_function, 
+			TACFlowAnalysis<PluralContext> result = 
+				new TACFlowAnalysis<PluralContext>(xfer_function, 
 					input.getComUnitTACs().unwrap());
+			result.setMonitor(input.getProgressMonitor());
+			return result;
 		}
 
 		/**
@@ -389,6 +604,34 @@ public class HistoryView extends ViewPart implements ISelectionListener, ISelect
 			}
 		}
 
+		/**
+		 * Returns the declaration of the given method with TACs and annotations
+		 * for analyzing it, reusing the ones from the last time the history of the
+		 * given analysis was built for the method if no source has changed since.
+		 */
+		private ParsedMethod parseMethod(PluralAnalyses analysis_type, IMethod method) {
+			String source = null;
+			try {
+				if( method.getCompilationUnit() != null )
+					source = method.getCompilationUnit().getSource();
+			} catch (JavaModelException e) {
+				// Cannot tell if it changed, so parse again
+			}
+			ResultCache.Key key = source == null ? null : 
+				ResultCache.valueKey(analysis_type, method.getHandleIdentifier(), source);
+			ParsedMethod result = key == null ? null : parsedMethods.get(key);
+			if( result == null ) {
+				AnnotationDatabase annodb = new AnnotationDatabase();
+				Crystal crystal = AbstractCrystalPlugin.getCrystalInstance();
+				crystal.registerAnnotationsWithDatabase(annodb);
+				result = new ParsedMethod(methodDeclarationFromMethod(method), 
+						annodb, new CompilationUnitTACs());
+				if( key != null )
+					result = parsedMethods.put(key, result, source.length());
+			}
+			return result;
+		}
+
 		/**
 		 * Given a method from the model class hierarchy, get a method declaration
 		 * from the ASTNode class hierarchy.
@@ -440,30 +683,24 @@ public class HistoryView extends ViewPart implements ISelectionListener, ISelect
 		}
 
 		/**
-		 * Creates an input for a new analysis. This basically consists
-		 * of creating a bunch of new input classes.
+		 * Creates an input for a new analysis of the given method. 
 		 */
-		private IAnalysisInput createAnalysisInput() {			
-			final AnnotationDatabase annodb = new AnnotationDatabase();
-			Crystal crystal = AbstractCrystalPlugin.getCrystalInstance();
-			crystal.registerAnnotationsWithDatabase(annodb);
-			
+		private IAnalysisInput createAnalysisInput(final ParsedMethod parsed, 
+				final IProgressMonitor monitor) {			
 			return new IAnalysisInput() {
-				private CompilationUnitTACs cutac = new CompilationUnitTACs();
-				
 				@Override
 				public AnnotationDatabase getAnnoDB() {
-					return annodb;
+					return parsed.annodb;
 				}
 
 				@Override
 				public Option<CompilationUnitTACs> getComUnitTACs() {
-					return Option.some(cutac);
+					return Option.some(parsed.tacs);
 				}
 
 				@Override
 				public Option<IProgressMonitor> getProgressMonitor() {
-					return Option.none();
+					return Option.some(monitor);
 				}
 			};
 		}
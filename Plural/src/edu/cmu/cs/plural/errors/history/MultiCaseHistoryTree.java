@@ -121,7 +121,8 @@ class MultiCaseHistoryTree {
 	/**
 	 * From all of the intermediate information we have in this tree,
 	 * create a {@link ResultingDisplayTree}, which is suitable to be
-	 * displayed in an actual tree view.
+	 * displayed in an actual tree view. Only the case roots are created
+	 * up front; the nodes below them are created as they are expanded.
 	 */
 	ResultingDisplayTree createTreeForDisplay(Object parent) {
 		// Iterating, even though recursion would be much more convenient
@@ -156,8 +157,8 @@ class MultiCaseHistoryTree {
 		return this.displayTreeHelper(cur_tree, node, parent);
 	}
 	
-	private List<ResultingDisplayTree> displayTreeHelper(SingleCaseHistoryTree cur_tree,
-			HistoryNode parent_node,
+	private List<ResultingDisplayTree> displayTreeHelper(final SingleCaseHistoryTree cur_tree,
+			final HistoryNode parent_node,
 			ResultingDisplayTree parent) {
 		List<ResultingDisplayTree> children = new ArrayList<ResultingDisplayTree>();
 		
@@ -167,18 +168,17 @@ class MultiCaseHistoryTree {
 				//  Last
 				DisplayLinearContext ctx = parent_node.getContext(i);
 				ResultingDisplayTree cur = new ResultingDisplayTree(Option.some(parent),ctx);
-				List<ResultingDisplayTree> cur_children = new ArrayList<ResultingDisplayTree>();
-				
-				for( HistoryNode choice : cur_tree.getChildren(parent_node) ) {
-					ResultingDisplayTree choice_ = new ResultingDisplayTree(Option.some(cur),
-							choice);
-					// Recur
-					List<ResultingDisplayTree> choice_children = displayTreeHelper(cur_tree, choice, choice_);
-					choice_.setChildren(choice_children);
-					cur_children.add(choice_);
-				}
-				
-				cur.setChildren(cur_children);
+				// Its children are the choices, created when expanded.
+				cur.setChildren(new ResultingDisplayTree.ChildFactory() {
+					@Override
+					public boolean hasChildren() {
+						return !cur_tree.getChildren(parent_node).isEmpty();
+					}
+					@Override
+					public List<ResultingDisplayTree> createChildren(ResultingDisplayTree cur) {
+						return choiceTrees(cur_tree, parent_node, cur);
+					}
+				});
 				children.add(cur);
 			}
 			else {
@@ -192,5 +192,30 @@ class MultiCaseHistoryTree {
 		}
 		
 		return children;
-	}	
+	}
+	
+	/**
+	 * Display trees for the choices made after the given node, each
+	 * of which will only create its own children when expanded.
+	 */
+	private List<ResultingDisplayTree> choiceTrees(final SingleCaseHistoryTree cur_tree,
+			HistoryNode parent_node, ResultingDisplayTree parent) {
+		List<ResultingDisplayTree> result = new ArrayList<ResultingDisplayTree>();
+		for( final HistoryNode choice : cur_tree.getChildren(parent_node) ) {
+			ResultingDisplayTree choice_ = new ResultingDisplayTree(Option.some(parent),
+					choice);
+			choice_.setChildren(new ResultingDisplayTree.ChildFactory() {
+				@Override
+				public boolean hasChildren() {
+					return choice.numElements() > 0;
+				}
+				@Override
+				public List<ResultingDisplayTree> createChildren(ResultingDisplayTree choice_) {
+					return displayTreeHelper(cur_tree, choice, choice_);
+				}
+			});
+			result.add(choice_);
+		}
+		return result;
+	}
 }
@@ -45,7 +45,9 @@ import edu.cmu.cs.crystal.util.Option;
 
 /**
  * A tree to actualy be displayed by the tree view. This class is just a
- * node in the tree, but each node can also be a root.
+ * node in the tree, but each node can also be a root. Children can be
+ * given up front, or by a {@link ChildFactory} that is only asked for
+ * them when the node is expanded.
  * 
  * @author Nels E. Beckman
  * @since Jun 8, 2009
@@ -57,6 +59,8 @@ public class ResultingDisplayTree {
 	
 	private List<ResultingDisplayTree> children;
 	
+	private ChildFactory childFactory;
+	
 	private final Object contents;
 	
 	/**
@@ -71,18 +75,51 @@ public class ResultingDisplayTree {
 		this.contents = contents;
 	}
 	
-	public void setChildren(List<ResultingDisplayTree> children) {
+	/**
+	 * Creates the children of a node when they are first needed.
+	 */
+	public interface ChildFactory {
+		/** Will {@link #createChildren} return any children? */
+		boolean hasChildren();
+		
+		List<ResultingDisplayTree> createChildren(ResultingDisplayTree parent);
+	}
+	
+	public synchronized void setChildren(List<ResultingDisplayTree> children) {
 		this.children = Collections.unmodifiableList(children);
+		this.childFactory = null;
 	}
 	
 	/**
-	 * Return the children of this node.
+	 * Set the children of this node to be created by the given
+	 * factory, when they are first asked for.
 	 */
-	public List<ResultingDisplayTree> getChildren() {
+	public synchronized void setChildren(ChildFactory factory) {
+		this.children = null;
+		this.childFactory = factory;
+	}
+	
+	/**
+	 * Return the children of this node, creating them if they
+	 * have not been created yet.
+	 */
+	public synchronized List<ResultingDisplayTree> getChildren() {
+		if( children == null && childFactory != null )
+			setChildren(childFactory.createChildren(this));
 		assert(children != null);
 		return this.children;
 	}
 	
+	/**
+	 * Does this node have any children? Does not create them.
+	 */
+	public synchronized boolean hasChildren() {
+		if( children != null )
+			return !children.isEmpty();
+		assert(childFactory != null);
+		return childFactory.hasChildren();
+	}
+	
 	/**
 	 * Return the parent of this node, if there is one.
 	 */
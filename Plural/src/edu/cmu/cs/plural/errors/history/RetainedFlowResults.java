@@ -0,0 +1,264 @@
+/**
+ * Copyright (C) 2007-2009 Carnegie Mellon University and others.
+ *
+ * This file is part of Plural.
+ *
+ * Plural is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as 
+ * published by the Free Software Foundation.
+ *
+ * Plural is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Plural; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Linking Plural statically or dynamically with other modules is
+ * making a combined work based on Plural. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * In addition, as a special exception, the copyright holders of Plural
+ * give you permission to combine Plural with free software programs or
+ * libraries that are released under the GNU LGPL and with code
+ * included in the standard release of Eclipse under the Eclipse Public
+ * License (or modified versions of such code, with unchanged license).
+ * You may copy and distribute such a system following the terms of the
+ * GNU GPL for Plural and the licenses of the other code concerned.
+ *
+ * Note that people who make modified versions of Plural are not
+ * obligated to grant this special exception for their modified
+ * versions; it is their choice whether to do so. The GNU General
+ * Public License gives permission to release a modified version
+ * without this exception; this exception also makes it possible to
+ * release a modified version which carries forward this exception.
+ */
+package edu.cmu.cs.plural.errors.history;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IMethod;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.core.dom.IMethodBinding;
+import org.eclipse.jdt.core.dom.MethodDeclaration;
+
+import edu.cmu.cs.crystal.tac.TACFlowAnalysis;
+import edu.cmu.cs.crystal.tac.eclipse.CompilationUnitTACs;
+import edu.cmu.cs.crystal.util.Option;
+import edu.cmu.cs.plural.contexts.PluralContext;
+
+/**
+ * Flow analysis results retained from the last check run, so that
+ * the {@link HistoryView} can build the history of a method without
+ * running the analysis again. Results are kept per method and transfer
+ * function, for a bounded number of recently analyzed methods, and
+ * only through soft references so that they never keep memory from
+ * the analysis itself.<br>
+ * <br>
+ * Results are only recorded while a history view is open, so that
+ * headless runs do not pay for them, and only handed out as long as 
+ * the source of the method is the same as when it was analyzed.
+ * Since the specifications of called methods can be in other files,
+ * the history view also clears all results when any source changes.
+ */
+public final class RetainedFlowResults {
+
+	private static final int MAX_METHODS = 64;
+	
+	// (transfer function class, method handle) -> results
+	private static final Map<List<String>, SoftReference<MethodResults>> results =
+		new LinkedHashMap<List<String>, SoftReference<MethodResults>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<List<String>, SoftReference<MethodResults>> eldest) {
+				return size() > MAX_METHODS;
+			}
+		};
+	
+	// number of open history views
+	private static int recorders = 0;
+	
+	// results handed out while nothing is recorded
+	private static final MethodResults NOT_RECORDED = new MethodResults();
+	
+	private RetainedFlowResults() {}
+	
+	/**
+	 * Start recording results, until a matching call to 
+	 * {@link #stopRecording()}.
+	 */
+	static void startRecording() {
+		synchronized( results ) {
+			recorders++;
+		}
+	}
+	
+	/**
+	 * Stop recording results, forgetting all of them once no one 
+	 * records anymore.
+	 */
+	static void stopRecording() {
+		synchronized( results ) {
+			recorders--;
+			if( recorders <= 0 ) {
+				recorders = 0;
+				results.clear();
+			}
+		}
+	}
+	
+	/**
+	 * Forget all results, e.g., because sources changed.
+	 */
+	static void clear() {
+		synchronized( results ) {
+			results.clear();
+		}
+	}
+	
+	/**
+	 * Start collecting the results of analyzing the given method. Cases are
+	 * added as they are analyzed, and the results are only retained once
+	 * {@link #retain(Class, MethodResults)} is called. Nothing is collected
+	 * unless results are being recorded.
+	 */
+	public static MethodResults startMethod(MethodDeclaration decl, CompilationUnitTACs tacs) {
+		synchronized( results ) {
+			if( recorders == 0 )
+				return NOT_RECORDED;
+		}
+		return new MethodResults(decl, tacs);
+	}
+	
+	/**
+	 * Retain the results of a method that was completely analyzed with
+	 * the given transfer function, replacing any earlier results.
+	 */
+	public static void retain(Class<?> transferFunction, MethodResults method) {
+		if( method.handle == null || method.source == null )
+			return;
+		synchronized( results ) {
+			if( recorders == 0 )
+				return;
+			results.put(key(transferFunction, method.handle), 
+					new SoftReference<MethodResults>(method));
+		}
+	}
+	
+	/**
+	 * Returns the results of the last run of the given transfer function
+	 * over the given method, if they are still there and the source of
+	 * the method has not changed since.
+	 */
+	static Option<MethodResults> lookup(Class<?> transferFunction, IMethod method) {
+		MethodResults result;
+		synchronized( results ) {
+			SoftReference<MethodResults> ref = 
+				results.get(key(transferFunction, method.getHandleIdentifier()));
+			result = ref == null ? null : ref.get();
+		}
+		if( result == null )
+			return Option.none();
+		try {
+			if( result.source.equals(method.getSource()) )
+				return Option.some(result);
+		} catch (JavaModelException e) {
+			// Treat as changed
+		}
+		return Option.none();
+	}
+	
+	private static List<String> key(Class<?> transferFunction, String handle) {
+		List<String> key = new ArrayList<String>(2);
+		key.add(transferFunction.getName());
+		key.add(handle);
+		return key;
+	}
+	
+	/**
+	 * The flow analyses of all the cases of one method, in the
+	 * order in which they were analyzed.
+	 */
+	public static final class MethodResults {
+		
+		private final MethodDeclaration decl;
+		private final CompilationUnitTACs tacs;
+		private final String handle;
+		private final String source;
+		private final List<CaseResult> cases = new ArrayList<CaseResult>();
+		
+		// for results that are not recorded
+		private MethodResults() {
+			this.decl = null;
+			this.tacs = null;
+			this.handle = null;
+			this.source = null;
+		}
+		
+		private MethodResults(MethodDeclaration decl, CompilationUnitTACs tacs) {
+			this.decl = decl;
+			this.tacs = tacs;
+			
+			String handle = null;
+			String source = null;
+			IMethodBinding binding = decl.resolveBinding();
+			IJavaElement elem = binding == null ? null : binding.getJavaElement();
+			if( elem instanceof IMethod ) {
+				handle = elem.getHandleIdentifier();
+				try {
+					source = ((IMethod) elem).getSource();
+				} catch (JavaModelException e) {
+					// Without the source we cannot tell if it changes
+				}
+			}
+			this.handle = handle;
+			this.source = source;
+		}
+		
+		/**
+		 * Add the analysis of one case.
+		 * @param assumeVirtualFrame As in 
+		 * {@link HistoryRoot#forCase(HistoryNode, String, Boolean)}.
+		 */
+		public void addCase(String methodCase, Boolean assumeVirtualFrame, 
+				TACFlowAnalysis<PluralContext> analysis) {
+			if( this == NOT_RECORDED )
+				return;
+			cases.add(new CaseResult(methodCase, assumeVirtualFrame, analysis));
+		}
+		
+		MethodDeclaration getDeclaration() {
+			return decl;
+		}
+		
+		CompilationUnitTACs getComUnitTACs() {
+			return tacs;
+		}
+		
+		List<CaseResult> getCases() {
+			return Collections.unmodifiableList(cases);
+		}
+	}
+	
+	static final class CaseResult {
+		final String methodCase;
+		final Boolean assumeVirtualFrame;
+		final TACFlowAnalysis<PluralContext> analysis;
+		
+		CaseResult(String methodCase, Boolean assumeVirtualFrame,
+				TACFlowAnalysis<PluralContext> analysis) {
+			this.methodCase = methodCase;
+			this.assumeVirtualFrame = assumeVirtualFrame;
+			this.analysis = analysis;
+		}
+	}
+}
@@ -219,13 +219,12 @@ public abstract class AbstractFractionalPermission {
 
 	protected boolean addIsFunctionConstraints(FractionConstraints constraints) {
 		// constraints for node fractions
-		int count = fractions.size();
+		int count = fractions.getLayout().size();
 		if(count > 1) {
 			FractionTerm[] newTerms = new FractionTerm[count];
-			Iterator<String> it = stateSpace.stateIterator(rootNode);
-			while(it.hasNext()) {
+			for(int i = 0; i < count; i++) {
 				// remember all new fractions for "is a function" constraint
-				newTerms[--count] = fractions.get(it.next());
+				newTerms[count - 1 - i] = fractions.getAt(i);
 			}
 			// "is a function" constraint: f(alive) <= ... <= f(rootNode)
 			constraints.addConstraint(
@@ -0,0 +1,197 @@
+/**
+ * Copyright (C) 2007-2009 Carnegie Mellon University and others.
+ *
+ * This file is part of Plural.
+ *
+ * Plural is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as 
+ * published by the Free Software Foundation.
+ *
+ * Plural is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Plural; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Linking Plural statically or dynamically with other modules is
+ * making a combined work based on Plural. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * In addition, as a special exception, the copyright holders of Plural
+ * give you permission to combine Plural with free software programs or
+ * libraries that are released under the GNU LGPL and with code
+ * included in the standard release of Eclipse under the Eclipse Public
+ * License (or modified versions of such code, with unchanged license).
+ * You may copy and distribute such a system following the terms of the
+ * GNU GPL for Plural and the licenses of the other code concerned.
+ *
+ * Note that people who make modified versions of Plural are not
+ * obligated to grant this special exception for their modified
+ * versions; it is their choice whether to do so. The GNU General
+ * Public License gives permission to release a modified version
+ * without this exception; this exception also makes it possible to
+ * release a modified version which carries forward this exception.
+ */
+package edu.cmu.cs.plural.fractions;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable block of fraction constraints in the store used by
+ * {@link FractionConstraints}.  A block holds the constraints that were
+ * added to it and refers to up to two parent blocks, so copies and 
+ * concatenations of constraint sets share their common ancestry as a DAG
+ * instead of copying it.  The distinct constraints of a block, including
+ * those of its ancestors, are collected so that constraints that reach a
+ * block along several paths are only seen once by the solver.  They are
+ * only cached for the blocks of frozen constraint sets, which are queried
+ * again and again; caching them for every block would copy each block's 
+ * ancestry into it.
+ * 
+ * @see FractionConstraints
+ */
+final class ConstraintBlock {
+	
+	static final ConstraintBlock EMPTY = 
+		new ConstraintBlock(null, null, Collections.<FractionConstraint>emptyList());
+	
+	private final ConstraintBlock first;
+	private final ConstraintBlock second;
+	
+	/** Constraints added in this block, newest first. */
+	private final List<FractionConstraint> own;
+	
+	/** Does this block or an ancestor contain the impossible constraint? */
+	private final boolean impossible;
+	
+	/** Distinct constraints of this block and its ancestors, or <code>null</code>. */
+	private Set<FractionConstraint> elements;
+	
+	/** Should {@link #elements} be kept once computed? */
+	private boolean keepElements;
+	
+	private ConstraintBlock(ConstraintBlock first, ConstraintBlock second,
+			List<FractionConstraint> own) {
+		this.first = first;
+		this.second = second;
+		this.own = own;
+		this.impossible = own.contains(FractionConstraint.impossible()) ||
+				(first != null && first.impossible) || 
+				(second != null && second.impossible);
+	}
+	
+	/**
+	 * Returns a block with the given constraints added to the given one.
+	 * @param parent
+	 * @param added Constraints in the order they were added.
+	 */
+	static ConstraintBlock extend(ConstraintBlock parent, Collection<FractionConstraint> added) {
+		if(added.isEmpty())
+			return parent;
+		List<FractionConstraint> own = new ArrayList<FractionConstraint>(added);
+		Collections.reverse(own);
+		return new ConstraintBlock(parent.isEmpty() ? null : parent, null, own);
+	}
+	
+	/**
+	 * Returns a block with the constraints of both given blocks.  
+	 * If one of the blocks is an ancestor of the other then the other
+	 * one is returned, since it already has all the constraints.
+	 */
+	static ConstraintBlock concat(ConstraintBlock a, ConstraintBlock b) {
+		if(a == b || b.isEmpty() || a.hasAncestor(b))
+			return a;
+		if(a.isEmpty() || b.hasAncestor(a))
+			return b;
+		return new ConstraintBlock(a, b, Collections.<FractionConstraint>emptyList());
+	}
+	
+	boolean isEmpty() {
+		return own.isEmpty() && first == null && second == null;
+	}
+	
+	boolean isImpossible() {
+		return impossible;
+	}
+	
+	/**
+	 * Tests if the given constraint is in this block, if its elements
+	 * were already computed.
+	 * @return <code>true</code> if the constraint is known to be in this
+	 * block, <code>false</code> if it is not or that would be expensive to find out.
+	 */
+	boolean knownToContain(FractionConstraint c) {
+		return elements != null && elements.contains(c);
+	}
+	
+	/**
+	 * Makes this block keep its distinct constraints once they are computed,
+	 * because it belongs to a frozen constraint set.
+	 */
+	void keepElements() {
+		keepElements = true;
+	}
+	
+	/**
+	 * Returns the distinct constraints of this block and its ancestors,
+	 * newest first.
+	 */
+	Set<FractionConstraint> elements() {
+		if(elements == null) {
+			LinkedHashSet<FractionConstraint> result = new LinkedHashSet<FractionConstraint>();
+			// walk the DAG without recursion, visiting each block once
+			Map<ConstraintBlock, Boolean> visited = new IdentityHashMap<ConstraintBlock, Boolean>();
+			LinkedList<ConstraintBlock> todo = new LinkedList<ConstraintBlock>();
+			todo.add(this);
+			while(todo.isEmpty() == false) {
+				ConstraintBlock b = todo.removeFirst();
+				if(visited.put(b, Boolean.TRUE) != null)
+					continue;
+				if(b != this && b.elements != null) {
+					// reuse what an ancestor already computed
+					result.addAll(b.elements);
+					continue;
+				}
+				result.addAll(b.own);
+				if(b.second != null)
+					todo.addFirst(b.second);
+				if(b.first != null)
+					todo.addFirst(b.first);
+			}
+			if(keepElements == false)
+				return Collections.unmodifiableSet(result);
+			elements = Collections.unmodifiableSet(result);
+		}
+		return elements;
+	}
+	
+	private boolean hasAncestor(ConstraintBlock ancestor) {
+		Map<ConstraintBlock, Boolean> visited = new IdentityHashMap<ConstraintBlock, Boolean>();
+		LinkedList<ConstraintBlock> todo = new LinkedList<ConstraintBlock>();
+		todo.add(this);
+		while(todo.isEmpty() == false) {
+			ConstraintBlock b = todo.removeFirst();
+			if(b == ancestor)
+				return true;
+			if(visited.put(b, Boolean.TRUE) != null)
+				continue;
+			if(b.first != null)
+				todo.add(b.first);
+			if(b.second != null)
+				todo.add(b.second);
+		}
+		return false;
+	}
+
+}
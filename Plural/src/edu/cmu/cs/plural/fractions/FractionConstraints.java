@@ -42,6 +42,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.TimeoutException;
@@ -50,11 +51,11 @@ import java.util.logging.Logger;
 
 import org.eclipse.jdt.core.dom.ASTNode;
 
-import edu.cmu.cs.crystal.util.ConsList;
 import edu.cmu.cs.crystal.util.Freezable;
 import edu.cmu.cs.plural.fractions.elim.VariableElimination;
 import edu.cmu.cs.plural.fractions.solver.SmtLibPrinter;
-import static edu.cmu.cs.crystal.util.ConsList.cons;
+import edu.cmu.cs.plural.util.AnalysisBudget;
+import edu.cmu.cs.plural.util.AnalysisStatistics;
 
 /**
  * Collects sets of constraints on fractions and tests them for consistency.  To increase
@@ -101,8 +102,16 @@ public final class FractionConstraints implements Freezable<FractionConstraints>
 		return new FractionConstraints(Collections.unmodifiableSet(universalParameters));
 	}
 	
-	/** Constraint set.  This is what this class is all about. */
-	private ConsList<FractionConstraint> constraints;
+	/** 
+	 * Constraint set.  This is what this class is all about.
+	 * Constraints are kept in a DAG of blocks that copies share, plus the 
+	 * constraints added since the last copy.
+	 * @see #block() 
+	 */
+	private ConstraintBlock constraints;
+	
+	/** Constraints added since {@link #constraints} was last shared, or <code>null</code>. */
+	private LinkedHashSet<FractionConstraint> added;
 	
 	/**
 	 * The set of named fractions used in the constraints that represent
@@ -116,8 +125,13 @@ public final class FractionConstraints implements Freezable<FractionConstraints>
 	/** 
 	 * Fraction variables used in the constraint.  We're currently making
 	 * a best-effort attempt at keeping this set up to date.  
+	 * This set (and {@link #constants}) is shared with frozen constraint sets 
+	 * that this one was copied from, until it is modified.
 	 */
 	private Set<VariableFraction> variables;
+	
+	/** Are {@link #variables} and {@link #constants} owned by this object? */
+	private boolean ownSets;
 
 	/** 
 	 * Fraction constants (unknowns) used in the constraint.  
@@ -157,10 +171,51 @@ public final class FractionConstraints implements Freezable<FractionConstraints>
 	 * @param universalParameters Should be immutable. 
 	 */
 	private FractionConstraints(Set<NamedFraction> universalParameters) {
-		this.constraints = ConsList.empty();
+		this.constraints = ConstraintBlock.EMPTY;
 		this.universalParameters = universalParameters;
 		this.variables = new LinkedHashSet<VariableFraction>();
 		this.constants = new LinkedHashSet<NamedFraction>();
+		this.ownSets = true;
+	}
+	
+	/**
+	 * Returns all constraints as a block that can be shared, since
+	 * it will not change anymore.
+	 */
+	private ConstraintBlock block() {
+		if(added != null) {
+			constraints = ConstraintBlock.extend(constraints, added);
+			added = null;
+		}
+		return constraints;
+	}
+	
+	/**
+	 * Makes sure this object has its own modifiable variable and constant sets.
+	 */
+	private void ownSets() {
+		if(ownSets == false) {
+			variables = new LinkedHashSet<VariableFraction>(variables);
+			constants = new LinkedHashSet<NamedFraction>(constants);
+			ownSets = true;
+		}
+	}
+	
+	/**
+	 * Shares the variables and constants of the given constraints, 
+	 * which must be frozen, or copies them if they are not.
+	 */
+	private void useSetsOf(FractionConstraints other) {
+		if(other.frozen) {
+			this.variables = other.variables;
+			this.constants = other.constants;
+			this.ownSets = false;
+		}
+		else {
+			ownSets();
+			this.variables.addAll(other.variables);
+			this.constants.addAll(other.constants);
+		}
 	}
 	
 	/**
@@ -172,7 +227,11 @@ public final class FractionConstraints implements Freezable<FractionConstraints>
 		if(frozen)
 			throw new IllegalStateException("Cannot modify frozen constraint set");
 		
-		constraints = cons(newConstraint, constraints);
+		if(constraints.knownToContain(newConstraint) == false) {
+			if(added == null)
+				added = new LinkedHashSet<FractionConstraint>();
+			added.add(newConstraint);
+		}
 		
 		// once inconsistent, constraints cannot become consistent
 		if(consistent != null && consistent)
@@ -190,22 +249,33 @@ public final class FractionConstraints implements Freezable<FractionConstraints>
 		if(frozen)
 			throw new IllegalStateException("Cannot modify frozen constraint set");
 		
-		this.constraints = ConsList.concat(moreConstraints.constraints, this.constraints);
+		this.constraints = ConstraintBlock.concat(moreConstraints.block(), this.block());
 		
 		if(consistent != null && consistent)
 			// once inconsistent, constraints cannot become consistent
 			consistent = null;
 		
-		this.variables.addAll(moreConstraints.variables);
-		this.constants.addAll(moreConstraints.constants);
+		if(this.variables.containsAll(moreConstraints.variables) == false ||
+				this.constants.containsAll(moreConstraints.constants) == false) {
+			ownSets();
+			this.variables.addAll(moreConstraints.variables);
+			this.constants.addAll(moreConstraints.constants);
+		}
 	}
 	
 	/**
-	 * Returns an unmodifiable view of the constraint set.
+	 * Returns an unmodifiable view of the constraint set, without duplicates.
 	 * @return An unmodifiable view of the constraint set.
 	 */
 	public Collection<FractionConstraint> getConstraints() {
-		return constraints;
+		if(added == null)
+			return constraints.elements();
+		// don't seal a block for a set that can still change
+		List<FractionConstraint> newest = new ArrayList<FractionConstraint>(added);
+		Collections.reverse(newest);
+		LinkedHashSet<FractionConstraint> result = new LinkedHashSet<FractionConstraint>(newest);
+		result.addAll(constraints.elements());
+		return Collections.unmodifiableSet(result);
 	}
 
 	/**
@@ -213,6 +283,8 @@ public final class FractionConstraints implements Freezable<FractionConstraints>
 	 * @return the variables.
 	 */
 	public Set<VariableFraction> getVariables() {
+		if(frozen == false)
+			ownSets();
 		return variables;
 	}
 
@@ -221,6 +293,8 @@ public final class FractionConstraints implements Freezable<FractionConstraints>
 	 * @return the constants.
 	 */
 	public Set<NamedFraction> getConstants() {
+		if(frozen == false)
+			ownSets();
 		return constants;
 	}
 	
@@ -238,6 +312,7 @@ public final class FractionConstraints implements Freezable<FractionConstraints>
 	public void registerFractions(Set<Fraction> fractions) {
 		if(frozen)
 			throw new IllegalStateException("Cannot modify frozen constraint set");
+		ownSets();
 		FractionVisitor<Boolean> v = new FractionVisitor<Boolean>() {
 			@Override public Boolean named(NamedFraction fract) {
 				constants.add(fract);
@@ -272,7 +347,8 @@ public final class FractionConstraints implements Freezable<FractionConstraints>
 	 * @see #seemsConsistent() for a lightweight consistency test
 	 */
 	public boolean isImpossible() {
-		return constraints.contains(FractionConstraint.impossible());
+		return constraints.isImpossible() || 
+				(added != null && added.contains(FractionConstraint.impossible()));
 	}
 
 	/**
@@ -286,14 +362,18 @@ public final class FractionConstraints implements Freezable<FractionConstraints>
 	 */
 	@Deprecated
 	public boolean atLeastAsPrecise(FractionConstraints other) {
-		return this.constraints.containsAll(other.constraints);
+		return this.getConstraints().containsAll(other.getConstraints());
 	}
 
 	public FractionConstraints freeze() {
 		if(frozen == false) {
 			frozen = true;
-			variables = Collections.unmodifiableSet(variables);
-			constants = Collections.unmodifiableSet(constants);
+			block().keepElements();
+			if(ownSets) {
+				variables = Collections.unmodifiableSet(variables);
+				constants = Collections.unmodifiableSet(constants);
+			}
+			// else sets are shared with another frozen object and already unmodifiable
 		}
 		return this;
 	}
@@ -316,9 +396,8 @@ public final class FractionConstraints implements Freezable<FractionConstraints>
 			result = new FractionConstraints(Collections.unmodifiableSet(universals));
 		}
 			
-		result.constraints = this.constraints;
-		result.variables.addAll(this.variables);
-		result.constants.addAll(this.constants);
+		result.constraints = this.block();
+		result.useSetsOf(this);
 		result.consistent = consistent;
 		return result;
 	}
@@ -348,17 +427,20 @@ public final class FractionConstraints implements Freezable<FractionConstraints>
 		}
 		FractionConstraints result = new FractionConstraints(universals);
 		
-		// Just an optimization...
-		if( other.constraints == this.constraints )
-			result.constraints = this.constraints;
-		else
-			result.constraints = ConsList.concat(other.constraints, this.constraints);
+		// shares blocks, and returns one of them if it has all constraints
+		result.constraints = ConstraintBlock.concat(other.block(), this.block());
 		
 		// TODO: Can we check that the consistency flag is still accurate?
-		result.variables.addAll(this.variables);
-		result.variables.addAll(other.variables);
-		result.constants.addAll(this.constants);
-		result.constants.addAll(other.constants);
+		if(this.variables.containsAll(other.variables) && this.constants.containsAll(other.constants))
+			result.useSetsOf(this);
+		else if(other.variables.containsAll(this.variables) && other.constants.containsAll(this.constants))
+			result.useSetsOf(other);
+		else {
+			result.variables.addAll(this.variables);
+			result.variables.addAll(other.variables);
+			result.constants.addAll(this.constants);
+			result.constants.addAll(other.constants);
+		}
 		if(this.consistent != null && ! this.consistent)
 			result.consistent = false;
 		else if(other.consistent != null && ! other.consistent)
@@ -391,7 +473,7 @@ public final class FractionConstraints implements Freezable<FractionConstraints>
 		FractionAssignment result = new FractionAssignment();
 
 		TreeSet<FractionRelation> relations = new TreeSet<FractionRelation>();
-		for(FractionConstraint c : constraints) {
+		for(FractionConstraint c : getConstraints()) {
 			if(c instanceof FractionRelation)
 				relations.add((FractionRelation) c);
 		}
@@ -527,6 +609,7 @@ public final class FractionConstraints implements Freezable<FractionConstraints>
 	 * if they are inconsistent.
 	 */
 	private boolean isConsistentInternal() {
+		AnalysisStatistics.solverCalled();
 		if(isImpossible())
 			return false;
 		final FractionAssignment assignment = simplify();
@@ -535,9 +618,17 @@ public final class FractionConstraints implements Freezable<FractionConstraints>
 	
 		// simple algorithm thinks constraints are consistent
 		
+		final AnalysisBudget budget = AnalysisBudget.current();
+		if(budget.affordSolverCall() == false)
+			// over budget: do not trust the simple algorithm, which may find
+			// constraints consistent that are not; treat them like a timeout
+			return false;
+		
 		VariableElimination elim = new VariableElimination();
+		if(budget.remainingTime() < elim.getTimeout())
+			elim.setTimeout(budget.remainingTime());
 		try {
-			elim.eliminateVariables(constraints, assignment);
+			elim.eliminateVariables(getConstraints(), assignment);
 			if(elim.isConsistent() == false) {
 				if(log.isLoggable(Level.FINE))
 					log.fine("Simple algorithm fails to detect inconsistency: " +
@@ -547,7 +638,8 @@ public final class FractionConstraints implements Freezable<FractionConstraints>
 			return true;
 		} 
 		catch (TimeoutException e) {
-			if(log.isLoggable(Level.WARNING)) 
+			if(log.isLoggable(Level.WARNING) && budget.isWithinBudget()) 
+				// no need to warn about every test once the method is out of time
 				log.log(Level.WARNING, "Timed out: " + this, e);
 			return false;
 		}
@@ -573,15 +665,14 @@ public final class FractionConstraints implements Freezable<FractionConstraints>
 	
 	@Override
 	public String toString() {
-		return constraints.toString();
+		return getConstraints().toString();
 	}
 
 	@Override
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
-		result = prime * result
-				+ ((constraints == null) ? 0 : constraints.hashCode());
+		result = prime * result + getConstraints().hashCode();
 		return result;
 	}
 
@@ -594,12 +685,7 @@ public final class FractionConstraints implements Freezable<FractionConstraints>
 		if (getClass() != obj.getClass())
 			return false;
 		final FractionConstraints other = (FractionConstraints) obj;
-		if (constraints == null) {
-			if (other.constraints != null)
-				return false;
-		} else if (!constraints.equals(other.constraints))
-			return false;
-		return true;
+		return getConstraints().equals(other.getConstraints());
 	}
 
 	/**
@@ -609,6 +695,7 @@ public final class FractionConstraints implements Freezable<FractionConstraints>
 	public VariableFraction newVariableFraction() {
 		if(frozen)
 			throw new IllegalStateException("Cannot modify frozen constraint set");
+		ownSets();
 		VariableFraction result = new VariableFraction();
 		variables.add(result);
 		return result;
@@ -621,6 +708,7 @@ public final class FractionConstraints implements Freezable<FractionConstraints>
 	public NamedFraction newNamedFraction() {
 		if(frozen)
 			throw new IllegalStateException("Cannot modify frozen constraint set");
+		ownSets();
 		NamedFraction result = new NamedFraction();
 		constants.add(result);
 		return result;
@@ -639,6 +727,7 @@ public final class FractionConstraints implements Freezable<FractionConstraints>
 	public NamedFraction newNamedFraction(ASTNode node) {
 		if(frozen)
 			throw new IllegalStateException("Cannot modify frozen constraint set");
+		ownSets();
 		NamedFraction result = new NamedFraction(node);
 		constants.add(result);
 		return result;
@@ -37,9 +37,9 @@
  */
 package edu.cmu.cs.plural.fractions;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 
@@ -49,7 +49,12 @@ import edu.cmu.cs.plural.states.StateSpace;
  * A fraction function represents the actual mapping from nodes in
  * the state hierarchy to fractional values. This is a pretty literal
  * encoding of the fraction function from the OOPSLA paper. There are
- * a number of methods for creating commonly used configurations.
+ * a number of methods for creating commonly used configurations.<br>
+ * <br>
+ * Fractions are stored in an array in the order of a {@link FractionLayout}
+ * that is shared by all functions with the same root node, so functions
+ * with the same root can be compared and copied without looking up
+ * nodes by name.
  * 
  * @author Kevin Bierhoff
  *
@@ -58,7 +63,9 @@ public class FractionFunction {
 
 	private StateSpace stateSpace;
 	private String rootNode;
-	private Map<String, Fraction> values;
+	private FractionLayout layout;
+	/** Fractions in the order of {@link #layout}; <code>null</code> where undefined. */
+	private Fraction[] values;
 	private Fraction belowFraction;
 	
 	/**
@@ -118,6 +125,24 @@ public class FractionFunction {
 		return new FractionFunction(base.stateSpace, base.rootNode, values, below);
 	}
 
+	/**
+	 * Creates a new fraction function based on the existing one
+	 * but with the given fraction values, in the order of the
+	 * existing function's {@link #getLayout() layout}.
+	 * @param base
+	 * @param values Array of fractions that the new function will own.
+	 * @param below
+	 * @return
+	 */
+	static FractionFunction create(
+			FractionFunction base,
+			Fraction[] values,
+			Fraction below) {
+		if(values.length != base.values.length)
+			throw new IllegalArgumentException("Fractions don't match layout of " + base);
+		return new FractionFunction(base.stateSpace, base.rootNode, base.layout, values, below);
+	}
+
 	/**
 	 * Creates a new fraction function filled with {@link VariableFraction}s.
 	 * @param stateSpace
@@ -139,10 +164,10 @@ public class FractionFunction {
 		super();
 		this.stateSpace = stateSpace;
 		this.rootNode = rootNode;
-		this.values = new HashMap<String, Fraction>();
-		Iterator<String> it = stateSpace.stateIterator(rootNode);
-		while(it.hasNext()) {
-			this.values.put(it.next(), namedFractions ? new NamedFraction() : new VariableFraction());
+		this.layout = FractionLayout.of(stateSpace, rootNode);
+		this.values = new Fraction[layout.size()];
+		for(int i = 0; i < values.length; i++) {
+			this.values[i] = namedFractions ? new NamedFraction() : new VariableFraction();
 		}
 		this.belowFraction = namedFractions ? new NamedFraction() : new VariableFraction();
 	}
@@ -160,14 +185,14 @@ public class FractionFunction {
 		super();
 		this.stateSpace = stateSpace;
 		this.rootNode = rootNode;
-		this.values = new HashMap<String, Fraction>();
-		Iterator<String> it = stateSpace.stateIterator(rootNode);
-		while(it.hasNext()) {
-			String n = it.next();
-			if(values.get(n) != null)
-				this.values.put(n, values.get(n));
+		this.layout = FractionLayout.of(stateSpace, rootNode);
+		this.values = new Fraction[layout.size()];
+		for(int i = 0; i < this.values.length; i++) {
+			Fraction f = values.get(layout.node(i));
+			if(f != null)
+				this.values[i] = f;
 			else
-				this.values.put(n, namedFractions ? new NamedFraction() : new VariableFraction());
+				this.values[i] = namedFractions ? new NamedFraction() : new VariableFraction();
 		}
 		this.belowFraction = belowFraction;
 	}
@@ -186,10 +211,10 @@ public class FractionFunction {
 		super();
 		this.stateSpace = stateSpace;
 		this.rootNode = rootNode;
-		this.values = new HashMap<String, Fraction>();
-		Iterator<String> it = stateSpace.stateIterator(rootNode);
-		while(it.hasNext()) {
-			this.values.put(it.next(), namedFractions ? new NamedFraction() : new VariableFraction());
+		this.layout = FractionLayout.of(stateSpace, rootNode);
+		this.values = new Fraction[layout.size()];
+		for(int i = 0; i < values.length; i++) {
+			this.values[i] = namedFractions ? new NamedFraction() : new VariableFraction();
 		}
 		this.belowFraction = belowFraction;
 	}
@@ -204,11 +229,9 @@ public class FractionFunction {
 		super();
 		this.stateSpace = stateSpace;
 		this.rootNode = rootNode;
-		this.values = new HashMap<String, Fraction>();
-		Iterator<String> it = stateSpace.stateIterator(rootNode);
-		while(it.hasNext()) {
-			this.values.put(it.next(), fill);
-		}
+		this.layout = FractionLayout.of(stateSpace, rootNode);
+		this.values = new Fraction[layout.size()];
+		Arrays.fill(this.values, fill);
 		this.belowFraction = fill;
 	}
 
@@ -222,20 +245,26 @@ public class FractionFunction {
 	public FractionFunction(FractionFunction fractions, String newRootNode, Fraction fill) {
 		this.stateSpace = fractions.stateSpace;
 		this.rootNode = newRootNode;
-		this.values = new HashMap<String, Fraction>();
-		Iterator<String> it = stateSpace.stateIterator(newRootNode);
-		while(it.hasNext()) {
-			String n = it.next();
-			if(fractions.values.containsKey(n))
-				this.values.put(n, fractions.get(n));
+		this.layout = FractionLayout.of(stateSpace, newRootNode);
+		this.values = new Fraction[layout.size()];
+		// both layouts end at the state space's root, so a node in both
+		// layouts has the same distance from the end in each
+		int offset = layout.size() - fractions.layout.size();
+		for(int i = 0; i < values.length; i++) {
+			int j = i - offset;
+			if(j >= 0 && j < fractions.values.length && fractions.values[j] != null &&
+					fractions.layout.node(j).equals(layout.node(i)))
+				this.values[i] = fractions.values[j];
 			else
-				this.values.put(n, fill);
+				this.values[i] = fill;
 		}
 		this.belowFraction = fill;
 	}
 
 	/**
 	 * Creates a new fraction function with the given information.
+	 * Fractions for nodes other than the root node and the nodes above
+	 * it are ignored.
 	 * @param stateSpace
 	 * @param rootNode
 	 * @param values
@@ -245,6 +274,19 @@ public class FractionFunction {
 			Map<String, Fraction> values, Fraction belowFraction) {
 		this.stateSpace = stateSpace;
 		this.rootNode = rootNode;
+		this.layout = FractionLayout.of(stateSpace, rootNode);
+		this.values = new Fraction[layout.size()];
+		for(int i = 0; i < this.values.length; i++) {
+			this.values[i] = values.get(layout.node(i));
+		}
+		this.belowFraction = belowFraction;
+	}
+	
+	private FractionFunction(StateSpace stateSpace, String rootNode,
+			FractionLayout layout, Fraction[] values, Fraction belowFraction) {
+		this.stateSpace = stateSpace;
+		this.rootNode = rootNode;
+		this.layout = layout;
 		this.values = values;
 		this.belowFraction = belowFraction;
 	}
@@ -274,13 +316,47 @@ public class FractionFunction {
 	 * the given node.
 	 */
 	public Fraction get(String node) {
-		if(values.containsKey(node))
-			return values.get(node);
+		int i = layout.indexOf(node);
+		if(i >= 0 && values[i] != null)
+			return values[i];
 		if(stateSpace.firstBiggerThanSecond(rootNode, node))
 			return belowFraction;
 		return Fraction.zero();
 	}
 
+	/**
+	 * Returns the layout of this function's fractions.
+	 * @return the layout of this function's fractions.
+	 */
+	FractionLayout getLayout() {
+		return layout;
+	}
+	
+	/**
+	 * Returns the fraction for the node at the given position
+	 * of this function's {@link #getLayout() layout}.
+	 * @param i
+	 * @return the fraction for the node at the given position.
+	 */
+	Fraction getAt(int i) {
+		if(values[i] != null)
+			return values[i];
+		return i == 0 ? belowFraction : Fraction.zero();
+	}
+	
+	/**
+	 * Returns the fraction for the node at the given position of the given
+	 * layout, which is usually this function's layout.
+	 * @param layout
+	 * @param i
+	 * @return the fraction for the node at the given position of the layout.
+	 */
+	Fraction getAt(FractionLayout layout, int i) {
+		if(layout == this.layout)
+			return getAt(i);
+		return get(layout.node(i));
+	}
+	
 	/**
 	 * Returns the below fraction of this fraction function.
 	 * @return the below fraction.
@@ -294,7 +370,11 @@ public class FractionFunction {
 	 * @return Fresh set of all fractions used.
 	 */
 	public Set<Fraction> getAllFractions() {
-		HashSet<Fraction> result = new HashSet<Fraction>(values.values());
+		HashSet<Fraction> result = new HashSet<Fraction>();
+		for(Fraction f : values) {
+			if(f != null)
+				result.add(f);
+		}
 		result.add(belowFraction);
 		return result;
 	}
@@ -305,7 +385,12 @@ public class FractionFunction {
 	 * @return the number of nodes in this fraction function.
 	 */
 	public int size() {
-		return values.size();
+		int result = 0;
+		for(Fraction f : values) {
+			if(f != null)
+				result++;
+		}
+		return result;
 	}
 
 	/**
@@ -321,10 +406,8 @@ public class FractionFunction {
 	public boolean isBiggerThan(FractionFunction other) {
 		if(rootNode.equals(other.rootNode) == false)
 			throw new IllegalArgumentException("Cannot compare functions with different roots");
-		Iterator<String> it = stateSpace.stateIterator(rootNode);
-		while(it.hasNext()) {
-			String s = it.next();
-			if(other.values.get(s).isPossiblyGreaterOrEqual(this.values.get(s)))
+		for(int i = 0; i < values.length; i++) {
+			if(other.getAt(i).isPossiblyGreaterOrEqual(this.getAt(i)))
 				return false;
 		}
 		return !other.belowFraction.isPossiblyGreaterOrEqual(this.belowFraction);
@@ -342,7 +425,7 @@ public class FractionFunction {
 	 */
 	public <T extends Fraction> Set<T> getAllFractionsOfType(Class<T> fractionType) {
 		Set<T> result = new HashSet<T>();
-		for(Fraction f : values.values()) {
+		for(Fraction f : values) {
 			if(fractionType.isInstance(f))
 				result.add(fractionType.cast(f));
 		}
@@ -357,12 +440,12 @@ public class FractionFunction {
 	 * @return a new fraction function that uses Zero as the below fraction.
 	 */
 	public FractionFunction purify() {
-		return new FractionFunction(stateSpace, rootNode, values, Fraction.zero());
+		return new FractionFunction(stateSpace, rootNode, layout, values, Fraction.zero());
 	}
 
 	@Override
 	public String toString() {
-		return values + " below=" + belowFraction;
+		return layout.toMap(values) + " below=" + belowFraction;
 				
 	}
 
@@ -376,7 +459,7 @@ public class FractionFunction {
 				+ ((rootNode == null) ? 0 : rootNode.hashCode());
 		result = prime * result
 				+ ((stateSpace == null) ? 0 : stateSpace.hashCode());
-		result = prime * result + ((values == null) ? 0 : values.hashCode());
+		result = prime * result + Arrays.hashCode(values);
 		return result;
 	}
 
@@ -404,10 +487,7 @@ public class FractionFunction {
 				return false;
 		} else if (!stateSpace.equals(other.stateSpace))
 			return false;
-		if (values == null) {
-			if (other.values != null)
-				return false;
-		} else if (!values.equals(other.values))
+		if (!Arrays.equals(values, other.values))
 			return false;
 		return true;
 	}
@@ -0,0 +1,163 @@
+/**
+ * Copyright (C) 2007, 2008 Carnegie Mellon University and others.
+ *
+ * This file is part of Plural.
+ *
+ * Plural is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * Plural is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Plural; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Linking Plural statically or dynamically with other modules is
+ * making a combined work based on Plural. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * In addition, as a special exception, the copyright holders of Plural
+ * give you permission to combine Plural with free software programs or
+ * libraries that are released under the GNU LGPL and with code
+ * included in the standard release of Eclipse under the Eclipse Public
+ * License (or modified versions of such code, with unchanged license).
+ * You may copy and distribute such a system following the terms of the
+ * GNU GPL for Plural and the licenses of the other code concerned.
+ *
+ * Note that people who make modified versions of Plural are not
+ * obligated to grant this special exception for their modified
+ * versions; it is their choice whether to do so. The GNU General
+ * Public License gives permission to release a modified version
+ * without this exception; this exception also makes it possible to
+ * release a modified version which carries forward this exception.
+ */
+package edu.cmu.cs.plural.fractions;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import edu.cmu.cs.plural.states.StateSpace;
+
+/**
+ * The nodes that a {@link FractionFunction} holds fractions for, i.e., the
+ * nodes from its root node up to the root of the state space, in the order
+ * of {@link StateSpace#stateIterator(String)}. Fraction functions with the
+ * same root node share one layout, and store their fractions in an array 
+ * in the order of the layout, so that functions with the same root can be
+ * compared node by node without looking up any node by name.
+ */
+final class FractionLayout {
+	
+	/*
+	 * Layouts of each state space, by root node. State spaces can be
+	 * equal to other state spaces, so the layouts of a space are only
+	 * used if they were created for that very space. Layouts do not
+	 * refer to their space, so that spaces can be garbage-collected.
+	 */
+	private static final Map<StateSpace, SpaceLayouts> layouts = 
+		new WeakHashMap<StateSpace, SpaceLayouts>();
+	
+	private final String[] nodes;
+	private final Map<String, Integer> positions;
+	
+	private FractionLayout(StateSpace stateSpace, String rootNode) {
+		this.positions = new HashMap<String, Integer>();
+		Iterator<String> it = stateSpace.stateIterator(rootNode);
+		while(it.hasNext()) {
+			String n = it.next();
+			if(! positions.containsKey(n))
+				positions.put(n, positions.size());
+		}
+		this.nodes = new String[positions.size()];
+		for(Map.Entry<String, Integer> n : positions.entrySet()) {
+			nodes[n.getValue()] = n.getKey();
+		}
+	}
+	
+	/**
+	 * Returns the layout of fraction functions with the given root node.
+	 * @param stateSpace
+	 * @param rootNode
+	 * @return the layout of fraction functions with the given root node.
+	 */
+	static FractionLayout of(StateSpace stateSpace, String rootNode) {
+		SpaceLayouts spaceLayouts;
+		synchronized(layouts) {
+			spaceLayouts = layouts.get(stateSpace);
+			if(spaceLayouts == null) {
+				spaceLayouts = new SpaceLayouts(stateSpace);
+				layouts.put(stateSpace, spaceLayouts);
+			}
+			else if(spaceLayouts.space.get() != stateSpace)
+				// an equal state space is cached; don't use its layouts
+				return new FractionLayout(stateSpace, rootNode);
+		
+			FractionLayout result = spaceLayouts.byRoot.get(rootNode);
+			if(result == null) {
+				result = new FractionLayout(stateSpace, rootNode);
+				spaceLayouts.byRoot.put(rootNode, result);
+			}
+			return result;
+		}
+	}
+	
+	/**
+	 * Returns the number of nodes in this layout.
+	 * @return the number of nodes in this layout.
+	 */
+	int size() {
+		return nodes.length;
+	}
+	
+	/**
+	 * Returns the node at the given position, where the root node
+	 * of the fraction function is at position 0.
+	 * @param i
+	 * @return the node at the given position.
+	 */
+	String node(int i) {
+		return nodes[i];
+	}
+	
+	/**
+	 * Returns the position of the given node, or -1 if fraction functions
+	 * with this layout don't hold a fraction for it.
+	 * @param node
+	 * @return the position of the given node, or -1.
+	 */
+	int indexOf(String node) {
+		Integer result = positions.get(node);
+		return result == null ? -1 : result;
+	}
+	
+	/**
+	 * Returns the given fractions mapped to their nodes.
+	 * @param fractions Array of fractions in the order of this layout.
+	 * @return the nodes mapped to their fractions, where defined.
+	 */
+	Map<String, Fraction> toMap(Fraction[] fractions) {
+		Map<String, Fraction> result = new LinkedHashMap<String, Fraction>();
+		for(int i = 0; i < nodes.length; i++) {
+			if(fractions[i] != null)
+				result.put(nodes[i], fractions[i]);
+		}
+		return result;
+	}
+	
+	private static class SpaceLayouts {
+		private final WeakReference<StateSpace> space;
+		private final Map<String, FractionLayout> byRoot = new HashMap<String, FractionLayout>();
+		
+		SpaceLayouts(StateSpace space) {
+			this.space = new WeakReference<StateSpace>(space);
+		}
+	}
+}
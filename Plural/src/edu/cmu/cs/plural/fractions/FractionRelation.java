@@ -67,6 +67,8 @@ public class FractionRelation extends FractionConstraint implements Comparable<F
 	
 	private List<FractionTerm> terms;
 	private Relop relop;
+	/** Cached hash code, since relations are kept in hash sets a lot; 0 if not computed yet. */
+	private int hash;
 
 	public FractionRelation(
 			Relop relop,
@@ -99,10 +101,13 @@ public class FractionRelation extends FractionConstraint implements Comparable<F
 
 	@Override
 	public int hashCode() {
+		if(hash != 0)
+			return hash;
 		final int prime = 31;
 		int result = 1;
 		result = prime * result + ((relop == null) ? 0 : relop.hashCode());
 		result = prime * result + ((terms == null) ? 0 : terms.hashCode());
+		hash = result;
 		return result;
 	}
 
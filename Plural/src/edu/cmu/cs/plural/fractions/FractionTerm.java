@@ -92,7 +92,7 @@ public abstract class FractionTerm implements Comparable<FractionTerm> {
 							else if(f instanceof VariableFraction)
 								return -1;
 							else
-								return fract.getVarName().compareTo(((NamedFraction) f).getVarName());
+								return fract.compareToNamed((NamedFraction) f);
 						}
 						@Override public Integer one(OneFraction fract) {
 							if(f instanceof ZeroFraction)
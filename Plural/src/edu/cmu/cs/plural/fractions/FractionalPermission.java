@@ -40,7 +40,6 @@ package edu.cmu.cs.plural.fractions;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
@@ -213,11 +212,10 @@ public class FractionalPermission extends AbstractFractionalPermission {
 			// for efficiency, simplify constraints once in the beginning
 			// DO NOT INTRODUCE NEW CONSTRAINTS AFTER THIS POINT without re-assigning a
 			FractionAssignment a = constraints.simplify();
-			Iterator<String> it = this.getStateSpace().stateIterator(this.rootNode);
-			while(it.hasNext()) {
-				String n = it.next();
-				Fraction thisF = this.fractions.get(n);
-				Fraction otherF = other.fractions.get(n);
+			FractionLayout layout = this.fractions.getLayout();
+			for(int i = 0; i < layout.size(); i++) {
+				Fraction thisF = this.fractions.getAt(i);
+				Fraction otherF = other.fractions.getAt(layout, i);
 				if(otherF instanceof NamedFraction && 
 						! constraints.getUniversalParameters().contains(((NamedFraction) otherF))) {
 //				if(otherF instanceof NamedFraction && ((NamedFraction) otherF).isVariable(node)) {
@@ -293,32 +291,31 @@ public class FractionalPermission extends AbstractFractionalPermission {
 		FractionAssignment a = comparisonConstraints.simplify();
 		
 		// fraction function
-		Iterator<String> it = this.getStateSpace().stateIterator(this.getRootNode());
-		HashMap<String, Fraction> fracts = new HashMap<String, Fraction>();
-		while(it.hasNext()) {
-			String s = it.next();
-			Fraction thisF = this.getFractions().get(s);
-			Fraction otherF = other.getFractions().get(s);
+		FractionLayout layout = this.getFractions().getLayout();
+		Fraction[] fracts = new Fraction[layout.size()];
+		for(int s = 0; s < fracts.length; s++) {
+			Fraction thisF = this.getFractions().getAt(s);
+			Fraction otherF = other.getFractions().getAt(layout, s);
 
 			if(a.areEquivalent(thisF, otherF)) {
 				// thisF = otherF --> just use thisF 
-				fracts.put(s, thisF);
+				fracts[s] = thisF;
 			}
 			else if(a.isZero(thisF) || a.isZero(otherF)) {
 				// coalesce to zero
-				fracts.put(s, Fraction.zero());
+				fracts[s] = Fraction.zero();
 			}
 			else if(thisF instanceof NamedFraction 
 					&& constraints.isKnown(thisF)
 					&& ! constraints.getUniversalParameters().contains(((NamedFraction) thisF))) {
 //					&& ((NamedFraction) thisF).isVariable(node)) {
-				fracts.put(s, thisF);
+				fracts[s] = thisF;
 			}
 			else if(otherF instanceof NamedFraction 
 					&& constraints.isKnown(otherF)
 					&& ! constraints.getUniversalParameters().contains(((NamedFraction) otherF))) {
 //					&& ((NamedFraction) otherF).isVariable(node)) {
-				fracts.put(s, otherF);
+				fracts[s] = otherF;
 			}
 			else if(!a.isZero(thisF) && !a.isZero(otherF)) {
 				// for efficiency, don't do full test:
@@ -327,7 +324,7 @@ public class FractionalPermission extends AbstractFractionalPermission {
 //					FractionConstraint.createLessThan(Fraction.zero(), otherF) )) {
 				// thisF != otherF --> introduce new existential variable
 				NamedFraction c = constraints.newNamedFraction(node);
-				fracts.put(s, c);
+				fracts[s] = c;
 				if(constraints.isKnown(thisF)) {
 					// thisF must be > 0 in order to coalesce it into an existential
 					constraints.addConstraint(FractionConstraint.createLessThan(Fraction.zero(), thisF));
@@ -349,7 +346,7 @@ public class FractionalPermission extends AbstractFractionalPermission {
 			}
 			else {
 				// They weren't greater than zero
-				fracts.put(s, Fraction.zero());
+				fracts[s] = Fraction.zero();
 			}
 		}
 		
@@ -889,7 +886,7 @@ public class FractionalPermission extends AbstractFractionalPermission {
 		// DO NOT CHANGE comparisonConstraints AFTER THIS POINT without re-assigning a
 		FractionAssignment a = comparisonConstraints.simplify();
 		
-		HashMap<String, Fraction> newFs = new HashMap<String, Fraction>();
+		Fraction[] newFs = new Fraction[this.fractions.getLayout().size()];
 		
 		final FractionVisitor<Fraction> existentialize = new FractionVisitor<Fraction>() {
 			@Override public Fraction named(NamedFraction fract) {
@@ -909,12 +906,10 @@ public class FractionalPermission extends AbstractFractionalPermission {
 		};
 		
 		// abstracting fraction function
-		Iterator<String> it = this.stateSpace.stateIterator(this.rootNode);
-		while(it.hasNext()) {
-			String n = it.next();
-			Fraction constF = a.getConstant(this.fractions.get(n));
+		for(int i = 0; i < newFs.length; i++) {
+			Fraction constF = a.getConstant(this.fractions.getAt(i));
 			Fraction newF = constF != null ? constF.dispatch(existentialize) : constraints.newNamedFraction(node);
-			newFs.put(n, newF);
+			newFs[i] = newF;
 		}
 		Fraction constBelow = a.getConstant(this.fractions.getBelowFraction());
 		Fraction newBelow = constBelow != null ? constBelow.dispatch(existentialize) : constraints.newNamedFraction(node);
@@ -40,6 +40,7 @@ package edu.cmu.cs.plural.fractions;
 import org.eclipse.jdt.core.dom.ASTNode;
 
 import edu.cmu.cs.plural.fractions.elim.NormalizedFractionVisitor;
+import edu.cmu.cs.plural.util.Numbering;
 
 /**
  * @author Kevin Bierhoff
@@ -48,11 +49,13 @@ import edu.cmu.cs.plural.fractions.elim.NormalizedFractionVisitor;
 public class NamedFraction extends Fraction {
 	
 	private String varName;
-	private static int nextID = 0;
+	/** Numbering of generated names; <code>null</code> for given names. */
+	private Numbering numbering;
 	private ASTNode joiningNode;
 	
 	public NamedFraction() {
-		this.varName = "const" + (nextID++);
+		this.numbering = Numbering.current();
+		this.varName = "const" + numbering.getTag() + numbering.nextNamedFraction();
 	}
 
 	public NamedFraction(String varName) {
@@ -60,7 +63,7 @@ public class NamedFraction extends Fraction {
 	}
 	
 	NamedFraction(ASTNode joiningNode) {
-		this.varName = "const" + (nextID++);
+		this();
 		this.joiningNode = joiningNode;
 	}
 
@@ -91,6 +94,21 @@ public class NamedFraction extends Fraction {
 		return visitor.named(this);
 	}
 
+	/**
+	 * Compares names, and the numberings of generated names, 
+	 * consistently with {@link #equals(Object)}.
+	 */
+	int compareToNamed(NamedFraction other) {
+		int result = varName.compareTo(other.varName);
+		if(result != 0 || numbering == other.numbering)
+			return result;
+		if(numbering == null)
+			return -1;
+		if(other.numbering == null)
+			return 1;
+		return numbering.compareTo(other.numbering);
+	}
+
 	@Override
 	public String toString() {
 		return joiningNode == null ? 
@@ -120,6 +138,8 @@ public class NamedFraction extends Fraction {
 				return false;
 		} else if (!varName.equals(other.varName))
 			return false;
+		if (numbering != other.numbering)
+			return false;
 		return true;
 	}
 
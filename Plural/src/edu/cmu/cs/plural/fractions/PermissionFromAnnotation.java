@@ -39,10 +39,7 @@ package edu.cmu.cs.plural.fractions;
 
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedHashSet;
-import java.util.Map;
 import java.util.Set;
 
 import edu.cmu.cs.plural.states.StateSpace;
@@ -205,12 +202,11 @@ public class PermissionFromAnnotation extends FractionalPermission
 //		permission.addIsFunctionConstraints(constraints);
 		
 		// constraints for node fractions
-		Map<String, Fraction> newFs = new HashMap<String, Fraction>(this.fractions.size());
-		Iterator<String> it = this.stateSpace.stateIterator(this.rootNode);
-		while(it.hasNext()) {
-			String n = it.next();
-			Fraction thisF = this.fractions.get(n);
-			Fraction otherF = permission.fractions.get(n);
+		FractionLayout layout = this.fractions.getLayout();
+		Fraction[] newFs = new Fraction[layout.size()];
+		for(int n = 0; n < newFs.length; n++) {
+			Fraction thisF = this.fractions.getAt(n);
+			Fraction otherF = permission.fractions.getAt(layout, n);
 			
 			Fraction newF;
 			if(thisF.isZero())
@@ -228,7 +224,7 @@ public class PermissionFromAnnotation extends FractionalPermission
 				// for constants, this asserts that the combined fractions do not exceed one
 				constraints.addConstraint(FractionConstraint.createLessThanOrEqual(sum, Fraction.one()));
 			}
-			newFs.put(n, newF);
+			newFs[n] = newF;
 		}
 		
 		// constraint for below fraction
@@ -251,7 +247,7 @@ public class PermissionFromAnnotation extends FractionalPermission
 		
 		// create fraction function
 		// TODO which state space?
-		FractionFunction f = new FractionFunction(this.stateSpace, this.rootNode, newFs, belowF);
+		FractionFunction f = FractionFunction.create(this.fractions, newFs, belowF);
 
 		return createAnnotation(
 				this.stateSpace, 
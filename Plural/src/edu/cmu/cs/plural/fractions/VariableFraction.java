@@ -38,6 +38,7 @@
 package edu.cmu.cs.plural.fractions;
 
 import edu.cmu.cs.plural.fractions.elim.NormalizedFractionVisitor;
+import edu.cmu.cs.plural.util.Numbering;
 
 /**
  * @author Kevin Bierhoff
@@ -45,15 +46,16 @@ import edu.cmu.cs.plural.fractions.elim.NormalizedFractionVisitor;
  */
 public class VariableFraction extends Fraction {
 	
-	private static long nextID = 0;
-	private long id;
+	private final Numbering numbering;
+	private final long id;
 	
 	public VariableFraction() {
-		this.id = nextID++;
+		this.numbering = Numbering.current();
+		this.id = numbering.nextVariableFraction();
 	}
 
 	public String getVarName() {
-		return "VAR" + id;
+		return "VAR" + numbering.getTag() + id;
 	}
 	
 	@Override
@@ -80,7 +82,10 @@ public class VariableFraction extends Fraction {
 	 * @throws NullPointerException if <code>other</code> is <code>null</code>.
 	 */
 	public int compareToVar(VariableFraction other) {
-		long otherID = other.id; // throws NPE as required by comparator contract
+		int result = this.numbering.compareTo(other.numbering); // throws NPE as required by comparator contract
+		if(result != 0)
+			return result;
+		long otherID = other.id;
 		long thisID = this.id;
 		return Long.signum(thisID - otherID);
 	}
@@ -109,6 +114,8 @@ public class VariableFraction extends Fraction {
 		VariableFraction other = (VariableFraction) obj;
 		if (id != other.id)
 			return false;
+		if (numbering != other.numbering)
+			return false;
 		return true;
 	}
 
@@ -69,6 +69,7 @@ import edu.cmu.cs.crystal.util.Pair;
 import edu.cmu.cs.crystal.util.SimpleMap;
 import edu.cmu.cs.crystal.util.Utilities;
 import edu.cmu.cs.plural.alias.FrameLabel;
+import edu.cmu.cs.plural.concrete.Implication;
 import edu.cmu.cs.plural.contexts.ContextFactory;
 import edu.cmu.cs.plural.contexts.LinearContext;
 import edu.cmu.cs.plural.contexts.TensorContext;
@@ -172,6 +173,37 @@ public class LinearOperations extends TACAnalysisHelper {
 			return handleInvocation(instr, current_context, sigCase, failFast, paramMap, isCaseChoice);
 	}
 	
+	/**
+	 * Cheaply tests whether the given case of the given method call can 
+	 * possibly succeed in the given context, without copying its tuple.
+	 * This runs the checks that a fail-fast 
+	 * {@link #handleMethodCall(MethodCallInstruction, TensorContext, IMethodCaseInstance, boolean, boolean) handleMethodCall}
+	 * performs before splitting anything, i.e., required states of
+	 * parameters other than the analyzed receiver and null and boolean tests,
+	 * but does not split permissions or touch constraints.  
+	 * Use this to skip cases of multi-case methods that would fail anyway.
+	 * @param instr
+	 * @param current_context Not modified.
+	 * @param sigCase
+	 * @return <code>false</code> if the given case definitely fails in the given
+	 * context, <code>true</code> if it may succeed.
+	 */
+	public boolean isFeasibleCase(
+			final MethodCallInstruction instr,
+			final TensorContext current_context,
+			final IMethodCaseInstance sigCase) {
+		if(instr.isSuperCall())
+			// super-frame permissions may only appear after unpacking
+			return true;
+		TensorPluralTupleLE value = current_context.getTuple();
+		SimpleMap<String, Aliasing> paramMap = createParameterMap(
+				instr, value, instr.getReceiverOperand(), instr.getTarget());
+		Aliasing this_loc = value.getLocationsBefore(instr, getThisVar());
+		CaseFeasibilityProbe probe = new CaseFeasibilityProbe(current_context, this_loc);
+		return sigCase.getPreconditionChecker().splitOffPredicate(paramMap, probe) || 
+			probe.isInconclusive();
+	}
+	
 	/**
 	 * Applies the given case of the given <code>new</code> instruction to the given tuple.
 	 * @param instr
@@ -248,6 +280,20 @@ public class LinearOperations extends TACAnalysisHelper {
 		PredicateChecker pre = sigCase.getPreconditionChecker();
 		Aliasing this_loc = value.getLocationsBefore(instr, getThisVar());
 		
+		// 0. effect-free calls that only borrow permissions leave the tuple alone
+		if(sigCase.isEffectFree() && isReceiverReadyForCall(instr.getNode(), value)) {
+			BorrowOnlyCallProbe probe = new BorrowOnlyCallProbe(cur_context, this_loc, failFast);
+			if(pre.splitOffPredicate(paramMap, probe) && probe.isBorrowOnly()) {
+				sigCase.getPostconditionMerger().mergeInPredicate(paramMap, probe);
+				if(probe.isBorrowOnly()) {
+					ChoiceID parent_id = isCaseChoice ? cur_context.getChoiceID() : cur_context.getParentChoiceID();
+					ChoiceID new_id = isCaseChoice ? ChoiceID.choiceID("Choice for case " + sigCase) : cur_context.getChoiceID();
+					return ContextFactory.tensor(value, parent_id, new_id);
+				}
+			}
+			// otherwise take the long way, which also reports failed checks
+		}
+		
 		CallHandlerContinuation cont = new CallHandlerContinuation() {
 
 			@Override
@@ -667,6 +713,246 @@ public class LinearOperations extends TACAnalysisHelper {
 		
 	}
 	
+	/**
+	 * Read-only version of {@link CallPreconditionHandler} that only performs
+	 * the checks that fail a call right away, on the tuple as it is before 
+	 * the call.  Permissions for the (possibly unpacked) receiver are not 
+	 * checked because the receiver may still be packed or unpacked before 
+	 * the call.  Implications can put their antecedents into the tuple, 
+	 * so the probe gives up on the first one.
+	 * @see LinearOperations#isFeasibleCase(MethodCallInstruction, TensorContext, IMethodCaseInstance)
+	 */
+	static class CaseFeasibilityProbe extends AbstractPredicateChecker {
+		
+		private Set<Aliasing> borrowed = Collections.emptySet();
+		private boolean inconclusive = false;
+
+		CaseFeasibilityProbe(TensorContext cur_context, Aliasing thisLoc) {
+			super(cur_context, thisLoc);
+		}
+		
+		/**
+		 * @return <code>true</code> if the probe stopped before it could
+		 * tell whether the case fails.
+		 */
+		boolean isInconclusive() {
+			return inconclusive;
+		}
+
+		@Override
+		public void announceBorrowed(Set<Aliasing> borrowedVars) {
+			this.borrowed = borrowedVars;
+		}
+
+		@Override
+		public boolean checkImplication(Aliasing var, Implication impl) {
+			inconclusive = true;
+			return false;
+		}
+
+		@Override
+		public boolean splitOffPermission(Aliasing var, String var_name,
+				PermissionSetFromAnnotations perms) {
+			if(this_loc != null && this_loc.equals(var))
+				return true;
+			TensorPluralTupleLE value = incomingContext.getTuple();
+			if(borrowed.contains(var))
+				// frame states of borrowed objects are only checked after packing
+				return value.get(var).isInStates(perms.getStateInfo(false), false);
+			return value.get(var).isInStates(perms.getStateInfoPair());
+		}
+
+		@Override
+		public boolean finishSplit() {
+			return true;
+		}
+		
+	}
+	
+	/**
+	 * Read-only probe that recognizes invocations which only borrow permissions.
+	 * For these, splitting off the pre-condition and merging the post-condition
+	 * back in, as {@link CallPreconditionHandler} and {@link CallPostPredicateMerger}
+	 * do, results in the tuple we started with: {@link CallPostPredicateMerger#finishMerge()}
+	 * puts the original permissions of borrowed objects back, and an effect-free call
+	 * does not forget any state information.  
+	 * The probe is used both as the pre-condition checker and as the post-condition
+	 * merger.  It gives up (and {@link #isBorrowOnly()} becomes <code>false</code>)
+	 * on anything that would leave a trace in the tuple: permissions for objects 
+	 * that are not borrowed or for the (possibly unpacked) receiver, receiver states 
+	 * that may require packing, implications, released parameters, and facts
+	 * in the post-condition that are not already known.
+	 * Otherwise it performs the same checks as a fail-fast {@link CallPreconditionHandler},
+	 * including the constraint check after splitting borrowed permissions, 
+	 * but on copies of the affected permissions.
+	 * @see LinearOperations#handleInvocation(TACInvocation, TensorContext, IInvocationCaseInstance, boolean, SimpleMap, boolean)
+	 */
+	static class BorrowOnlyCallProbe extends AbstractPredicateChecker implements MergeIntoTuple {
+		
+		private final boolean failFast;
+		private Set<Aliasing> borrowed = Collections.emptySet();
+		/** Permissions left for borrowed objects after splitting, while checking. */
+		private final Map<Aliasing, FractionalPermissions> remainders = 
+			new HashMap<Aliasing, FractionalPermissions>();
+		private boolean borrowOnly = true;
+
+		/**
+		 * @param cur_context Not modified.
+		 * @param thisLoc Location of the (possibly unpacked) surrounding receiver
+		 * @param failFast When <code>false</code>, no checks are performed,
+		 * like in {@link LazyPreconditionHandler}.
+		 */
+		BorrowOnlyCallProbe(TensorContext cur_context, Aliasing thisLoc, boolean failFast) {
+			super(cur_context, thisLoc);
+			this.failFast = failFast;
+		}
+		
+		/**
+		 * @return <code>true</code> if the predicates seen so far only borrow
+		 * permissions and can be skipped.
+		 */
+		boolean isBorrowOnly() {
+			return borrowOnly && getNeededReceiverStates().isEmpty();
+		}
+		
+		private boolean giveUp() {
+			borrowOnly = false;
+			return false;
+		}
+		
+		private boolean isBorrowed(Aliasing var) {
+			return borrowed.contains(var) && ! var.equals(this_loc);
+		}
+
+		@Override
+		public void announceBorrowed(Set<Aliasing> borrowedVars) {
+			this.borrowed = borrowedVars;
+		}
+
+		@Override
+		public boolean checkImplication(Aliasing var, Implication impl) {
+			// may remove the implication or assume its antecedent
+			return giveUp();
+		}
+
+		@Override
+		protected boolean checkStateInfoInternal(Aliasing var,
+				Set<String> stateInfo, boolean inFrame) {
+			return ! failFast || super.checkStateInfoInternal(var, stateInfo, inFrame);
+		}
+
+		@Override
+		public boolean checkFalse(Aliasing var, String var_name) {
+			return ! failFast || super.checkFalse(var, var_name);
+		}
+
+		@Override
+		public boolean checkNonNull(Aliasing var, String var_name) {
+			return ! failFast || super.checkNonNull(var, var_name);
+		}
+
+		@Override
+		public boolean checkNull(Aliasing var, String var_name) {
+			return ! failFast || super.checkNull(var, var_name);
+		}
+
+		@Override
+		public boolean checkTrue(Aliasing var, String var_name) {
+			return ! failFast || super.checkTrue(var, var_name);
+		}
+
+		@Override
+		public boolean splitOffPermission(Aliasing var, String var_name,
+				PermissionSetFromAnnotations perms) {
+			if(perms.isEmpty())
+				return true;
+			if(! isBorrowed(var))
+				return giveUp();
+			if(! failFast)
+				return true;
+			FractionalPermissions p = remainders.get(var);
+			if(p == null)
+				p = incomingContext.getTuple().get(var);
+			if(! p.isInStates(perms.getStateInfoPair()))
+				return false;
+			// splitOff works on a copy of the constraints
+			p = p.splitOff(perms);
+			if(p.isUnsatisfiable())
+				return false;
+			remainders.put(var, p);
+			return true;
+		}
+
+		@Override
+		public boolean finishSplit() {
+			return true;
+		}
+
+		@Override
+		public void addStateInfo(Aliasing var, String var_name,
+				Set<String> stateInfos, boolean inFrame) {
+			if(! incomingContext.getTuple().get(var).isInStates(stateInfos, inFrame))
+				giveUp();
+		}
+
+		@Override
+		public void addNull(Aliasing var, String var_name) {
+			if(! incomingContext.getTuple().isNull(var))
+				giveUp();
+		}
+
+		@Override
+		public void addNonNull(Aliasing var, String var_name) {
+			if(! incomingContext.getTuple().isNonNull(var))
+				giveUp();
+		}
+
+		@Override
+		public void addTrue(Aliasing var, String var_name) {
+			if(! incomingContext.getTuple().isBooleanTrue(var))
+				giveUp();
+		}
+
+		@Override
+		public void addFalse(Aliasing var, String var_name) {
+			if(! incomingContext.getTuple().isBooleanFalse(var))
+				giveUp();
+		}
+
+		@Override
+		public void mergeInPermission(Aliasing var, String var_name,
+				PermissionSetFromAnnotations perms) {
+			if(perms.isEmpty())
+				return;
+			// permissions of borrowed objects are replaced with the original ones,
+			// but their states are kept
+			if(! isBorrowed(var) || 
+					! incomingContext.getTuple().get(var).isInStates(perms.getStateInfoPair()))
+				giveUp();
+		}
+
+		@Override
+		public void addImplication(Aliasing var, Implication implication) {
+			giveUp();
+		}
+
+		@Override
+		public void releaseParameter(Aliasing var, String param) {
+			giveUp();
+		}
+
+		@Override
+		public void addVoid() {
+			giveUp();
+		}
+
+		@Override
+		public void finishMerge() {
+			// nothing to do
+		}
+		
+	}
+	
 	/**
 	 * Call post-condition merger with special treatment of borrowed objects.
 	 * {@link #finishMerge()} puts permissions of borrowed objects back into the lattice,
@@ -745,6 +1031,19 @@ public class LinearOperations extends TACAnalysisHelper {
 				!packBeforeCall);
 	}
 
+	/**
+	 * Determines whether {@link #prepareAnalyzedMethodReceiverForCall(ASTNode, TensorContext, Set)}
+	 * leaves the given tuple alone when no receiver states are needed.
+	 * @param node
+	 * @param value
+	 * @return <code>true</code> if the receiver is packed or does not have to be packed,
+	 * <code>false</code> if it may be packed before the call.
+	 */
+	private boolean isReceiverReadyForCall(ASTNode node, TensorPluralTupleLE value) {
+		return getThisVar() == null || value.isRcvrPacked() || ! packBeforeCall ||
+			isUniqueOrImmutableUnpacked(value, node, getThisVar());
+	}
+
 	/**
 	 * Determine if the unpacked permission of the given variable is unique / immutable.
 	 * This is interesting because we don't need to pack these guys.
@@ -72,52 +72,57 @@ import edu.cmu.cs.plural.track.Permission.PermissionKind;
  *
  */
 public class PermParser {
+	/** Number of parsed strings remembered by each thread. */
+	private static final int PARSE_CACHE_SIZE = 256;
+	
 	// Thread-local because static fields are bad for concurrency!
 	// Plus it's just caching so there's no reason to be particularly worried.
-	private static ThreadLocal<Option<Pair<String, TopLevelPred>>> cachedResult = new ThreadLocal<Option<Pair<String, TopLevelPred>>>() {
-		private Option<Pair<String, TopLevelPred>> cachedResult = Option.none(); 
-			
-		@Override
-		public Option<Pair<String, TopLevelPred>> get() {
-			return this.cachedResult;
-		}
+	// Signatures are parsed again at every call site and pre- and post-conditions
+	// alternate, so we remember the most recently used strings, not just the last one.
+	private static ThreadLocal<Map<String, Option<TopLevelPred>>> cachedResults = new ThreadLocal<Map<String, Option<TopLevelPred>>>() {
 		@Override
-		public void set(Option<Pair<String, TopLevelPred>> value) {
-			this.cachedResult = value;
+		protected Map<String, Option<TopLevelPred>> initialValue() {
+			return new LinkedHashMap<String, Option<TopLevelPred>>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, Option<TopLevelPred>> eldest) {
+					return size() > PARSE_CACHE_SIZE;
+				}
+			};
 		}
 	};
 	
 	private static Option<TopLevelPred> parse(String str) {
-		if( cachedResult.get().isSome() && 
-			cachedResult.get().unwrap().fst().equals(str) ) {
-			return Option.some(cachedResult.get().unwrap().snd());
+		Map<String, Option<TopLevelPred>> cache = cachedResults.get();
+		Option<TopLevelPred> result = cache.get(str);
+		if( result == null ) {
+			result = parseUncached(str);
+			cache.put(str, result);
 		}
-		else {
-			AccessPredLexer lex = new AccessPredLexer(new ANTLRStringStream(str));
-			CommonTokenStream tokens = new CommonTokenStream(lex);
+		return result;
+	}
+	
+	private static Option<TopLevelPred> parseUncached(String str) {
+		AccessPredLexer lex = new AccessPredLexer(new ANTLRStringStream(str));
+		CommonTokenStream tokens = new CommonTokenStream(lex);
 
-			AccessPredParser parser = new AccessPredParser(tokens);
+		AccessPredParser parser = new AccessPredParser(tokens);
 
-			TopLevelPred parsed_pred = null;
-			try {
-				parsed_pred = parser.start();
-			} catch(RecognitionException re) {
-				// As far as I can tell, this is never thrown.
-				return Option.none();
-			} catch(PluralParseError ppe) {
-				return Option.none();
-			}
-			
-			if( parsed_pred == null ) {
-				return Option.none();
-			}
-			
-			/*
-			 * Update cache.
-			 */			
-			cachedResult.set(Option.some(Pair.create(str, parsed_pred)));
-			return Option.some(parsed_pred);
+		TopLevelPred parsed_pred = null;
+		try {
+			parsed_pred = parser.start();
+		} catch(RecognitionException re) {
+			// As far as I can tell, this is never thrown.
+			return Option.none();
+		} catch(PluralParseError ppe) {
+			return Option.none();
 		}
+		
+		if( parsed_pred == null ) {
+			return Option.none();
+		}
+		
+		return Option.some(parsed_pred);
 	}
 	
 	/**
@@ -452,13 +457,28 @@ public class PermParser {
 
 
 	/**
-	 * Caching fields used for parameters.
+	 * Caching fields used for parameters, thread-local like 
+	 * {@link #cachedResults} since methods are checked concurrently.
 	 */
-	private static Pair<String, ParsedParameterSummary> cachedPre = Pair.create("", new ParsedParameterSummary());
-	private static Pair<String, ParsedParameterSummary> cachedPost = Pair.create("", new ParsedParameterSummary());
+	private static ThreadLocal<Pair<String, ParsedParameterSummary>> cachedPreSummary = 
+		new ThreadLocal<Pair<String, ParsedParameterSummary>>() {
+		@Override
+		protected Pair<String, ParsedParameterSummary> initialValue() {
+			return Pair.create("", new ParsedParameterSummary());
+		}
+	};
+	private static ThreadLocal<Pair<String, ParsedParameterSummary>> cachedPostSummary = 
+		new ThreadLocal<Pair<String, ParsedParameterSummary>>() {
+		@Override
+		protected Pair<String, ParsedParameterSummary> initialValue() {
+			return Pair.create("", new ParsedParameterSummary());
+		}
+	};
 	
 	private static Pair<ParsedParameterSummary, ParsedParameterSummary>
 	paramParseHelper(String pre, String post) {
+		Pair<String, ParsedParameterSummary> cachedPre = cachedPreSummary.get();
+		Pair<String, ParsedParameterSummary> cachedPost = cachedPostSummary.get();
 		ParsedParameterSummary pre_summary;
 		ParsedParameterSummary post_summary;
 		if( cachedPre.fst().equals(pre) ) {
@@ -484,6 +504,8 @@ public class PermParser {
 					(post_pred.unwrap() instanceof TopLevelPred.Impossible ?
 							new ParsedParameterSummary(true) :
 							((AccessPred) post_pred.unwrap()).accept(new ParamFPVisitorConj()));
+			cachedPost.setComponent1(post);
+			cachedPost.setComponent2(post_summary);
 		}
 		return Pair.create(pre_summary, post_summary);
 	}
@@ -38,11 +38,13 @@
 
 package edu.cmu.cs.plural.polymorphic.instantiation;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
 
 import org.eclipse.jdt.core.dom.ASTNode;
 import org.eclipse.jdt.core.dom.ASTVisitor;
@@ -123,6 +125,17 @@ public final class InstantiatedTypeAnalysis {
 	final private ITACAnalysisContext tac;
 	final private AnnotationDatabase annoDB;
 	private Map<Variable,List<String>> types = null;
+	/** Types of annotated variables, looked up once each. */
+	private final Map<IVariableBinding,List<String>> annotatedTypes = 
+		new HashMap<IVariableBinding,List<String>>();
+	
+	/** 
+	 * Polymorphic parameters and substitutions for in-flight annotation 
+	 * databases.  Weak for the same reason as the state space repositories.
+	 * @see edu.cmu.cs.plural.states.StateSpaceRepository#getInstance(AnnotationDatabase) 
+	 */
+	private static final Map<AnnotationDatabase, PolyTables> tables = 
+		new WeakHashMap<AnnotationDatabase, PolyTables>();
 	
 	public InstantiatedTypeAnalysis(ITACAnalysisContext tacContext,
 			AnnotationDatabase annoDB) {
@@ -146,12 +159,18 @@ public final class InstantiatedTypeAnalysis {
 	 *  length of applications is not the same as the number of params on type.  */
 	public static List<String> substitute(List<String> applications, ITypeBinding type, List<String> original,
 			AnnotationDatabase annoDB) {
-		List<String> type_args = new LinkedList<String>();
-		for( ICrystalAnnotation anno : annoDB.getAnnosForType(type) ) {
-			if( anno instanceof PolyVarDeclAnnotation ) {
-				type_args.add(((PolyVarDeclAnnotation)anno).getVariableName());
-			}
+		// The same substitutions happen at every call site of a polymorphic
+		// type, so results are interned by type and argument lists.
+		PolyTables t = tablesFor(annoDB);
+		List<Object> key = type.getKey() == null ? null : Arrays.<Object>asList(type.getKey(),
+				new ArrayList<String>(applications), new ArrayList<String>(original));
+		if( key != null ) {
+			List<String> cached = t.getSubstitution(key);
+			if( cached != null )
+				return cached;
 		}
+		
+		List<String> type_args = polyParameters(type, annoDB);
 		if( applications.size() > type_args.size() ) {
 			String error_msg = "Different number of static args.";
 			throw new RuntimeException(error_msg);
@@ -161,7 +180,7 @@ public final class InstantiatedTypeAnalysis {
 			applications = Collections.nCopies(type_args.size(), "1");
 		}
 		
-		List<String> result = new LinkedList<String>();
+		List<String> result = new ArrayList<String>(original.size());
 		for( String arg : original ) {
 			int index = type_args.lastIndexOf(arg);
 			if( index != -1 ) {
@@ -172,18 +191,61 @@ public final class InstantiatedTypeAnalysis {
 				result.add(arg);
 			}
 		}
+		result = Collections.unmodifiableList(result);
+		if( key != null )
+			t.putSubstitution(key, result);
+		return result;
+	}
+	
+	/**
+	 * Returns the names of the polymorphic permission parameters that
+	 * the given type declares, in order. The annotations of each type
+	 * are only scanned once per annotation database.
+	 */
+	public static List<String> polyParameters(ITypeBinding type, AnnotationDatabase annoDB) {
+		PolyTables t = tablesFor(annoDB);
+		String key = type.getKey();
+		List<String> result = key == null ? null : t.getParameters(key);
+		if( result == null ) {
+			result = new ArrayList<String>();
+			for( ICrystalAnnotation anno : annoDB.getAnnosForType(type) ) {
+				if( anno instanceof PolyVarDeclAnnotation ) {
+					result.add(((PolyVarDeclAnnotation)anno).getVariableName());
+				}
+			}
+			result = Collections.unmodifiableList(result);
+			if( key != null )
+				t.putParameters(key, result);
+		}
 		return result;
 	}
 	
+	private static PolyTables tablesFor(AnnotationDatabase annoDB) {
+		synchronized(tables) {
+			PolyTables result = tables.get(annoDB);
+			if( result == null ) {
+				result = new PolyTables();
+				tables.put(annoDB, result);
+			}
+			return result;
+		}
+	}
+	
 	/** Performs no type analysis, just directly looks up the type of the
 	 *  variable given from its annotations. */
 	public List<String> findType(IVariableBinding binding) {
-		for( ICrystalAnnotation anno_ : this.annoDB.getAnnosForVariable(binding) ) {
-			if( anno_ instanceof ApplyAnnotationWrapper ) {
-				return ((ApplyAnnotationWrapper)anno_).getValue();
+		List<String> result = this.annotatedTypes.get(binding);
+		if( result == null ) {
+			result = Collections.emptyList();
+			for( ICrystalAnnotation anno_ : this.annoDB.getAnnosForVariable(binding) ) {
+				if( anno_ instanceof ApplyAnnotationWrapper ) {
+					result = ((ApplyAnnotationWrapper)anno_).getValue();
+					break;
+				}
 			}
+			this.annotatedTypes.put(binding, result);
 		}
-		return Collections.emptyList();
+		return result;
 	}
 	
 	/**
@@ -225,12 +287,10 @@ public final class InstantiatedTypeAnalysis {
 
 	private List<String> thisType(IMethodBinding binding) {
 		ITypeBinding this_type_binding = binding.getDeclaringClass();
-		for( ICrystalAnnotation anno_ : annoDB.getAnnosForType(this_type_binding) ) {
-			if( anno_ instanceof PolyVarDeclAnnotation ) {
-				PolyVarDeclAnnotation anno = (PolyVarDeclAnnotation)anno_;
-				// TODO Right now, only one parameter can be declared at a time.
-				return Collections.singletonList(anno.getVariableName());
-			}
+		List<String> params = polyParameters(this_type_binding, annoDB);
+		if( !params.isEmpty() ) {
+			// TODO Right now, only one parameter can be declared at a time.
+			return Collections.singletonList(params.get(0));
 		}
 		return Collections.emptyList();
 	}
@@ -861,4 +921,29 @@ public final class InstantiatedTypeAnalysis {
 	}
 	
 	private final static Option<List<String>> NOTHING = Option.some(Collections.<String>emptyList());	
+	
+	/**
+	 * Polymorphic parameters by type key, and interned substitutions
+	 * by type key, application and original list.
+	 */
+	private static final class PolyTables {
+		private final Map<String, List<String>> parameters = new HashMap<String, List<String>>();
+		private final Map<List<Object>, List<String>> substitutions = new HashMap<List<Object>, List<String>>();
+		
+		synchronized List<String> getParameters(String typeKey) {
+			return parameters.get(typeKey);
+		}
+		
+		synchronized void putParameters(String typeKey, List<String> params) {
+			parameters.put(typeKey, params);
+		}
+		
+		synchronized List<String> getSubstitution(List<Object> key) {
+			return substitutions.get(key);
+		}
+		
+		synchronized void putSubstitution(List<Object> key, List<String> result) {
+			substitutions.put(key, result);
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,411 @@
+/**
+ * Copyright (C) 2007-2009 Carnegie Mellon University and others.
+ *
+ * This file is part of Plural.
+ *
+ * Plural is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as 
+ * published by the Free Software Foundation.
+ *
+ * Plural is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Plural; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Linking Plural statically or dynamically with other modules is
+ * making a combined work based on Plural. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * In addition, as a special exception, the copyright holders of Plural
+ * give you permission to combine Plural with free software programs or
+ * libraries that are released under the GNU LGPL and with code
+ * included in the standard release of Eclipse under the Eclipse Public
+ * License (or modified versions of such code, with unchanged license).
+ * You may copy and distribute such a system following the terms of the
+ * GNU GPL for Plural and the licenses of the other code concerned.
+ *
+ * Note that people who make modified versions of Plural are not
+ * obligated to grant this special exception for their modified
+ * versions; it is their choice whether to do so. The GNU General
+ * Public License gives permission to release a modified version
+ * without this exception; this exception also makes it possible to
+ * release a modified version which carries forward this exception.
+ */
+package edu.cmu.cs.plural.states;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A precompiled database of state spaces, so that state spaces of
+ * library types do not have to be rebuilt from their annotations
+ * in every run.  The database is a versioned binary file that
+ * {@link StateSpaceRepository#exportStateSpaces(Iterable, File)} writes 
+ * and that is memory-mapped when it is first needed.  Only its index 
+ * is read when it is opened; a state space is decoded when it is 
+ * first looked up.
+ * <p>
+ * The database records the content of the files that each state space 
+ * was built from (the library jars or class files holding the annotations
+ * of the type and its supertypes).  When a state space is first looked up,
+ * it is ignored if one of its files changed since the database was written,
+ * so that it is rebuilt from its current annotations instead.  Each file 
+ * is checked at most once.
+ * <p>
+ * The default database is the file named by the system property
+ * {@value #DATABASE_PROPERTY}, if any.
+ * <p>
+ * Layout of a file (integers are big-endian, strings are an integer
+ * byte length followed by UTF-8 bytes):
+ * <pre>
+ * magic       'P' 'L' 'S' 'S'
+ * version     int
+ * sources     int count, then (path, long length, long CRC-32 of content)*
+ * index       int count, then (binding key, int count, int source*, int offset)*
+ * spaces      state space records, see {@link StateSpaceImpl#write(DataOutputStream)}
+ * </pre>
+ * Sources are referred to by their position in the list of sources.
+ * Offsets are relative to the start of the state space records.
+ * 
+ * @see StateSpaceRepository
+ */
+public final class StateSpaceDatabase {
+	
+	private static final Logger log = Logger.getLogger(StateSpaceDatabase.class.getName());
+	
+	/** System property naming the default database file. */
+	public static final String DATABASE_PROPERTY = "edu.cmu.cs.plural.specs";
+	
+	private static final byte[] MAGIC = { 'P', 'L', 'S', 'S' };
+	
+	/** 
+	 * Version of the file format; files with a different version are ignored.
+	 * Increment whenever the layout of {@link StateSpaceImpl} records changes.
+	 * Changes to the annotations themselves are detected with the content
+	 * stamps of the spec sources instead.
+	 */
+	public static final int VERSION = 3;
+	
+	private static final StateSpaceDatabase EMPTY = 
+		new StateSpaceDatabase(null, new SourceStamp[0], Collections.<String, Entry>emptyMap());
+	
+	private static StateSpaceDatabase defaultDatabase = null;
+	
+	/**
+	 * Returns the database named by {@link #DATABASE_PROPERTY}, which is
+	 * opened on the first call.  If the property is not set or the file
+	 * cannot be read, an empty database is returned.
+	 * @return the default database, never <code>null</code>.
+	 */
+	public static synchronized StateSpaceDatabase getDefault() {
+		if(defaultDatabase == null) {
+			String file = System.getProperty(DATABASE_PROPERTY);
+			defaultDatabase = file == null ? EMPTY : open(new File(file));
+		}
+		return defaultDatabase;
+	}
+	
+	/**
+	 * Replaces the default database, e.g., with a database for the libraries
+	 * of a particular project.
+	 * @param file Database file, or <code>null</code> for no database.
+	 */
+	public static synchronized void setDefault(File file) {
+		defaultDatabase = file == null ? EMPTY : open(file);
+	}
+	
+	/**
+	 * Opens the given database file.  Problems are logged, and an
+	 * empty database is returned in their place, since the database 
+	 * is only an optimization.
+	 * @param file
+	 * @return the database in the given file, never <code>null</code>.
+	 */
+	public static StateSpaceDatabase open(File file) {
+		try {
+			FileInputStream in = new FileInputStream(file);
+			try {
+				FileChannel channel = in.getChannel();
+				// the mapping remains valid after the channel is closed
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				for(byte b : MAGIC) {
+					if(buffer.get() != b) {
+						log.warning("Not a state space database: " + file);
+						return EMPTY;
+					}
+				}
+				int version = buffer.getInt();
+				if(version != VERSION) {
+					log.warning("Ignoring state space database " + file + " with version " + 
+							version + " instead of " + VERSION);
+					return EMPTY;
+				}
+				int source_count = buffer.getInt();
+				SourceStamp[] sources = new SourceStamp[source_count];
+				for(int i = 0; i < source_count; i++) {
+					File source = new File(readString(buffer));
+					long length = buffer.getLong();
+					long crc = buffer.getLong();
+					sources[i] = new SourceStamp(source, length, crc);
+				}
+				int count = buffer.getInt();
+				Map<String, Entry> index = new HashMap<String, Entry>(count * 2);
+				for(int i = 0; i < count; i++) {
+					String key = readString(buffer);
+					int[] entry_sources = new int[buffer.getInt()];
+					for(int j = 0; j < entry_sources.length; j++)
+						entry_sources[j] = buffer.getInt();
+					int offset = buffer.getInt();
+					index.put(key, new Entry(entry_sources, offset));
+				}
+				return new StateSpaceDatabase(buffer.slice(), sources, index);
+			}
+			finally {
+				in.close();
+			}
+		}
+		catch(IOException e) {
+			log.log(Level.WARNING, "Could not read state space database " + file, e);
+			return EMPTY;
+		}
+		catch(RuntimeException e) {
+			// truncated or otherwise corrupt file
+			log.log(Level.WARNING, "Could not read state space database " + file, e);
+			return EMPTY;
+		}
+	}
+	
+	/**
+	 * Writes the given state spaces into a database file.
+	 * @param file
+	 * @param spaces State spaces keyed by the binding keys of their types.
+	 * @param sources Files that the annotations for each state space
+	 * are read from, keyed by the same binding keys; every state space
+	 * must have at least one.
+	 * @throws IOException
+	 */
+	static void write(File file, Map<String, StateSpaceImpl> spaces, 
+			Map<String, ? extends Collection<File>> sources) throws IOException {
+		ByteArrayOutputStream records = new ByteArrayOutputStream();
+		DataOutputStream records_out = new DataOutputStream(records);
+		Map<File, Integer> source_ids = new LinkedHashMap<File, Integer>();
+		List<String> keys = new ArrayList<String>(spaces.size());
+		List<int[]> entries = new ArrayList<int[]>(spaces.size());
+		for(Map.Entry<String, StateSpaceImpl> space : spaces.entrySet()) {
+			Collection<File> space_sources = sources.get(space.getKey());
+			// source ids followed by the offset
+			int[] entry = new int[space_sources.size() + 1];
+			int i = 0;
+			for(File source : space_sources) {
+				Integer id = source_ids.get(source);
+				if(id == null) {
+					id = source_ids.size();
+					source_ids.put(source, id);
+				}
+				entry[i++] = id;
+			}
+			entry[i] = records_out.size();
+			keys.add(space.getKey());
+			entries.add(entry);
+			space.getValue().write(records_out);
+		}
+		records_out.flush();
+		
+		OutputStream file_out = new FileOutputStream(file);
+		try {
+			DataOutputStream out = new DataOutputStream(file_out);
+			out.write(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(source_ids.size());
+			for(File source : source_ids.keySet()) {
+				writeString(out, source.getAbsolutePath());
+				out.writeLong(source.length());
+				out.writeLong(checksum(source));
+			}
+			out.writeInt(keys.size());
+			for(int i = 0; i < keys.size(); i++) {
+				writeString(out, keys.get(i));
+				int[] entry = entries.get(i);
+				out.writeInt(entry.length - 1);
+				for(int id : entry)
+					out.writeInt(id);
+			}
+			records.writeTo(out);
+			out.flush();
+		}
+		finally {
+			file_out.close();
+		}
+	}
+	
+	/** State space records, or <code>null</code> for an empty database. */
+	private final ByteBuffer records;
+	
+	/** Files that state spaces were built from, referred to by position. */
+	private final SourceStamp[] sources;
+	
+	/** Maps binding keys to their sources and offsets into {@link #records}. */
+	private final Map<String, Entry> index;
+	
+	private StateSpaceDatabase(ByteBuffer records, SourceStamp[] sources, Map<String, Entry> index) {
+		this.records = records;
+		this.sources = sources;
+		this.index = index;
+	}
+	
+	/**
+	 * @return the number of state spaces in this database.
+	 */
+	public int size() {
+		return index.size();
+	}
+	
+	/**
+	 * Decodes the state space for the type with the given binding key.
+	 * Every call returns a new object, so callers should cache the result.
+	 * @param key Binding key of a type declaration.
+	 * @return the state space for the given key, or <code>null</code> 
+	 * if this database does not have one, one of the files it was built 
+	 * from changed, or its record cannot be decoded.
+	 */
+	StateSpaceImpl getStateSpace(String key) {
+		Entry entry = index.get(key);
+		if(entry == null)
+			return null;
+		for(int source : entry.sources) {
+			if(sources[source].isCurrent() == false)
+				return null;
+		}
+		try {
+			// the position of the shared buffer must not be touched
+			ByteBuffer in = records.duplicate();
+			in.position(entry.offset);
+			return StateSpaceImpl.read(in);
+		}
+		catch(RuntimeException e) {
+			// corrupt record: caller builds the state space from annotations
+			log.log(Level.WARNING, "Could not decode state space for " + key, e);
+			return null;
+		}
+	}
+	
+	/**
+	 * Index entry for one state space.
+	 */
+	private static final class Entry {
+		
+		/** Positions of the files the state space was built from. */
+		final int[] sources;
+		
+		/** Offset of the state space record. */
+		final int offset;
+		
+		Entry(int[] sources, int offset) {
+			this.sources = sources;
+			this.offset = offset;
+		}
+	}
+	
+	/**
+	 * Length and checksum of a file when the database was written.
+	 * Whether the file is still the same is only computed when a state
+	 * space built from it is first looked up, since computing the checksum
+	 * of a large jar is expensive.
+	 */
+	private static final class SourceStamp {
+		
+		private final File file;
+		private final long length;
+		private final long crc;
+		
+		/** Result of the check, or <code>null</code> if not checked yet. */
+		private Boolean current;
+		
+		SourceStamp(File file, long length, long crc) {
+			this.file = file;
+			this.length = length;
+			this.crc = crc;
+		}
+		
+		/**
+		 * Tests whether the file is unchanged; the file is only read on the first call.
+		 * @return <code>true</code> if the file has the recorded length and checksum,
+		 * <code>false</code> otherwise.
+		 */
+		synchronized boolean isCurrent() {
+			if(current == null) {
+				current = crc != -1 && file.length() == length && crc == checksum(file);
+				if(current == false)
+					log.info("Rebuilding state spaces from " + file + 
+							" since it changed after the state space database was written");
+			}
+			return current;
+		}
+	}
+	
+	/**
+	 * Computes a checksum of the given file's content.
+	 * @param file
+	 * @return CRC-32 of the file's content, or -1 if the file cannot be read.
+	 */
+	private static long checksum(File file) {
+		try {
+			InputStream in = new FileInputStream(file);
+			try {
+				CRC32 crc = new CRC32();
+				byte[] buffer = new byte[8192];
+				for(int read = in.read(buffer); read >= 0; read = in.read(buffer))
+					crc.update(buffer, 0, read);
+				return crc.getValue();
+			}
+			finally {
+				in.close();
+			}
+		}
+		catch(IOException e) {
+			return -1;
+		}
+	}
+	
+	static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+	
+	static String readString(ByteBuffer in) {
+		byte[] bytes = new byte[in.getInt()];
+		in.get(bytes);
+		try {
+			return new String(bytes, "UTF-8");
+		}
+		catch(UnsupportedEncodingException e) {
+			throw new IllegalStateException("UTF-8 not supported", e);
+		}
+	}
+
+}
@@ -37,6 +37,9 @@
  */
 package edu.cmu.cs.plural.states;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -404,6 +407,83 @@ public class StateSpaceImpl implements StateSpace {
 		this.fieldMap = Collections.unmodifiableMap(fieldMap);
 	}
 
+	/**
+	 * Writes this state space for a {@link StateSpaceDatabase}.
+	 * 
+	 * @param out
+	 * @throws IOException
+	 * @see #read(ByteBuffer)
+	 */
+	void write(DataOutputStream out) throws IOException {
+		StateSpaceDatabase.writeString(out, identifier);
+		out.writeInt(anonCount);
+		out.writeInt(parents.size());
+		for (Map.Entry<String, String> p : parents.entrySet()) {
+			StateSpaceDatabase.writeString(out, p.getKey());
+			out.writeBoolean(p.getValue() != null);
+			if (p.getValue() != null)
+				StateSpaceDatabase.writeString(out, p.getValue());
+		}
+		out.writeInt(statesMarked.size());
+		for (Map.Entry<String, Boolean> s : statesMarked.entrySet()) {
+			StateSpaceDatabase.writeString(out, s.getKey());
+			out.writeBoolean(s.getValue());
+		}
+		out.writeInt(subnodes.size());
+		for (Map.Entry<String, Set<String>> n : subnodes.entrySet()) {
+			StateSpaceDatabase.writeString(out, n.getKey());
+			out.writeInt(n.getValue().size());
+			// keep the declaration order of states and dimensions
+			for (String child : n.getValue())
+				StateSpaceDatabase.writeString(out, child);
+		}
+		out.writeInt(fieldMap.size());
+		for (Map.Entry<String, String> f : fieldMap.entrySet()) {
+			StateSpaceDatabase.writeString(out, f.getKey());
+			StateSpaceDatabase.writeString(out, f.getValue());
+		}
+	}
+
+	/**
+	 * Reads a state space written with {@link #write(DataOutputStream)}.
+	 * 
+	 * @param in
+	 *            Buffer positioned at the start of the state space.
+	 * @return A new state space.
+	 */
+	static StateSpaceImpl read(ByteBuffer in) {
+		StateSpaceImpl result = new StateSpaceImpl(
+				StateSpaceDatabase.readString(in));
+		result.anonCount = in.getInt();
+		for (int i = in.getInt(); i > 0; i--) {
+			String node = StateSpaceDatabase.readString(in);
+			result.parents.put(node,
+					in.get() != 0 ? StateSpaceDatabase.readString(in) : null);
+		}
+		for (int i = in.getInt(); i > 0; i--) {
+			String state = StateSpaceDatabase.readString(in);
+			result.statesMarked.put(state, in.get() != 0);
+		}
+		for (int i = in.getInt(); i > 0; i--) {
+			String node = StateSpaceDatabase.readString(in);
+			LinkedHashSet<String> children = new LinkedHashSet<String>();
+			for (int j = in.getInt(); j > 0; j--)
+				children.add(StateSpaceDatabase.readString(in));
+			// dimensions' state sets cannot be extended, see addNamedDimension
+			if (result.isDimension(node))
+				result.subnodes.put(node, Collections.unmodifiableSet(children));
+			else
+				result.subnodes.put(node, children);
+		}
+		Map<String, String> fieldMap = new HashMap<String, String>();
+		for (int i = in.getInt(); i > 0; i--) {
+			String field = StateSpaceDatabase.readString(in);
+			fieldMap.put(field, StateSpaceDatabase.readString(in));
+		}
+		result.setFieldMap(fieldMap);
+		return result;
+	}
+
 	@Override
 	public String toString() {
 		return "Space:" + identifier;
@@ -37,6 +37,8 @@
  */
 package edu.cmu.cs.plural.states;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.lang.reflect.Array;
 import java.util.Collections;
@@ -48,6 +50,10 @@ import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
 
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IPackageFragmentRoot;
 import org.eclipse.jdt.core.dom.IMethodBinding;
 import org.eclipse.jdt.core.dom.ITypeBinding;
 import org.eclipse.jdt.core.dom.IVariableBinding;
@@ -106,6 +112,59 @@ public class StateSpaceRepository {
 			return instance;
 		}
 	}
+	
+	/**
+	 * Returns the repository for the given annotation database, which
+	 * starts out with the state spaces and signatures that 
+	 * <code>previous</code> has built, except for the ones that involve 
+	 * the given types.  Clients that replace their annotation database 
+	 * after some types changed can use this to avoid rebuilding the 
+	 * state spaces and signatures of all other types.
+	 * @param annoDB The new annotation database.
+	 * @param previous Repository to take state spaces and signatures from;
+	 * it must not be in use by other threads while they are copied.
+	 * @param changedTypes Binding keys of type declarations whose state
+	 * spaces must be rebuilt, along with the signatures of methods whose
+	 * keys mention these types.
+	 * @return the repository for the given annotation database.
+	 */
+	public static StateSpaceRepository getInstance(AnnotationDatabase annoDB, 
+			StateSpaceRepository previous, Set<String> changedTypes) {
+		StateSpaceRepository instance = getInstance(annoDB);
+		if(instance == previous)
+			return instance;
+		// a type key like Lp/C; is mentioned as Lp/C; or Lp/C<...>; in other keys
+		Set<String> stems = new HashSet<String>(changedTypes.size());
+		for(String key : changedTypes)
+			stems.add(key.endsWith(";") ? key.substring(0, key.length() - 1) : key);
+		for(Map.Entry<String, StateSpaceImpl> space : previous.getSpaces().entrySet()) {
+			if(changedTypes.contains(space.getKey()) == false)
+				instance.getSpaces().put(space.getKey(), space.getValue());
+		}
+		for(Map.Entry<String, IInvocationSignature> sig : previous.getSignatures().entrySet()) {
+			if(mentionsType(sig.getKey(), stems) == false)
+				instance.getSignatures().put(sig.getKey(), sig.getValue());
+		}
+		return instance;
+	}
+	
+	/**
+	 * Tests whether the given binding key mentions one of the given types.
+	 * @param key
+	 * @param stems Type keys without their trailing semicolon.
+	 * @return <code>true</code> if the key mentions one of the types,
+	 * <code>false</code> otherwise.
+	 */
+	private static boolean mentionsType(String key, Set<String> stems) {
+		for(String stem : stems) {
+			for(int i = key.indexOf(stem); i >= 0; i = key.indexOf(stem, i + 1)) {
+				int end = i + stem.length();
+				if(end < key.length() && (key.charAt(end) == ';' || key.charAt(end) == '<'))
+					return true;
+			}
+		}
+		return false;
+	}
 
 	/** 
 	 * Maps Eclipse binding keys to their state spaces.
@@ -167,12 +226,122 @@ public class StateSpaceRepository {
 		StateSpaceImpl result = spaces.get(key);
 		if(result != null)
 			return result;
+		if(type.isFromSource() == false) {
+			// library types cannot change during a run, so use precompiled 
+			// state space if there is one
+			result = StateSpaceDatabase.getDefault().getStateSpace(key);
+			if(result != null) {
+				spaces.put(key, result);
+				return result;
+			}
+		}
 		result = buildStateSpace(type, new HashMap<ICrystalAnnotation, Set<String>>());
 		if(result != null) 
 			spaces.put(key, result);
 		return result;
 	}
 	
+	/**
+	 * Writes the state spaces of the given types into a
+	 * {@link StateSpaceDatabase} file, which can then be used instead of
+	 * the annotations on these types.  Types without a "real" state space
+	 * and types that, along with their supertypes, are not read from jar 
+	 * or class files are skipped.
+	 * @param types
+	 * @param file
+	 * @return the number of state spaces written.
+	 * @throws IOException
+	 */
+	public int exportStateSpaces(Iterable<ITypeBinding> types, File file) throws IOException {
+		Map<String, StateSpaceImpl> result = new HashMap<String, StateSpaceImpl>();
+		Map<String, Set<File>> sources = new HashMap<String, Set<File>>();
+		for(ITypeBinding type : types) {
+			Set<File> type_sources = specSources(type.getTypeDeclaration());
+			if(type_sources == null)
+				continue;
+			StateSpaceImpl space = getStateSpaceIfDefined(type);
+			if(space != null) {
+				String key = type.getTypeDeclaration().getKey();
+				result.put(key, space);
+				sources.put(key, type_sources);
+			}
+		}
+		StateSpaceDatabase.write(file, result, sources);
+		return result.size();
+	}
+	
+	/**
+	 * Finds the files that the state space of the given binary type is
+	 * built from, so the {@link StateSpaceDatabase} can tell when they change.
+	 * These are the files holding the type and all of its supertypes, 
+	 * since {@link #visitSupertypes(ITypeBinding, StateSpaceImpl)} merges
+	 * their state dimensions into the type's state space.
+	 * @param type
+	 * @return the jar or class files holding the given type and its 
+	 * supertypes, or <code>null</code> if one of them is not read from 
+	 * a file.
+	 */
+	private static Set<File> specSources(ITypeBinding type) {
+		Set<File> result = new LinkedHashSet<File>();
+		Set<ITypeBinding> seen = new HashSet<ITypeBinding>();
+		return addSpecSources(type, seen, result) ? result : null;
+	}
+	
+	/**
+	 * Depth-first search traversal of the given type and its supertypes
+	 * that adds the files holding them to the given set.
+	 * @param type
+	 * @param seen
+	 * @param result
+	 * @return <code>false</code> if a visited type is not read from a file,
+	 * <code>true</code> otherwise.
+	 */
+	private static boolean addSpecSources(ITypeBinding type, Set<ITypeBinding> seen, Set<File> result) {
+		if(type == null)
+			return true;
+		type = type.getTypeDeclaration();
+		if(seen.add(type) == false)
+			return true;
+		File source = specSource(type);
+		if(source == null)
+			return false;
+		result.add(source);
+		if(addSpecSources(type.getSuperclass() /* may be null */, seen, result) == false)
+			return false;
+		for(ITypeBinding itf : type.getInterfaces() /* may not be null */) {
+			if(addSpecSources(itf, seen, result) == false)
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Finds the file that the annotations on the given binary type are 
+	 * read from.
+	 * @param type
+	 * @return the jar or class file holding the given type, or 
+	 * <code>null</code> if there is none.
+	 */
+	private static File specSource(ITypeBinding type) {
+		if(type.isFromSource() || type.getJavaElement() == null)
+			return null;
+		IJavaElement element = type.getJavaElement();
+		IPackageFragmentRoot root = (IPackageFragmentRoot) 
+			element.getAncestor(IJavaElement.PACKAGE_FRAGMENT_ROOT);
+		if(root == null)
+			return null;
+		// one file for all types in a jar, one class file per type otherwise
+		IJavaElement holder = root.isArchive() ? root : element.getAncestor(IJavaElement.CLASS_FILE);
+		if(holder == null)
+			return null;
+		IResource resource = holder.getResource();
+		IPath location = resource == null ? holder.getPath() : resource.getLocation();
+		if(location == null)
+			return null;
+		File result = location.toFile();
+		return result.isFile() ? result : null;
+	}
+	
 	/**
 	 * This method can be used to check the validity of state space
 	 * annotations on a type declaration.
@@ -0,0 +1,185 @@
+/**
+ * Copyright (C) 2007-2009 Carnegie Mellon University and others.
+ *
+ * This file is part of Plural.
+ *
+ * Plural is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as 
+ * published by the Free Software Foundation.
+ *
+ * Plural is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Plural; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Linking Plural statically or dynamically with other modules is
+ * making a combined work based on Plural. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * In addition, as a special exception, the copyright holders of Plural
+ * give you permission to combine Plural with free software programs or
+ * libraries that are released under the GNU LGPL and with code
+ * included in the standard release of Eclipse under the Eclipse Public
+ * License (or modified versions of such code, with unchanged license).
+ * You may copy and distribute such a system following the terms of the
+ * GNU GPL for Plural and the licenses of the other code concerned.
+ *
+ * Note that people who make modified versions of Plural are not
+ * obligated to grant this special exception for their modified
+ * versions; it is their choice whether to do so. The GNU General
+ * Public License gives permission to release a modified version
+ * without this exception; this exception also makes it possible to
+ * release a modified version which carries forward this exception.
+ */
+package edu.cmu.cs.plural.track;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jdt.core.dom.MethodDeclaration;
+import org.eclipse.jdt.core.dom.Modifier;
+
+import edu.cmu.cs.crystal.util.Option;
+import edu.cmu.cs.plural.polymorphic.instantiation.RcvrInstantiationPackage;
+import edu.cmu.cs.plural.states.IInvocationCase;
+import edu.cmu.cs.plural.states.IInvocationCaseInstance;
+import edu.cmu.cs.plural.states.IInvocationSignature;
+import edu.cmu.cs.plural.states.MethodCheckingKind;
+
+/**
+ * One check of a method by {@link FractionalAnalysis}: a case of the
+ * method's specification, and what is assumed about the receiver's
+ * virtual frame while checking it. The permissions of the case are
+ * created once, so that several checkers can share them.
+ */
+public final class CheckedCase {
+	
+	private final IInvocationCase specCase;
+	private final Boolean assumeVirtualFrame;
+	private final IInvocationCaseInstance instance;
+	private final String errorContext;
+	
+	private CheckedCase(MethodDeclaration d, IInvocationSignature sig,
+			IInvocationCase specCase, Boolean assumeVirtualFrame) {
+		this.specCase = specCase;
+		this.assumeVirtualFrame = assumeVirtualFrame;
+		MethodCheckingKind checkingKind = 
+			MethodCheckingKind.methodCheckingKindImpl(d.isConstructor(), assumesVirtualFrame());
+		this.instance = specCase.createPermissions(checkingKind, true, 
+				assumesVirtualFrame(), Option.<RcvrInstantiationPackage>none());
+		this.errorContext = errorContext(sig, specCase, assumeVirtualFrame);
+	}
+	
+	/**
+	 * Returns the checks needed for the given method, which must have
+	 * code in it.  A case is only checked twice, once assuming and once
+	 * not assuming that the receiver's current frame is its virtual frame,
+	 * if its specification treats the virtual frame specially and the
+	 * class is neither final nor abstract.  Each check is a separate flow
+	 * analysis; the checks of a method only share its liveness and local
+	 * aliasing results.
+	 */
+	public static List<CheckedCase> casesOf(MethodDeclaration d, IInvocationSignature sig) {
+		List<CheckedCase> result = new ArrayList<CheckedCase>();
+		int classFlags = sig.getSpecifiedMethodBinding().getDeclaringClass().getModifiers();
+		final boolean isFinalClass = Modifier.isFinal(classFlags);
+		final boolean isAbstractClass = Modifier.isAbstract(classFlags);
+		final boolean isStaticMethod = Modifier.isStatic(d.getModifiers());
+		for(IInvocationCase c : sig.cases()) {
+//			boolean requiresVirtualFrameCheck = c.isVirtualFrameSpecial();
+			if(isStaticMethod || (!isFinalClass && !isAbstractClass && !c.isVirtualFrameSpecial()))
+				// no separate checks for virtual frame needed
+				// static methods are analyzed once b/c they don't have a receiver
+				// !isFinalClass condition prevents spurious warning for current != virtual case
+				// !isAbstractClass condition doesn't seem necessary (since that's the default case)
+				// but will insert "assuming receiver is a subclass" into error msgs.
+				result.add(new CheckedCase(d, sig, c, null));
+			else {
+				if(!isFinalClass) 
+					// can have subclasses: test assuming current != virtual frame
+					result.add(new CheckedCase(d, sig, c, false));
+				if(!isAbstractClass) 
+					// can have instances: test assuming current == virtual frame
+					result.add(new CheckedCase(d, sig, c, true));
+			}
+		}
+		return result;
+	}
+	
+	private static String errorContext(IInvocationSignature sig,
+			IInvocationCase c, Boolean assumeVirtualFrame) {
+		if(sig.cases().size() > 1) {
+			// make sure checker prints the case in which errors occurred 
+			// (if more than one case)
+			if(assumeVirtualFrame != null) {
+				if(assumeVirtualFrame)
+					return c.toString() + " assuming receiver has analyzed type";
+				else
+					return c.toString() + " assuming receiver is a subclass";
+			}
+			else
+				return c.toString();
+		}
+		else if(assumeVirtualFrame != null) {
+			// distinguish frame assumptions
+			if(assumeVirtualFrame)
+				return "assuming receiver has analyzed type";
+			else
+				return "assuming receiver is a subclass";
+		}
+		else
+			return null;
+	}
+
+	/**
+	 * @return The case of the specification that is checked.
+	 */
+	public IInvocationCase getCase() {
+		return specCase;
+	}
+	
+	/**
+	 * @return <code>null</code> if virtual frame doesn't need
+	 * to be distinguished, <code>false</code> if analyzed != runtime type of the
+	 * receiver, <code>true</code> if analyzed == runtime type of the receiver.
+	 */
+	public Boolean getVirtualFrameAssumption() {
+		return assumeVirtualFrame;
+	}
+	
+	/**
+	 * @return <code>true</code> if the receiver is assumed to have the
+	 * analyzed type.
+	 */
+	public boolean assumesVirtualFrame() {
+		return assumeVirtualFrame != null && assumeVirtualFrame;
+	}
+	
+	/**
+	 * @return The permissions of the case, for checking the method.
+	 */
+	public IInvocationCaseInstance getInstance() {
+		return instance;
+	}
+	
+	/**
+	 * @return What to add to error messages, so that users can tell 
+	 * which check found them, or <code>null</code> if the method only 
+	 * needs one check.
+	 */
+	public String getErrorContext() {
+		return errorContext;
+	}
+	
+	@Override
+	public String toString() {
+		if(assumeVirtualFrame != null)
+			return specCase + (assumeVirtualFrame ? " (virtual frame)" : " (non-virtual frame)");
+		else
+			return specCase.toString();
+	}
+}
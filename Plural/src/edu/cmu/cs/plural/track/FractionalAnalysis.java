@@ -65,6 +65,8 @@ import org.eclipse.jdt.core.dom.SuperMethodInvocation;
 import org.eclipse.jdt.core.dom.TypeDeclarationStatement;
 
 import edu.cmu.cs.crystal.AbstractCrystalMethodAnalysis;
+import edu.cmu.cs.crystal.IAnalysisInput;
+import edu.cmu.cs.crystal.IAnalysisReporter;
 import edu.cmu.cs.crystal.annotations.AnnotationDatabase;
 import edu.cmu.cs.crystal.tac.ITACAnalysisContext;
 import edu.cmu.cs.crystal.tac.ITACFlowAnalysis;
@@ -77,16 +79,20 @@ import edu.cmu.cs.crystal.tac.model.ThisVariable;
 import edu.cmu.cs.crystal.tac.model.Variable;
 import edu.cmu.cs.crystal.util.Option;
 import edu.cmu.cs.crystal.util.Utilities;
+import edu.cmu.cs.plural.alias.LivenessProxy;
 import edu.cmu.cs.plural.contexts.PluralContext;
+import edu.cmu.cs.plural.errors.history.RetainedFlowResults;
+import edu.cmu.cs.plural.errors.history.RetainedFlowResults.MethodResults;
 import edu.cmu.cs.plural.polymorphic.instantiation.InstantiatedTypeAnalysis;
 import edu.cmu.cs.plural.polymorphic.instantiation.RcvrInstantiationPackage;
 import edu.cmu.cs.plural.states.IConstructorSignature;
-import edu.cmu.cs.plural.states.IInvocationCase;
 import edu.cmu.cs.plural.states.IInvocationCaseInstance;
 import edu.cmu.cs.plural.states.IInvocationSignature;
 import edu.cmu.cs.plural.states.IMethodSignature;
 import edu.cmu.cs.plural.states.MethodCheckingKind;
 import edu.cmu.cs.plural.states.StateSpaceRepository;
+import edu.cmu.cs.plural.util.AnalysisBudget;
+import edu.cmu.cs.plural.util.Numbering;
 
 /**
  * @author Nels Beckman
@@ -109,6 +115,12 @@ public class FractionalAnalysis extends AbstractCrystalMethodAnalysis
 	private IInvocationCaseInstance analyzedCase;
 	
 	private boolean assumeVirtualFrame;
+	
+	/** Liveness of the method being analyzed, shared by all its cases. */
+	private LivenessProxy liveness;
+	
+	/** Method started last, to report it if it exceeds its budget. */
+	private MethodDeclaration analyzedMethod;
 
 	public FractionalAnalysis() {
 		super();
@@ -150,48 +162,141 @@ public class FractionalAnalysis extends AbstractCrystalMethodAnalysis
 		else {
 			// only analyze methods with code in them; skip abstract methods
 			IInvocationSignature sig = getRepository().getSignature(d.resolveBinding());
-			int classFlags = sig.getSpecifiedMethodBinding().getDeclaringClass().getModifiers();
-			for(IInvocationCase c : sig.cases()) {
-//				boolean requiresVirtualFrameCheck = c.isVirtualFrameSpecial();
-				final boolean isFinalClass = Modifier.isFinal(classFlags);
-				final boolean isAbstractClass = Modifier.isAbstract(classFlags);
-				final boolean isStaticMethod = Modifier.isStatic(d.getModifiers());
-				if(isStaticMethod || (!isFinalClass && !isAbstractClass && !c.isVirtualFrameSpecial()))
-					// no separate checks for virtual frame needed
-					// static methods are analyzed once b/c they don't have a receiver
-					// !isFinalClass condition prevents spurious warning for current != virtual case
-					// !isAbstractClass condition doesn't seem necessary (since that's the default case)
-					// but will insert "assuming receiver is a subclass" into error msgs.
-					analyzeCase(d, sig, c, null);
-				else {
-					if(!isFinalClass) 
-						// can have subclasses: test assuming current != virtual frame
-						analyzeCase(d, sig, c, false);
-					if(!isAbstractClass) 
-						// can have instances: test assuming current == virtual frame
-						analyzeCase(d, sig, c, true);
+			// keep the results around for the history view
+			enterMethod();
+			MethodResults retained = null;
+			try {
+				retained = joinMethod(d);
+				for(CheckedCase c : CheckedCase.casesOf(d, sig)) {
+					analyzeCase(d, c, retained);
 				}
 			}
+			finally {
+				// also when the analysis failed, so the numbering and budget 
+				// of this method do not leak into the next one
+				if(retained != null)
+					leaveMethod(retained);
+				exitMethod(d, reporter, getName());
+			}
 		}
 	}
 	
 	/**
-	 * @param d
-	 * @param sig
-	 * @param c
-	 * @param assumeVirtualFrame <code>null</code> if virtual frame doesn't need
-	 * to be distinguished, <code>false</code> if analyzed != runtime type of the
-	 * receiver, <code>true</code> if analyzed == runtime type of the receiver.
+	 * Lets another analysis, e.g. {@link edu.cmu.cs.plural.concurrent.CombinedChecker},
+	 * run this one on its behalf, using the given input and reporting
+	 * errors to the given reporter. The cases of each method can then be
+	 * analyzed with {@link #analyzeCase}.
 	 */
-	private void analyzeCase(MethodDeclaration d, IInvocationSignature sig,
-			IInvocationCase c, Boolean assumeVirtualFrame) {
-		this.assumeVirtualFrame = assumeVirtualFrame != null && assumeVirtualFrame;
-		MethodCheckingKind checkingKind = 
-			MethodCheckingKind.methodCheckingKindImpl(d.isConstructor(), this.assumeVirtualFrame);
-		
-		analyzedCase = c.createPermissions(checkingKind, true, 
-				this.assumeVirtualFrame, Option.<RcvrInstantiationPackage>none());
+	public void prepare(IAnalysisInput input, IAnalysisReporter reporter) {
+		this.analysisInput = input;
+		this.reporter = reporter;
+	}
+	
+	/**
+	 * @return <code>true</code> if the given method has no code that
+	 * could be checked.
+	 */
+	public static boolean isAbstract(MethodDeclaration node) {
+		return node.getBody() == null;
+	}
+	
+	/**
+	 * Starts analyzing a method, returning where the results of its
+	 * cases are kept for the history view.  Choice IDs and fraction
+	 * names are numbered afresh for each method.
+	 * Liveness is computed once per method: it does not depend on the 
+	 * case or the virtual frame assumption, so every case of the method
+	 * reuses it, as do other analyses of the method while it is cached.
+	 * The method is analyzed within a fresh {@link AnalysisBudget}.
+	 * @see #enterMethod()
+	 */
+	public MethodResults startMethod(MethodDeclaration d) {
+		enterMethod();
+		return joinMethod(d);
+	}
+	
+	/**
+	 * Starts analyzing a method like {@link #startMethod(MethodDeclaration)},
+	 * but within the numbering and budget that another analysis started
+	 * for the same method with {@link #enterMethod()}.
+	 */
+	public MethodResults joinMethod(MethodDeclaration d) {
+		analyzedMethod = d;
+		liveness = LivenessProxy.forMethod(analysisInput, d);
+		return RetainedFlowResults.startMethod(d, 
+				this.analysisInput.getComUnitTACs().unwrap());
+	}
+	
+	/**
+	 * Keeps the results of the method analyzed last for the history view,
+	 * and tells the user if the method was only analyzed approximately
+	 * because it exceeded its budget.  Fraction names and choice IDs are
+	 * numbered by the shared numbering again afterwards, and the budget 
+	 * is cleared.
+	 * @see #exitMethod(MethodDeclaration, IAnalysisReporter, String)
+	 */
+	public void finishMethod(MethodResults retained) {
+		MethodDeclaration d = analyzedMethod;
+		leaveMethod(retained);
+		if(d != null)
+			exitMethod(d, reporter, getName());
+	}
+	
+	/**
+	 * Keeps the results of the method analyzed last for the history view,
+	 * leaving the numbering and budget to the analysis that started them.
+	 * @see #joinMethod(MethodDeclaration)
+	 */
+	public void leaveMethod(MethodResults retained) {
+		if(tf != null)
+			RetainedFlowResults.retain(tf.getClass(), retained);
+		analyzedMethod = null;
+		// liveness is not needed once all cases are analyzed
+		if(liveness != null)
+			liveness.release();
+		liveness = null;
+	}
+	
+	/**
+	 * Numbers choice IDs and fraction names afresh, and starts a fresh 
+	 * budget, for a method that the current thread is about to analyze.  
+	 * Analyses that check the same method together should do this only once.
+	 */
+	public static void enterMethod() {
+		Numbering.startMethod();
+		AnalysisBudget.startMethod();
+	}
+	
+	/**
+	 * Tells the user if the given method was only analyzed approximately
+	 * because it exceeded its budget, and ends the numbering and budget
+	 * started with {@link #enterMethod()}.
+	 */
+	public static void exitMethod(MethodDeclaration d, IAnalysisReporter reporter, String analysisName) {
+		String limit = AnalysisBudget.current().getExceededLimit();
+		if(limit != null) {
+			if(logger.isLoggable(Level.INFO))
+				logger.info("Budget exceeded by " + d.getName() + ": " + limit);
+			reporter.reportUserProblem("Analysis incomplete: method exceeded its budget with " + limit + 
+					", so it was checked approximately and the problems reported for it may be " +
+					"incomplete or spurious", 
+					d.getName(), analysisName);
+		}
+		Numbering.finishMethod();
+		AnalysisBudget.finishMethod();
+	}
+	
+	/**
+	 * Runs this analysis on the given case of the given method, and 
+	 * reports the errors it finds.
+	 * @param retained The results of the method so far, to which the
+	 * analysis of this case is added.
+	 */
+	public void analyzeCase(MethodDeclaration d, CheckedCase c, MethodResults retained) {
+		startCase(c);
 		tf = createNewFractionalTransfer();
+		if(liveness != null)
+			tf.shareLiveness(liveness);
 		
 		// need local to be able to set monitor
 		TACFlowAnalysis<PluralContext> temp; 
@@ -199,32 +304,36 @@ public class FractionalAnalysis extends AbstractCrystalMethodAnalysis
 				this.analysisInput.getComUnitTACs().unwrap());
 		temp.setMonitor(analysisInput.getProgressMonitor());
 		
+		checkCase(d, c);
+		retained.addCase(c.getCase().toString(), c.getVirtualFrameAssumption(), temp);
+	}
+	
+	/**
+	 * Reports the errors in the given case of the given method, using
+	 * the flow analysis that the given analysis just ran on the same 
+	 * case. That analysis must compute the same results that this one
+	 * would have computed. Its results are not kept for the history view
+	 * again.
+	 */
+	public void analyzeCase(MethodDeclaration d, CheckedCase c, FractionalAnalysis sameResultsAs) {
+		startCase(c);
+		tf = sameResultsAs.tf;
+		fa = sameResultsAs.fa;
+		checkCase(d, c);
+	}
+	
+	private void startCase(CheckedCase c) {
+		this.assumeVirtualFrame = c.assumesVirtualFrame();
+		this.analyzedCase = c.getInstance();
+	}
+	
+	private void checkCase(MethodDeclaration d, CheckedCase c) {
 		FractionalChecker checker = createASTWalker(d);
-		if(sig.cases().size() > 1) {
+		if(c.getErrorContext() != null)
 			// make sure checker prints the case in which errors occurred 
-			// (if more than one case)
-			if(assumeVirtualFrame != null) {
-				if(assumeVirtualFrame)
-					checker.setErrorContext(c.toString() + " assuming receiver has analyzed type");
-				else
-					checker.setErrorContext(c.toString() + " assuming receiver is a subclass");
-			}
-			else
-				checker.setErrorContext(c.toString());
-		}
-		else if(assumeVirtualFrame != null) {
-			// distinguish frame assumptions
-			if(assumeVirtualFrame)
-				checker.setErrorContext("assuming receiver has analyzed type");
-			else
-				checker.setErrorContext("assuming receiver is a subclass");
-		}
-		if(logger.isLoggable(Level.FINE)) {
-			if(assumeVirtualFrame != null)
-				logger.fine("Results for " + d.getName() + (assumeVirtualFrame ? " (virtual frame) case " : " (non-virtual frame) case ") + c);
-			else
-				logger.fine("Results for " + d.getName() + " case " + c);
-		}
+			checker.setErrorContext(c.getErrorContext());
+		if(logger.isLoggable(Level.FINE))
+			logger.fine("Results for " + d.getName() + " case " + c);
 		d.accept(checker);
 	}	
 	
@@ -262,6 +371,8 @@ public class FractionalAnalysis extends AbstractCrystalMethodAnalysis
 		
 		protected String errorCtx = "";
 		private final MethodDeclaration methodUnderAnalysis;
+		/** Instantiated types for the method, shared by all its call sites. */
+		private InstantiatedTypeAnalysis typeAnalysis;
 		
 		public FractionalChecker(MethodDeclaration d) {
 			this.methodUnderAnalysis = d;
@@ -592,9 +703,11 @@ public class FractionalAnalysis extends AbstractCrystalMethodAnalysis
 			MethodCheckingKind checkingKind = methodCheckingKindInvoc(sig.isConstructorSignature(),
 					receiverIsStaticallyBound);
 			
-			InstantiatedTypeAnalysis ta = new InstantiatedTypeAnalysis(contextFromTAC(),getAnnoDB());
+			if(typeAnalysis == null)
+				// types are computed for the whole method, so only do it once
+				typeAnalysis = new InstantiatedTypeAnalysis(contextFromTAC(),getAnnoDB());
 			Option<RcvrInstantiationPackage> ip = receiver == null ? Option.<RcvrInstantiationPackage>none() : 
-				Option.some(new RcvrInstantiationPackage(ta, receiver));
+				Option.some(new RcvrInstantiationPackage(typeAnalysis, receiver));
 			for(IInvocationCaseInstance c : 
 				sig.createPermissionsForCases(checkingKind, false, receiverIsStaticallyBound, ip)) {
 				String err;
@@ -639,10 +752,6 @@ public class FractionalAnalysis extends AbstractCrystalMethodAnalysis
 
 	} // END FractionalChecker
 	
-	private boolean isAbstract(MethodDeclaration node) {
-		return node.getBody() == null;
-	}
-
 	private static boolean isBottom(
 			PluralContext before,
 			PluralContext after,
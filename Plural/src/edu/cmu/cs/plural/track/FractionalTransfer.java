@@ -121,9 +121,14 @@ public class FractionalTransfer extends
 	private PermissionFactory pf = PermissionFactory.INSTANCE;
 	
 	private FractionAnalysisContext context;
+	
+	private final IAnalysisInput input;
 
-	/** Liveness information (another flow analysis...) */
-	private final LivenessProxy liveness;
+	/** 
+	 * Liveness information (another flow analysis...), 
+	 * looked up when the lattice is created unless shared. 
+	 */
+	private LivenessProxy liveness;
 	
 	/*
 	 * Post-condition stuff.
@@ -135,7 +140,20 @@ public class FractionalTransfer extends
 	
 	public FractionalTransfer(IAnalysisInput input, FractionAnalysisContext context) {
 		this.context = context;
-		this.liveness = LivenessProxy.create(input);
+		this.input = input;
+	}
+	
+	/**
+	 * Makes this transfer function use the given liveness information
+	 * instead of computing its own.  Liveness does not depend on the 
+	 * case being analyzed or the virtual frame assumption, so all cases
+	 * of a method can share it.  Must be called before the lattice is created.
+	 * @param liveness
+	 */
+	public void shareLiveness(LivenessProxy liveness) {
+		if(initialLocations != null)
+			throw new IllegalStateException("Must share liveness before getLattice() is called");
+		this.liveness = liveness;
 	}
 	
 	//
@@ -169,7 +187,10 @@ public class FractionalTransfer extends
 		if(initialLocations != null || dynamicStateTest != null)
 			throw new IllegalStateException("getLattice() called twice--must create a new instance of this class for every method being analyzed");
 		
-		liveness.switchToMethod(d);
+		if(liveness == null)
+			liveness = LivenessProxy.forMethod(input, d);
+		else
+			liveness.switchToMethod(d);
 		
 		Pair<LinearContext, SimpleMap<String, Aliasing>> li = createLatticeInfo(d);
 		LinearContext start = li.fst();
@@ -284,10 +305,11 @@ public class FractionalTransfer extends
 	 */
 	private VariableLiveness createVariableLivenessAfter(
 			final TACInstruction instr, final ILabel label) {
+		final LivenessProxy.LiveVariables live = liveness.liveAfter(instr, label);
 		return new VariableLiveness() {
 			@Override
 			public boolean isLive(Variable x) {
-				return liveness.isLiveAfter(instr, x, label);
+				return live.contains(x);
 			}
 		};
 	}
@@ -145,6 +145,16 @@ Freezable<PluralTupleLatticeElement>, PluralLatticeElement {
 		this(b, context, null, null);
 	}
 	
+	/** 
+	 * Call for no unpacked var at the beginning of the given method,
+	 * sharing aliasing information with other lattices for the method.
+	 */
+	public PluralTupleLatticeElement(FractionalPermissions b, 
+			FractionAnalysisContext context, MethodDeclaration decl) {
+		this(AliasAwareTupleLE.create(converter(context), decl, b), context,
+				null, null, new DynamicStateLogic());
+	}
+	
 	private static IAnalysisInput converter(final FractionAnalysisContext ctx) {
 		return new IAnalysisInput() {
 			@Override public AnnotationDatabase getAnnoDB() { return ctx.getAnnoDB(); }
@@ -157,7 +167,10 @@ Freezable<PluralTupleLatticeElement>, PluralLatticeElement {
 	protected PluralTupleLatticeElement(FractionalPermissions b, 
 			FractionAnalysisContext context,
 			Variable unpackedVar, ASTNode nodeWhereUnpacked) {
-		this.tupleLatticeElement = AliasAwareTupleLE.create(converter(context), b);
+		this.tupleLatticeElement = nodeWhereUnpacked instanceof MethodDeclaration ?
+				// unpacked at the beginning of the method: share aliasing
+				AliasAwareTupleLE.create(converter(context), (MethodDeclaration) nodeWhereUnpacked, b) :
+				AliasAwareTupleLE.create(converter(context), b);
 		this.dynamicStateLogic = new DynamicStateLogic();
 		this.context = context;
 		this.isFrozen = false;
@@ -0,0 +1,200 @@
+/**
+ * Copyright (C) 2007-2009 Carnegie Mellon University and others.
+ *
+ * This file is part of Plural.
+ *
+ * Plural is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as 
+ * published by the Free Software Foundation.
+ *
+ * Plural is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Plural; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Linking Plural statically or dynamically with other modules is
+ * making a combined work based on Plural. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * In addition, as a special exception, the copyright holders of Plural
+ * give you permission to combine Plural with free software programs or
+ * libraries that are released under the GNU LGPL and with code
+ * included in the standard release of Eclipse under the Eclipse Public
+ * License (or modified versions of such code, with unchanged license).
+ * You may copy and distribute such a system following the terms of the
+ * GNU GPL for Plural and the licenses of the other code concerned.
+ *
+ * Note that people who make modified versions of Plural are not
+ * obligated to grant this special exception for their modified
+ * versions; it is their choice whether to do so. The GNU General
+ * Public License gives permission to release a modified version
+ * without this exception; this exception also makes it possible to
+ * release a modified version which carries forward this exception.
+ */
+package edu.cmu.cs.plural.util;
+
+/**
+ * Limits the resources spent on analyzing a single method, so that one
+ * pathological method cannot stall a whole run.  A budget is started for
+ * each method with {@link #startMethod()} and watched by the expensive parts
+ * of the analysis: choices between contexts report their size and every
+ * consistency test of fraction constraints counts as a solver call.  
+ * Wall time and heap growth are checked at the same points.<br>
+ * <br>
+ * Once a limit is exceeded, the rest of the method is analyzed in a
+ * cheaper, approximate mode: choices keep only their first non-trivial alternative
+ * and fraction constraints that the simple consistency test cannot decide
+ * are treated as inconsistent, as if the complete test had timed out.  
+ * With either approximation, the problems reported for the rest of the 
+ * method can be incomplete as well as spurious.  The analysis should tell 
+ * the user that the method was not completely analyzed, using 
+ * {@link #getExceededLimit()}.<br>
+ * <br>
+ * Limits are set with system properties; a limit of zero or less means
+ * no limit.  Budgets are per thread, like {@link Numbering}.
+ */
+public final class AnalysisBudget {
+	
+	/** Milliseconds of wall time per method, 5 minutes by default. */
+	public static final String TIME_PROPERTY = "edu.cmu.cs.plural.budget.time";
+	
+	/** Alternatives in a single choice, unlimited by default. */
+	public static final String DISJUNCTS_PROPERTY = "edu.cmu.cs.plural.budget.disjuncts";
+	
+	/** Complete consistency tests of fraction constraints per method, unlimited by default. */
+	public static final String SOLVER_CALLS_PROPERTY = "edu.cmu.cs.plural.budget.solverCalls";
+	
+	/** Megabytes of heap growth per method, unlimited by default. */
+	public static final String HEAP_PROPERTY = "edu.cmu.cs.plural.budget.heap";
+	
+	private static final long timeLimit = Long.getLong(TIME_PROPERTY, 300000L);
+	private static final long disjunctLimit = Long.getLong(DISJUNCTS_PROPERTY, 0L);
+	private static final long solverCallLimit = Long.getLong(SOLVER_CALLS_PROPERTY, 0L);
+	private static final long heapLimit = Long.getLong(HEAP_PROPERTY, 0L) * 1024 * 1024;
+	
+	/** Budget used outside of any method, which is never exceeded. */
+	private static final AnalysisBudget UNLIMITED = new AnalysisBudget(false);
+	
+	private static final ThreadLocal<AnalysisBudget> current = new ThreadLocal<AnalysisBudget>() {
+		@Override
+		protected AnalysisBudget initialValue() {
+			return UNLIMITED;
+		}
+	};
+	
+	/**
+	 * Returns the budget of the method currently analyzed by this thread.
+	 */
+	public static AnalysisBudget current() {
+		return current.get();
+	}
+	
+	/**
+	 * Starts a fresh budget for the method that the current thread
+	 * is about to analyze.
+	 */
+	public static void startMethod() {
+		current.set(new AnalysisBudget(true));
+	}
+	
+	/**
+	 * Goes back to the unlimited budget once the current thread is done
+	 * with the method it analyzed, so a spent budget is not used for
+	 * whatever the thread does next.
+	 */
+	public static void finishMethod() {
+		current.remove();
+	}
+	
+	private final boolean limited;
+	private final long deadline;
+	private final long heapAtStart;
+	private long solverCalls = 0;
+	private String exceededLimit = null;
+	
+	private AnalysisBudget(boolean limited) {
+		this.limited = limited;
+		this.deadline = limited && timeLimit > 0 ? 
+				System.currentTimeMillis() + timeLimit : Long.MAX_VALUE;
+		this.heapAtStart = limited && heapLimit > 0 ? usedHeap() : 0;
+	}
+	
+	/**
+	 * Records a choice between the given number of alternatives.
+	 * @return <code>true</code> if the analysis can afford the choice,
+	 * <code>false</code> if it should be approximated.
+	 */
+	public boolean affordChoice(int size) {
+		if(limited && exceededLimit == null) {
+			if(disjunctLimit > 0 && size > disjunctLimit)
+				exceeded("a choice between " + size + " contexts");
+			else
+				checkTimeAndHeap();
+		}
+		return exceededLimit == null || size <= 1;
+	}
+	
+	/**
+	 * Records a complete consistency test of fraction constraints.
+	 * @return <code>true</code> if the analysis can afford the test,
+	 * <code>false</code> if the incomplete test should be used instead.
+	 */
+	public boolean affordSolverCall() {
+		if(limited && exceededLimit == null) {
+			if(solverCallLimit > 0 && ++solverCalls > solverCallLimit)
+				exceeded("more than " + solverCallLimit + " fraction constraint tests");
+			else
+				checkTimeAndHeap();
+		}
+		return exceededLimit == null;
+	}
+	
+	/**
+	 * Returns how many milliseconds are left for this method, 
+	 * or {@link Long#MAX_VALUE} if there is no time limit.
+	 */
+	public long remainingTime() {
+		if(deadline == Long.MAX_VALUE)
+			return Long.MAX_VALUE;
+		return Math.max(0, deadline - System.currentTimeMillis());
+	}
+	
+	/**
+	 * Returns a description of the limit that was exceeded, or 
+	 * <code>null</code> if the method was analyzed within its budget.
+	 */
+	public String getExceededLimit() {
+		return exceededLimit;
+	}
+	
+	/**
+	 * Checks the time and heap limits again, e.g., after a
+	 * consistency test timed out.
+	 * @return <code>true</code> if no limit has been exceeded so far.
+	 */
+	public boolean isWithinBudget() {
+		if(limited && exceededLimit == null)
+			checkTimeAndHeap();
+		return exceededLimit == null;
+	}
+	
+	private void checkTimeAndHeap() {
+		if(timeLimit > 0 && System.currentTimeMillis() > deadline)
+			exceeded("more than " + timeLimit + " ms");
+		else if(heapLimit > 0 && usedHeap() - heapAtStart > heapLimit)
+			exceeded("more than " + (heapLimit / 1024 / 1024) + " MB of heap");
+	}
+	
+	private void exceeded(String limit) {
+		exceededLimit = limit;
+	}
+	
+	private static long usedHeap() {
+		Runtime rt = Runtime.getRuntime();
+		return rt.totalMemory() - rt.freeMemory();
+	}
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2007-2009 Carnegie Mellon University and others.
+ *
+ * This file is part of Plural.
+ *
+ * Plural is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as 
+ * published by the Free Software Foundation.
+ *
+ * Plural is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Plural; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Linking Plural statically or dynamically with other modules is
+ * making a combined work based on Plural. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * In addition, as a special exception, the copyright holders of Plural
+ * give you permission to combine Plural with free software programs or
+ * libraries that are released under the GNU LGPL and with code
+ * included in the standard release of Eclipse under the Eclipse Public
+ * License (or modified versions of such code, with unchanged license).
+ * You may copy and distribute such a system following the terms of the
+ * GNU GPL for Plural and the licenses of the other code concerned.
+ *
+ * Note that people who make modified versions of Plural are not
+ * obligated to grant this special exception for their modified
+ * versions; it is their choice whether to do so. The GNU General
+ * Public License gives permission to release a modified version
+ * without this exception; this exception also makes it possible to
+ * release a modified version which carries forward this exception.
+ */
+package edu.cmu.cs.plural.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters for the expensive parts of the analysis, used by
+ * {@link edu.cmu.cs.plural.bench.PluralBenchmark}.  Counting is off
+ * unless it is {@link #enable(boolean) enabled}, so the analysis
+ * pays nothing but a flag test for it.
+ */
+public final class AnalysisStatistics {
+	
+	private static volatile boolean enabled = false;
+	
+	private static final AtomicLong solverCalls = new AtomicLong(0L);
+	private static final AtomicLong peakContextSize = new AtomicLong(0L);
+	
+	private AnalysisStatistics() {}
+	
+	public static void enable(boolean enable) {
+		enabled = enable;
+	}
+	
+	public static boolean isEnabled() {
+		return enabled;
+	}
+	
+	/**
+	 * Sets all counters back to zero.
+	 */
+	public static void reset() {
+		solverCalls.set(0L);
+		peakContextSize.set(0L);
+	}
+	
+	/**
+	 * Records a complete consistency test of fraction constraints.
+	 */
+	public static void solverCalled() {
+		if(enabled)
+			solverCalls.incrementAndGet();
+	}
+	
+	/**
+	 * Records the number of alternatives in a newly created context.
+	 */
+	public static void contextCreated(int size) {
+		if(enabled) {
+			long peak = peakContextSize.get();
+			while(size > peak && !peakContextSize.compareAndSet(peak, size))
+				peak = peakContextSize.get();
+		}
+	}
+	
+	public static long getSolverCalls() {
+		return solverCalls.get();
+	}
+	
+	public static long getPeakContextSize() {
+		return peakContextSize.get();
+	}
+}
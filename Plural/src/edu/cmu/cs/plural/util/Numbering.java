@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2007-2009 Carnegie Mellon University and others.
+ *
+ * This file is part of Plural.
+ *
+ * Plural is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as 
+ * published by the Free Software Foundation.
+ *
+ * Plural is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Plural; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Linking Plural statically or dynamically with other modules is
+ * making a combined work based on Plural. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * In addition, as a special exception, the copyright holders of Plural
+ * give you permission to combine Plural with free software programs or
+ * libraries that are released under the GNU LGPL and with code
+ * included in the standard release of Eclipse under the Eclipse Public
+ * License (or modified versions of such code, with unchanged license).
+ * You may copy and distribute such a system following the terms of the
+ * GNU GPL for Plural and the licenses of the other code concerned.
+ *
+ * Note that people who make modified versions of Plural are not
+ * obligated to grant this special exception for their modified
+ * versions; it is their choice whether to do so. The GNU General
+ * Public License gives permission to release a modified version
+ * without this exception; this exception also makes it possible to
+ * release a modified version which carries forward this exception.
+ */
+package edu.cmu.cs.plural.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out the numbers used for choice IDs and for the names of 
+ * generated fractions.  Each method is analyzed with its own numbering,
+ * started with {@link #startMethod()}, so the numbers used for a method 
+ * do not depend on how much was analyzed before it or on other threads.
+ * Fractions can outlive the method they were created for, e.g., in cached
+ * method signatures, and meet fractions of another method in one set of 
+ * constraints.  Fraction names therefore include a tag that is different 
+ * for every numbering, so the constraint solver never confuses them: the
+ * shared numbering used outside of any method is tagged <code>g</code>, 
+ * and per-method numberings are tagged with the order in which they were 
+ * started, which is the same from run to run as long as methods are 
+ * analyzed in the same order.
+ * Objects numbered by different numberings are never equal.
+ */
+public final class Numbering implements Comparable<Numbering> {
+	
+	private static final AtomicLong SERIAL_GENERATOR = new AtomicLong(0L);
+	
+	private static final Numbering GLOBAL = new Numbering(0L, "g");
+	
+	private static final ThreadLocal<Numbering> current = new ThreadLocal<Numbering>() {
+		@Override
+		protected Numbering initialValue() {
+			return GLOBAL;
+		}
+	};
+	
+	/**
+	 * Returns the numbering of the method currently analyzed by this thread.
+	 */
+	public static Numbering current() {
+		return current.get();
+	}
+	
+	/**
+	 * Starts a fresh numbering for the method that the current thread
+	 * is about to analyze.
+	 */
+	public static void startMethod() {
+		long serial = SERIAL_GENERATOR.incrementAndGet();
+		current.set(new Numbering(serial, "m" + serial + "_"));
+	}
+	
+	/**
+	 * Goes back to the shared numbering once the current thread is done 
+	 * with the method it analyzed, so the method's numbering can be 
+	 * garbage-collected.
+	 */
+	public static void finishMethod() {
+		current.remove();
+	}
+	
+	/** Orders numberings by creation, so sorting by number stays total. */
+	private final long serial;
+	private final String tag;
+	private final AtomicLong nextChoiceID = new AtomicLong(0L);
+	private final AtomicLong nextVariable = new AtomicLong(0L);
+	private final AtomicLong nextNamed = new AtomicLong(0L);
+	
+	private Numbering(long serial, String tag) {
+		this.serial = serial;
+		this.tag = tag;
+	}
+	
+	public long nextChoiceID() {
+		return nextChoiceID.incrementAndGet();
+	}
+	
+	public long nextVariableFraction() {
+		return nextVariable.getAndIncrement();
+	}
+	
+	public long nextNamedFraction() {
+		return nextNamed.getAndIncrement();
+	}
+	
+	/**
+	 * Returns the tag to include in fraction names numbered by this numbering.
+	 */
+	public String getTag() {
+		return tag;
+	}
+	
+	/**
+	 * Compares the order in which this and the given numbering were started.
+	 */
+	@Override
+	public int compareTo(Numbering other) {
+		return this.serial < other.serial ? -1 : (this.serial == other.serial ? 0 : 1);
+	}
+
+	@Override
+	public String toString() {
+		return "Numbering " + serial;
+	}
+}
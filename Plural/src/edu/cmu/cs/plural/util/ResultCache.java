@@ -0,0 +1,308 @@
+/**
+ * Copyright (C) 2007-2009 Carnegie Mellon University and others.
+ *
+ * This file is part of Plural.
+ *
+ * Plural is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as 
+ * published by the Free Software Foundation.
+ *
+ * Plural is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Plural; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Linking Plural statically or dynamically with other modules is
+ * making a combined work based on Plural. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * In addition, as a special exception, the copyright holders of Plural
+ * give you permission to combine Plural with free software programs or
+ * libraries that are released under the GNU LGPL and with code
+ * included in the standard release of Eclipse under the Eclipse Public
+ * License (or modified versions of such code, with unchanged license).
+ * You may copy and distribute such a system following the terms of the
+ * GNU GPL for Plural and the licenses of the other code concerned.
+ *
+ * Note that people who make modified versions of Plural are not
+ * obligated to grant this special exception for their modified
+ * versions; it is their choice whether to do so. The GNU General
+ * Public License gives permission to release a modified version
+ * without this exception; this exception also makes it possible to
+ * release a modified version which carries forward this exception.
+ */
+package edu.cmu.cs.plural.util;
+
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A bounded, least-recently-used cache for results that are expensive to
+ * compute but can always be computed again, such as TACs and flow analysis 
+ * results for a method.  Every entry comes with an estimate of its size, 
+ * and the least recently used entries are evicted once the estimates add 
+ * up to more than the capacity of the cache.  Values are only held through
+ * soft references, so the garbage collector can drop them even before that
+ * when memory gets tight.<br>
+ * <br>
+ * Capacities are in the same unit as the size estimates, usually characters
+ * of source code, and can be set with the system property 
+ * <code>edu.cmu.cs.plural.cache.</code><i>name</i>; a capacity of zero
+ * turns a cache off.  Every cache counts hits, misses, evictions, and values
+ * that were dropped by the garbage collector; {@link #report()} summarizes
+ * all of them.<br>
+ * <br>
+ * Caches are thread-safe, but values are computed outside of the cache,
+ * so two threads may compute the same value.  {@link #put(Key, Object, long)}
+ * then returns the value that got there first, which callers should use
+ * instead of their own.
+ */
+public final class ResultCache<V> {
+	
+	public static final String CAPACITY_PROPERTY_PREFIX = "edu.cmu.cs.plural.cache.";
+	
+	private static final List<ResultCache<?>> caches = new CopyOnWriteArrayList<ResultCache<?>>();
+	
+	/**
+	 * Creates a new cache with the given name and default capacity and
+	 * registers it for {@link #report()}.
+	 */
+	public static <V> ResultCache<V> create(String name, long defaultCapacity) {
+		ResultCache<V> result = new ResultCache<V>(name, 
+				Long.getLong(CAPACITY_PROPERTY_PREFIX + name, defaultCapacity));
+		caches.add(result);
+		return result;
+	}
+	
+	/**
+	 * Returns a one-line summary of every cache.
+	 */
+	public static String report() {
+		StringBuilder result = new StringBuilder();
+		for(ResultCache<?> c : caches) {
+			if(result.length() > 0)
+				result.append('\n');
+			result.append(c);
+		}
+		return result.toString();
+	}
+	
+	/**
+	 * Creates a key from the given parts, which are compared by identity
+	 * and only weakly referenced.  Use this for keys made from ASTs, TACs
+	 * and the like, which the cache should not keep alive.
+	 */
+	public static Key identityKey(Object... parts) {
+		return new Key(parts, true);
+	}
+	
+	/**
+	 * Creates a key from the given parts, which are compared with 
+	 * {@link Object#equals(Object)}.  Use this for keys made from strings
+	 * and other values that are created afresh for every lookup.
+	 */
+	public static Key valueKey(Object... parts) {
+		return new Key(parts, false);
+	}
+	
+	private final String name;
+	private final long capacity;
+	// access order, so the eldest entry is the least recently used one
+	private final LinkedHashMap<Key, Entry<V>> entries = 
+		new LinkedHashMap<Key, Entry<V>>(16, 0.75f, true);
+	private long size = 0;
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	private long collected = 0;
+	
+	private ResultCache(String name, long capacity) {
+		this.name = name;
+		this.capacity = capacity;
+	}
+	
+	/**
+	 * Returns the cached value for the given key, or <code>null</code>
+	 * if there is none.
+	 */
+	public synchronized V get(Key key) {
+		Entry<V> e = entries.get(key);
+		V result = e == null ? null : e.value.get();
+		if(result == null) {
+			if(e != null) {
+				entries.remove(key);
+				size -= e.size;
+				collected++;
+			}
+			misses++;
+		}
+		else
+			hits++;
+		return result;
+	}
+	
+	/**
+	 * Caches the given value under the given key, evicting the least
+	 * recently used entries if needed.  Values larger than the capacity
+	 * of the cache are not cached at all.
+	 * @param estimatedSize Estimated size of the value, in the unit of the capacity.
+	 * @return The value that is now cached for the key, which is the 
+	 * given value unless another one was cached for the key in the meantime.
+	 */
+	public synchronized V put(Key key, V value, long estimatedSize) {
+		Entry<V> e = entries.get(key);
+		if(e != null) {
+			V existing = e.value.get();
+			if(existing != null)
+				return existing;
+			entries.remove(key);
+			size -= e.size;
+			collected++;
+		}
+		if(capacity <= 0 || estimatedSize > capacity)
+			return value;
+		entries.put(key, new Entry<V>(value, estimatedSize));
+		size += estimatedSize;
+		
+		Iterator<Entry<V>> it = entries.values().iterator();
+		while(size > capacity && it.hasNext()) {
+			Entry<V> eldest = it.next();
+			it.remove();
+			size -= eldest.size;
+			if(eldest.value.get() == null)
+				collected++;
+			else
+				evictions++;
+		}
+		return value;
+	}
+	
+	/**
+	 * Drops all entries, but keeps counting.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		size = 0;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public long getCapacity() {
+		return capacity;
+	}
+	
+	/** @return Sum of the estimated sizes of the cached entries. */
+	public synchronized long getEstimatedSize() {
+		return size;
+	}
+	
+	public synchronized long getHits() {
+		return hits;
+	}
+	
+	public synchronized long getMisses() {
+		return misses;
+	}
+	
+	/** @return Number of entries evicted to stay within the capacity. */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+	
+	/** @return Number of entries whose values were dropped by the garbage collector. */
+	public synchronized long getCollected() {
+		return collected;
+	}
+	
+	@Override
+	public synchronized String toString() {
+		return name + ": " + hits + " hits, " + misses + " misses, " + 
+			evictions + " evicted, " + collected + " collected, " + 
+			entries.size() + " entries of estimated size " + size + "/" + capacity;
+	}
+
+	private static final class Entry<V> {
+		final SoftReference<V> value;
+		final long size;
+		
+		Entry(V value, long size) {
+			this.value = new SoftReference<V>(value);
+			this.size = size;
+		}
+	}
+	
+	/**
+	 * Cache key made of several parts.
+	 * @see ResultCache#identityKey(Object...)
+	 * @see ResultCache#valueKey(Object...)
+	 */
+	public static final class Key {
+		
+		// weak references to the parts for identity keys
+		private final Object[] parts;
+		private final boolean identity;
+		private final int hash;
+		
+		private Key(Object[] parts, boolean identity) {
+			this.identity = identity;
+			if(identity) {
+				this.parts = new Object[parts.length];
+				int h = 1;
+				for(int i = 0; i < parts.length; i++) {
+					this.parts[i] = new WeakReference<Object>(parts[i]);
+					h = 31 * h + System.identityHashCode(parts[i]);
+				}
+				this.hash = h;
+			}
+			else {
+				this.parts = parts.clone();
+				this.hash = Arrays.hashCode(parts);
+			}
+		}
+		
+		private Object part(int i) {
+			return identity ? ((WeakReference<?>) parts[i]).get() : parts[i];
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(this == obj)
+				return true;
+			if(!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			if(identity != other.identity || hash != other.hash || 
+					parts.length != other.parts.length)
+				return false;
+			for(int i = 0; i < parts.length; i++) {
+				Object mine = part(i);
+				Object theirs = other.part(i);
+				if(identity) {
+					// parts that were collected make the key equal only to itself
+					if(mine == null || mine != theirs)
+						return false;
+				}
+				else if(mine == null ? theirs != null : !mine.equals(theirs))
+					return false;
+			}
+			return true;
+		}
+	}
+}